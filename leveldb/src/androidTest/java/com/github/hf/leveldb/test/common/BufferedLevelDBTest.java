@@ -0,0 +1,361 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.implementation.BufferedLevelDB;
+import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public abstract class BufferedLevelDBTest extends DatabaseTestCase {
+
+    private BufferedLevelDB buffered(long maxBytes, long maxDelayMillis) throws Exception {
+        return new BufferedLevelDB(obtainLevelDB(), maxBytes, maxDelayMillis, TimeUnit.MILLISECONDS, false);
+    }
+
+    @Test
+    public void testOverlay() throws Exception {
+        BufferedLevelDB db = buffered(1 << 20, 0);
+        LevelDB levelDB = db.levelDB();
+
+        levelDB.put(new byte[]{1}, new byte[]{1});
+        levelDB.put(new byte[]{2}, new byte[]{2});
+
+        db.put(new byte[]{1}, new byte[]{10});
+        db.del(new byte[]{2});
+        db.put(new byte[]{3}, new byte[]{30});
+
+        assertArrayEquals(new byte[]{10}, db.get(new byte[]{1}));
+        assertNull(db.get(new byte[]{2}));
+        assertArrayEquals(new byte[]{30}, db.get(new byte[]{3}));
+
+        assertArrayEquals(new byte[]{1}, levelDB.get(new byte[]{1}));
+        assertArrayEquals(new byte[]{2}, levelDB.get(new byte[]{2}));
+        assertNull(levelDB.get(new byte[]{3}));
+
+        db.flush();
+
+        assertEquals(0, db.bufferedBytes());
+        assertArrayEquals(new byte[]{10}, levelDB.get(new byte[]{1}));
+        assertNull(levelDB.get(new byte[]{2}));
+        assertArrayEquals(new byte[]{30}, levelDB.get(new byte[]{3}));
+
+        db.close();
+        assertTrue(levelDB.isClosed());
+    }
+
+    @Test
+    public void testOverwritesCollapse() throws Exception {
+        BufferedLevelDB db = buffered(1 << 20, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            db.put(new byte[]{1, 2}, new byte[]{(byte) i, 0, 0});
+        }
+
+        assertEquals(5, db.bufferedBytes());
+
+        // Counters are buffered like any other value.
+        assertEquals(1000, db.increment(new byte[]{3}, 1000));
+        assertEquals(0, db.increment(new byte[]{3}, -1000));
+        assertNull(db.levelDB().get(new byte[]{3}));
+
+        db.close();
+    }
+
+    @Test
+    public void testThresholds() throws Exception {
+        BufferedLevelDB db = buffered(1024, 0);
+        LevelDB levelDB = db.levelDB();
+
+        for (int i = 0; i < 100; i++) {
+            db.put(new byte[]{(byte) i}, new byte[19]);
+        }
+
+        assertNotNull(levelDB.get(new byte[]{0}));
+        assertTrue(db.bufferedBytes() < 1024);
+
+        db.put(new byte[]{(byte) 200}, new byte[]{1}, true);
+        assertEquals(0, db.bufferedBytes());
+        assertArrayEquals(new byte[]{1}, levelDB.get(new byte[]{(byte) 200}));
+
+        db.close();
+    }
+
+    @Test
+    public void testTimedFlush() throws Exception {
+        BufferedLevelDB db = buffered(1 << 20, 20);
+        LevelDB levelDB = db.levelDB();
+
+        db.put(new byte[]{1}, new byte[]{1});
+
+        for (int i = 0; i < 200 && levelDB.get(new byte[]{1}) == null; i++) {
+            Thread.sleep(10);
+        }
+
+        assertArrayEquals(new byte[]{1}, levelDB.get(new byte[]{1}));
+
+        db.close();
+    }
+
+    @Test
+    public void testIteration() throws Exception {
+        BufferedLevelDB db = buffered(1 << 20, 0);
+        TreeMap<byte[], byte[]> expected = new TreeMap<byte[], byte[]>(Bytes.COMPARATOR);
+
+        for (int i = 0; i < 100; i += 2) {
+            db.levelDB().put(new byte[]{(byte) i}, new byte[]{0});
+            expected.put(new byte[]{(byte) i}, new byte[]{0});
+        }
+
+        SimpleWriteBatch batch = new SimpleWriteBatch();
+
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 == 0) {
+                batch.del(new byte[]{(byte) i});
+                expected.remove(new byte[]{(byte) i});
+            } else if (i % 2 == 1) {
+                batch.put(new byte[]{(byte) i}, new byte[]{1});
+                expected.put(new byte[]{(byte) i}, new byte[]{1});
+            }
+        }
+
+        db.write(batch);
+
+        Iterator iterator = db.iterator();
+
+        // Writes after the iterator was created are not seen by it.
+        db.put(new byte[]{0}, new byte[]{2});
+
+        iterator.seekToFirst();
+
+        for (Map.Entry<byte[], byte[]> entry : expected.entrySet()) {
+            assertTrue(iterator.isValid());
+            assertArrayEquals(entry.getKey(), iterator.key());
+            assertArrayEquals(entry.getValue(), iterator.value());
+            iterator.next();
+        }
+
+        assertFalse(iterator.isValid());
+
+        iterator.seekToLast();
+
+        for (Map.Entry<byte[], byte[]> entry : expected.descendingMap().entrySet()) {
+            assertTrue(iterator.isValid());
+            assertArrayEquals(entry.getKey(), iterator.key());
+            iterator.previous();
+        }
+
+        assertFalse(iterator.isValid());
+
+        iterator.seek(new byte[]{3});
+        assertArrayEquals(expected.ceilingKey(new byte[]{3}), iterator.key());
+
+        iterator.close();
+        db.close();
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        BufferedLevelDB db = buffered(1 << 20, 0);
+
+        db.put(new byte[]{1}, new byte[]{1});
+
+        Snapshot snapshot = db.obtainSnapshot();
+
+        db.put(new byte[]{1}, new byte[]{2});
+        db.put(new byte[]{2}, new byte[]{2});
+
+        assertArrayEquals(new byte[]{1}, db.get(new byte[]{1}, snapshot));
+        assertNull(db.get(new byte[]{2}, snapshot));
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{1}));
+
+        Iterator iterator = db.iterator(snapshot);
+        iterator.seekToFirst();
+        assertArrayEquals(new byte[]{1}, iterator.key());
+        iterator.next();
+        assertFalse(iterator.isValid());
+        iterator.close();
+
+        db.releaseSnapshot(snapshot);
+        db.close();
+    }
+
+    @Test
+    public void testSyncWriteRacingFlush() throws Exception {
+        final SyncRecordingLevelDB recording = new SyncRecordingLevelDB(obtainLevelDB());
+        final BufferedLevelDB db = new BufferedLevelDB(recording, 1 << 20, 0, TimeUnit.MILLISECONDS, false);
+        final AtomicBoolean done = new AtomicBoolean();
+
+        // Unsynced flushes from another thread may take the overlay holding a synced write.
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        db.flush();
+                    }
+                } catch (LevelDBException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        flusher.start();
+
+        try {
+            for (int i = 0; i < 20000; i++) {
+                byte[] key = new byte[]{(byte) (i >> 8), (byte) i};
+
+                db.put(key, new byte[]{1}, true);
+                assertFalse(recording.isUnsynced(key));
+            }
+        } finally {
+            done.set(true);
+            flusher.join();
+        }
+
+        db.close();
+    }
+
+    /**
+     * Remembers which keys were written without a synced write since.
+     */
+    private static final class SyncRecordingLevelDB extends LevelDB {
+        private final LevelDB levelDB;
+        private final Set<byte[]> unsynced = new TreeSet<byte[]>(Bytes.COMPARATOR);
+
+        SyncRecordingLevelDB(LevelDB levelDB) {
+            this.levelDB = levelDB;
+        }
+
+        synchronized boolean isUnsynced(byte[] key) {
+            return unsynced.contains(key);
+        }
+
+        @Override
+        public synchronized void write(WriteBatch writeBatch, boolean sync) throws LevelDBException {
+            levelDB.write(writeBatch, sync);
+
+            if (sync) {
+                unsynced.clear();
+            } else {
+                for (WriteBatch.Operation operation : writeBatch.getAllOperations()) {
+                    unsynced.add(operation.key());
+                }
+            }
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value, boolean sync) throws LevelDBException {
+            write(new SimpleWriteBatch().put(key, value), sync);
+        }
+
+        @Override
+        public void del(byte[] key, boolean sync) throws LevelDBException {
+            write(new SimpleWriteBatch().del(key), sync);
+        }
+
+        @Override
+        public byte[] get(byte[] key, Snapshot snapshot) throws LevelDBException {
+            return levelDB.get(key, snapshot);
+        }
+
+        @Override
+        public void close() {
+            levelDB.close();
+        }
+
+        @Override
+        public byte[] getPropertyBytes(byte[] key) throws LevelDBClosedException {
+            return levelDB.getPropertyBytes(key);
+        }
+
+        @Override
+        public long getApproximateSize(byte[] from, byte[] to) throws LevelDBClosedException {
+            return levelDB.getApproximateSize(from, to);
+        }
+
+        @Override
+        public Iterator iterator(boolean fillCache, Snapshot snapshot) throws LevelDBClosedException {
+            return levelDB.iterator(fillCache, snapshot);
+        }
+
+        @Override
+        public String getPath() {
+            return levelDB.getPath();
+        }
+
+        @Override
+        protected void setPath(String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return levelDB.isClosed();
+        }
+
+        @Override
+        public Snapshot obtainSnapshot() throws LevelDBClosedException {
+            return levelDB.obtainSnapshot();
+        }
+
+        @Override
+        public void releaseSnapshot(Snapshot snapshot) throws LevelDBClosedException {
+            levelDB.releaseSnapshot(snapshot);
+        }
+    }
+}
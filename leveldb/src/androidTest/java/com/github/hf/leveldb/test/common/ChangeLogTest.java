@@ -0,0 +1,161 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.changelog.ChangeIterator;
+import com.github.hf.leveldb.changelog.ChangeLog;
+import com.github.hf.leveldb.namespace.Namespace;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public abstract class ChangeLogTest extends DatabaseTestCase {
+
+    @Test
+    public void testChangesSince() throws Exception {
+        LevelDB db = obtainLevelDB();
+        ChangeLog log = db.changeLog();
+        Namespace data = db.namespace("data");
+
+        assertSame(log, db.changeLog());
+        assertEquals(0, log.lastSequence());
+
+        assertEquals(1, log.put(data.encodeKey(new byte[]{1}), new byte[]{10}, false));
+        assertEquals(2, log.del(data.encodeKey(new byte[]{2}), false));
+        assertEquals(3, log.write(new SimpleWriteBatch()
+                .put(data.encodeKey(new byte[]{3}), new byte[]{30})
+                .put(data.encodeKey(new byte[]{4}), new byte[0])
+                .del(data.encodeKey(new byte[]{1})), false));
+        assertEquals(3, log.write(new SimpleWriteBatch(), false));
+
+        assertNull(db.get(data.encodeKey(new byte[]{1})));
+        assertArrayEquals(new byte[]{30}, db.get(data.encodeKey(new byte[]{3})));
+
+        ChangeIterator changes = log.changesSince(1);
+
+        assertTrue(changes.isValid());
+        assertEquals(2, changes.sequence());
+
+        List<WriteBatch.Operation> operations = new ArrayList<WriteBatch.Operation>(changes.batch().getAllOperations());
+        assertEquals(1, operations.size());
+        assertTrue(operations.get(0).isDel());
+        assertArrayEquals(data.encodeKey(new byte[]{2}), operations.get(0).key());
+
+        changes.next();
+        assertEquals(3, changes.sequence());
+
+        operations = new ArrayList<WriteBatch.Operation>(changes.batch().getAllOperations());
+        assertEquals(3, operations.size());
+        assertArrayEquals(data.encodeKey(new byte[]{3}), operations.get(0).key());
+        assertArrayEquals(new byte[]{30}, operations.get(0).value());
+        assertArrayEquals(new byte[0], operations.get(1).value());
+        assertTrue(operations.get(2).isDel());
+
+        changes.next();
+        assertFalse(changes.isValid());
+        changes.close();
+
+        changes = log.changesSince(3);
+        assertFalse(changes.isValid());
+        changes.close();
+
+        db.close();
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        LevelDB db = obtainLevelDB();
+        ChangeLog log = db.changeLog();
+        Namespace data = db.namespace("data");
+
+        for (int i = 0; i < 2000; i++) {
+            log.put(data.encodeKey(new byte[]{(byte) (i >> 8), (byte) i}), new byte[]{1}, false);
+        }
+
+        assertEquals(1499, log.truncate(1500));
+        assertEquals(0, log.truncate(1000));
+        assertEquals(1500, log.firstSequence());
+
+        try {
+            log.changesSince(1000);
+            fail("Truncated changes must not be iterable");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        ChangeIterator changes = log.changesSince(1499);
+        int count = 0;
+
+        for (; changes.isValid(); changes.next()) {
+            assertEquals(1500 + count, changes.sequence());
+            count++;
+        }
+
+        changes.close();
+        assertEquals(501, count);
+
+        // Truncating everything must not let sequences be reused.
+        assertEquals(501, log.truncate(2001));
+
+        // Recovers the sequences as if reopened, the first log is not written to anymore.
+        ChangeLog reopened = new ChangeLog(db);
+
+        assertEquals(2000, reopened.lastSequence());
+        assertEquals(2001, reopened.firstSequence());
+        assertEquals(2001, reopened.put(data.encodeKey(new byte[]{1}), new byte[]{1}, false));
+
+        changes = reopened.changesSince(2000);
+        assertEquals(2001, changes.sequence());
+        changes.close();
+
+        // Data stays, only the log is discarded.
+        assertArrayEquals(new byte[]{1}, db.get(data.encodeKey(new byte[]{0, 0})));
+
+        db.close();
+    }
+}
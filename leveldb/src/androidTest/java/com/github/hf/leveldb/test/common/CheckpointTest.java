@@ -0,0 +1,172 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public abstract class CheckpointTest extends DatabaseTestCase {
+    protected File checkpointFile;
+
+    /**
+     * Opens the database in directory, with a small write buffer so that tables get written.
+     */
+    protected abstract LevelDB open(File directory) throws Exception;
+
+    @Override
+    protected LevelDB obtainLevelDB() throws Exception {
+        return open(dbFile);
+    }
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        checkpointFile = new File(dbFile.getPath() + "-checkpoint");
+        FileUtils.deleteQuietly(checkpointFile);
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(checkpointFile);
+
+        super.tearDown();
+    }
+
+    private static byte[] key(int i) {
+        return new byte[]{(byte) (i >> 16), (byte) (i >> 8), (byte) i};
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        for (int i = 0; i < 5000; i++) {
+            db.put(key(i), new byte[100]);
+        }
+
+        assertTrue(db.checkpoint(checkpointFile) > 0);
+
+        // The database stays usable, and the checkpoint doesn't see what's written afterwards.
+        db.put(key(5000), new byte[]{1});
+        db.del(key(0));
+
+        LevelDB copy = open(checkpointFile);
+
+        assertArrayEquals(new byte[100], copy.get(key(0)));
+        assertArrayEquals(new byte[100], copy.get(key(4999)));
+        assertNull(copy.get(key(5000)));
+
+        copy.close();
+
+        assertNull(db.get(key(0)));
+        db.close();
+    }
+
+    @Test
+    public void testUnrelatedFilesKept() throws Exception {
+        assertTrue(checkpointFile.mkdirs());
+
+        File unrelated = new File(checkpointFile, "settings.xml");
+        FileUtils.writeStringToFile(unrelated, "user data");
+
+        LevelDB db = obtainLevelDB();
+
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), new byte[100]);
+        }
+
+        db.checkpoint(checkpointFile);
+        db.close();
+
+        // Only database files that aren't part of the checkpoint are removed.
+        assertEquals("user data", FileUtils.readFileToString(unrelated));
+
+        LevelDB copy = open(checkpointFile);
+
+        assertArrayEquals(new byte[100], copy.get(key(99)));
+
+        copy.close();
+    }
+
+    @Test
+    public void testIncrementalCheckpoint() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        for (int i = 0; i < 5000; i++) {
+            db.put(key(i), new byte[100]);
+        }
+
+        final long full = db.checkpoint(checkpointFile);
+
+        db.put(key(5000), new byte[]{1});
+
+        final long incremental = db.checkpoint(checkpointFile);
+
+        assertTrue(incremental < full);
+
+        db.close();
+
+        LevelDB copy = open(checkpointFile);
+        int count = 0;
+
+        Iterator iterator = copy.iterator();
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            count++;
+        }
+
+        iterator.close();
+
+        assertEquals(5001, count);
+        assertArrayEquals(new byte[]{1}, copy.get(key(5000)));
+
+        copy.close();
+    }
+}
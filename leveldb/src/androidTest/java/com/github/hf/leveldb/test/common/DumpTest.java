@@ -0,0 +1,223 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.exception.LevelDBCorruptionException;
+import com.github.hf.leveldb.util.Dump;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public abstract class DumpTest extends DatabaseTestCase {
+
+    private static byte[] key(int i) {
+        return new byte[]{(byte) (i >> 8), (byte) i};
+    }
+
+    private static byte[] value(int i) {
+        byte[] value = new byte[i % 300];
+        Arrays.fill(value, (byte) i);
+
+        return value;
+    }
+
+    private void exportAndImport(boolean compress) throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        for (int i = 0; i < 10000; i++) {
+            db.put(key(i), value(i));
+        }
+
+        final AtomicLong exported = new AtomicLong();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(10000, db.exportTo(out, null, null, compress, new Dump.Progress() {
+            @Override
+            public void onProgress(long entries, long bytes, long elapsedNanos) {
+                assertTrue(entries >= exported.get());
+                exported.set(entries);
+            }
+        }));
+
+        assertEquals(10000, exported.get());
+        db.close();
+
+        LevelDB copy = LevelDB.mock();
+
+        assertEquals(10000, copy.importFrom(new ByteArrayInputStream(out.toByteArray()), true, null));
+
+        Iterator iterator = copy.iterator();
+        int count = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            assertArrayEquals(key(count), iterator.key());
+            assertArrayEquals(value(count), iterator.value());
+            count++;
+        }
+
+        iterator.close();
+        copy.close();
+
+        assertEquals(10000, count);
+    }
+
+    @Test
+    public void testExportImport() throws Exception {
+        exportAndImport(false);
+    }
+
+    @Test
+    public void testCompressedExportImport() throws Exception {
+        exportAndImport(true);
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), value(i));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(40, db.exportTo(out, key(10), key(50), false, null));
+        db.close();
+
+        LevelDB copy = LevelDB.mock();
+
+        assertEquals(40, copy.importFrom(new ByteArrayInputStream(out.toByteArray())));
+        assertNull(copy.get(key(9)));
+        assertArrayEquals(value(10), copy.get(key(10)));
+        assertArrayEquals(value(49), copy.get(key(49)));
+        assertNull(copy.get(key(50)));
+
+        copy.close();
+    }
+
+    @Test
+    public void testTrailingData() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        for (int i = 0; i < 1000; i++) {
+            db.put(key(i), value(i));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        db.exportTo(out);
+        db.close();
+
+        out.write(new byte[]{1, 2, 3});
+
+        LevelDB copy = LevelDB.mock();
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+
+        // An uncompressed dump is read up to its end, the stream goes on after it.
+        assertEquals(1000, copy.importFrom(in));
+        assertEquals(3, in.available());
+        assertEquals(1, in.read());
+
+        copy.close();
+    }
+
+    @Test
+    public void testTruncatedDump() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        for (int i = 0; i < 1000; i++) {
+            db.put(key(i), value(i));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        db.exportTo(out);
+        db.close();
+
+        byte[] dump = out.toByteArray();
+        LevelDB copy = LevelDB.mock();
+
+        try {
+            copy.importFrom(new ByteArrayInputStream(Arrays.copyOf(dump, dump.length - 1)));
+            fail("A truncated dump must not be imported");
+        } catch (LevelDBCorruptionException e) {
+            // expected
+        }
+
+        dump[dump.length / 2] ^= 1;
+
+        try {
+            copy.importFrom(new ByteArrayInputStream(dump));
+            fail("A corrupted dump must not be imported");
+        } catch (LevelDBCorruptionException e) {
+            // expected
+        }
+
+        copy.close();
+    }
+
+    @Test
+    public void testCorruptedFrameLength() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        // One entry in a frame claiming close to 2 GB, followed by a few bytes only.
+        byte[] dump = new byte[]{
+                'L', 'D', 'B', 'D', 1, 0,
+                1,
+                (byte) 0xF0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07,
+                0, 0, 0, 0,
+                1, 1, 1, 1
+        };
+
+        try {
+            db.importFrom(new ByteArrayInputStream(dump));
+            fail("A frame longer than the dump must not be imported");
+        } catch (LevelDBCorruptionException e) {
+            // expected
+        }
+
+        db.close();
+    }
+}
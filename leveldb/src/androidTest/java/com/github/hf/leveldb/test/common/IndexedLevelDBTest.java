@@ -0,0 +1,234 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.index.IndexExtractor;
+import com.github.hf.leveldb.index.IndexIterator;
+import com.github.hf.leveldb.index.IndexedLevelDB;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public abstract class IndexedLevelDBTest extends DatabaseTestCase {
+
+    /**
+     * Indexes entries by the first byte of their value, leaving out empty values.
+     */
+    private static final IndexExtractor FIRST_BYTE = new IndexExtractor() {
+        @Override
+        public byte[] extract(byte[] key, byte[] value) {
+            return value.length == 0 ? null : new byte[]{value[0]};
+        }
+    };
+
+    @Test
+    public void testMaintenance() throws Exception {
+        IndexedLevelDB db = new IndexedLevelDB(obtainLevelDB(), "table");
+
+        db.addIndex("first", FIRST_BYTE);
+
+        db.put(new byte[]{1}, new byte[]{5, 1});
+        db.put(new byte[]{2}, new byte[]{5, 2});
+        db.put(new byte[]{3}, new byte[]{6, 3});
+
+        assertEquals(Arrays.asList("1", "2"), keys(db.query("first", new byte[]{5})));
+
+        db.put(new byte[]{1}, new byte[]{6, 1});
+        db.del(new byte[]{2});
+        db.put(new byte[]{3}, new byte[0]);
+
+        assertEquals(new ArrayList<String>(), keys(db.query("first", new byte[]{5})));
+        assertEquals(Arrays.asList("1"), keys(db.query("first", new byte[]{6})));
+
+        db.close();
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        IndexedLevelDB db = new IndexedLevelDB(obtainLevelDB(), "table");
+
+        db.addIndex("first", FIRST_BYTE);
+
+        for (int i = 0; i < 200; i++) {
+            db.put(new byte[]{(byte) i}, new byte[]{(byte) (i % 4), (byte) i});
+        }
+
+        IndexIterator iterator = db.query("first", new byte[]{2});
+        int count = 0;
+
+        for (; iterator.isValid(); iterator.next()) {
+            int i = 4 * count + 2;
+
+            assertArrayEquals(new byte[]{(byte) i}, iterator.key());
+            assertArrayEquals(new byte[]{2}, iterator.indexValue());
+            assertArrayEquals(new byte[]{2, (byte) i}, iterator.value());
+            count++;
+        }
+
+        iterator.close();
+
+        assertEquals(50, count);
+
+        iterator = db.query("first", new byte[]{1}, new byte[]{3});
+        count = 0;
+
+        for (; iterator.isValid(); iterator.next()) {
+            assertEquals(count < 50 ? 1 : 2, iterator.indexValue()[0]);
+            count++;
+        }
+
+        iterator.close();
+
+        assertEquals(100, count);
+
+        db.close();
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        IndexedLevelDB db = new IndexedLevelDB(obtainLevelDB(), "table");
+
+        db.put(new byte[]{1}, new byte[]{5});
+        db.put(new byte[]{2}, new byte[]{5});
+
+        db.addIndex("first", FIRST_BYTE);
+
+        IndexIterator iterator = db.query("first", new byte[]{5});
+        assertFalse(iterator.isValid());
+        iterator.close();
+
+        db.rebuildIndex("first");
+
+        assertEquals(Arrays.asList("1", "2"), keys(db.query("first", new byte[]{5})));
+
+        db.close();
+    }
+
+    @Test
+    public void testRebuildWhileWriting() throws Exception {
+        final IndexedLevelDB db = new IndexedLevelDB(obtainLevelDB(), "table");
+
+        for (int i = 0; i < 3000; i++) {
+            db.put(new byte[]{(byte) (i >> 8), (byte) i}, new byte[]{5});
+        }
+
+        db.addIndex("first", FIRST_BYTE);
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        // Changes and deletes entries the rebuild has already read.
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int round = 0; !done.get(); round++) {
+                        for (int i = round % 3; i < 3000; i += 3) {
+                            byte[] key = new byte[]{(byte) (i >> 8), (byte) i};
+
+                            if (round % 5 == 0) {
+                                db.del(key);
+                            } else {
+                                db.put(key, new byte[]{(byte) (5 + round % 2)});
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+
+        writer.start();
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                db.rebuildIndex("first");
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+
+        assertNull(failure.get());
+
+        int indexed = 0;
+
+        for (byte first = 5; first <= 6; first++) {
+            IndexIterator iterator = db.query("first", new byte[]{first});
+
+            for (; iterator.isValid(); iterator.next()) {
+                assertArrayEquals(new byte[]{first}, db.get(iterator.key()));
+                indexed++;
+            }
+
+            iterator.close();
+        }
+
+        int stored = 0;
+
+        for (int i = 0; i < 3000; i++) {
+            if (db.get(new byte[]{(byte) (i >> 8), (byte) i}) != null) {
+                stored++;
+            }
+        }
+
+        assertEquals(stored, indexed);
+
+        db.close();
+    }
+
+    private static List<String> keys(IndexIterator iterator) throws Exception {
+        List<String> keys = new ArrayList<String>();
+
+        for (; iterator.isValid(); iterator.next()) {
+            keys.add(String.valueOf(iterator.key()[0]));
+        }
+
+        iterator.close();
+
+        return keys;
+    }
+}
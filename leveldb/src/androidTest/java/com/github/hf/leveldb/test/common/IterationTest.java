@@ -42,9 +42,14 @@ import com.github.hf.leveldb.util.SimpleWriteBatch;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public abstract class IterationTest extends DatabaseTestCase {
 
@@ -133,6 +138,64 @@ public abstract class IterationTest extends DatabaseTestCase {
         db.close();
     }
 
+    @Test
+    public void testReuseBuffers() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1, 1});
+        db.put(new byte[]{2, 2}, new byte[]{2, 2, 2, 2});
+
+        Iterator iterator = db.iterator();
+
+        iterator.seekToFirst();
+
+        byte[] small = new byte[1];
+
+        assertEquals(1, iterator.readKey(small, 0));
+        assertEquals(1, small[0]);
+        assertEquals(2, iterator.readValue(small, 0));
+        assertEquals(1, small[0]);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(8);
+
+        assertEquals(2, iterator.value(direct));
+        assertEquals(2, direct.position());
+
+        ByteBuffer heap = ByteBuffer.allocate(2);
+        heap.position(1);
+
+        assertEquals(2, iterator.value(heap));
+        assertEquals(1, heap.position());
+
+        ByteBuffer readOnly = ByteBuffer.allocateDirect(8).asReadOnlyBuffer();
+
+        try {
+            iterator.key(readOnly);
+            fail("Read-only buffers must not be written to");
+        } catch (ReadOnlyBufferException e) {
+            // expected
+        }
+
+        assertEquals(0, readOnly.get(0));
+
+        Iterator.Entry first = iterator.entry();
+
+        assertEquals(1, first.keyLength());
+        assertEquals(2, first.valueLength());
+
+        iterator.next();
+
+        Iterator.Entry second = iterator.entry();
+
+        assertSame(first, second);
+        assertEquals(0, Bytes.lexicographicCompare(new byte[]{2, 2}, second.copyKey()));
+        assertEquals(0, Bytes.lexicographicCompare(new byte[]{2, 2, 2, 2}, second.copyValue()));
+
+        iterator.close();
+
+        db.close();
+    }
+
     @Test
     public void testClosed() throws Exception {
         LevelDB db = obtainLevelDB();
@@ -193,4 +256,41 @@ public abstract class IterationTest extends DatabaseTestCase {
 
         db.close();
     }
+
+    @Test
+    public void testBytewiseOrder() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        byte[][] keys = new byte[][]{
+                new byte[]{},
+                new byte[]{0},
+                new byte[]{1},
+                new byte[]{1, 0},
+                new byte[]{1, 0, 0},
+                new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 0},
+                new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 1},
+                new byte[]{(byte) 0x7F},
+                new byte[]{(byte) 0x80},
+                new byte[]{(byte) 0xFF}
+        };
+
+        for (int i = keys.length - 1; i >= 0; i--) {
+            db.put(keys[i], new byte[]{(byte) i});
+        }
+
+        Iterator iterator = db.iterator();
+
+        int i = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next(), i++) {
+            assertEquals(0, Bytes.lexicographicCompare(keys[i], iterator.key()));
+            assertEquals(i, iterator.value()[0]);
+        }
+
+        assertEquals(keys.length, i);
+
+        iterator.close();
+
+        db.close();
+    }
 }
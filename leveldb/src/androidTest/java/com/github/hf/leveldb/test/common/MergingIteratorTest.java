@@ -0,0 +1,192 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.namespace.Namespace;
+import com.github.hf.leveldb.util.MergingIterator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public abstract class MergingIteratorTest extends DatabaseTestCase {
+
+    private Namespace[] fill(LevelDB db) throws Exception {
+        Namespace[] namespaces = {db.namespace("first"), db.namespace("second"), db.namespace("third")};
+
+        // Namespace i holds the multiples of i + 2 below 60, with value i.
+        for (int i = 0; i < namespaces.length; i++) {
+            for (int k = 0; k < 60; k += i + 2) {
+                namespaces[i].put(new byte[]{(byte) k}, new byte[]{(byte) i});
+            }
+        }
+
+        return namespaces;
+    }
+
+    private static MergingIterator merge(MergingIterator.Duplicates duplicates, Namespace[] namespaces) throws Exception {
+        return new MergingIterator(duplicates, namespaces[0].iterator(), namespaces[1].iterator(), namespaces[2].iterator());
+    }
+
+    /**
+     * The entries a merge of {@link #fill(LevelDB)} sees, as {key, source} pairs in order.
+     */
+    private static List<int[]> expected(MergingIterator.Duplicates duplicates) {
+        List<int[]> entries = new ArrayList<int[]>();
+
+        for (int k = 0; k < 60; k++) {
+            for (int i = 0; i < 3; i++) {
+                final int source = duplicates == MergingIterator.Duplicates.LAST ? 2 - i : i;
+
+                if (k % (source + 2) == 0) {
+                    entries.add(new int[]{k, source});
+
+                    if (duplicates != MergingIterator.Duplicates.ALL) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static void assertAt(int[] entry, MergingIterator iterator) throws Exception {
+        assertTrue(iterator.isValid());
+        assertArrayEquals(new byte[]{(byte) entry[0]}, iterator.key());
+        assertArrayEquals(new byte[]{(byte) entry[1]}, iterator.value());
+        assertEquals(entry[1], iterator.source());
+    }
+
+    private void scan(MergingIterator.Duplicates duplicates) throws Exception {
+        LevelDB db = obtainLevelDB();
+        MergingIterator iterator = merge(duplicates, fill(db));
+        List<int[]> expected = expected(duplicates);
+
+        int position = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            assertAt(expected.get(position++), iterator);
+        }
+
+        assertEquals(expected.size(), position);
+
+        for (iterator.seekToLast(); iterator.isValid(); iterator.previous()) {
+            assertAt(expected.get(--position), iterator);
+        }
+
+        assertEquals(0, position);
+
+        // Random walks switch directions in the middle of duplicates.
+        Random random = new Random(42);
+
+        iterator.seek(new byte[]{30});
+        position = 0;
+
+        while (expected.get(position)[0] < 30) {
+            position++;
+        }
+
+        for (int step = 0; step < 1000; step++) {
+            assertAt(expected.get(position), iterator);
+
+            if (random.nextBoolean()) {
+                if (position + 1 == expected.size()) {
+                    continue;
+                }
+
+                iterator.next();
+                position++;
+            } else {
+                if (position == 0) {
+                    continue;
+                }
+
+                iterator.previous();
+                position--;
+            }
+        }
+
+        iterator.close();
+        db.close();
+    }
+
+    @Test
+    public void testFirst() throws Exception {
+        scan(MergingIterator.Duplicates.FIRST);
+    }
+
+    @Test
+    public void testLast() throws Exception {
+        scan(MergingIterator.Duplicates.LAST);
+    }
+
+    @Test
+    public void testAll() throws Exception {
+        scan(MergingIterator.Duplicates.ALL);
+    }
+
+    @Test
+    public void testEmptyAndClose() throws Exception {
+        LevelDB db = obtainLevelDB();
+        Namespace[] namespaces = fill(db);
+        Namespace empty = db.namespace("empty");
+
+        MergingIterator iterator = new MergingIterator(empty.iterator());
+
+        iterator.seekToFirst();
+        assertFalse(iterator.isValid());
+        iterator.seekToLast();
+        assertFalse(iterator.isValid());
+        iterator.close();
+
+        iterator = merge(MergingIterator.Duplicates.FIRST, namespaces);
+        iterator.seek(new byte[]{100});
+        assertFalse(iterator.isValid());
+
+        iterator.close();
+        assertTrue(iterator.isClosed());
+
+        db.close();
+    }
+}
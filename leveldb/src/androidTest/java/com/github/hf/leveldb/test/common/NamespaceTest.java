@@ -0,0 +1,160 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.namespace.Namespace;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public abstract class NamespaceTest extends DatabaseTestCase {
+
+    @Test
+    public void testIsolation() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        Namespace users = db.namespace("users");
+        Namespace posts = db.namespace("posts");
+
+        assertEquals(1, users.id());
+        assertEquals(2, posts.id());
+        assertEquals(1, db.namespace("users").id());
+
+        users.put(new byte[]{1}, new byte[]{1});
+        posts.put(new byte[]{1}, new byte[]{2});
+
+        assertArrayEquals(new byte[]{1}, users.get(new byte[]{1}));
+        assertArrayEquals(new byte[]{2}, posts.get(new byte[]{1}));
+
+        users.del(new byte[]{1});
+
+        assertNull(users.get(new byte[]{1}));
+        assertArrayEquals(new byte[]{2}, posts.get(new byte[]{1}));
+
+        db.close();
+    }
+
+    @Test
+    public void testIteration() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        Namespace first = db.namespace("first");
+        Namespace second = db.namespace("second");
+        Namespace third = db.namespace("third");
+
+        for (int i = 0; i < 100; i++) {
+            first.put(new byte[]{(byte) i}, new byte[]{1});
+            second.put(new byte[]{(byte) i, (byte) i}, new byte[]{2});
+            third.put(new byte[]{(byte) i}, new byte[]{3});
+        }
+
+        Iterator iterator = second.iterator();
+        int count = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            assertArrayEquals(new byte[]{(byte) count, (byte) count}, iterator.key());
+            assertArrayEquals(new byte[]{2}, iterator.value());
+            count++;
+        }
+
+        assertEquals(100, count);
+
+        for (iterator.seekToLast(); iterator.isValid(); iterator.previous()) {
+            count--;
+            assertArrayEquals(new byte[]{(byte) count, (byte) count}, iterator.entry().copyKey());
+        }
+
+        assertEquals(0, count);
+
+        iterator.seek(new byte[]{50});
+        assertArrayEquals(new byte[]{50, 50}, iterator.key());
+
+        iterator.seek(new byte[]{(byte) 200});
+        assertFalse(iterator.isValid());
+
+        iterator.close();
+
+        // The last namespace has nothing after it.
+        iterator = third.iterator();
+        iterator.seekToLast();
+        assertArrayEquals(new byte[]{99}, iterator.key());
+        iterator.close();
+
+        // Nor has an empty one.
+        iterator = db.namespace("empty").iterator();
+        iterator.seekToFirst();
+        assertFalse(iterator.isValid());
+        iterator.seekToLast();
+        assertFalse(iterator.isValid());
+        iterator.close();
+
+        db.close();
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        Namespace first = db.namespace("first");
+        Namespace second = db.namespace("second");
+
+        for (int i = 0; i < 3000; i++) {
+            byte[] key = new byte[]{(byte) (i >> 8), (byte) i};
+
+            first.put(key, key);
+            second.put(key, key);
+        }
+
+        assertTrue(second.getApproximateSize() >= 0);
+        assertEquals(3000, first.clear(false));
+
+        Iterator iterator = first.iterator();
+        iterator.seekToFirst();
+        assertFalse(iterator.isValid());
+        iterator.close();
+
+        assertArrayEquals(new byte[]{1, 1}, second.get(new byte[]{1, 1}));
+        assertEquals(1, db.namespace("first").id());
+
+        db.close();
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.EntryConsumer;
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.ParallelScan;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public abstract class ParallelScanTest extends DatabaseTestCase {
+
+    @Test
+    public void testScanSeesSnapshot() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        SimpleWriteBatch wb = new SimpleWriteBatch(db);
+
+        for (int i = 0; i < 1000; i++) {
+            wb.put(new byte[]{(byte) (i >> 8), (byte) i}, new byte[]{(byte) i});
+        }
+
+        wb.write();
+
+        Snapshot snapshot = db.obtainSnapshot();
+
+        db.put(new byte[]{(byte) 0xFF}, new byte[]{1});
+
+        byte[][] boundaries = ParallelScan.boundaries(db, snapshot, 4);
+
+        assertTrue(boundaries.length <= 3);
+
+        for (int i = 1; i < boundaries.length; i++) {
+            assertTrue(Bytes.lexicographicCompare(boundaries[i - 1], boundaries[i]) < 0);
+        }
+
+        final Set<Integer> seen = Collections.synchronizedSet(new HashSet<Integer>());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            long count = db.parallelScan(snapshot, 4, executor, new EntryConsumer() {
+                @Override
+                public void accept(int partition, Iterator.Entry entry) throws LevelDBException {
+                    byte[] key = entry.keyArray();
+
+                    assertTrue(seen.add(((key[0] & 0xFF) << 8) | (key[1] & 0xFF)));
+                }
+            });
+
+            assertEquals(1000, count);
+            assertEquals(1000, seen.size());
+        } finally {
+            executor.shutdown();
+        }
+
+        db.releaseSnapshot(snapshot);
+
+        db.close();
+    }
+
+    @Test
+    public void testScanFailure() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1});
+        db.put(new byte[]{2}, new byte[]{2});
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        boolean threw = false;
+
+        try {
+            db.parallelScan(null, 2, executor, new EntryConsumer() {
+                @Override
+                public void accept(int partition, Iterator.Entry entry) throws LevelDBException {
+                    throw new LevelDBException("Consumer failed.");
+                }
+            });
+        } catch (LevelDBException e) {
+            threw = true;
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(threw);
+
+        db.close();
+    }
+}
@@ -34,12 +34,18 @@ package com.github.hf.leveldb.test.common;
  */
 
 import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.MergeOperator;
 import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.typed.Serializers;
 import com.github.hf.leveldb.util.Bytes;
 import com.github.hf.leveldb.util.SimpleWriteBatch;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -220,4 +226,134 @@ public abstract class PutGetDelWriteTest extends DatabaseTestCase {
 
         assertTrue(threw);
     }
+
+    @Test
+    public void testRanges() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        byte[] buffer = new byte[]{9, 1, 2, 3, 9, 4, 5, 9};
+
+        db.put(buffer, 1, 3, buffer, 5, 2, false);
+
+        assertEquals(0, Bytes.lexicographicCompare(new byte[]{4, 5}, db.get(new byte[]{1, 2, 3})));
+        assertEquals(0, Bytes.lexicographicCompare(new byte[]{4, 5}, db.get(buffer, 1, 3, null)));
+        assertNull(db.get(buffer, 1, 2, null));
+
+        db.del(buffer, 1, 3, false);
+
+        assertNull(db.get(new byte[]{1, 2, 3}));
+
+        boolean threw = false;
+
+        try {
+            db.put(buffer, 6, 3, buffer, 0, 1, false);
+        } catch (IndexOutOfBoundsException e) {
+            threw = true;
+        }
+
+        assertTrue(threw);
+
+        db.close();
+    }
+
+    @Test
+    public void testIncrement() throws Exception {
+        final LevelDB db = obtainLevelDB();
+        final byte[] key = new byte[]{1};
+
+        assertEquals(5, db.increment(key, 5));
+        assertEquals(2, db.increment(key, -3, true));
+        assertEquals(2L, (long) Serializers.LONG.read(db.get(key), 0, 8));
+
+        db.put(new byte[]{2}, new byte[]{1, 2, 3});
+
+        boolean threw = false;
+
+        try {
+            db.increment(new byte[]{2}, 1);
+        } catch (LevelDBException e) {
+            threw = true;
+        }
+
+        assertTrue(threw);
+
+        Thread[] threads = new Thread[4];
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 500; j++) {
+                            db.increment(key, 1);
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(2002, db.increment(key, 0));
+
+        db.close();
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        MergeOperator append = new MergeOperator() {
+            @Override
+            public byte[] merge(byte[] key, byte[] existing) {
+                if (existing == null) {
+                    return new byte[]{key[0]};
+                }
+
+                byte[] merged = Arrays.copyOf(existing, existing.length + 1);
+                merged[existing.length] = key[0];
+
+                return merged;
+            }
+        };
+
+        assertTrue(Arrays.equals(new byte[]{7}, db.merge(new byte[]{7}, append)));
+        assertTrue(Arrays.equals(new byte[]{7, 7}, db.merge(new byte[]{7}, append, true)));
+        assertTrue(Arrays.equals(new byte[]{7, 7}, db.get(new byte[]{7})));
+
+        assertNull(db.merge(new byte[]{7}, new MergeOperator() {
+            @Override
+            public byte[] merge(byte[] key, byte[] existing) {
+                return null;
+            }
+        }));
+
+        assertNull(db.get(new byte[]{7}));
+
+        db.close();
+    }
+
+    @Test
+    public void testMultiGet() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1});
+        db.put(new byte[]{3}, new byte[]{3});
+
+        byte[][] values = db.multiGet(new byte[][]{{1}, {2}, {3}}, null);
+
+        assertEquals(3, values.length);
+        assertTrue(Arrays.equals(new byte[]{1}, values[0]));
+        assertNull(values[1]);
+        assertTrue(Arrays.equals(new byte[]{3}, values[2]));
+
+        db.close();
+    }
 }
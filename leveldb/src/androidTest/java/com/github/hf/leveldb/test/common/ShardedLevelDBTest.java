@@ -0,0 +1,229 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.exception.LevelDBSnapshotOwnershipException;
+import com.github.hf.leveldb.implementation.ShardedLevelDB;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public abstract class ShardedLevelDBTest extends DatabaseTestCase {
+
+    @Override
+    protected abstract ShardedLevelDB obtainLevelDB() throws Exception;
+
+    private static byte[] key(int i) {
+        return new byte[]{(byte) (i >> 8), (byte) i};
+    }
+
+    private static byte[] value(int i) {
+        return new byte[]{(byte) i, (byte) (i >> 8), 1};
+    }
+
+    @Test
+    public void testSpread() throws Exception {
+        ShardedLevelDB db = obtainLevelDB();
+
+        final int[] counts = new int[db.shardCount()];
+
+        for (int i = 0; i < 1000; i++) {
+            db.put(key(i), value(i));
+            counts[db.shardOf(key(i))]++;
+        }
+
+        for (int count : counts) {
+            assertTrue(count > 0);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertArrayEquals(value(i), db.get(key(i)));
+            assertArrayEquals(value(i), db.shard(db.shardOf(key(i))).get(key(i)));
+        }
+
+        db.del(key(7));
+        assertNull(db.get(key(7)));
+
+        db.close();
+    }
+
+    @Test
+    public void testBatchAndMultiGet() throws Exception {
+        ShardedLevelDB db = obtainLevelDB();
+
+        SimpleWriteBatch batch = new SimpleWriteBatch();
+
+        for (int i = 0; i < 100; i++) {
+            batch.put(key(i), value(i));
+        }
+
+        batch.del(key(50));
+        db.write(batch);
+
+        byte[][] keys = new byte[101][];
+
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(100 - i);
+        }
+
+        byte[][] values = db.multiGet(keys, null);
+
+        for (int i = 0; i < keys.length; i++) {
+            final int k = 100 - i;
+
+            if (k == 50 || k == 100) {
+                assertNull(values[i]);
+            } else {
+                assertArrayEquals(value(k), values[i]);
+            }
+        }
+
+        assertEquals(5, db.increment(key(200), 5));
+        assertEquals(8, db.increment(key(200), 3));
+
+        db.close();
+    }
+
+    @Test
+    public void testIterationOrder() throws Exception {
+        ShardedLevelDB db = obtainLevelDB();
+
+        for (int i = 0; i < 500; i += 2) {
+            db.put(key(i), value(i));
+        }
+
+        Iterator iterator = db.iterator();
+        int expected = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            assertArrayEquals(key(expected), iterator.key());
+            assertArrayEquals(value(expected), iterator.value());
+            expected += 2;
+        }
+
+        assertEquals(500, expected);
+
+        for (iterator.seekToLast(); iterator.isValid(); iterator.previous()) {
+            expected -= 2;
+            assertArrayEquals(key(expected), iterator.key());
+        }
+
+        assertEquals(0, expected);
+
+        iterator.seek(key(101));
+        assertArrayEquals(key(102), iterator.key());
+        iterator.previous();
+        assertArrayEquals(key(100), iterator.key());
+        iterator.previous();
+        assertArrayEquals(key(98), iterator.key());
+        iterator.next();
+        assertArrayEquals(key(100), iterator.key());
+        iterator.next();
+        assertArrayEquals(key(102), iterator.key());
+
+        iterator.close();
+        db.close();
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        ShardedLevelDB db = obtainLevelDB();
+
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), value(i));
+        }
+
+        Snapshot snapshot = db.obtainSnapshot();
+
+        for (int i = 0; i < 100; i++) {
+            db.del(key(i));
+        }
+
+        assertNull(db.get(key(10)));
+        assertArrayEquals(value(10), db.get(key(10), snapshot));
+
+        Iterator iterator = db.iterator(snapshot);
+        int count = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            assertArrayEquals(key(count), iterator.key());
+            count++;
+        }
+
+        iterator.close();
+        assertEquals(100, count);
+
+        try {
+            db.shard(0).releaseSnapshot(snapshot);
+            fail("A sharded snapshot must not be released by a shard");
+        } catch (LevelDBSnapshotOwnershipException e) {
+            // expected
+        }
+
+        db.releaseSnapshot(snapshot);
+        assertTrue(snapshot.isReleased());
+
+        db.close();
+        assertTrue(db.isClosed());
+        assertTrue(db.shard(0).isClosed());
+    }
+
+    @Test
+    public void testRangePartitioner() throws Exception {
+        ShardedLevelDB.Partitioner partitioner = ShardedLevelDB.range(key(100), key(200));
+
+        assertEquals(0, partitioner.shard(key(0), 0, 2, 3));
+        assertEquals(0, partitioner.shard(key(99), 0, 2, 3));
+        assertEquals(1, partitioner.shard(key(100), 0, 2, 3));
+        assertEquals(1, partitioner.shard(key(199), 0, 2, 3));
+        assertEquals(2, partitioner.shard(key(200), 0, 2, 3));
+        assertEquals(0, partitioner.shard(new byte[0], 0, 0, 3));
+
+        try {
+            ShardedLevelDB.range(key(2), key(1));
+            fail("Boundaries must be increasing");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -33,16 +33,21 @@ package com.github.hf.leveldb.test.common;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.github.hf.leveldb.Iterator;
 import com.github.hf.leveldb.LevelDB;
 import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.WriteBatch;
 import com.github.hf.leveldb.exception.LevelDBClosedException;
 import com.github.hf.leveldb.exception.LevelDBSnapshotOwnershipException;
 import com.github.hf.leveldb.implementation.mock.MockLevelDB;
 import com.github.hf.leveldb.implementation.mock.MockSnapshot;
 import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
 
 import org.junit.Test;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -162,6 +167,82 @@ public abstract class SnapshotTest extends DatabaseTestCase {
         db.close();
     }
 
+    @Test
+    public void testIteratorOutlivesSnapshot() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1});
+
+        Snapshot snapshot = db.obtainSnapshot();
+        Iterator iterator = db.iterator(snapshot);
+
+        db.releaseSnapshot(snapshot);
+
+        db.put(new byte[]{1}, new byte[]{2});
+        db.put(new byte[]{2}, new byte[]{2});
+
+        iterator.seekToFirst();
+
+        assertTrue(iterator.isValid());
+        assertEquals(0, Bytes.lexicographicCompare(iterator.value(), new byte[]{1}));
+
+        iterator.next();
+
+        assertFalse(iterator.isValid());
+
+        iterator.close();
+
+        db.close();
+    }
+
+    @Test
+    public void testConsistentWhileWriting() throws Exception {
+        final LevelDB db = obtainLevelDB();
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        WriteBatch batch = new SimpleWriteBatch();
+
+                        batch.put(new byte[]{1}, new byte[]{(byte) (i >> 8), (byte) i});
+                        batch.put(new byte[]{2}, new byte[]{(byte) (i >> 8), (byte) i});
+
+                        db.write(batch);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+
+        writer.start();
+
+        while (writer.isAlive()) {
+            Snapshot snapshot = db.obtainSnapshot();
+
+            byte[] first = db.get(new byte[]{1}, snapshot);
+            byte[] second = db.get(new byte[]{2}, snapshot);
+
+            if (first == null) {
+                assertNull(second);
+            } else {
+                assertEquals(0, Bytes.lexicographicCompare(first, second));
+            }
+
+            db.releaseSnapshot(snapshot);
+        }
+
+        writer.join();
+
+        assertNull(failure.get());
+
+        db.close();
+    }
+
     public void testIteration() throws Exception {
 
 
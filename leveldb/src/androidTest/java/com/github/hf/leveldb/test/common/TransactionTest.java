@@ -0,0 +1,180 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Transaction;
+import com.github.hf.leveldb.exception.LevelDBTransactionConflictException;
+import com.github.hf.leveldb.util.KeyCodec;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public abstract class TransactionTest extends DatabaseTestCase {
+
+    @Test
+    public void testReadYourWrites() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1});
+
+        Transaction tx = db.beginTransaction();
+
+        tx.put(new byte[]{1}, new byte[]{2});
+        tx.put(new byte[]{2}, new byte[]{2});
+        tx.del(new byte[]{3});
+
+        assertArrayEquals(new byte[]{2}, tx.get(new byte[]{1}));
+        assertNull(tx.get(new byte[]{3}));
+        assertArrayEquals(new byte[]{1}, db.get(new byte[]{1}));
+        assertNull(db.get(new byte[]{2}));
+
+        tx.commit();
+
+        assertTrue(tx.isFinished());
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{1}));
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{2}));
+
+        db.close();
+    }
+
+    @Test
+    public void testConflict() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1});
+
+        Transaction first = db.beginTransaction();
+        Transaction second = db.beginTransaction();
+        Transaction blind = db.beginTransaction();
+
+        assertArrayEquals(new byte[]{1}, first.get(new byte[]{1}));
+        assertArrayEquals(new byte[]{1}, second.get(new byte[]{1}));
+        assertNull(second.get(new byte[]{9}));
+
+        first.put(new byte[]{1}, new byte[]{2});
+        second.put(new byte[]{1}, new byte[]{3});
+        blind.put(new byte[]{1}, new byte[]{4});
+
+        first.commit();
+
+        boolean threw = false;
+
+        try {
+            second.commit();
+        } catch (LevelDBTransactionConflictException e) {
+            threw = true;
+        }
+
+        assertTrue(threw);
+        assertTrue(second.isFinished());
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{1}));
+
+        // Writes without reads don't conflict.
+        blind.commit();
+        assertArrayEquals(new byte[]{4}, db.get(new byte[]{1}));
+
+        // Neither does a rolled back transaction, nor one that reads other keys.
+        Transaction rolledBack = db.beginTransaction();
+        rolledBack.put(new byte[]{1}, new byte[]{5});
+        rolledBack.rollback();
+        rolledBack.close();
+
+        Transaction other = db.beginTransaction();
+        other.get(new byte[]{2});
+        db.put(new byte[]{1}, new byte[]{6});
+        other.put(new byte[]{2}, new byte[]{2});
+        other.commit();
+
+        assertArrayEquals(new byte[]{6}, db.get(new byte[]{1}));
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{2}));
+
+        db.close();
+    }
+
+    @Test
+    public void testConcurrentCheckAndSet() throws Exception {
+        final LevelDB db = obtainLevelDB();
+        final byte[] key = new byte[]{1};
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        db.increment(key, 0);
+
+        Thread[] threads = new Thread[4];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int done = 0; done < 100; ) {
+                            Transaction tx = db.beginTransaction();
+
+                            try {
+                                byte[] value = new byte[KeyCodec.LONG_LENGTH];
+                                KeyCodec.putLong(value, 0, KeyCodec.getLong(tx.get(key), 0) + 1);
+                                tx.put(key, value);
+                                tx.commit();
+                                done++;
+                            } catch (LevelDBTransactionConflictException e) {
+                                // Retry.
+                            } finally {
+                                tx.close();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(400, db.increment(key, 0));
+
+        db.close();
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.namespace.Namespace;
+import com.github.hf.leveldb.ttl.TtlLevelDB;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public abstract class TtlLevelDBTest extends DatabaseTestCase {
+
+    private static final class ManualClock implements TtlLevelDB.Clock {
+        volatile long now = 1000;
+
+        @Override
+        public long now() {
+            return now;
+        }
+    }
+
+    private static int count(Namespace namespace) throws Exception {
+        Iterator iterator = namespace.iterator();
+        int count = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            count++;
+        }
+
+        iterator.close();
+
+        return count;
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        ManualClock clock = new ManualClock();
+        TtlLevelDB db = new TtlLevelDB(obtainLevelDB(), "sessions", clock);
+
+        db.put(new byte[]{1}, new byte[]{1}, 100);
+        db.put(new byte[]{2}, new byte[]{2});
+
+        assertArrayEquals(new byte[]{1}, db.get(new byte[]{1}));
+        assertEquals(1100, db.getExpiry(new byte[]{1}));
+        assertEquals(0, db.getExpiry(new byte[]{2}));
+
+        clock.now = 1100;
+
+        assertNull(db.get(new byte[]{1}));
+        assertEquals(-1, db.getExpiry(new byte[]{1}));
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{2}));
+
+        db.close();
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        ManualClock clock = new ManualClock();
+        TtlLevelDB db = new TtlLevelDB(obtainLevelDB(), "sessions", clock);
+        Namespace other = db.levelDB().namespace("other");
+
+        other.put(new byte[]{0}, new byte[]{0});
+
+        for (int i = 0; i < 100; i++) {
+            db.put(new byte[]{(byte) i}, new byte[]{(byte) i}, 10 + i);
+        }
+
+        db.put(new byte[]{(byte) 200}, new byte[]{1});
+
+        // Rewritten with a later expiry, then deleted: their first index entries are stale.
+        db.put(new byte[]{0}, new byte[]{0}, 1000);
+        db.del(new byte[]{1});
+
+        clock.now = 1060;
+
+        assertEquals(49, db.expire(7));
+        assertEquals(0, db.expire(7));
+
+        clock.now = 3000;
+
+        assertEquals(50, db.expire(TtlLevelDB.DEFAULT_BATCH_SIZE));
+        assertArrayEquals(new byte[]{1}, db.get(new byte[]{(byte) 200}));
+
+        // Only the permanent entry is left, without any index entries.
+        assertEquals(1, count(db.levelDB().namespace("sessions")));
+        assertEquals(0, count(db.levelDB().namespace("sessions/expiry")));
+
+        // Other namespaces of the same database are left alone.
+        assertArrayEquals(new byte[]{0}, other.get(new byte[]{0}));
+
+        db.close();
+    }
+
+    @Test
+    public void testExpirer() throws Exception {
+        ManualClock clock = new ManualClock();
+        TtlLevelDB db = new TtlLevelDB(obtainLevelDB(), "sessions", clock);
+
+        db.put(new byte[]{1}, new byte[]{1}, 1);
+        clock.now = 2000;
+
+        db.startExpirer(10, TimeUnit.MILLISECONDS);
+
+        Namespace sessions = db.levelDB().namespace("sessions");
+
+        for (int i = 0; i < 500 && sessions.get(new byte[]{1}) != null; i++) {
+            Thread.sleep(10);
+        }
+
+        assertNull(sessions.get(new byte[]{1}));
+
+        db.close();
+    }
+}
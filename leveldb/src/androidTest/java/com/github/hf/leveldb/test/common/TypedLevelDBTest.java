@@ -0,0 +1,136 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.typed.Serializers;
+import com.github.hf.leveldb.typed.TypedIterator;
+import com.github.hf.leveldb.typed.TypedLevelDB;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public abstract class TypedLevelDBTest extends DatabaseTestCase {
+
+    @Test
+    public void testPutGetDel() throws Exception {
+        TypedLevelDB<String, Long> db = new TypedLevelDB<String, Long>(obtainLevelDB(), Serializers.STRING, Serializers.LONG);
+
+        db.put("answer", 42L);
+        db.put("\u00e9t\u00e9", -1L, true);
+
+        assertEquals(Long.valueOf(42L), db.get("answer"));
+        assertEquals(Long.valueOf(-1L), db.get("\u00e9t\u00e9"));
+        assertEquals(8, db.levelDB().get("answer".getBytes("UTF-8")).length);
+
+        db.put("answer", null);
+
+        assertNull(db.get("answer"));
+
+        db.del("\u00e9t\u00e9");
+
+        assertNull(db.get("\u00e9t\u00e9"));
+
+        db.close();
+    }
+
+    @Test
+    public void testNumericOrder() throws Exception {
+        TypedLevelDB<Long, String> db = new TypedLevelDB<Long, String>(obtainLevelDB(), Serializers.LONG, Serializers.STRING);
+
+        long[] keys = new long[]{5, -3, 1000, 0, Long.MIN_VALUE, 7, Long.MAX_VALUE};
+
+        TypedLevelDB<Long, String>.Batch batch = db.batch();
+
+        for (long key : keys) {
+            batch.put(key, String.valueOf(key));
+        }
+
+        batch.write();
+
+        Arrays.sort(keys);
+
+        TypedIterator<Long, String> iterator = db.iterator();
+
+        int i = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next(), i++) {
+            assertEquals(Long.valueOf(keys[i]), iterator.key());
+            assertEquals(String.valueOf(keys[i]), iterator.value());
+        }
+
+        assertEquals(keys.length, i);
+
+        iterator.seek(6L);
+
+        assertTrue(iterator.isValid());
+        assertEquals(Long.valueOf(7L), iterator.key());
+
+        iterator.close();
+
+        db.close();
+    }
+
+    @Test
+    public void testLists() throws Exception {
+        TypedLevelDB<Integer, List<byte[]>> db = new TypedLevelDB<Integer, List<byte[]>>(obtainLevelDB(), Serializers.INTEGER, Serializers.list(Serializers.BYTES));
+
+        byte[] large = new byte[300];
+
+        Arrays.fill(large, (byte) 7);
+
+        db.put(1, Arrays.asList(new byte[0], new byte[]{1, 2, 3}, large));
+
+        List<byte[]> list = db.get(1);
+
+        assertEquals(3, list.size());
+        assertEquals(0, list.get(0).length);
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, list.get(1)));
+        assertTrue(Arrays.equals(large, list.get(2)));
+
+        assertFalse(db.levelDB().isClosed());
+
+        db.close();
+
+        assertTrue(db.levelDB().isClosed());
+    }
+}
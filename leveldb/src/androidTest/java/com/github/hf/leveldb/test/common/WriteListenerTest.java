@@ -0,0 +1,182 @@
+package com.github.hf.leveldb.test.common;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.WriteListener;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public abstract class WriteListenerTest extends DatabaseTestCase {
+
+    /**
+     * Records the operations it receives, counting down once per operation.
+     */
+    private static final class Recorder implements WriteListener {
+        final List<WriteBatch.Operation> operations = new ArrayList<WriteBatch.Operation>();
+        final CountDownLatch latch;
+        int calls;
+
+        Recorder(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public synchronized void onWrites(List<WriteBatch> batches) {
+            assertTrue(!batches.isEmpty());
+            calls++;
+
+            for (WriteBatch batch : batches) {
+                for (WriteBatch.Operation operation : batch) {
+                    operations.add(operation);
+                    latch.countDown();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDeliveryOrder() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{0}, new byte[]{0});
+
+        Recorder recorder = new Recorder(5);
+        db.addWriteListener(recorder);
+
+        byte[] buffer = new byte[]{9, 1, 9};
+        byte[] batchKey = new byte[]{2};
+        byte[] batchValue = new byte[]{2};
+
+        db.put(new byte[]{1}, new byte[]{1});
+        db.put(buffer, 1, 1, buffer, 0, 3, false);
+        db.write(new SimpleWriteBatch().put(batchKey, batchValue).del(new byte[]{0}));
+        db.del(new byte[]{1});
+
+        // Reused buffers must not change what's delivered.
+        buffer[1] = 7;
+        batchKey[0] = 7;
+        batchValue[0] = 7;
+
+        assertTrue(recorder.latch.await(10, TimeUnit.SECONDS));
+
+        synchronized (recorder) {
+            assertEquals(5, recorder.operations.size());
+
+            assertArrayEquals(new byte[]{1}, recorder.operations.get(0).key());
+            assertTrue(recorder.operations.get(0).isPut());
+            assertArrayEquals(new byte[]{1}, recorder.operations.get(1).key());
+            assertArrayEquals(new byte[]{9, 1, 9}, recorder.operations.get(1).value());
+            assertArrayEquals(new byte[]{2}, recorder.operations.get(2).key());
+            assertArrayEquals(new byte[]{2}, recorder.operations.get(2).value());
+            assertArrayEquals(new byte[]{0}, recorder.operations.get(3).key());
+            assertTrue(recorder.operations.get(3).isDel());
+            assertArrayEquals(new byte[]{1}, recorder.operations.get(4).key());
+            assertTrue(recorder.operations.get(4).isDel());
+        }
+
+        db.removeWriteListener(recorder);
+        db.put(new byte[]{3}, new byte[]{3});
+        db.close();
+
+        synchronized (recorder) {
+            assertEquals(5, recorder.operations.size());
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final LevelDB db = obtainLevelDB();
+        final int writers = 4;
+        final int writes = 2000;
+
+        Recorder recorder = new Recorder(writers * writes);
+        db.addWriteListener(recorder);
+
+        Thread[] threads = new Thread[writers];
+
+        for (int i = 0; i < writers; i++) {
+            final byte writer = (byte) i;
+
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < writes; j++) {
+                            db.put(new byte[]{writer, (byte) (j >> 8), (byte) j}, new byte[]{writer});
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(recorder.latch.await(30, TimeUnit.SECONDS));
+
+        synchronized (recorder) {
+            // Each writer's puts arrive in the order it made them, batched into fewer calls.
+            int[] next = new int[writers];
+
+            for (WriteBatch.Operation operation : recorder.operations) {
+                byte[] key = operation.key();
+                int index = ((key[1] & 0xff) << 8) | (key[2] & 0xff);
+
+                assertEquals(next[key[0]]++, index);
+            }
+
+            assertTrue(Arrays.toString(next), next[0] == writes && next[writers - 1] == writes);
+        }
+
+        db.close();
+    }
+}
@@ -0,0 +1,270 @@
+package com.github.hf.leveldb.test.mock;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.implementation.mock.PersistentMockLevelDB;
+import com.github.hf.leveldb.test.common.DatabaseTestCase;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentMockOpenCloseTest extends DatabaseTestCase {
+
+    private LevelDB open(int writeBufferSize) throws LevelDBException {
+        return LevelDB.mock(dbFile.getAbsolutePath(), LevelDB.configure().writeBufferSize(writeBufferSize));
+    }
+
+    @Test
+    public void testOpenAnExistingDatabase() throws Exception {
+        assertFalse(dbFile.exists());
+
+        LevelDB db = open(0);
+
+        db.put(new byte[]{1}, new byte[]{1});
+        db.close();
+
+        assertTrue(dbFile.exists());
+
+        db = LevelDB.mock(dbFile.getAbsolutePath(), LevelDB.configure().createIfMissing(false));
+
+        assertArrayEquals(new byte[]{1}, db.get(new byte[]{1}));
+
+        db.close();
+    }
+
+    @Test
+    public void testOpenNonExistingDatabase() throws Exception {
+        boolean threw = false;
+
+        try {
+            LevelDB.mock(dbFile.getAbsolutePath(), LevelDB.configure().createIfMissing(false));
+        } catch (LevelDBException e) {
+            threw = true;
+        }
+
+        assertTrue(threw);
+        assertFalse(dbFile.exists());
+    }
+
+    @Test
+    public void testTwiceOpenADatabase() throws Exception {
+        LevelDB db = open(0);
+
+        boolean threw = false;
+
+        try {
+            open(0);
+        } catch (LevelDBException e) {
+            threw = true;
+        }
+
+        assertTrue(threw);
+
+        db.close();
+
+        open(0).close();
+    }
+
+    @Test
+    public void testRecoverFromLog() throws Exception {
+        LevelDB db = open(0);
+
+        db.put(new byte[]{1}, new byte[]{1});
+        db.put(new byte[]{2}, new byte[]{2}, true);
+        db.write(new SimpleWriteBatch().del(new byte[]{1}).put(new byte[]{3}, new byte[]{3}));
+
+        // Never flushed, everything is still in the log.
+        assertEquals("0", db.getProperty("leveldb.num-files-at-level0"));
+
+        db.close();
+
+        db = open(0);
+
+        assertNull(db.get(new byte[]{1}));
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{2}));
+        assertArrayEquals(new byte[]{3}, db.get(new byte[]{3}));
+
+        db.close();
+    }
+
+    @Test
+    public void testDropTornLogRecord() throws Exception {
+        LevelDB db = open(0);
+
+        db.put(new byte[]{1}, new byte[]{1});
+        db.put(new byte[]{2}, new byte[]{2});
+
+        File log = null;
+
+        for (File file : dbFile.listFiles()) {
+            if (file.getName().endsWith(".log")) {
+                log = file;
+            }
+        }
+
+        // Simulates a crash in the middle of writing the last record.
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        db.close();
+
+        db = open(0);
+
+        assertArrayEquals(new byte[]{1}, db.get(new byte[]{1}));
+        assertNull(db.get(new byte[]{2}));
+
+        db.put(new byte[]{2}, new byte[]{2});
+
+        db.close();
+
+        db = open(0);
+
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{2}));
+
+        db.close();
+    }
+
+    @Test
+    public void testFlushAndCompact() throws Exception {
+        LevelDB db = open(1024);
+
+        for (int i = 0; i < 2000; i++) {
+            db.put(key(i), key(i * 2));
+        }
+
+        for (int i = 0; i < 2000; i += 2) {
+            db.del(key(i));
+        }
+
+        assertTrue(Integer.parseInt(db.getProperty("leveldb.num-files-at-level0")) < PersistentMockLevelDB.LEVEL0_COMPACTION_TRIGGER);
+        assertTrue(Integer.parseInt(db.getProperty("leveldb.num-files-at-level1")) > 0);
+        assertTrue(db.getApproximateSize(key(0), key(2000)) > 0);
+
+        verify(db);
+
+        db.close();
+
+        db = open(1024);
+
+        verify(db);
+
+        db.close();
+    }
+
+    @Test
+    public void testSnapshotSurvivesCompaction() throws Exception {
+        LevelDB db = open(256);
+
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), key(i));
+        }
+
+        Snapshot snapshot = db.obtainSnapshot();
+        Iterator iterator = db.iterator(snapshot);
+
+        for (int i = 0; i < 100; i++) {
+            db.del(key(i));
+        }
+
+        assertNull(db.get(key(50)));
+        assertArrayEquals(key(50), db.get(key(50), snapshot));
+
+        int count = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            assertArrayEquals(iterator.key(), iterator.value());
+            count++;
+        }
+
+        assertEquals(100, count);
+
+        iterator.close();
+        db.releaseSnapshot(snapshot);
+        db.close();
+    }
+
+    private static void verify(LevelDB db) throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            if (i % 2 == 0) {
+                assertNull(db.get(key(i)));
+            } else {
+                assertArrayEquals(key(i * 2), db.get(key(i)));
+            }
+        }
+
+        Iterator iterator = db.iterator();
+
+        int i = 1;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next(), i += 2) {
+            assertArrayEquals(key(i), iterator.key());
+        }
+
+        assertEquals(2001, i);
+
+        i = 1999;
+
+        for (iterator.seekToLast(); iterator.isValid(); iterator.previous(), i -= 2) {
+            assertArrayEquals(key(i), iterator.key());
+        }
+
+        assertEquals(-1, i);
+
+        iterator.close();
+    }
+
+    private static byte[] key(int i) {
+        return new byte[]{(byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+    }
+
+    @Override
+    protected LevelDB obtainLevelDB() throws Exception {
+        return open(0);
+    }
+}
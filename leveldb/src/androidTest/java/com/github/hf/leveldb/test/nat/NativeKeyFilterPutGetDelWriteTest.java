@@ -0,0 +1,109 @@
+package com.github.hf.leveldb.test.nat;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.implementation.NativeLevelDB;
+import com.github.hf.leveldb.test.common.PutGetDelWriteTest;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the put/get/del/write tests with the key filter enabled.
+ */
+public final class NativeKeyFilterPutGetDelWriteTest extends PutGetDelWriteTest {
+    @Test
+    public void testNegatives() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1});
+        db.write(new SimpleWriteBatch().put(new byte[]{2}, new byte[]{2}));
+        db.put(new byte[]{0, 3}, 1, 1, new byte[]{3}, 0, 1, false);
+
+        assertArrayEquals(new byte[]{1}, db.get(new byte[]{1}));
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{2}));
+        assertArrayEquals(new byte[]{3}, db.get(new byte[]{3}));
+
+        for (int i = 0; i < 100; i++) {
+            assertNull(db.get(new byte[]{4, (byte) i}));
+        }
+
+        long negatives = Long.parseLong(db.getProperty(NativeLevelDB.PROPERTY_KEY_FILTER_NEGATIVES));
+        long falsePositives = Long.parseLong(db.getProperty(NativeLevelDB.PROPERTY_KEY_FILTER_FALSE_POSITIVES));
+
+        assertEquals(100, negatives + falsePositives);
+        assertTrue(negatives > 90);
+        assertEquals("3", db.getProperty(NativeLevelDB.PROPERTY_KEY_FILTER_KEYS));
+        assertEquals("4096", db.getProperty(NativeLevelDB.PROPERTY_KEY_FILTER_USAGE));
+
+        db.del(new byte[]{1});
+        assertNull(db.get(new byte[]{1}));
+        assertEquals(String.valueOf(falsePositives + 1), db.getProperty(NativeLevelDB.PROPERTY_KEY_FILTER_FALSE_POSITIVES));
+
+        db.close();
+    }
+
+    @Test
+    public void testFilledOnOpen() throws Exception {
+        LevelDB db = new NativeLevelDB(dbFile.getAbsolutePath(), LevelDB.configure());
+
+        for (int i = 0; i < 1000; i++) {
+            db.put(new byte[]{(byte) (i >> 8), (byte) i}, new byte[]{(byte) i});
+        }
+
+        db.close();
+
+        db = obtainLevelDB();
+
+        assertEquals("1000", db.getProperty(NativeLevelDB.PROPERTY_KEY_FILTER_KEYS));
+
+        for (int i = 0; i < 1000; i++) {
+            assertArrayEquals(new byte[]{(byte) i}, db.get(new byte[]{(byte) (i >> 8), (byte) i}));
+        }
+
+        db.close();
+    }
+
+    @Override
+    protected LevelDB obtainLevelDB() throws Exception {
+        return new NativeLevelDB(dbFile.getAbsolutePath(), LevelDB.configure().createIfMissing(true).keyFilterSize(4096));
+    }
+}
@@ -0,0 +1,187 @@
+package com.github.hf.leveldb.test.nat;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import android.content.ComponentCallbacks2;
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.implementation.MemoryTrimmer;
+import com.github.hf.leveldb.implementation.NativeCache;
+import com.github.hf.leveldb.implementation.NativeLevelDB;
+import com.github.hf.leveldb.implementation.SstWriter;
+import com.github.hf.leveldb.test.common.DatabaseTestCase;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NativeMemoryTrimmerTest extends DatabaseTestCase {
+    private NativeCache cache;
+
+    @Override
+    protected LevelDB obtainLevelDB() throws Exception {
+        // Tables written directly, so that reads go through the block cache.
+        SstWriter writer = new SstWriter(dbFile.getAbsolutePath());
+
+        try {
+            for (int i = 0; i < 10000; i++) {
+                writer.add(key(i), new byte[100]);
+            }
+
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        cache = new NativeCache(4 << 20);
+
+        return new NativeLevelDB(dbFile.getAbsolutePath(), LevelDB.configure().sharedCache(cache).rowCacheSize(1 << 20));
+    }
+
+    private static byte[] key(int i) {
+        return new byte[]{(byte) (i >> 8), (byte) i};
+    }
+
+    private static void readAll(LevelDB db) throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            db.get(key(i));
+        }
+    }
+
+    private static long rowCacheUsage(LevelDB db) throws Exception {
+        return Long.parseLong(db.getProperty(NativeLevelDB.PROPERTY_ROW_CACHE_USAGE));
+    }
+
+    @Test
+    public void testResize() throws Exception {
+        NativeLevelDB db = (NativeLevelDB) obtainLevelDB();
+
+        readAll(db);
+        assertTrue(cache.usage() > 0);
+        assertTrue(rowCacheUsage(db) > 0);
+
+        cache.setCapacity(0);
+        db.scaleCaches(0);
+
+        assertEquals(0, cache.usage());
+        assertEquals(0, rowCacheUsage(db));
+
+        readAll(db);
+        assertEquals(0, cache.usage());
+        assertEquals(0, rowCacheUsage(db));
+
+        cache.setCapacity(4 << 20);
+        db.scaleCaches(1);
+
+        readAll(db);
+        assertTrue(cache.usage() > 0);
+        assertTrue(rowCacheUsage(db) > 0);
+
+        db.close();
+        cache.close();
+    }
+
+    @Test
+    public void testReleaseIdleIterators() throws Exception {
+        NativeLevelDB db = (NativeLevelDB) obtainLevelDB();
+
+        Iterator idle = db.iterator();
+        Iterator busy = db.iterator();
+
+        // Both were just opened.
+        assertEquals(0, db.releaseIdleIterators());
+
+        busy.seekToFirst();
+        assertEquals(1, db.releaseIdleIterators());
+
+        try {
+            idle.seekToFirst();
+            fail("A released iterator must be closed");
+        } catch (LevelDBClosedException e) {
+            // expected
+        }
+
+        assertTrue(idle.isClosed());
+        busy.next();
+        assertTrue(busy.isValid());
+
+        busy.close();
+        db.close();
+        cache.close();
+    }
+
+    @Test
+    public void testTrimmer() throws Exception {
+        NativeLevelDB db = (NativeLevelDB) obtainLevelDB();
+        MemoryTrimmer trimmer = new MemoryTrimmer(InstrumentationRegistry.getInstrumentation().getContext(), 100, TimeUnit.MILLISECONDS, false);
+
+        trimmer.add(db);
+        trimmer.add(cache);
+
+        trimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0.5f, trimmer.scale(), 0);
+        assertEquals(2 << 20, cache.capacity());
+
+        // A milder level doesn't grow the caches back.
+        trimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(0.5f, trimmer.scale(), 0);
+
+        trimmer.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, trimmer.scale(), 0);
+        assertEquals(0, cache.capacity());
+
+        readAll(db);
+        assertEquals(0, cache.usage());
+
+        for (int i = 0; i < 100 && trimmer.scale() < 1; i++) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(1, trimmer.scale(), 0);
+        assertEquals(4 << 20, cache.capacity());
+
+        trimmer.close();
+        db.close();
+        cache.close();
+    }
+}
@@ -33,14 +33,22 @@ package com.github.hf.leveldb.test.nat;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.github.hf.leveldb.Iterator;
 import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
 import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
 import com.github.hf.leveldb.implementation.NativeLevelDB;
 import com.github.hf.leveldb.test.common.DatabaseTestCase;
 
 import org.junit.Test;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
 /**
@@ -113,6 +121,81 @@ public class NativeOpenCloseTest extends DatabaseTestCase {
         assertTrue(dbFile.exists());
     }
 
+    @Test
+    public void testCloseReleasesOpenResources() throws Exception {
+        NativeLevelDB ndb = new NativeLevelDB(dbFile.getAbsolutePath(), LevelDB.configure().recordAllocationSites(true));
+
+        ndb.put(new byte[]{1}, new byte[]{1});
+
+        Iterator iterator = ndb.iterator();
+        Snapshot snapshot = ndb.obtainSnapshot();
+
+        assertEquals("1", ndb.getProperty(NativeLevelDB.PROPERTY_OPEN_ITERATORS));
+        assertEquals("1", ndb.getProperty(NativeLevelDB.PROPERTY_OPEN_SNAPSHOTS));
+        assertTrue(ndb.getProperty(NativeLevelDB.PROPERTY_OPEN_RESOURCES).contains("testCloseReleasesOpenResources"));
+
+        iterator.close();
+
+        assertEquals("0", ndb.getProperty(NativeLevelDB.PROPERTY_OPEN_ITERATORS));
+
+        iterator = ndb.iterator();
+
+        ndb.close();
+
+        assertTrue(iterator.isClosed());
+        assertTrue(snapshot.isReleased());
+
+        iterator.close();
+    }
+
+    @Test
+    public void testCloseWhileIterating() throws Exception {
+        final NativeLevelDB ndb = new NativeLevelDB(dbFile.getAbsolutePath(), LevelDB.configure());
+
+        SimpleWriteBatch wb = new SimpleWriteBatch(ndb);
+
+        for (int i = 0; i < 10000; i++) {
+            wb.put(new byte[]{(byte) (i >> 8), (byte) i}, new byte[]{(byte) i});
+        }
+
+        wb.write();
+
+        final Iterator iterator = ndb.iterator();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread scanner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    iterator.seekToFirst();
+                    started.countDown();
+
+                    while (iterator.isValid()) {
+                        iterator.entry();
+                        iterator.next();
+                    }
+                } catch (LevelDBClosedException e) {
+                    // Expected once the database is closed.
+                } catch (Throwable e) {
+                    failure.set(e);
+                } finally {
+                    started.countDown();
+                }
+            }
+        });
+
+        scanner.start();
+        started.await();
+
+        ndb.close();
+
+        scanner.join();
+
+        assertTrue(failure.get() == null);
+        assertTrue(iterator.isClosed());
+    }
+
     @Override
     protected LevelDB obtainLevelDB() throws Exception {
         return new NativeLevelDB(dbFile.getAbsolutePath(), LevelDB.configure().createIfMissing(true));
@@ -0,0 +1,173 @@
+package com.github.hf.leveldb.test.nat;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.implementation.NativeLevelDB;
+import com.github.hf.leveldb.test.common.PutGetDelWriteTest;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the put/get/del/write tests with the row cache enabled.
+ */
+public final class NativeRowCachePutGetDelWriteTest extends PutGetDelWriteTest {
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1, 1});
+
+        assertArrayEquals(new byte[]{1, 1}, db.get(new byte[]{1}));
+        assertEquals("0", db.getProperty(NativeLevelDB.PROPERTY_ROW_CACHE_HITS));
+        assertEquals("1", db.getProperty(NativeLevelDB.PROPERTY_ROW_CACHE_MISSES));
+
+        byte[] value = db.get(new byte[]{1});
+        assertArrayEquals(new byte[]{1, 1}, value);
+        assertEquals("1", db.getProperty(NativeLevelDB.PROPERTY_ROW_CACHE_HITS));
+
+        // Returned values are copies, changing one must not change the cache.
+        value[0] = 9;
+        assertArrayEquals(new byte[]{1, 1}, db.get(new byte[]{0, 1}, 1, 1, null));
+        assertEquals("2", db.getProperty(NativeLevelDB.PROPERTY_ROW_CACHE_HITS));
+
+        assertTrue(Long.parseLong(db.getProperty(NativeLevelDB.PROPERTY_ROW_CACHE_USAGE)) > 0);
+
+        db.close();
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1});
+        db.put(new byte[]{2}, new byte[]{2});
+        db.get(new byte[]{1});
+        db.get(new byte[]{2});
+
+        db.put(new byte[]{1}, new byte[]{3});
+        assertArrayEquals(new byte[]{3}, db.get(new byte[]{1}));
+
+        db.put(new byte[]{0, 1}, 1, 1, new byte[]{4}, 0, 1, false);
+        assertArrayEquals(new byte[]{4}, db.get(new byte[]{1}));
+
+        db.del(new byte[]{2});
+        assertNull(db.get(new byte[]{2}));
+
+        db.put(new byte[]{2}, new byte[]{2});
+        db.get(new byte[]{2});
+
+        db.write(new SimpleWriteBatch().put(new byte[]{1}, new byte[]{5}).del(new byte[]{2}));
+        assertArrayEquals(new byte[]{5}, db.get(new byte[]{1}));
+        assertNull(db.get(new byte[]{2}));
+
+        db.close();
+    }
+
+    @Test
+    public void testReusedKeyArray() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        byte[] key = new byte[1];
+
+        key[0] = 1;
+        db.put(key, new byte[]{1});
+        key[0] = 2;
+        db.put(key, new byte[]{2});
+
+        key[0] = 1;
+        assertArrayEquals(new byte[]{1}, db.get(key));
+
+        // Reusing the array must not change the key the first lookup was cached under.
+        key[0] = 2;
+        assertArrayEquals(new byte[]{2}, db.get(key));
+
+        key[0] = 1;
+        db.put(key, new byte[]{3});
+
+        key[0] = 2;
+        assertArrayEquals(new byte[]{2}, db.get(key));
+
+        key[0] = 1;
+        assertArrayEquals(new byte[]{3}, db.get(key));
+
+        db.close();
+    }
+
+    @Test
+    public void testSnapshotBypassesCache() throws Exception {
+        LevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{1});
+
+        Snapshot snapshot = db.obtainSnapshot();
+
+        db.put(new byte[]{1}, new byte[]{2});
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{1}));
+        assertArrayEquals(new byte[]{1}, db.get(new byte[]{1}, snapshot));
+
+        db.releaseSnapshot(snapshot);
+        db.close();
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        LevelDB db = new NativeLevelDB(dbFile.getAbsolutePath(), LevelDB.configure().rowCacheSize(64 * 1024));
+
+        byte[] value = new byte[1024];
+
+        for (int i = 0; i < 256; i++) {
+            db.put(new byte[]{(byte) i}, value);
+            db.get(new byte[]{(byte) i});
+        }
+
+        assertTrue(Long.parseLong(db.getProperty(NativeLevelDB.PROPERTY_ROW_CACHE_EVICTIONS)) > 0);
+        assertTrue(Long.parseLong(db.getProperty(NativeLevelDB.PROPERTY_ROW_CACHE_USAGE)) <= 64 * 1024);
+
+        db.close();
+    }
+
+    @Override
+    protected LevelDB obtainLevelDB() throws Exception {
+        return new NativeLevelDB(dbFile.getAbsolutePath(), LevelDB.configure().createIfMissing(true).rowCacheSize(1024 * 1024));
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.hf.leveldb.test.nat;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.implementation.NativeCache;
+import com.github.hf.leveldb.implementation.ShardedLevelDB;
+import com.github.hf.leveldb.test.common.ShardedLevelDBTest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class NativeShardedLevelDBTest extends ShardedLevelDBTest {
+    @Override
+    protected ShardedLevelDB obtainLevelDB() throws Exception {
+        return ShardedLevelDB.open(dbFile.getAbsolutePath(), 4, LevelDB.configure().createIfMissing(true));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        ShardedLevelDB db = obtainLevelDB();
+
+        db.put(new byte[]{1}, new byte[]{2});
+        db.close();
+
+        try {
+            ShardedLevelDB.open(dbFile.getAbsolutePath(), 3, LevelDB.configure());
+            fail("A sharded database must be opened with its number of shards");
+        } catch (LevelDBException e) {
+            // expected
+        }
+
+        db = obtainLevelDB();
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{1}));
+        db.close();
+    }
+
+    @Test
+    public void testSharedCache() throws Exception {
+        NativeCache cache = new NativeCache(1 << 20);
+
+        ShardedLevelDB db = ShardedLevelDB.open(dbFile.getAbsolutePath(), 2, LevelDB.configure().sharedCache(cache));
+
+        // The shards keep the cache alive until they are closed.
+        cache.close();
+        assertTrue(cache.isClosed());
+
+        db.put(new byte[]{1}, new byte[]{2});
+        assertArrayEquals(new byte[]{2}, db.get(new byte[]{1}));
+        assertFalse(db.isClosed());
+
+        db.close();
+    }
+}
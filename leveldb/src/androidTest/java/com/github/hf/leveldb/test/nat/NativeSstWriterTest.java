@@ -0,0 +1,176 @@
+package com.github.hf.leveldb.test.nat;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.implementation.NativeLevelDB;
+import com.github.hf.leveldb.implementation.SstWriter;
+import com.github.hf.leveldb.test.common.DatabaseTestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NativeSstWriterTest extends DatabaseTestCase {
+
+    @Override
+    protected LevelDB obtainLevelDB() throws Exception {
+        return new NativeLevelDB(dbFile.getAbsolutePath(), LevelDB.configure().createIfMissing(false));
+    }
+
+    private static byte[] key(int i) {
+        return new byte[]{(byte) (i >> 16), (byte) (i >> 8), (byte) i};
+    }
+
+    @Test
+    public void testCreateFromSortedEntries() throws Exception {
+        SstWriter writer = new SstWriter(dbFile.getAbsolutePath(), 4096);
+
+        try {
+            for (int i = 0; i < 10000; i++) {
+                writer.add(key(i), key(i * 2));
+            }
+
+            assertEquals(10000, writer.finish());
+        } finally {
+            writer.close();
+        }
+
+        LevelDB db = obtainLevelDB();
+
+        assertArrayEquals(key(0), db.get(key(0)));
+        assertArrayEquals(key(9999 * 2), db.get(key(9999)));
+        assertNull(db.get(key(10000)));
+
+        Iterator iterator = db.iterator();
+        int count = 0;
+
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            assertArrayEquals(key(count), iterator.key());
+            count++;
+        }
+
+        iterator.close();
+        assertEquals(10000, count);
+
+        // Loaded entries can be overwritten like any other.
+        db.put(key(5), new byte[]{1});
+        assertArrayEquals(new byte[]{1}, db.get(key(5)));
+
+        db.close();
+
+        try {
+            new SstWriter(dbFile.getAbsolutePath()).close();
+            fail("An existing database must not be overwritten");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testUnsortedAndAbandoned() throws Exception {
+        SstWriter writer = new SstWriter(dbFile.getAbsolutePath());
+
+        writer.add(key(2), new byte[0]);
+
+        try {
+            writer.add(key(1), new byte[0]);
+            fail("Keys out of order must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            writer.add(key(2), new byte[0]);
+            fail("Duplicate keys must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        writer.close();
+
+        assertFalse(new File(dbFile, "CURRENT").exists());
+        assertEquals(0, dbFile.list().length);
+    }
+
+    @Test
+    public void testFailedWriterCantBeUsed() throws Exception {
+        SstWriter writer = new SstWriter(dbFile.getAbsolutePath(), 64);
+
+        writer.add(key(0), new byte[128]);
+
+        // The next table can't be created without the directory.
+        assertTrue(FileUtils.deleteQuietly(dbFile));
+
+        int i = 1;
+
+        try {
+            for (; i < 100; i++) {
+                writer.add(key(i), new byte[128]);
+            }
+
+            fail("Adding to a deleted directory must fail");
+        } catch (LevelDBException e) {
+            // expected
+        }
+
+        try {
+            writer.add(key(i + 1), new byte[0]);
+            fail("A failed writer must not take more entries");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        try {
+            writer.finish();
+            fail("A failed writer must not finish");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        writer.close();
+        assertFalse(writer.isFinished());
+    }
+}
@@ -37,6 +37,10 @@ import com.github.hf.leveldb.util.Bytes;
 
 import junit.framework.TestCase;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
 /**
  * Created by hermann on 8/16/14.
  */
@@ -52,7 +56,42 @@ public class BytesTest extends TestCase {
         a = new byte[] { 1, 2, 3, 0, 0, 0 };
         b = new byte[] { 1, 2, 3 };
 
-        assertEquals(0, Bytes.lexicographicCompare(a, b));
-        assertEquals(0, Bytes.lexicographicCompare(b, a));
+        // Like LevelDB's bytewise comparator, a prefix sorts first, even if only zeros follow it.
+        assertTrue(Bytes.lexicographicCompare(a, b) > 0);
+        assertTrue(Bytes.lexicographicCompare(b, a) < 0);
+
+        assertEquals(0, Bytes.lexicographicCompare(new byte[] { 1, 2, 3 }, b));
+        assertEquals(0, Bytes.lexicographicCompare(new byte[0], new byte[0]));
+        assertTrue(Bytes.lexicographicCompare(new byte[0], new byte[] { 0 }) < 0);
+    }
+
+    public void testBufferComparison() throws Exception {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 1000; i++) {
+            byte[] a = new byte[random.nextInt(24)];
+            byte[] b = new byte[random.nextInt(24)];
+
+            random.nextBytes(a);
+            random.nextBytes(b);
+
+            if (random.nextBoolean()) {
+                // Long common prefixes exercise the 8 byte steps.
+                System.arraycopy(a, 0, b, 0, Math.min(a.length, b.length) / 2 * 2);
+            }
+
+            int expected = Integer.signum(Bytes.lexicographicCompare(a, b));
+
+            assertEquals(expected, Integer.signum(Bytes.lexicographicCompare(a, 0, a.length, b, 0, b.length)));
+            assertEquals(expected, Integer.signum(Bytes.lexicographicCompare(ByteBuffer.wrap(a), 0, a.length, ByteBuffer.wrap(b), 0, b.length)));
+            assertEquals(expected, Integer.signum(Bytes.lexicographicCompare(ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN), 0, a.length, ByteBuffer.wrap(b), 0, b.length)));
+        }
+
+        byte[] a = new byte[] { 9, 9, 1, 2, 3, 4, 5, 6, 7, (byte) 0x80 };
+        byte[] b = new byte[] { 1, 2, 3, 4, 5, 6, 7, 0x7F };
+
+        assertTrue(Bytes.lexicographicCompare(a, 2, 8, b, 0, 8) > 0);
+        assertTrue(Bytes.lexicographicCompare(ByteBuffer.wrap(a), 2, 8, ByteBuffer.wrap(b), 0, 8) > 0);
+        assertTrue(Bytes.lexicographicCompare(ByteBuffer.wrap(b), 0, 8, ByteBuffer.wrap(a), 2, 8) < 0);
     }
 }
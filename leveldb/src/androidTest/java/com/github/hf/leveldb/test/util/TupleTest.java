@@ -0,0 +1,149 @@
+package com.github.hf.leveldb.test.util;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.Tuple;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+public class TupleTest extends TestCase {
+
+    public void testNumberOrder() throws Exception {
+        long[] longs = new long[]{Long.MIN_VALUE, -1000, -1, 0, 1, 255, 256, Long.MAX_VALUE};
+
+        for (int i = 1; i < longs.length; i++) {
+            assertTrue(compare(new Tuple().add(longs[i - 1]), new Tuple().add(longs[i])) < 0);
+            assertTrue(compare(new Tuple().add((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, longs[i - 1]))),
+                    new Tuple().add((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, longs[i])))) <= 0);
+        }
+
+        assertTrue(compare(new Tuple().addUnsigned(1L), new Tuple().addUnsigned(-1L)) < 0);
+        assertTrue(compare(new Tuple().addUnsigned(1), new Tuple().addUnsigned(-1)) < 0);
+
+        double[] doubles = new double[]{Double.NEGATIVE_INFINITY, -1e10, -1, -Double.MIN_VALUE, -0.0, 0.0, Double.MIN_VALUE, 1, 1e10, Double.POSITIVE_INFINITY, Double.NaN};
+
+        for (int i = 1; i < doubles.length; i++) {
+            assertTrue(compare(new Tuple().add(doubles[i - 1]), new Tuple().add(doubles[i])) < 0);
+            assertTrue(compare(new Tuple().add((float) doubles[i - 1]), new Tuple().add((float) doubles[i])) <= 0);
+        }
+    }
+
+    public void testStringOrder() throws Exception {
+        String[] strings = new String[]{"", "\u0000", "\u0000\u0000", "a", "a\u0000", "ab", "b", "\u00e9", "\uffff", "\ud83d\ude00"};
+
+        for (int i = 1; i < strings.length; i++) {
+            assertTrue(strings[i], compare(new Tuple().add(strings[i - 1]), new Tuple().add(strings[i])) < 0);
+            assertTrue(compare(new Tuple().add(strings[i - 1].getBytes("UTF-8")), new Tuple().add(strings[i].getBytes("UTF-8"))) < 0);
+        }
+
+        // Fields are compared one by one, a shorter first field always sorts first.
+        assertTrue(compare(new Tuple().add("a").add(Long.MAX_VALUE), new Tuple().add("a\u0000").add(Long.MIN_VALUE)) < 0);
+    }
+
+    public void testRoundTrip() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        byte[] bytes = new byte[]{0, 1, 0, (byte) 0xFF, 0};
+        String string = "k\u0000\u00e9\u4e2d\ud83d\ude00";
+
+        Tuple tuple = new Tuple(1)
+                .add(-42)
+                .addUnsigned(-1)
+                .add(Long.MIN_VALUE)
+                .addUnsigned(Long.MAX_VALUE + 1)
+                .add(-1.5f)
+                .add(Math.PI)
+                .add(uuid)
+                .add(string)
+                .add(bytes)
+                .add("tail");
+
+        Tuple.Reader reader = new Tuple.Reader(tuple.toBytes());
+
+        assertEquals(-42, reader.readInt());
+        assertEquals(-1, reader.readUnsignedInt());
+        assertEquals(Long.MIN_VALUE, reader.readLong());
+        assertEquals(Long.MAX_VALUE + 1, reader.readUnsignedLong());
+        assertEquals(-1.5f, reader.readFloat());
+        assertEquals(Math.PI, reader.readDouble());
+        assertEquals(uuid, reader.readUUID());
+        assertEquals(string, reader.readString());
+        assertEquals(bytes.length, reader.bytesLength());
+
+        byte[] dst = new byte[8];
+
+        assertEquals(bytes.length, reader.readBytes(dst, 1));
+        assertTrue(Arrays.equals(bytes, Arrays.copyOfRange(dst, 1, 1 + bytes.length)));
+        assertEquals("tail", reader.readString());
+        assertFalse(reader.hasRemaining());
+
+        reader.reset(tuple.array(), 0, tuple.length()).skip(4 + 4 + 8 + 8 + 4 + 8 + 16).skipBytes();
+
+        assertTrue(Arrays.equals(bytes, reader.readBytes()));
+
+        boolean threw = false;
+
+        try {
+            reader.readLong();
+        } catch (IllegalArgumentException e) {
+            threw = true;
+        }
+
+        assertTrue(threw);
+    }
+
+    public void testPrefix() throws Exception {
+        Tuple prefix = new Tuple().add("user").add(7L);
+
+        assertTrue(prefix.isPrefixOf(new Tuple().add("user").add(7L).add("name").toBytes()));
+        assertTrue(prefix.isPrefixOf(prefix.toBytes()));
+        assertFalse(prefix.isPrefixOf(new Tuple().add("user").add(8L).toBytes()));
+        assertFalse(prefix.isPrefixOf(new Tuple().add("users").add(7L).toBytes()));
+        assertFalse(prefix.isPrefixOf(new Tuple().add("user").toBytes()));
+
+        byte[] array = prefix.array();
+
+        prefix.reset().add("user");
+
+        assertSame(array, prefix.array());
+    }
+
+    private static int compare(Tuple a, Tuple b) {
+        return Bytes.lexicographicCompare(a.toBytes(), b.toBytes());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+#include "com_github_hf_leveldb_implementation_NativeCache.h"
+#include "ndb_holder.h"
+
+JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeCache_ncreate
+    (JNIEnv *env, jclass cself, jlong capacity) {
+
+    NCache *cache = new NCache(new ResizableCache((size_t) capacity));
+
+    return (jlong) cache;
+}
+
+JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeCache_nusage
+    (JNIEnv *env, jclass cself, jlong ncache) {
+
+    NCache *cache = (NCache *) ncache;
+
+    return (jlong) cache->cache->TotalCharge();
+}
+
+JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeCache_nsetCapacity
+    (JNIEnv *env, jclass cself, jlong ncache, jlong capacity) {
+
+    NCache *cache = (NCache *) ncache;
+
+    cache->cache->SetCapacity((size_t) capacity);
+}
+
+JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeCache_nclose
+    (JNIEnv *env, jclass cself, jlong ncache) {
+
+    if (ncache != 0) {
+        // Databases that use the cache keep it alive until they are closed.
+        ((NCache *) ncache)->Unref();
+    }
+}
@@ -32,12 +32,14 @@
  */
 
 #include "com_github_hf_leveldb_implementation_NativeIterator.h"
+#include "ndb_holder.h"
 #include "leveldb/iterator.h"
 #include "leveldb/slice.h"
 #include "leveldb/options.h"
 #include "leveldb/status.h"
 
 #include <android/log.h>
+#include <string.h>
 
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nclose
 (JNIEnv *env, jclass cself, jlong nit) {
@@ -45,20 +47,21 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_
     return;
   }
 
-  leveldb::Iterator* it = (leveldb::Iterator*) nit;
+  NIterator* wrapper = (NIterator*) nit;
 
-  leveldb::Status status = it->status();
+  leveldb::Status status = wrapper->it->status();
 
   if (!status.ok()) {
     __android_log_print(ANDROID_LOG_INFO, "com.github.leveldb:N", "Iterator(%lld) about to close with status: %s", nit, status.ToString().data());
   }
 
-  delete it;
+  // Also drops the iterator's reference on the database.
+  delete wrapper;
 }
 
 JNIEXPORT jboolean JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nvalid
 (JNIEnv *env, jclass cself, jlong nit) {
-  leveldb::Iterator* it = (leveldb::Iterator*) nit;
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
 
   jboolean retval = (jboolean) it->Valid();
 
@@ -75,7 +78,7 @@ JNIEXPORT jboolean JNICALL Java_com_github_hf_leveldb_implementation_NativeItera
 
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nseek
 (JNIEnv *env, jclass cself, jlong nit, jbyteArray key) {
-  leveldb::Iterator* it = (leveldb::Iterator*) nit;
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
 
   const char* keyData = (char*) env->GetByteArrayElements(key, 0);
   leveldb::Slice keySlice (keyData, (size_t) env->GetArrayLength(key));
@@ -95,7 +98,7 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_
 
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nseekToFirst
 (JNIEnv *env, jclass cself, jlong nit) {
-  leveldb::Iterator* it = (leveldb::Iterator*) nit;
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
 
   it->SeekToFirst();
 
@@ -110,7 +113,7 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_
 
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nseekToLast
 (JNIEnv *env, jclass cself, jlong nit) {
-  leveldb::Iterator* it = (leveldb::Iterator*) nit;
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
 
   it->SeekToLast();
 
@@ -125,7 +128,7 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_
 
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nnext
 (JNIEnv *env, jclass cself, jlong nit) {
-  leveldb::Iterator* it = (leveldb::Iterator*) nit;
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
 
   it->Next();
 
@@ -140,7 +143,7 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_
 
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nprev
 (JNIEnv *env, jclass cself, jlong nit) {
-  leveldb::Iterator* it = (leveldb::Iterator*) nit;
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
 
   it->Prev();
 
@@ -155,7 +158,7 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_
 
 JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nkey
 (JNIEnv *env, jclass cself, jlong nit) {
-  leveldb::Iterator* it = (leveldb::Iterator*) nit;
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
 
   if (!it->Valid()) {
     return 0;
@@ -182,7 +185,7 @@ JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeIte
 
 JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nvalue
 (JNIEnv *env, jclass cself, jlong nit) {
-  leveldb::Iterator* it = (leveldb::Iterator*) nit;
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
 
   if (!it->Valid()) {
     return 0;
@@ -206,3 +209,80 @@ JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeIte
 
   return retval;
 }
+
+// Copies slice into dst at off when it fits in len bytes. Always returns the
+// slice size so that the caller can grow its buffer and retry.
+static jint copySlice(JNIEnv *env, const leveldb::Slice &slice, jbyteArray dst, jint off, jint len) {
+  jint size = (jint) slice.size();
+
+  if (size <= len) {
+    env->SetByteArrayRegion(dst, off, size, (jbyte*) slice.data());
+  }
+
+  return size;
+}
+
+// Like copySlice, but writes straight into the memory behind a direct ByteBuffer.
+static jint copySliceDirect(JNIEnv *env, const leveldb::Slice &slice, jobject dst, jint off, jint len) {
+  jint size = (jint) slice.size();
+
+  if (size <= len) {
+    char* address = (char*) env->GetDirectBufferAddress(dst);
+
+    if (address == NULL) {
+      jclass exceptionClass = env->FindClass("java/lang/IllegalArgumentException");
+
+      env->ThrowNew(exceptionClass, "Buffer is not a direct buffer.");
+
+      return size;
+    }
+
+    memcpy(address + off, slice.data(), slice.size());
+  }
+
+  return size;
+}
+
+JNIEXPORT jint JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nreadKey
+(JNIEnv *env, jclass cself, jlong nit, jbyteArray dst, jint off, jint len) {
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
+
+  if (!it->Valid()) {
+    return 0;
+  }
+
+  return copySlice(env, it->key(), dst, off, len);
+}
+
+JNIEXPORT jint JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nreadValue
+(JNIEnv *env, jclass cself, jlong nit, jbyteArray dst, jint off, jint len) {
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
+
+  if (!it->Valid()) {
+    return 0;
+  }
+
+  return copySlice(env, it->value(), dst, off, len);
+}
+
+JNIEXPORT jint JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nreadKeyDirect
+(JNIEnv *env, jclass cself, jlong nit, jobject dst, jint off, jint len) {
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
+
+  if (!it->Valid()) {
+    return 0;
+  }
+
+  return copySliceDirect(env, it->key(), dst, off, len);
+}
+
+JNIEXPORT jint JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nreadValueDirect
+(JNIEnv *env, jclass cself, jlong nit, jobject dst, jint off, jint len) {
+  leveldb::Iterator* it = ((NIterator*) nit)->it;
+
+  if (!it->Valid()) {
+    return 0;
+  }
+
+  return copySliceDirect(env, it->value(), dst, off, len);
+}
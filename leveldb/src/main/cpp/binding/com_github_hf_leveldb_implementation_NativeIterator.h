@@ -79,6 +79,38 @@ JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeIte
 JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nvalue
   (JNIEnv *, jclass, jlong);
 
+/*
+ * Class:     com_github_hf_leveldb_implementation_NativeIterator
+ * Method:    nreadKey
+ * Signature: (J[BII)I
+ */
+JNIEXPORT jint JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nreadKey
+  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint);
+
+/*
+ * Class:     com_github_hf_leveldb_implementation_NativeIterator
+ * Method:    nreadValue
+ * Signature: (J[BII)I
+ */
+JNIEXPORT jint JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nreadValue
+  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint);
+
+/*
+ * Class:     com_github_hf_leveldb_implementation_NativeIterator
+ * Method:    nreadKeyDirect
+ * Signature: (JLjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nreadKeyDirect
+  (JNIEnv *, jclass, jlong, jobject, jint, jint);
+
+/*
+ * Class:     com_github_hf_leveldb_implementation_NativeIterator
+ * Method:    nreadValueDirect
+ * Signature: (JLjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_com_github_hf_leveldb_implementation_NativeIterator_nreadValueDirect
+  (JNIEnv *, jclass, jlong, jobject, jint, jint);
+
 #ifdef __cplusplus
 }
 #endif
@@ -32,6 +32,7 @@
  */
 
 #include "com_github_hf_leveldb_implementation_NativeLevelDB.h"
+#include "ndb_holder.h"
 #include <iostream>
 
 #include "leveldb/db.h"
@@ -43,25 +44,36 @@
 
 #include <android/log.h>
 
-// Redirects leveldb's logging to the Android logger.
-class AndroidLogger final : public leveldb::Logger {
- public:
-    void Logv(const char *format, va_list ap) override {
-//        __android_log_vprint(ANDROID_LOG_INFO, "com.github.hf.leveldb:N", format, ap);
+static const size_t kDefaultCacheSize = 8 << 20;
+
+// Copies a range of a Java byte array, to be passed to LevelDB as a slice. Only the
+// range is copied, onto the stack if it is small, so callers can pass large reusable
+// buffers without paying for the rest of them.
+class ArraySlice {
+public:
+    ArraySlice(JNIEnv *env, jbyteArray array, jint offset, jint length) : length((size_t) length) {
+        if (this->length <= sizeof(inlineData)) {
+            data = inlineData;
+        } else {
+            heapData.resize(this->length);
+            data = &heapData[0];
+        }
+
+        env->GetByteArrayRegion(array, offset, length, (jbyte *) data);
     }
-};
 
-// Holds references to heap-allocated native objects so that they can be
-// closed in Java_com_github_hf_leveldb_implementation_NativeLevelDB_nclose.
-class NDBHolder {
- public:
-    NDBHolder(leveldb::DB *ldb, AndroidLogger *llogger, leveldb::Cache *lcache)
-        : db(ldb), logger(llogger), cache(lcache) { }
+    leveldb::Slice slice() const {
+        return leveldb::Slice(data, length);
+    }
 
-    leveldb::DB *db;
-    AndroidLogger *logger;
+private:
+    char inlineData[256];
+    std::string heapData;
+    char *data;
+    size_t length;
 
-    leveldb::Cache *cache;
+    ArraySlice(const ArraySlice &);
+    ArraySlice &operator=(const ArraySlice &);
 };
 
 // Throws the appropriate Java exception for the given status. Make sure you
@@ -99,6 +111,7 @@ Java_com_github_hf_leveldb_implementation_NativeLevelDB_nopen
      jint cacheSize,
      jint blockSize,
      jint writeBufferSize,
+     jlong ncache,
      jstring path) {
 
     const char *nativePath = env->GetStringUTFChars(path, 0);
@@ -106,19 +119,20 @@ Java_com_github_hf_leveldb_implementation_NativeLevelDB_nopen
     leveldb::DB *db;
 
     AndroidLogger *logger = new AndroidLogger();
-    leveldb::Cache *cache = NULL;
+    NCache *cache = NULL;
 
-    if (cacheSize != 0) {
-        cache = leveldb::NewLRUCache((size_t) cacheSize);
+    if (ncache != 0) {
+        cache = (NCache *) ncache;
+        cache->Ref();
+    } else {
+        // The same size as leveldb's own default cache, but resizable.
+        cache = new NCache(new ResizableCache(cacheSize != 0 ? (size_t) cacheSize : kDefaultCacheSize));
     }
 
     leveldb::Options options;
     options.create_if_missing = createIfMissing == JNI_TRUE;
     options.info_log = logger;
-
-    if (cache != NULL) {
-        options.block_cache = cache;
-    }
+    options.block_cache = cache->cache;
 
     if (blockSize != 0) {
         options.block_size = (size_t) blockSize;
@@ -138,7 +152,7 @@ Java_com_github_hf_leveldb_implementation_NativeLevelDB_nopen
         return (jlong) holder;
     } else {
         delete logger;
-        delete cache;
+        cache->Unref();
     }
 
     throwExceptionFromStatus(env, status);
@@ -151,15 +165,14 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_n
     if (ndb != 0) {
         NDBHolder *holder = (NDBHolder *) ndb;
 
-        delete holder->db;
-        delete holder->cache;
-        delete holder->logger;
-        delete holder;
+        // Open iterators keep the database alive until they are closed.
+        holder->Unref();
     }
 }
 
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nput
-    (JNIEnv *env, jclass cself, jlong ndb, jboolean sync, jbyteArray key, jbyteArray value) {
+    (JNIEnv *env, jclass cself, jlong ndb, jboolean sync, jbyteArray key, jint keyOffset, jint keyLength,
+     jbyteArray value, jint valueOffset, jint valueLength) {
 
     NDBHolder *holder = (NDBHolder *) ndb;
 
@@ -168,16 +181,10 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_n
     leveldb::WriteOptions writeOptions;
     writeOptions.sync = sync == JNI_TRUE;
 
-    const char *keyData = (char *) env->GetByteArrayElements(key, 0);
-    const char *valueData = (char *) env->GetByteArrayElements(value, 0);
-
-    leveldb::Slice keySlice(keyData, (size_t) env->GetArrayLength(key));
-    leveldb::Slice valueSlice(valueData, (size_t) env->GetArrayLength(value));
+    ArraySlice keySlice(env, key, keyOffset, keyLength);
+    ArraySlice valueSlice(env, value, valueOffset, valueLength);
 
-    leveldb::Status status = db->Put(writeOptions, keySlice, valueSlice);
-
-    env->ReleaseByteArrayElements(key, (jbyte *) keyData, 0);
-    env->ReleaseByteArrayElements(value, (jbyte *) valueData, 0);
+    leveldb::Status status = db->Put(writeOptions, keySlice.slice(), valueSlice.slice());
 
     throwExceptionFromStatus(env, status);
 }
@@ -199,8 +206,69 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_n
     throwExceptionFromStatus(env, status);
 }
 
+// Counters are 8 byte big-endian values with the sign bit flipped, so that they sort in
+// numeric order. Callers serialize increments of the same key with a Java lock.
+JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nincrement
+    (JNIEnv *env, jclass cself, jlong ndb, jboolean sync, jbyteArray key, jint keyOffset, jint keyLength, jlong delta) {
+
+    NDBHolder *holder = (NDBHolder *) ndb;
+
+    leveldb::DB *db = holder->db;
+
+    ArraySlice keySlice(env, key, keyOffset, keyLength);
+
+    std::string value;
+
+    leveldb::Status status = db->Get(leveldb::ReadOptions(), keySlice.slice(), &value);
+
+    uint64_t counter = 0;
+
+    if (status.ok()) {
+        if (value.length() != 8) {
+            jclass exceptionClass = env->FindClass("com/github/hf/leveldb/exception/LevelDBException");
+
+            env->ThrowNew(exceptionClass, "Value is not a counter.");
+
+            return 0;
+        }
+
+        for (size_t i = 0; i < 8; i++) {
+            counter = (counter << 8) | (unsigned char) value[i];
+        }
+
+        counter ^= 0x8000000000000000ULL;
+    } else if (!status.IsNotFound()) {
+        throwExceptionFromStatus(env, status);
+
+        return 0;
+    }
+
+    counter += (uint64_t) delta;
+
+    uint64_t encoded = counter ^ 0x8000000000000000ULL;
+    char data[8];
+
+    for (int i = 7; i >= 0; i--) {
+        data[i] = (char) (encoded & 0xFF);
+        encoded >>= 8;
+    }
+
+    leveldb::WriteOptions writeOptions;
+    writeOptions.sync = sync == JNI_TRUE;
+
+    status = db->Put(writeOptions, keySlice.slice(), leveldb::Slice(data, sizeof(data)));
+
+    if (!status.ok()) {
+        throwExceptionFromStatus(env, status);
+
+        return 0;
+    }
+
+    return (jlong) counter;
+}
+
 JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nget
-    (JNIEnv *env, jclass cself, jlong ndb, jbyteArray key, jlong nsnapshot) {
+    (JNIEnv *env, jclass cself, jlong ndb, jbyteArray key, jint keyOffset, jint keyLength, jlong nsnapshot) {
 
     NDBHolder *holder = (NDBHolder *) ndb;
 
@@ -210,15 +278,11 @@ JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeLev
 
     readOptions.snapshot = (leveldb::Snapshot *) nsnapshot;
 
-    const char *keyData = (char *) env->GetByteArrayElements(key, 0);
-
-    leveldb::Slice keySlice(keyData, env->GetArrayLength(key));
+    ArraySlice keySlice(env, key, keyOffset, keyLength);
 
     std::string value;
 
-    leveldb::Status status = db->Get(readOptions, keySlice, &value);
-
-    env->ReleaseByteArrayElements(key, (jbyte *) keyData, 0);
+    leveldb::Status status = db->Get(readOptions, keySlice.slice(), &value);
 
     if (status.ok()) {
         if (value.length() < 1) {
@@ -239,23 +303,71 @@ JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeLev
     return 0;
 }
 
-JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_ndelete
-    (JNIEnv *env, jclass cself, jlong ndb, jboolean sync, jbyteArray key) {
+JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nmultiGet
+    (JNIEnv *env, jclass cself, jlong ndb, jobjectArray keys, jobjectArray values, jlong nsnapshot) {
 
     NDBHolder *holder = (NDBHolder *) ndb;
 
     leveldb::DB *db = holder->db;
 
-    const char *keyData = (char *) env->GetByteArrayElements(key, 0);
+    leveldb::ReadOptions readOptions;
 
-    leveldb::Slice keySlice(keyData, (size_t) env->GetArrayLength(key));
+    readOptions.snapshot = (leveldb::Snapshot *) nsnapshot;
+
+    jsize count = env->GetArrayLength(keys);
+
+    std::string value;
+
+    for (jsize i = 0; i < count; i++) {
+        jbyteArray key = (jbyteArray) env->GetObjectArrayElement(keys, i);
+
+        if (key == NULL) {
+            continue;
+        }
+
+        leveldb::Status status;
+
+        {
+            ArraySlice keySlice(env, key, 0, env->GetArrayLength(key));
+
+            status = db->Get(readOptions, keySlice.slice(), &value);
+        }
+
+        env->DeleteLocalRef(key);
+
+        if (status.IsNotFound() || (status.ok() && value.length() < 1)) {
+            continue;
+        } else if (!status.ok()) {
+            throwExceptionFromStatus(env, status);
+
+            return;
+        }
+
+        jbyteArray retval = env->NewByteArray(value.length());
+
+        if (retval == NULL) {
+            return;
+        }
+
+        env->SetByteArrayRegion(retval, 0, value.length(), (jbyte *) value.data());
+        env->SetObjectArrayElement(values, i, retval);
+        env->DeleteLocalRef(retval);
+    }
+}
+
+JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_ndelete
+    (JNIEnv *env, jclass cself, jlong ndb, jboolean sync, jbyteArray key, jint keyOffset, jint keyLength) {
+
+    NDBHolder *holder = (NDBHolder *) ndb;
+
+    leveldb::DB *db = holder->db;
+
+    ArraySlice keySlice(env, key, keyOffset, keyLength);
 
     leveldb::WriteOptions writeOptions;
     writeOptions.sync = sync == JNI_TRUE;
 
-    leveldb::Status status = db->Delete(writeOptions, keySlice);
-
-    env->ReleaseByteArrayElements(key, (jbyte *) keyData, 0);
+    leveldb::Status status = db->Delete(writeOptions, keySlice.slice());
 
     throwExceptionFromStatus(env, status);
 }
@@ -333,7 +445,30 @@ JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_
 
     leveldb::Iterator *it = db->NewIterator(options);
 
-    return (jlong) it;
+    return (jlong) new NIterator(holder, it);
+}
+
+JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_napproximateSize
+    (JNIEnv *env, jclass cself, jlong ndb, jbyteArray from, jbyteArray to) {
+
+    NDBHolder *holder = (NDBHolder *) ndb;
+
+    leveldb::DB *db = holder->db;
+
+    const char *fromData = (char *) env->GetByteArrayElements(from, 0);
+    const char *toData = (char *) env->GetByteArrayElements(to, 0);
+
+    leveldb::Range range(leveldb::Slice(fromData, (size_t) env->GetArrayLength(from)),
+                         leveldb::Slice(toData, (size_t) env->GetArrayLength(to)));
+
+    uint64_t size = 0;
+
+    db->GetApproximateSizes(&range, 1, &size);
+
+    env->ReleaseByteArrayElements(from, (jbyte *) fromData, JNI_ABORT);
+    env->ReleaseByteArrayElements(to, (jbyte *) toData, JNI_ABORT);
+
+    return (jlong) size;
 }
 
 JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nsnapshot
@@ -343,6 +478,8 @@ JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_
 
     leveldb::DB *db = holder->db;
 
+    holder->Ref();
+
     return (jlong) db->GetSnapshot();
 }
 
@@ -357,4 +494,14 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_n
     leveldb::DB *db = holder->db;
 
     db->ReleaseSnapshot((leveldb::Snapshot *) nsnapshot);
-}
\ No newline at end of file
+
+    holder->Unref();
+}
+
+JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nsetCacheCapacity
+    (JNIEnv *env, jclass cself, jlong ndb, jlong capacity) {
+
+    NDBHolder *holder = (NDBHolder *) ndb;
+
+    holder->cache->cache->SetCapacity((size_t) capacity);
+}
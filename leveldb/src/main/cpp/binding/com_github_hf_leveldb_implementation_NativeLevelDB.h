@@ -10,10 +10,10 @@ extern "C" {
 /*
  * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
  * Method:    nopen
- * Signature: (ZIIILjava/lang/String;)J
+ * Signature: (ZIIIJLjava/lang/String;)J
  */
 JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nopen
-  (JNIEnv *, jclass, jboolean, jint, jint, jint, jstring);
+  (JNIEnv *, jclass, jboolean, jint, jint, jint, jlong, jstring);
 
 /*
  * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
@@ -26,18 +26,34 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_n
 /*
  * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
  * Method:    nput
- * Signature: (JZ[B[B)V
+ * Signature: (JZ[BII[BII)V
  */
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nput
-  (JNIEnv *, jclass, jlong, jboolean, jbyteArray, jbyteArray);
+  (JNIEnv *, jclass, jlong, jboolean, jbyteArray, jint, jint, jbyteArray, jint, jint);
 
 /*
  * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
  * Method:    ndelete
- * Signature: (JZ[B)V
+ * Signature: (JZ[BII)V
  */
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_ndelete
-  (JNIEnv *, jclass, jlong, jboolean, jbyteArray);
+  (JNIEnv *, jclass, jlong, jboolean, jbyteArray, jint, jint);
+
+/*
+ * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
+ * Method:    nincrement
+ * Signature: (JZ[BIIJ)J
+ */
+JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nincrement
+  (JNIEnv *, jclass, jlong, jboolean, jbyteArray, jint, jint, jlong);
+
+/*
+ * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
+ * Method:    nmultiGet
+ * Signature: (J[[B[[BJ)V
+ */
+JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nmultiGet
+  (JNIEnv *, jclass, jlong, jobjectArray, jobjectArray, jlong);
 
 /*
  * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
@@ -50,10 +66,10 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_n
 /*
  * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
  * Method:    nget
- * Signature: (J[BJ)[B
+ * Signature: (J[BIIJ)[B
  */
 JNIEXPORT jbyteArray JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nget
-  (JNIEnv *, jclass, jlong, jbyteArray, jlong);
+  (JNIEnv *, jclass, jlong, jbyteArray, jint, jint, jlong);
 
 /*
  * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
@@ -87,6 +103,14 @@ JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_n
 JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_niterate
   (JNIEnv *, jclass, jlong, jboolean, jlong);
 
+/*
+ * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
+ * Method:    napproximateSize
+ * Signature: (J[B[B)J
+ */
+JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_napproximateSize
+  (JNIEnv *, jclass, jlong, jbyteArray, jbyteArray);
+
 /*
  * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
  * Method:    nsnapshot
@@ -103,6 +127,14 @@ JNIEXPORT jlong JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_
 JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nreleaseSnapshot
   (JNIEnv *, jclass, jlong, jlong);
 
+/*
+ * Class:     com_github_hf_leveldb_implementation_NativeLevelDB
+ * Method:    nsetCacheCapacity
+ * Signature: (JJ)V
+ */
+JNIEXPORT void JNICALL Java_com_github_hf_leveldb_implementation_NativeLevelDB_nsetCacheCapacity
+  (JNIEnv *, jclass, jlong, jlong);
+
 #ifdef __cplusplus
 }
 #endif
@@ -0,0 +1,390 @@
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+#include "com_github_hf_leveldb_implementation_SstWriter.h"
+
+#include <string>
+#include <vector>
+
+#include "leveldb/comparator.h"
+#include "leveldb/env.h"
+#include "leveldb/options.h"
+#include "leveldb/table_builder.h"
+
+// Internal LevelDB headers, for the format of keys in tables and of the manifest.
+#include "db/dbformat.h"
+#include "db/filename.h"
+#include "db/log_writer.h"
+#include "db/version_edit.h"
+
+void throwExceptionFromStatus(JNIEnv *env, leveldb::Status &status);
+
+// Writes sorted entries into the table files of a new database, then a manifest that
+// places all of them on the last level. Entries get sequence number 0, like LevelDB
+// gives entries that have been compacted to the last level.
+//
+// The manifest is number 1 and tables are numbered from 2, the way a database that
+// has never been opened would number them.
+class SstWriter {
+public:
+    SstWriter(const std::string &path, size_t tableSize)
+            : path(path),
+              tableSize(tableSize),
+              env(leveldb::Env::Default()),
+              internalComparator(leveldb::BytewiseComparator()),
+              file(NULL),
+              builder(NULL),
+              nextFileNumber(2),
+              entries(0),
+              finished(false) {
+
+        options.env = env;
+        options.comparator = &internalComparator;
+    }
+
+    ~SstWriter() {
+        if (!finished) {
+            Abandon();
+        }
+    }
+
+    leveldb::Status Open() {
+        env->CreateDir(path);
+
+        if (env->FileExists(leveldb::CurrentFileName(path))) {
+            return leveldb::Status::InvalidArgument(path, "already holds a database");
+        }
+
+        return leveldb::Status::OK();
+    }
+
+    leveldb::Status Add(const leveldb::Slice &key, const leveldb::Slice &value) {
+        if (!error.ok()) {
+            return error;
+        }
+
+        if (entries > 0 && leveldb::BytewiseComparator()->Compare(key, lastKey) <= 0) {
+            return leveldb::Status::InvalidArgument("keys must be added in strictly increasing order");
+        }
+
+        leveldb::Status status;
+
+        if (builder == NULL) {
+            status = OpenTable();
+
+            if (!status.ok()) {
+                error = status;
+                return status;
+            }
+        }
+
+        lastKey.assign(key.data(), key.size());
+
+        internalKey.clear();
+        leveldb::AppendInternalKey(&internalKey, leveldb::ParsedInternalKey(key, 0, leveldb::kTypeValue));
+
+        if (builder->NumEntries() == 0) {
+            current.smallest.DecodeFrom(internalKey);
+        }
+
+        builder->Add(internalKey, value);
+        entries++;
+
+        status = builder->status();
+
+        if (status.ok() && builder->FileSize() >= tableSize) {
+            status = FinishTable();
+        }
+
+        if (!status.ok()) {
+            error = status;
+        }
+
+        return status;
+    }
+
+    leveldb::Status Finish() {
+        if (!error.ok()) {
+            return error;
+        }
+
+        leveldb::Status status = WriteDatabase();
+
+        if (!status.ok()) {
+            error = status;
+        }
+
+        return status;
+    }
+
+    uint64_t Entries() const {
+        return entries;
+    }
+
+private:
+    leveldb::Status WriteDatabase() {
+        leveldb::Status status;
+
+        if (builder != NULL) {
+            status = FinishTable();
+
+            if (!status.ok()) {
+                return status;
+            }
+        }
+
+        leveldb::VersionEdit edit;
+        edit.SetComparatorName(leveldb::BytewiseComparator()->Name());
+        edit.SetLogNumber(0);
+        edit.SetNextFile(nextFileNumber);
+        edit.SetLastSequence(0);
+
+        for (size_t i = 0; i < tables.size(); i++) {
+            const leveldb::FileMetaData &table = tables[i];
+
+            edit.AddFile(leveldb::config::kNumLevels - 1, table.number, table.file_size, table.smallest, table.largest);
+        }
+
+        const std::string manifestName = leveldb::DescriptorFileName(path, 1);
+        leveldb::WritableFile *manifest;
+
+        status = env->NewWritableFile(manifestName, &manifest);
+
+        if (!status.ok()) {
+            return status;
+        }
+
+        std::string record;
+        edit.EncodeTo(&record);
+
+        {
+            leveldb::log::Writer writer(manifest);
+            status = writer.AddRecord(record);
+        }
+
+        if (status.ok()) {
+            status = manifest->Sync();
+        }
+
+        if (status.ok()) {
+            status = manifest->Close();
+        }
+
+        delete manifest;
+
+        // CURRENT is written last, until then there is no database to open.
+        if (status.ok()) {
+            status = leveldb::SetCurrentFile(env, path, 1);
+        }
+
+        if (status.ok()) {
+            finished = true;
+        }
+
+        return status;
+    }
+
+    leveldb::Status OpenTable() {
+        current = leveldb::FileMetaData();
+        current.number = nextFileNumber++;
+
+        leveldb::Status status = env->NewWritableFile(leveldb::TableFileName(path, current.number), &file);
+
+        if (!status.ok()) {
+            file = NULL;
+            return status;
+        }
+
+        builder = new leveldb::TableBuilder(options, file);
+
+        return status;
+    }
+
+    leveldb::Status FinishTable() {
+        leveldb::Status status = builder->Finish();
+
+        if (status.ok()) {
+            status = file->Sync();
+        }
+
+        if (status.ok()) {
+            status = file->Close();
+        }
+
+        current.file_size = builder->FileSize();
+        current.largest.DecodeFrom(internalKey);
+
+        delete builder;
+        delete file;
+
+        builder = NULL;
+        file = NULL;
+
+        if (status.ok()) {
+            tables.push_back(current);
+        } else {
+            env->RemoveFile(leveldb::TableFileName(path, current.number));
+        }
+
+        return status;
+    }
+
+    void Abandon() {
+        if (builder != NULL) {
+            builder->Abandon();
+
+            delete builder;
+            delete file;
+
+            env->RemoveFile(leveldb::TableFileName(path, current.number));
+        }
+
+        for (size_t i = 0; i < tables.size(); i++) {
+            env->RemoveFile(leveldb::TableFileName(path, tables[i].number));
+        }
+
+        env->RemoveFile(leveldb::DescriptorFileName(path, 1));
+    }
+
+    const std::string path;
+    const size_t tableSize;
+
+    leveldb::Env *env;
+    leveldb::InternalKeyComparator internalComparator;
+    leveldb::Options options;
+
+    leveldb::WritableFile *file;
+    leveldb::TableBuilder *builder;
+    leveldb::FileMetaData current;
+    std::vector<leveldb::FileMetaData> tables;
+
+    uint64_t nextFileNumber;
+    uint64_t entries;
+    bool finished;
+
+    // The first error other than keys out of order, after which the writer can't be used.
+    leveldb::Status error;
+
+    std::string lastKey;
+    std::string internalKey;
+
+public:
+    // Reused for copying entries out of Java arrays.
+    std::string keyBuffer;
+    std::string valueBuffer;
+
+private:
+    SstWriter(const SstWriter &);
+    SstWriter &operator=(const SstWriter &);
+};
+
+static void copyRange(JNIEnv *env, jbyteArray array, jint offset, jint length, std::string *buffer) {
+    buffer->resize((size_t) length);
+
+    if (length > 0) {
+        env->GetByteArrayRegion(array, offset, length, (jbyte *) &(*buffer)[0]);
+    }
+}
+
+static void throwFromStatus(JNIEnv *env, leveldb::Status &status) {
+    if (status.IsInvalidArgument()) {
+        jclass illegalArgumentClass = env->FindClass("java/lang/IllegalArgumentException");
+
+        env->ThrowNew(illegalArgumentClass, status.ToString().data());
+    } else {
+        throwExceptionFromStatus(env, status);
+    }
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_github_hf_leveldb_implementation_SstWriter_ncreate
+    (JNIEnv *env, jclass cself, jstring path, jint tableSize) {
+
+    const char *nativePath = env->GetStringUTFChars(path, 0);
+
+    SstWriter *writer = new SstWriter(nativePath, (size_t) tableSize);
+
+    env->ReleaseStringUTFChars(path, nativePath);
+
+    leveldb::Status status = writer->Open();
+
+    if (!status.ok()) {
+        delete writer;
+
+        throwFromStatus(env, status);
+        return 0;
+    }
+
+    return (jlong) writer;
+}
+
+JNIEXPORT void JNICALL
+Java_com_github_hf_leveldb_implementation_SstWriter_nadd
+    (JNIEnv *env, jclass cself, jlong nsw, jbyteArray key, jint keyOffset, jint keyLength, jbyteArray value, jint valueOffset, jint valueLength) {
+
+    SstWriter *writer = (SstWriter *) nsw;
+
+    copyRange(env, key, keyOffset, keyLength, &writer->keyBuffer);
+    copyRange(env, value, valueOffset, valueLength, &writer->valueBuffer);
+
+    leveldb::Status status = writer->Add(writer->keyBuffer, writer->valueBuffer);
+
+    if (!status.ok()) {
+        throwFromStatus(env, status);
+    }
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_github_hf_leveldb_implementation_SstWriter_nfinish
+    (JNIEnv *env, jclass cself, jlong nsw) {
+
+    SstWriter *writer = (SstWriter *) nsw;
+
+    leveldb::Status status = writer->Finish();
+
+    if (!status.ok()) {
+        throwFromStatus(env, status);
+        return 0;
+    }
+
+    return (jlong) writer->Entries();
+}
+
+JNIEXPORT void JNICALL
+Java_com_github_hf_leveldb_implementation_SstWriter_nclose
+    (JNIEnv *env, jclass cself, jlong nsw) {
+
+    if (nsw != 0) {
+        delete (SstWriter *) nsw;
+    }
+}
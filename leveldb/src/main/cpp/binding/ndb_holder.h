@@ -0,0 +1,144 @@
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+#ifndef LEVELDB_ANDROID_NDB_HOLDER_H
+#define LEVELDB_ANDROID_NDB_HOLDER_H
+
+#include <atomic>
+
+#include "leveldb/db.h"
+#include "leveldb/env.h"
+#include "leveldb/cache.h"
+#include "leveldb/iterator.h"
+
+#include "resizable_cache.h"
+
+#include <android/log.h>
+
+// Redirects leveldb's logging to the Android logger.
+class AndroidLogger final : public leveldb::Logger {
+ public:
+    void Logv(const char *format, va_list ap) override {
+//        __android_log_vprint(ANDROID_LOG_INFO, "com.github.hf.leveldb:N", format, ap);
+    }
+};
+
+// A block cache with a reference count, so that several databases can share it.
+// Each database that uses it owns a reference, and so does the NativeCache that
+// created it, if any. It is resizable, so that memory can be given back under
+// pressure.
+class NCache {
+ public:
+    explicit NCache(ResizableCache *lcache) : cache(lcache), refs(1) { }
+
+    void Ref() {
+        refs.fetch_add(1, std::memory_order_relaxed);
+    }
+
+    // Deletes the cache when the last reference is dropped.
+    void Unref() {
+        if (refs.fetch_sub(1, std::memory_order_acq_rel) == 1) {
+            delete cache;
+            delete this;
+        }
+    }
+
+    ResizableCache *cache;
+
+ private:
+    ~NCache() { }
+
+    std::atomic<int> refs;
+};
+
+// Holds references to heap-allocated native objects so that they can be
+// deleted together once nothing uses them anymore.
+//
+// The holder is reference counted: NativeLevelDB owns one reference, and each
+// open iterator and snapshot owns another. Closing the database only drops its
+// own reference, so iterators that are still open keep working until they are
+// closed themselves.
+class NDBHolder {
+ public:
+    NDBHolder(leveldb::DB *ldb, AndroidLogger *llogger, NCache *lcache)
+        : db(ldb), logger(llogger), cache(lcache), refs(1) { }
+
+    void Ref() {
+        refs.fetch_add(1, std::memory_order_relaxed);
+    }
+
+    // Deletes the database and this holder when the last reference is dropped.
+    void Unref() {
+        if (refs.fetch_sub(1, std::memory_order_acq_rel) == 1) {
+            delete db;
+            delete logger;
+
+            // The database is gone, so it no longer needs its cache.
+            if (cache != NULL) {
+                cache->Unref();
+            }
+
+            delete this;
+        }
+    }
+
+    leveldb::DB *db;
+    AndroidLogger *logger;
+
+    NCache *cache;
+
+ private:
+    ~NDBHolder() { }
+
+    std::atomic<int> refs;
+};
+
+// A leveldb iterator together with a reference on the holder of the database
+// it iterates over. This is what NativeIterator's pointer points to.
+class NIterator {
+ public:
+    NIterator(NDBHolder *lholder, leveldb::Iterator *lit)
+        : holder(lholder), it(lit) {
+        holder->Ref();
+    }
+
+    ~NIterator() {
+        delete it;
+        holder->Unref();
+    }
+
+    NDBHolder *holder;
+    leveldb::Iterator *it;
+};
+
+#endif // LEVELDB_ANDROID_NDB_HOLDER_H
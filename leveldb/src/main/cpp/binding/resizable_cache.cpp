@@ -0,0 +1,322 @@
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+#include "resizable_cache.h"
+
+#include <string>
+
+#include "util/hash.h"
+
+struct ResizableCache::Entry {
+    std::string key;
+    void *value;
+    size_t charge;
+    void (*deleter)(const leveldb::Slice &key, void *value);
+    uint32_t hash;
+
+    // One for the cache while in_cache, one for each handle given out.
+    int refs;
+    bool in_cache;
+
+    // In the shard's lru list while only the cache refers to it, in its
+    // in_use list while handles to it are out.
+    Entry *prev;
+    Entry *next;
+};
+
+namespace {
+
+struct SliceHash {
+    size_t operator()(const leveldb::Slice &slice) const {
+        return leveldb::Hash(slice.data(), slice.size(), 0);
+    }
+};
+
+uint32_t HashSlice(const leveldb::Slice &slice) {
+    return leveldb::Hash(slice.data(), slice.size(), 0);
+}
+
+} // namespace
+
+// One independently locked part of the cache, see leveldb's LRUCache.
+class ResizableCache::Shard {
+ public:
+    Shard() : capacity_(0), usage_(0) {
+        lru_.prev = lru_.next = &lru_;
+        in_use_.prev = in_use_.next = &in_use_;
+    }
+
+    ~Shard() {
+        // Every handle must have been released, so only the lru list is left.
+        for (Entry *e = lru_.next; e != &lru_; ) {
+            Entry *next = e->next;
+
+            e->in_cache = false;
+            Unref(e);
+
+            e = next;
+        }
+    }
+
+    Entry *Insert(const leveldb::Slice &key, uint32_t hash, void *value, size_t charge,
+                  void (*deleter)(const leveldb::Slice &key, void *value)) {
+        std::lock_guard<std::mutex> lock(mutex_);
+
+        Entry *e = new Entry();
+        e->key.assign(key.data(), key.size());
+        e->value = value;
+        e->charge = charge;
+        e->deleter = deleter;
+        e->hash = hash;
+        e->refs = 1;
+        e->in_cache = false;
+        e->prev = e->next = NULL;
+
+        // A capacity of 0 turns caching off, the entry is only used by the caller.
+        if (capacity_ > 0) {
+            e->refs++;
+            e->in_cache = true;
+            Append(&in_use_, e);
+            usage_ += charge;
+
+            auto it = table_.find(leveldb::Slice(e->key));
+
+            if (it != table_.end()) {
+                Entry *old = it->second;
+
+                table_.erase(it);
+                FinishErase(old);
+            }
+
+            table_.emplace(leveldb::Slice(e->key), e);
+        }
+
+        Evict();
+
+        return e;
+    }
+
+    Entry *Lookup(const leveldb::Slice &key) {
+        std::lock_guard<std::mutex> lock(mutex_);
+
+        auto it = table_.find(key);
+
+        if (it == table_.end()) {
+            return NULL;
+        }
+
+        Ref(it->second);
+
+        return it->second;
+    }
+
+    void Release(Entry *e) {
+        std::lock_guard<std::mutex> lock(mutex_);
+
+        Unref(e);
+
+        // Entries that were in use when the cache shrank are evicted now.
+        Evict();
+    }
+
+    void Erase(const leveldb::Slice &key) {
+        std::lock_guard<std::mutex> lock(mutex_);
+
+        auto it = table_.find(key);
+
+        if (it != table_.end()) {
+            Entry *e = it->second;
+
+            table_.erase(it);
+            FinishErase(e);
+        }
+    }
+
+    void Prune() {
+        std::lock_guard<std::mutex> lock(mutex_);
+
+        while (lru_.next != &lru_) {
+            Entry *e = lru_.next;
+
+            table_.erase(leveldb::Slice(e->key));
+            FinishErase(e);
+        }
+    }
+
+    void SetCapacity(size_t capacity) {
+        std::lock_guard<std::mutex> lock(mutex_);
+
+        capacity_ = capacity;
+        Evict();
+    }
+
+    size_t TotalCharge() {
+        std::lock_guard<std::mutex> lock(mutex_);
+
+        return usage_;
+    }
+
+ private:
+    void Ref(Entry *e) {
+        if (e->refs == 1 && e->in_cache) {
+            Remove(e);
+            Append(&in_use_, e);
+        }
+
+        e->refs++;
+    }
+
+    void Unref(Entry *e) {
+        e->refs--;
+
+        if (e->refs == 0) {
+            (*e->deleter)(leveldb::Slice(e->key), e->value);
+            delete e;
+        } else if (e->in_cache && e->refs == 1) {
+            // Nothing uses it anymore, it can be evicted.
+            Remove(e);
+            Append(&lru_, e);
+        }
+    }
+
+    // Drops the cache's reference to an entry already removed from the table.
+    void FinishErase(Entry *e) {
+        e->in_cache = false;
+        Remove(e);
+        usage_ -= e->charge;
+        Unref(e);
+    }
+
+    void Evict() {
+        while (usage_ > capacity_ && lru_.next != &lru_) {
+            Entry *e = lru_.next;
+
+            table_.erase(leveldb::Slice(e->key));
+            FinishErase(e);
+        }
+    }
+
+    static void Remove(Entry *e) {
+        e->next->prev = e->prev;
+        e->prev->next = e->next;
+    }
+
+    static void Append(Entry *list, Entry *e) {
+        e->next = list;
+        e->prev = list->prev;
+        e->prev->next = e;
+        e->next->prev = e;
+    }
+
+    std::mutex mutex_;
+    size_t capacity_;
+    size_t usage_;
+
+    // Dummy heads of the lists, oldest first.
+    Entry lru_;
+    Entry in_use_;
+
+    std::unordered_map<leveldb::Slice, Entry *, SliceHash> table_;
+};
+
+ResizableCache::ResizableCache(size_t capacity)
+    : shards_(new Shard[kNumShards]), capacity_(0), last_id_(0) {
+    SetCapacity(capacity);
+}
+
+ResizableCache::~ResizableCache() {
+    delete[] shards_;
+}
+
+ResizableCache::Handle *ResizableCache::Insert(const leveldb::Slice &key, void *value, size_t charge,
+                                               void (*deleter)(const leveldb::Slice &key, void *value)) {
+    const uint32_t hash = HashSlice(key);
+
+    return reinterpret_cast<Handle *>(ShardOf(hash)->Insert(key, hash, value, charge, deleter));
+}
+
+ResizableCache::Handle *ResizableCache::Lookup(const leveldb::Slice &key) {
+    return reinterpret_cast<Handle *>(ShardOf(HashSlice(key))->Lookup(key));
+}
+
+void ResizableCache::Release(Handle *handle) {
+    Entry *e = reinterpret_cast<Entry *>(handle);
+
+    ShardOf(e->hash)->Release(e);
+}
+
+void *ResizableCache::Value(Handle *handle) {
+    return reinterpret_cast<Entry *>(handle)->value;
+}
+
+void ResizableCache::Erase(const leveldb::Slice &key) {
+    ShardOf(HashSlice(key))->Erase(key);
+}
+
+uint64_t ResizableCache::NewId() {
+    return ++last_id_;
+}
+
+void ResizableCache::Prune() {
+    for (int i = 0; i < kNumShards; i++) {
+        shards_[i].Prune();
+    }
+}
+
+size_t ResizableCache::TotalCharge() const {
+    size_t total = 0;
+
+    for (int i = 0; i < kNumShards; i++) {
+        total += shards_[i].TotalCharge();
+    }
+
+    return total;
+}
+
+void ResizableCache::SetCapacity(size_t capacity) {
+    capacity_ = capacity;
+
+    const size_t per_shard = (capacity + (kNumShards - 1)) / kNumShards;
+
+    for (int i = 0; i < kNumShards; i++) {
+        shards_[i].SetCapacity(per_shard);
+    }
+}
+
+size_t ResizableCache::GetCapacity() const {
+    return capacity_;
+}
+
+ResizableCache::Shard *ResizableCache::ShardOf(uint32_t hash) const {
+    return &shards_[hash >> (32 - kNumShardBits)];
+}
@@ -0,0 +1,81 @@
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+#ifndef LEVELDB_ANDROID_RESIZABLE_CACHE_H
+#define LEVELDB_ANDROID_RESIZABLE_CACHE_H
+
+#include <atomic>
+#include <mutex>
+#include <unordered_map>
+
+#include "leveldb/cache.h"
+
+// An LRU block cache like the one of leveldb::NewLRUCache, whose capacity can
+// be changed while databases use it, for example to give memory back when the
+// system is low on it.
+class ResizableCache final : public leveldb::Cache {
+ public:
+    explicit ResizableCache(size_t capacity);
+    ~ResizableCache() override;
+
+    Handle *Insert(const leveldb::Slice &key, void *value, size_t charge,
+                   void (*deleter)(const leveldb::Slice &key, void *value)) override;
+    Handle *Lookup(const leveldb::Slice &key) override;
+    void Release(Handle *handle) override;
+    void *Value(Handle *handle) override;
+    void Erase(const leveldb::Slice &key) override;
+    uint64_t NewId() override;
+    void Prune() override;
+    size_t TotalCharge() const override;
+
+    // Evicts the least recently used entries that are not in use until the
+    // cache fits in the new capacity. Entries in use are evicted once released.
+    void SetCapacity(size_t capacity);
+
+    size_t GetCapacity() const;
+
+ private:
+    struct Entry;
+    class Shard;
+
+    static const int kNumShardBits = 4;
+    static const int kNumShards = 1 << kNumShardBits;
+
+    Shard *ShardOf(uint32_t hash) const;
+
+    Shard *shards_;
+    std::atomic<size_t> capacity_;
+    std::atomic<uint64_t> last_id_;
+};
+
+#endif // LEVELDB_ANDROID_RESIZABLE_CACHE_H
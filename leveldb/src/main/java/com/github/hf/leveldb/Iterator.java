@@ -37,8 +37,11 @@ import com.github.hf.leveldb.exception.LevelDBClosedException;
 import com.github.hf.leveldb.exception.LevelDBIteratorNotValidException;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
 
 public abstract class Iterator implements Closeable {
+    private Entry entry;
+
     /**
      * Checks if there is a key-value pair over the current position of the iterator.
      *
@@ -102,6 +105,119 @@ public abstract class Iterator implements Closeable {
      */
     public abstract byte[] value() throws LevelDBClosedException;
 
+    /**
+     * Copies the key under the iterator into <tt>dst</tt>, starting at <tt>off</tt>.
+     * <p>
+     * If the key does not fit, nothing is copied. Compare the returned length against the
+     * available room to find out whether the copy happened.
+     *
+     * @param dst the array to copy into, if null throws an {@link java.lang.IllegalArgumentException}
+     * @param off the offset in <tt>dst</tt> at which to start
+     * @return the length of the key
+     * @throws LevelDBIteratorNotValidException if not {@link #isValid()}
+     * @throws LevelDBClosedException
+     */
+    public int readKey(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkBounds(dst, off);
+
+        return copy(key(), dst, off);
+    }
+
+    /**
+     * Copies the value under the iterator into <tt>dst</tt>, starting at <tt>off</tt>.
+     * <p>
+     * If the value does not fit, nothing is copied.
+     *
+     * @param dst the array to copy into, if null throws an {@link java.lang.IllegalArgumentException}
+     * @param off the offset in <tt>dst</tt> at which to start
+     * @return the length of the value
+     * @throws LevelDBIteratorNotValidException if not {@link #isValid()}
+     * @throws LevelDBClosedException
+     * @see #readKey(byte[], int)
+     */
+    public int readValue(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkBounds(dst, off);
+
+        return copy(value(), dst, off);
+    }
+
+    /**
+     * Copies the key under the iterator into the remaining space of <tt>dst</tt>, advancing
+     * its position.
+     * <p>
+     * If the key does not fit, nothing is copied and the position is left untouched.
+     *
+     * @param dst the buffer to copy into, if null throws an {@link java.lang.IllegalArgumentException}
+     * @return the length of the key
+     * @throws LevelDBIteratorNotValidException if not {@link #isValid()}
+     * @throws LevelDBClosedException
+     */
+    public int key(ByteBuffer dst) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        if (dst == null) {
+            throw new IllegalArgumentException("Destination buffer must not be null.");
+        }
+
+        return copy(key(), dst);
+    }
+
+    /**
+     * Copies the value under the iterator into the remaining space of <tt>dst</tt>, advancing
+     * its position.
+     * <p>
+     * If the value does not fit, nothing is copied and the position is left untouched.
+     *
+     * @param dst the buffer to copy into, if null throws an {@link java.lang.IllegalArgumentException}
+     * @return the length of the value
+     * @throws LevelDBIteratorNotValidException if not {@link #isValid()}
+     * @throws LevelDBClosedException
+     */
+    public int value(ByteBuffer dst) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        if (dst == null) {
+            throw new IllegalArgumentException("Destination buffer must not be null.");
+        }
+
+        return copy(value(), dst);
+    }
+
+    /**
+     * Returns the key-value pair under the iterator as an {@link Entry}.
+     * <p>
+     * The same {@link Entry} instance is returned on every call and its contents are overwritten,
+     * so copy out anything you need to keep before moving the iterator. Its buffers only grow,
+     * which means a scan stops allocating once they fit the largest pair seen.
+     *
+     * @return the reused entry, never null
+     * @throws LevelDBIteratorNotValidException if not {@link #isValid()}
+     * @throws LevelDBClosedException
+     */
+    public Entry entry() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        Entry entry = this.entry;
+
+        if (entry == null) {
+            entry = this.entry = new Entry();
+        }
+
+        int length = readKey(entry.key, 0);
+
+        if (length > entry.key.length) {
+            entry.key = new byte[Math.max(length, entry.key.length * 2)];
+            length = readKey(entry.key, 0);
+        }
+
+        entry.keyLength = length;
+
+        length = readValue(entry.value, 0);
+
+        if (length > entry.value.length) {
+            entry.value = new byte[Math.max(length, entry.value.length * 2)];
+            length = readValue(entry.value, 0);
+        }
+
+        entry.valueLength = length;
+
+        return entry;
+    }
+
     /**
      * Checks whether this iterator has been closed.
      */
@@ -112,4 +228,100 @@ public abstract class Iterator implements Closeable {
      */
     @Override
     public abstract void close();
+
+    private static void checkBounds(byte[] dst, int off) {
+        if (dst == null) {
+            throw new IllegalArgumentException("Destination array must not be null.");
+        }
+
+        if (off < 0 || off > dst.length) {
+            throw new IndexOutOfBoundsException("Offset " + off + " is out of bounds for length " + dst.length + ".");
+        }
+    }
+
+    private static int copy(byte[] src, byte[] dst, int off) {
+        if (src.length <= dst.length - off) {
+            System.arraycopy(src, 0, dst, off, src.length);
+        }
+
+        return src.length;
+    }
+
+    private static int copy(byte[] src, ByteBuffer dst) {
+        if (src.length <= dst.remaining()) {
+            dst.put(src);
+        }
+
+        return src.length;
+    }
+
+    /**
+     * A reusable view over the key-value pair under an iterator.
+     * <p>
+     * Only the first {@link #keyLength()} bytes of {@link #keyArray()} and the first
+     * {@link #valueLength()} bytes of {@link #valueArray()} are meaningful. The arrays are
+     * owned by the iterator and are overwritten by the next call to {@link Iterator#entry()}.
+     */
+    public static final class Entry {
+        private byte[] key;
+        private int keyLength;
+
+        private byte[] value;
+        private int valueLength;
+
+        private Entry() {
+            key = new byte[32];
+            value = new byte[128];
+        }
+
+        /**
+         * The backing array of the key. Do not hold on to it across iterator moves.
+         *
+         * @return the key array, never null
+         */
+        public byte[] keyArray() {
+            return key;
+        }
+
+        public int keyLength() {
+            return keyLength;
+        }
+
+        /**
+         * The backing array of the value. Do not hold on to it across iterator moves.
+         *
+         * @return the value array, never null
+         */
+        public byte[] valueArray() {
+            return value;
+        }
+
+        public int valueLength() {
+            return valueLength;
+        }
+
+        /**
+         * Allocates a copy of the key.
+         *
+         * @return a new array holding exactly the key
+         */
+        public byte[] copyKey() {
+            byte[] copy = new byte[keyLength];
+            System.arraycopy(key, 0, copy, 0, keyLength);
+
+            return copy;
+        }
+
+        /**
+         * Allocates a copy of the value.
+         *
+         * @return a new array holding exactly the value
+         */
+        public byte[] copyValue() {
+            byte[] copy = new byte[valueLength];
+            System.arraycopy(value, 0, copy, 0, valueLength);
+
+            return copy;
+        }
+    }
 }
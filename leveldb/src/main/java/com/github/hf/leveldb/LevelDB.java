@@ -35,24 +35,55 @@ package com.github.hf.leveldb;
 
 import android.content.Context;
 
+import com.github.hf.leveldb.changelog.ChangeLog;
 import com.github.hf.leveldb.exception.LevelDBClosedException;
 import com.github.hf.leveldb.exception.LevelDBException;
 import com.github.hf.leveldb.exception.LevelDBSnapshotOwnershipException;
+import com.github.hf.leveldb.implementation.NativeCache;
 import com.github.hf.leveldb.implementation.NativeLevelDB;
 import com.github.hf.leveldb.implementation.mock.MockLevelDB;
+import com.github.hf.leveldb.implementation.mock.PersistentMockLevelDB;
+import com.github.hf.leveldb.namespace.Namespace;
+import com.github.hf.leveldb.util.Dump;
+import com.github.hf.leveldb.util.KeyCodec;
+import com.github.hf.leveldb.util.ParallelScan;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+import com.google.common.util.concurrent.Striped;
 
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 
 public abstract class LevelDB implements Closeable, AutoCloseable {
     public final static String DEFAULT_DBNAME = "default.ldb";
     public final static String NATIVE_LIB_NAME = "leveldb_jni";
 
+    private static final int MERGE_LOCK_STRIPES = 64;
+
+    private final Striped<Lock> mergeLocks = Striped.lock(MERGE_LOCK_STRIPES);
+
+    // Null while there are no write listeners.
+    private volatile WriteDispatcher writeDispatcher;
+    private final Object writeListenersLock = new Object();
+
+    // Created on first use, there must be only one per database.
+    private ChangeLog changeLog;
+    private final Object changeLogLock = new Object();
+
     public static void loadNative() {
         System.loadLibrary(NATIVE_LIB_NAME);
     }
@@ -119,6 +150,20 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
         return new MockLevelDB();
     }
 
+    /**
+     * Opens a {@link com.github.hf.leveldb.implementation.mock.PersistentMockLevelDB}, a pure-Java
+     * database that keeps its data in a directory at path. Useful in tests on hosts where the native
+     * library can't be loaded, but which need data to survive reopening the database.
+     * @param path the directory of the database
+     * @param configuration configuration for the database, or null
+     * @return a new {@link com.github.hf.leveldb.implementation.mock.PersistentMockLevelDB}
+     * @throws LevelDBException
+     */
+    public static LevelDB mock(@Nonnull String path, Configuration configuration) throws LevelDBException {
+        checkArgument(path != null, "Path is not specified");
+        return new PersistentMockLevelDB(path, configuration);
+    }
+
     /**
      * Destroys the contents of a LevelDB database.
      * @param path the path to the database
@@ -191,6 +236,23 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
         put(key, value, false);
     }
 
+    /**
+     * Writes the key-value pair held in ranges of arrays, such as reusable encoding buffers. The native
+     * database reads the ranges directly instead of needing exactly sized arrays.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param value non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param sync whether this write will be forced to disk
+     * @throws LevelDBException
+     */
+    public void put(@Nonnull byte[] key, int keyOffset, int keyLength, @Nonnull byte[] value, int valueOffset, int valueLength, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(value != null, "Value can't be null");
+        checkPositionIndexes(keyOffset, keyOffset + keyLength, key.length);
+        checkPositionIndexes(valueOffset, valueOffset + valueLength, value.length);
+
+        put(Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength), Arrays.copyOfRange(value, valueOffset, valueOffset + valueLength), sync);
+    }
+
     /**
      * Writes a {@link com.github.hf.leveldb.WriteBatch} to the database.
      * @param writeBatch non-null, if null throws {@link java.lang.IllegalArgumentException}
@@ -209,6 +271,26 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
         write(writeBatch, false);
     }
 
+    /**
+     * Writes the batch if validator accepts the state of the database right before it, used by
+     * {@link Transaction#commit(boolean)}.
+     * <p>
+     * Implementations must override this to validate and write under the lock of their writes,
+     * so that no other write can come between the two. This default, for those that can't,
+     * validates right before writing.
+     * @param writeBatch non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param sync whether this write will be forced to disk
+     * @param validator non-null, throws to reject the write
+     * @throws LevelDBException if the write failed or validator rejected it
+     */
+    protected void write(@Nonnull WriteBatch writeBatch, boolean sync, @Nonnull WriteValidator validator) throws LevelDBException {
+        checkArgument(writeBatch != null, "WriteBatch can't be null");
+        checkArgument(validator != null, "Validator can't be null");
+
+        validator.validate();
+        write(writeBatch, sync);
+    }
+
     /**
      * Retrieves key from the database, possibly from a snapshot state.
      * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
@@ -219,6 +301,42 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
     @Nullable
     public abstract byte[] get(@Nonnull byte[] key, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException;
 
+    /**
+     * Retrieves the key held in a range of an array from the database, possibly from a snapshot state.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param snapshot the snapshot from which to read the entry, may be null
+     * @return data for the key, or null
+     * @throws LevelDBException
+     * @see #put(byte[], int, int, byte[], int, int, boolean)
+     */
+    @Nullable
+    public byte[] get(@Nonnull byte[] key, int offset, int length, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkPositionIndexes(offset, offset + length, key.length);
+
+        return get(Arrays.copyOfRange(key, offset, offset + length), snapshot);
+    }
+
+    /**
+     * Retrieves several keys at once, possibly from a snapshot state. Without a snapshot, each
+     * key may be read at a different point in time.
+     * @param keys non-null, and none of them null
+     * @param snapshot the snapshot from which to read the entries, may be null
+     * @return the values, in the order of the keys, null for those that don't exist
+     * @throws LevelDBException
+     */
+    public byte[][] multiGet(@Nonnull byte[][] keys, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        checkArgument(keys != null, "Keys can't be null");
+
+        final byte[][] values = new byte[keys.length][];
+
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = get(keys[i], snapshot);
+        }
+
+        return values;
+    }
+
     /**
      * Retrieves key from the database, possibly from a snapshot state.
      * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
@@ -288,6 +406,20 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
      */
     public abstract void del(@Nonnull byte[] key, boolean sync) throws LevelDBException;
 
+    /**
+     * Deletes the key held in a range of an array from database, if it exists.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param sync whether this write will be forced to disk
+     * @throws LevelDBException
+     * @see #put(byte[], int, int, byte[], int, int, boolean)
+     */
+    public void del(@Nonnull byte[] key, int offset, int length, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkPositionIndexes(offset, offset + length, key.length);
+
+        del(Arrays.copyOfRange(key, offset, offset + length), sync);
+    }
+
     /**
      * Deletes key from database, if it exists.
      * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
@@ -319,6 +451,196 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
         del(key, false);
     }
 
+    /**
+     * Atomically replaces the value of key with the one computed by operator from it. The read and
+     * the write happen under the lock of the database's writes, so no other write can come between
+     * them.
+     * <p>
+     * Implementations must override this to read and write under the lock of their writes. This
+     * default, for those that can't, only serializes merges of the same key with one of a fixed
+     * set of striped locks.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param operator non-null, computes the new value
+     * @param sync whether this write will be forced to disk
+     * @return the new value, or <tt>null</tt> if the key was deleted
+     * @throws LevelDBException
+     */
+    @Nullable
+    public byte[] merge(@Nonnull byte[] key, @Nonnull MergeOperator operator, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(operator != null, "Merge operator can't be null");
+
+        final Lock lock = mergeLock(key, 0, key.length);
+
+        lock.lock();
+
+        try {
+            final byte[] value = operator.merge(key, get(key, null));
+
+            put(key, value, sync);
+
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Asynchronous {@link #merge(byte[], MergeOperator, boolean)}.
+     */
+    @Nullable
+    public byte[] merge(@Nonnull byte[] key, @Nonnull MergeOperator operator) throws LevelDBException {
+        return merge(key, operator, false);
+    }
+
+    /**
+     * Atomically adds delta to the counter held by key, starting from 0 if there is none, with
+     * {@link #merge(byte[], MergeOperator, boolean)}.
+     * <p>
+     * Counters are 8 byte values encoded with {@link KeyCodec#putLong(byte[], int, long)}, the
+     * same as {@link com.github.hf.leveldb.typed.Serializers#LONG}. Overflow wraps around.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param delta the amount to add
+     * @param sync whether this write will be forced to disk
+     * @return the new value of the counter
+     * @throws LevelDBException if the existing value is not a counter
+     * @see #merge(byte[], MergeOperator, boolean)
+     */
+    public long increment(@Nonnull byte[] key, final long delta, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        final byte[] merged;
+
+        try {
+            merged = merge(key, new MergeOperator() {
+                @Override
+                public byte[] merge(@Nonnull byte[] key, @Nullable byte[] existing) {
+                    if (existing != null && existing.length != KeyCodec.LONG_LENGTH) {
+                        throw new NotACounterException(existing.length);
+                    }
+
+                    final byte[] encoded = new byte[KeyCodec.LONG_LENGTH];
+
+                    KeyCodec.putLong(encoded, 0, (existing == null ? 0 : KeyCodec.getLong(existing, 0)) + delta);
+
+                    return encoded;
+                }
+            }, sync);
+        } catch (NotACounterException e) {
+            throw new LevelDBException("Value of length " + e.length + " is not a counter.");
+        }
+
+        return KeyCodec.getLong(merged, 0);
+    }
+
+    /**
+     * Asynchronous {@link #increment(byte[], long, boolean)}.
+     */
+    public long increment(@Nonnull byte[] key, long delta) throws LevelDBException {
+        return increment(key, delta, false);
+    }
+
+    /**
+     * Returns the lock that serializes merges of the key in a range of an array. Implementations
+     * that override {@link #merge(byte[], MergeOperator, boolean)} or
+     * {@link #increment(byte[], long, boolean)} must hold it.
+     */
+    protected final Lock mergeLock(byte[] key, int offset, int length) {
+        return mergeLockAt(mergeStripe(key, offset, length));
+    }
+
+    final int mergeStripe(byte[] key, int offset, int length) {
+        int hash = 1;
+
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + key[i];
+        }
+
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+
+        return hash & (MERGE_LOCK_STRIPES - 1);
+    }
+
+    final Lock mergeLockAt(int stripe) {
+        return mergeLocks.getAt(stripe);
+    }
+
+    /**
+     * Registers a listener for the writes committed from now on.
+     * @param listener non-null
+     * @see WriteListener
+     */
+    public void addWriteListener(@Nonnull WriteListener listener) {
+        checkArgument(listener != null, "Listener can't be null");
+
+        synchronized (writeListenersLock) {
+            if (writeDispatcher == null) {
+                writeDispatcher = new WriteDispatcher();
+            }
+
+            writeDispatcher.listeners.add(listener);
+        }
+    }
+
+    /**
+     * Unregisters a listener. Writes already committed may still be delivered to it.
+     * @param listener non-null
+     */
+    public void removeWriteListener(@Nonnull WriteListener listener) {
+        checkArgument(listener != null, "Listener can't be null");
+
+        synchronized (writeListenersLock) {
+            final WriteDispatcher dispatcher = writeDispatcher;
+
+            if (dispatcher != null && dispatcher.listeners.remove(listener) && dispatcher.listeners.isEmpty()) {
+                writeDispatcher = null;
+                dispatcher.stop();
+            }
+        }
+    }
+
+    /**
+     * Reserves room for publishing a write to the write listeners, waiting while they are too far
+     * behind. Must be called before entering the critical section that commits the write, and the
+     * write published from within it.
+     * <pre>
+     * try (WriteSlot slot = reserveWrite()) {
+     *     synchronized (this) {
+     *         // commit the write
+     *         slot.publish(batch);
+     *     }
+     * }
+     * </pre>
+     * @return the slot, a shared no-op one while there are no listeners
+     */
+    protected final WriteSlot reserveWrite() {
+        final WriteDispatcher dispatcher = writeDispatcher;
+
+        if (dispatcher == null) {
+            return WriteSlot.NONE;
+        }
+
+        dispatcher.reserve();
+
+        return new WriteSlot(dispatcher);
+    }
+
+    /**
+     * Unregisters all write listeners once the writes already committed have been delivered.
+     * Implementations call this when they are closed.
+     */
+    protected final void closeWriteListeners() {
+        synchronized (writeListenersLock) {
+            final WriteDispatcher dispatcher = writeDispatcher;
+
+            if (dispatcher != null) {
+                writeDispatcher = null;
+                dispatcher.stop();
+            }
+        }
+    }
+
     /**
      * Raw form of {@link #getProperty(String)}.
      * <p>
@@ -351,12 +673,22 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
         return getProperty(key == null ? null : key.getBytes());
     }
 
+    /**
+     * Approximates the storage used by the keys in <tt>[from, to)</tt>. Useful for splitting
+     * the key space into evenly sized parts.
+     * @param from non-null, the start of the range, inclusive
+     * @param to non-null, the end of the range, exclusive
+     * @return the approximate size in bytes, 0 if unknown
+     * @throws LevelDBClosedException
+     */
+    public abstract long getApproximateSize(@Nonnull byte[] from, @Nonnull byte[] to) throws LevelDBClosedException;
+
     /**
      * Creates a new {@link com.github.hf.leveldb.Iterator} for this database.
      * <p>
-     * Data seen by the iterator will be consistent (like a snapshot). Closing the iterator is a must.
-     * The database implementation will not close iterators automatically when closed, which may
-     * result in memory leaks.
+     * Data seen by the iterator will be consistent (like a snapshot). Close the iterator as soon as
+     * you are done with it; an open iterator pins the data it sees, which keeps compactions from
+     * dropping obsolete entries.
      * @param fillCache whether to fill the internal cache while iterating over the database
      * @param snapshot the snapshot from which to read the entries, may be null
      * @return new iterator
@@ -396,6 +728,131 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
         return iterator(true);
     }
 
+    /**
+     * Begins an optimistic transaction, reading from a new snapshot.
+     * @return the transaction, commit or roll it back when done
+     * @throws LevelDBClosedException
+     * @see Transaction
+     */
+    public Transaction beginTransaction() throws LevelDBClosedException {
+        return new Transaction(this);
+    }
+
+    /**
+     * Returns the namespace called name, a separate key space in this database, registering it on
+     * first use.
+     * @param name non-null and non-empty
+     * @return the namespace
+     * @throws LevelDBException
+     * @see Namespace
+     */
+    public Namespace namespace(@Nonnull String name) throws LevelDBException {
+        return Namespace.open(this, name);
+    }
+
+    /**
+     * Returns the change log of this database, opening it on first use. Every call returns the
+     * same log, so that sequence numbers are assigned in one place.
+     * @return the change log
+     * @throws LevelDBException
+     * @see ChangeLog
+     */
+    public ChangeLog changeLog() throws LevelDBException {
+        synchronized (changeLogLock) {
+            if (changeLog == null) {
+                changeLog = new ChangeLog(this);
+            }
+
+            return changeLog;
+        }
+    }
+
+    /**
+     * Scans the entries seen by <tt>snapshot</tt> concurrently, splitting the key space into up to
+     * <tt>partitions</tt> ranges of roughly equal size. Each range is read by its own iterator on
+     * <tt>executor</tt>, and this method blocks until all of them are done.
+     * @param snapshot the snapshot to scan, if null one is obtained and released for the scan
+     * @param partitions the wanted number of partitions, must be positive
+     * @param executor runs the partitions, if null throws {@link java.lang.IllegalArgumentException}
+     * @param consumer receives the entries, if null throws {@link java.lang.IllegalArgumentException}
+     * @return the number of entries scanned
+     * @throws LevelDBException the first failure of any partition
+     * @see com.github.hf.leveldb.util.ParallelScan
+     */
+    public long parallelScan(Snapshot snapshot, int partitions, @Nonnull Executor executor, @Nonnull EntryConsumer consumer) throws LevelDBException {
+        return ParallelScan.scan(this, snapshot, partitions, executor, consumer);
+    }
+
+    /**
+     * Writes the entries in <tt>[from, to)</tt> to out, in the framed format of {@link Dump}.
+     * @param out non-null, flushed but not closed
+     * @param from the first key to export, inclusive, null for the first key
+     * @param to the key to stop at, exclusive, null for no limit
+     * @param compress whether to deflate the dump
+     * @param progress receives the progress, may be null
+     * @return the number of entries exported
+     * @throws LevelDBException
+     * @see Dump#exportTo(LevelDB, OutputStream, byte[], byte[], boolean, Dump.Progress)
+     */
+    public long exportTo(@Nonnull OutputStream out, @Nullable byte[] from, @Nullable byte[] to, boolean compress, @Nullable Dump.Progress progress) throws LevelDBException {
+        return Dump.exportTo(this, out, from, to, compress, progress);
+    }
+
+    public long exportTo(@Nonnull WritableByteChannel channel, @Nullable byte[] from, @Nullable byte[] to, boolean compress, @Nullable Dump.Progress progress) throws LevelDBException {
+        checkArgument(channel != null, "Channel can't be null");
+
+        // Frame headers are written separately from their payloads, so they're buffered into one channel write.
+        return exportTo(new BufferedOutputStream(Channels.newOutputStream(channel), Dump.FRAME_SIZE), from, to, compress, progress);
+    }
+
+    public long exportTo(@Nonnull OutputStream out) throws LevelDBException {
+        return exportTo(out, null, null, false, null);
+    }
+
+    /**
+     * Writes the entries of a dump made with {@link #exportTo(OutputStream, byte[], byte[], boolean, Dump.Progress)}
+     * into this database, in large write batches.
+     * @param in non-null, not closed, see {@link Dump#importFrom(LevelDB, InputStream, boolean, Dump.Progress)}
+     * for how far it is read
+     * @param sync whether the import is forced to disk when it's done
+     * @param progress receives the progress, may be null
+     * @return the number of entries imported
+     * @throws com.github.hf.leveldb.exception.LevelDBCorruptionException if the dump is malformed
+     * @throws LevelDBException
+     * @see Dump#importFrom(LevelDB, InputStream, boolean, Dump.Progress)
+     */
+    public long importFrom(@Nonnull InputStream in, boolean sync, @Nullable Dump.Progress progress) throws LevelDBException {
+        return Dump.importFrom(this, in, sync, progress);
+    }
+
+    public long importFrom(@Nonnull ReadableByteChannel channel, boolean sync, @Nullable Dump.Progress progress) throws LevelDBException {
+        checkArgument(channel != null, "Channel can't be null");
+
+        return importFrom(Channels.newInputStream(channel), sync, progress);
+    }
+
+    public long importFrom(@Nonnull InputStream in) throws LevelDBException {
+        return importFrom(in, false, null);
+    }
+
+    /**
+     * Writes a consistent copy of this database into the directory destination while it stays
+     * open for reads and writes, which are only paused while the files still being appended to
+     * are copied. The copy can be opened like any database.
+     * <p>
+     * Checkpointing into a directory that holds a previous checkpoint of the same database is
+     * incremental: table files are immutable, and those already there are not copied again.
+     * Database files in destination that are not part of the new checkpoint are deleted, other
+     * files are left alone, but it's best not to use it for anything else.
+     * @param destination non-null, created if missing
+     * @return the number of bytes copied
+     * @throws UnsupportedOperationException if this database is not kept in files
+     * @throws LevelDBException
+     */
+    public long checkpoint(@Nonnull File destination) throws LevelDBException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support checkpoints.");
+    }
+
     /**
      * The path of this LevelDB. Usually a filesystem path, but may be something else
      * (eg: {@link com.github.hf.leveldb.implementation.mock.MockLevelDB#getPath()}.
@@ -429,6 +886,80 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
      */
     public abstract void releaseSnapshot(Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBClosedException;
 
+    /**
+     * Carries a value that isn't a counter out of the merge operator of {@link #increment(byte[], long, boolean)}.
+     */
+    private static final class NotACounterException extends RuntimeException {
+        final int length;
+
+        NotACounterException(int length) {
+            this.length = length;
+        }
+    }
+
+    /**
+     * Room for one committed write in the queue of the write listeners, see {@link #reserveWrite()}.
+     */
+    protected static final class WriteSlot implements AutoCloseable {
+        static final WriteSlot NONE = new WriteSlot(null);
+
+        private WriteDispatcher dispatcher;
+
+        WriteSlot(WriteDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        /**
+         * Publishes a committed batch. Its keys and values are copied, since listeners run after
+         * the writer may have reused them.
+         */
+        public void publish(WriteBatch batch) {
+            if (dispatcher == null) {
+                return;
+            }
+
+            final SimpleWriteBatch copy = new SimpleWriteBatch();
+
+            for (WriteBatch.Operation operation : batch) {
+                if (operation.isPut()) {
+                    copy.put(operation.key().clone(), operation.value().clone());
+                } else {
+                    copy.del(operation.key().clone());
+                }
+            }
+
+            dispatcher.publish(copy);
+            dispatcher = null;
+        }
+
+        /**
+         * Publishes a committed put of array ranges, or a deletion if value is null. Both are copied.
+         */
+        public void publish(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) {
+            if (dispatcher == null) {
+                return;
+            }
+
+            final byte[] keyCopy = Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength);
+
+            dispatcher.publish(value == null
+                    ? new SimpleWriteBatch().del(keyCopy)
+                    : new SimpleWriteBatch().put(keyCopy, Arrays.copyOfRange(value, valueOffset, valueOffset + valueLength)));
+            dispatcher = null;
+        }
+
+        /**
+         * Gives the slot back if nothing was published, for example because the write failed.
+         */
+        @Override
+        public void close() {
+            if (dispatcher != null) {
+                dispatcher.cancel();
+                dispatcher = null;
+            }
+        }
+    }
+
     /**
      * Specifies a configuration to open the database with.
      */
@@ -437,11 +968,33 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
         private int cacheSize;
         private int blockSize;
         private int writeBufferSize;
+        private int rowCacheSize;
+        private int keyFilterSize;
+        private boolean recordAllocationSites;
+        private NativeCache sharedCache;
 
         private Configuration() {
             createIfMissing = true;
         }
 
+        /**
+         * A copy of this configuration, to be changed without affecting this one.
+         */
+        public Configuration copy() {
+            final Configuration copy = new Configuration();
+
+            copy.createIfMissing = createIfMissing;
+            copy.cacheSize = cacheSize;
+            copy.blockSize = blockSize;
+            copy.writeBufferSize = writeBufferSize;
+            copy.rowCacheSize = rowCacheSize;
+            copy.keyFilterSize = keyFilterSize;
+            copy.recordAllocationSites = recordAllocationSites;
+            copy.sharedCache = sharedCache;
+
+            return copy;
+        }
+
         public boolean createIfMissing() {
             return createIfMissing;
         }
@@ -481,5 +1034,64 @@ public abstract class LevelDB implements Closeable, AutoCloseable {
 
             return this;
         }
+
+        public int rowCacheSize() {
+            return rowCacheSize;
+        }
+
+        /**
+         * Keeps up to this many bytes of recently read values in a Java-side cache, so that reads of
+         * hot keys don't cross into native code. Writes through the same instance keep it up to date;
+         * it's disabled by default.
+         */
+        public Configuration rowCacheSize(int rowCacheSize) {
+            this.rowCacheSize = Math.abs(rowCacheSize);
+
+            return this;
+        }
+
+        public int keyFilterSize() {
+            return keyFilterSize;
+        }
+
+        /**
+         * Keeps a bloom filter of this many bytes over all keys, so that reads of keys that don't exist
+         * are mostly answered without crossing into native code. About 10 bits per key give a false
+         * positive rate near 1%. The filter is built with a full scan when the database is opened;
+         * it's disabled by default.
+         */
+        public Configuration keyFilterSize(int keyFilterSize) {
+            this.keyFilterSize = Math.abs(keyFilterSize);
+
+            return this;
+        }
+
+        public boolean recordAllocationSites() {
+            return recordAllocationSites;
+        }
+
+        /**
+         * Records a stack trace whenever an iterator or snapshot is opened, so that leaked ones can
+         * be traced back to where they were created. Costly, use while debugging only.
+         */
+        public Configuration recordAllocationSites(boolean recordAllocationSites) {
+            this.recordAllocationSites = recordAllocationSites;
+
+            return this;
+        }
+
+        public NativeCache sharedCache() {
+            return sharedCache;
+        }
+
+        /**
+         * Uses a block cache that is shared with other databases, instead of one of {@link #cacheSize()}
+         * of its own. The cache must stay open until the database has been opened.
+         */
+        public Configuration sharedCache(NativeCache sharedCache) {
+            this.sharedCache = sharedCache;
+
+            return this;
+        }
     }
 }
@@ -0,0 +1,252 @@
+package com.github.hf.leveldb;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBTransactionConflictException;
+import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An optimistic transaction, obtained with {@link LevelDB#beginTransaction()}.
+ * <p>
+ * Reads go through a snapshot taken when the transaction begins, and see the transaction's own
+ * writes, which are buffered until {@link #commit(boolean)}. Every key read is recorded along
+ * with the value seen. At commit, the recorded values are compared with the current ones and, if
+ * none changed, the writes are applied as one {@link WriteBatch}. The comparison and the write
+ * happen under the lock of the database's writes, see
+ * {@link LevelDB#write(WriteBatch, boolean, WriteValidator)}, so no other write can come between
+ * them. Merge locks of all read and written keys are taken around the commit too, which
+ * serializes it with merges where the database can't do better.
+ * <p>
+ * A value changed and changed back between read and commit is not a conflict.
+ * <p>
+ * Not thread-safe. Close the transaction to release its snapshot if it isn't committed.
+ */
+public final class Transaction implements Closeable {
+    private final LevelDB levelDB;
+    private final Snapshot snapshot;
+
+    private final TreeMap<byte[], byte[]> reads = new TreeMap<byte[], byte[]>(Bytes.COMPARATOR);
+    private final TreeMap<byte[], byte[]> writes = new TreeMap<byte[], byte[]>(Bytes.COMPARATOR);
+
+    private boolean finished;
+
+    Transaction(LevelDB levelDB) throws LevelDBClosedException {
+        this.levelDB = levelDB;
+        this.snapshot = levelDB.obtainSnapshot();
+    }
+
+    /**
+     * The snapshot the transaction reads from, for iterating over the same state.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Reads the value of key as of the start of the transaction, or as written by it.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @return the value, or <tt>null</tt>
+     * @throws LevelDBException
+     */
+    @Nullable
+    public byte[] get(@Nonnull byte[] key) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkActive();
+
+        if (writes.containsKey(key)) {
+            final byte[] value = writes.get(key);
+
+            return value == null ? null : Arrays.copyOf(value, value.length);
+        }
+
+        final byte[] value = levelDB.get(key, snapshot);
+
+        if (!reads.containsKey(key)) {
+            reads.put(Arrays.copyOf(key, key.length), value == null ? null : Arrays.copyOf(value, value.length));
+        }
+
+        return value;
+    }
+
+    /**
+     * Buffers a write of the key-value pair. Both are copied.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param value if null same as {@link #del(byte[])}
+     */
+    public Transaction put(@Nonnull byte[] key, byte[] value) {
+        checkArgument(key != null, "Key can't be null");
+        checkActive();
+
+        writes.put(Arrays.copyOf(key, key.length), value == null ? null : Arrays.copyOf(value, value.length));
+
+        return this;
+    }
+
+    /**
+     * Buffers a deletion of key.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     */
+    public Transaction del(@Nonnull byte[] key) {
+        return put(key, null);
+    }
+
+    /**
+     * Validates the keys read and applies the writes atomically.
+     * @param sync whether the writes will be forced to disk
+     * @throws LevelDBTransactionConflictException if a key read has changed, nothing is written
+     * @throws LevelDBException
+     */
+    public void commit(boolean sync) throws LevelDBException {
+        checkActive();
+
+        finished = true;
+
+        try {
+            final TreeSet<Integer> stripes = new TreeSet<Integer>();
+
+            for (byte[] key : reads.keySet()) {
+                stripes.add(levelDB.mergeStripe(key, 0, key.length));
+            }
+
+            for (byte[] key : writes.keySet()) {
+                stripes.add(levelDB.mergeStripe(key, 0, key.length));
+            }
+
+            // Locks are always taken in stripe order, so concurrent commits can't deadlock.
+            final Lock[] locks = new Lock[stripes.size()];
+            int locked = 0;
+
+            try {
+                for (Integer stripe : stripes) {
+                    locks[locked] = levelDB.mergeLockAt(stripe);
+                    locks[locked].lock();
+                    locked++;
+                }
+
+                final WriteValidator validator = new WriteValidator() {
+                    @Override
+                    public void validate() throws LevelDBException {
+                        for (Map.Entry<byte[], byte[]> read : reads.entrySet()) {
+                            if (!Arrays.equals(read.getValue(), levelDB.get(read.getKey(), null))) {
+                                throw new LevelDBTransactionConflictException();
+                            }
+                        }
+                    }
+                };
+
+                if (writes.isEmpty()) {
+                    // Nothing to write, the reads were consistent if they are still current.
+                    validator.validate();
+                } else {
+                    final SimpleWriteBatch batch = new SimpleWriteBatch();
+
+                    for (Map.Entry<byte[], byte[]> write : writes.entrySet()) {
+                        batch.put(write.getKey(), write.getValue());
+                    }
+
+                    levelDB.write(batch, sync, validator);
+                }
+            } finally {
+                while (locked > 0) {
+                    locks[--locked].unlock();
+                }
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Asynchronous {@link #commit(boolean)}.
+     */
+    public void commit() throws LevelDBException {
+        commit(false);
+    }
+
+    /**
+     * Discards the buffered writes and releases the snapshot. It is not an error to call this on
+     * a finished transaction.
+     */
+    public void rollback() {
+        if (!finished) {
+            finished = true;
+            release();
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Same as {@link #rollback()}.
+     */
+    @Override
+    public void close() {
+        rollback();
+    }
+
+    private void release() {
+        reads.clear();
+        writes.clear();
+
+        try {
+            levelDB.releaseSnapshot(snapshot);
+        } catch (LevelDBClosedException e) {
+            // Closing the database released it.
+        }
+    }
+
+    private void checkActive() {
+        if (finished) {
+            throw new IllegalStateException("Transaction has already been committed or rolled back.");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.hf.leveldb;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Delivers the writes committed to a {@link LevelDB} to its {@link WriteListener}s.
+ * <p>
+ * Committed writes are kept in a bounded ring until the dispatcher thread takes them, all at once,
+ * and hands them to the listeners. Writers reserve their slot with {@link #reserve()} before
+ * entering their critical section, so a full ring blocks them there instead of inside it, and
+ * publish into it once committed, which keeps the ring in commit order.
+ */
+final class WriteDispatcher implements Runnable {
+    static final int CAPACITY = 1024;
+
+    private static final String TAG = "org.leveldb";
+
+    final CopyOnWriteArrayList<WriteListener> listeners = new CopyOnWriteArrayList<WriteListener>();
+
+    private final Semaphore free = new Semaphore(CAPACITY);
+
+    private final WriteBatch[] ring = new WriteBatch[CAPACITY];
+    private int head;
+    private int size;
+    private boolean stopped;
+
+    WriteDispatcher() {
+        final Thread thread = new Thread(this, "LevelDB-Dispatcher");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for a free slot in the ring.
+     */
+    void reserve() {
+        free.acquireUninterruptibly();
+    }
+
+    /**
+     * Gives back a reserved slot that won't be published.
+     */
+    void cancel() {
+        free.release();
+    }
+
+    /**
+     * Publishes a committed write into a reserved slot.
+     */
+    synchronized void publish(WriteBatch batch) {
+        ring[(head + size) % CAPACITY] = batch;
+
+        if (size++ == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stops the thread once everything published has been delivered.
+     */
+    synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final List<WriteBatch> batches;
+
+            synchronized (this) {
+                while (size == 0 && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Only stop() ends this thread.
+                    }
+                }
+
+                if (size == 0) {
+                    return;
+                }
+
+                batches = new ArrayList<WriteBatch>(size);
+
+                for (; size > 0; size--) {
+                    batches.add(ring[head]);
+                    ring[head] = null;
+                    head = (head + 1) % CAPACITY;
+                }
+            }
+
+            free.release(batches.size());
+
+            for (WriteListener listener : listeners) {
+                try {
+                    listener.onWrites(batches);
+                } catch (Throwable e) {
+                    Log.e(TAG, "Write listener failed.", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.hf.leveldb.changelog;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBCorruptionException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBIteratorNotValidException;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import java.io.Closeable;
+
+/**
+ * Iterates over the entries of a {@link ChangeLog} in sequence order, decoding each back into the
+ * {@link WriteBatch} that was written. Obtained with {@link ChangeLog#changesSince(long)}.
+ * <p>
+ * Entries are read one at a time from an underlying {@link Iterator}, so a long log can be
+ * streamed without holding it in memory.
+ */
+public final class ChangeIterator implements Closeable {
+    private final Iterator iterator;
+
+    ChangeIterator(Iterator iterator) {
+        this.iterator = iterator;
+    }
+
+    void seek(byte[] sequence) throws LevelDBClosedException {
+        iterator.seek(sequence);
+    }
+
+    /**
+     * Whether the iterator is over an entry.
+     * @throws LevelDBClosedException
+     */
+    public boolean isValid() throws LevelDBClosedException {
+        return iterator.isValid();
+    }
+
+    /**
+     * Moves to the next entry.
+     * @throws LevelDBIteratorNotValidException if not {@link #isValid()}
+     * @throws LevelDBClosedException
+     */
+    public void next() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        iterator.next();
+    }
+
+    /**
+     * The sequence of the current entry.
+     * @throws LevelDBIteratorNotValidException if not {@link #isValid()}
+     */
+    public long sequence() throws LevelDBException {
+        return ChangeLog.decodeSequence(iterator.key());
+    }
+
+    /**
+     * Decodes the batch of the current entry.
+     * @throws LevelDBIteratorNotValidException if not {@link #isValid()}
+     * @throws LevelDBCorruptionException if the entry is malformed
+     */
+    public WriteBatch batch() throws LevelDBException {
+        final byte[] entry = iterator.value();
+        final SimpleWriteBatch batch = new SimpleWriteBatch();
+
+        final int[] position = new int[1];
+
+        while (position[0] < entry.length) {
+            final int tag = entry[position[0]++];
+            final byte[] key = readBytes(entry, position);
+
+            if (tag == ChangeLog.PUT) {
+                batch.put(key, readBytes(entry, position));
+            } else if (tag == ChangeLog.DELETE) {
+                batch.del(key);
+            } else {
+                throw new LevelDBCorruptionException("Malformed change log entry.");
+            }
+        }
+
+        return batch;
+    }
+
+    public boolean isClosed() {
+        return iterator.isClosed();
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+    }
+
+    private static byte[] readBytes(byte[] src, int[] position) throws LevelDBCorruptionException {
+        int offset = position[0];
+        int length = 0;
+
+        for (int shift = 0; ; shift += 7) {
+            if (offset >= src.length || shift > 28) {
+                throw new LevelDBCorruptionException("Malformed change log entry.");
+            }
+
+            final int b = src[offset++];
+            length |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+
+        if (length < 0 || length > src.length - offset) {
+            throw new LevelDBCorruptionException("Malformed change log entry.");
+        }
+
+        final byte[] bytes = new byte[length];
+        System.arraycopy(src, offset, bytes, 0, length);
+
+        position[0] = offset + length;
+
+        return bytes;
+    }
+}
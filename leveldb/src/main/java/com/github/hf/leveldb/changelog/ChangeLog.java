@@ -0,0 +1,344 @@
+package com.github.hf.leveldb.changelog;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBCorruptionException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.namespace.Namespace;
+import com.github.hf.leveldb.typed.Output;
+import com.github.hf.leveldb.util.KeyCodec;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An opt-in log of the writes made through it, for incremental replication.
+ * <p>
+ * Every batch written through the log is assigned the next sequence number and recorded in the
+ * {@link Namespace} called <tt>changelog</tt>, in the same {@link WriteBatch} as the batch itself,
+ * so the log and the data never disagree, even after a crash. A replica that has applied
+ * everything up to some sequence reads only what came after it with {@link #changesSince(long)},
+ * and once every replica has caught up, {@link #truncate(long)} discards the older entries.
+ * <p>
+ * Sequences start at 1 and increase by one per batch. They survive reopening the database and
+ * truncation, so they are never reused. Writes made to the database without going through the
+ * log are not recorded. As with any use of namespaces, the logged keys should themselves be
+ * namespaced, see {@link Namespace#encodeKey(byte[])}.
+ * <p>
+ * The next sequence is kept by the log, so only one log may write to a database, or two batches
+ * would be logged under the same sequence and one of them lost. Get it with
+ * {@link LevelDB#changeLog()}, which keeps one per database.
+ * <pre>
+ * ChangeLog log = db.changeLog();
+ *
+ * log.put(key, value, false);
+ *
+ * ChangeIterator changes = log.changesSince(lastSynced);
+ * for (; changes.isValid(); changes.next()) { send(changes.sequence(), changes.batch()); }
+ * </pre>
+ */
+public class ChangeLog {
+    static final String NAMESPACE = "changelog";
+
+    // Sorts before every entry key, holds the truncation watermark.
+    private static final byte[] WATERMARK_KEY = new byte[0];
+
+    private static final int TRUNCATE_BATCH_SIZE = 1024;
+
+    static final int PUT = 1;
+    static final int DELETE = 0;
+
+    private final LevelDB levelDB;
+    private final Namespace log;
+
+    private final Object writeLock = new Object();
+
+    private volatile long sequence;
+    private volatile long watermark;
+
+    /**
+     * Opens the log of levelDB, recovering the last sequence number. No other log may write to
+     * levelDB while this one is in use, prefer {@link LevelDB#changeLog()}.
+     * @param levelDB the database to log writes to
+     * @throws LevelDBException
+     */
+    public ChangeLog(@Nonnull LevelDB levelDB) throws LevelDBException {
+        checkArgument(levelDB != null, "LevelDB can't be null");
+
+        this.levelDB = levelDB;
+        this.log = levelDB.namespace(NAMESPACE);
+
+        final byte[] stored = log.get(WATERMARK_KEY);
+
+        watermark = stored == null ? 1 : decodeSequence(stored);
+        sequence = watermark - 1;
+
+        final Iterator iterator = log.iterator(false, null);
+
+        try {
+            iterator.seekToLast();
+
+            if (iterator.isValid() && iterator.key().length == KeyCodec.LONG_LENGTH) {
+                sequence = Math.max(sequence, decodeSequence(iterator.key()));
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * The underlying database.
+     */
+    public LevelDB levelDB() {
+        return levelDB;
+    }
+
+    /**
+     * The sequence of the last batch written, or 0 if none was.
+     */
+    public long lastSequence() {
+        return sequence;
+    }
+
+    /**
+     * The lowest sequence that may still be in the log, entries below it have been truncated.
+     */
+    public long firstSequence() {
+        return watermark;
+    }
+
+    /**
+     * Writes the key-value pair and logs it.
+     * @param value if null same as {@link #del(byte[], boolean)}
+     * @return the sequence of the write
+     * @see LevelDB#put(byte[], byte[], boolean)
+     */
+    public long put(@Nonnull byte[] key, byte[] value, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        if (value == null) {
+            return del(key, sync);
+        }
+
+        return write(new SimpleWriteBatch().put(key, value), sync);
+    }
+
+    /**
+     * Deletes the key and logs it.
+     * @return the sequence of the write
+     * @see LevelDB#del(byte[], boolean)
+     */
+    public long del(@Nonnull byte[] key, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        return write(new SimpleWriteBatch().del(key), sync);
+    }
+
+    /**
+     * Writes the batch and logs it atomically with it, under the next sequence.
+     * @param writeBatch non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param sync whether this write will be forced to disk
+     * @return the sequence of the write, or the last sequence if the batch is empty
+     * @throws LevelDBException
+     */
+    public long write(@Nonnull WriteBatch writeBatch, boolean sync) throws LevelDBException {
+        checkArgument(writeBatch != null, "Write batch can't be null");
+
+        final Collection<WriteBatch.Operation> operations = writeBatch.getAllOperations();
+
+        if (operations.isEmpty()) {
+            return sequence;
+        }
+
+        final byte[] entry = encodeBatch(operations);
+
+        final SimpleWriteBatch logged = new SimpleWriteBatch();
+
+        for (WriteBatch.Operation operation : operations) {
+            logged.insert(operation);
+        }
+
+        // Sequences are assigned and written under the same lock, so the log is in commit order.
+        synchronized (writeLock) {
+            final long next = sequence + 1;
+
+            logged.put(log.encodeKey(encodeSequence(next)), entry);
+            levelDB.write(logged, sync);
+
+            sequence = next;
+
+            return next;
+        }
+    }
+
+    /**
+     * Iterates over the batches logged after sequence, in order. The iterator sees the log as it
+     * was when it was created, and must be closed.
+     * @param sequence the last sequence the caller has seen, 0 for the whole log
+     * @throws IllegalArgumentException if entries after sequence have been truncated
+     * @throws LevelDBClosedException
+     */
+    public ChangeIterator changesSince(long sequence) throws LevelDBException {
+        checkArgument(sequence >= 0, "Sequence must be non-negative");
+        checkArgument(sequence >= watermark - 1, "Changes after " + sequence + " have been truncated, the log starts at " + watermark);
+
+        final ChangeIterator iterator = new ChangeIterator(log.iterator(false, null));
+
+        iterator.seek(encodeSequence(sequence + 1));
+
+        return iterator;
+    }
+
+    /**
+     * Discards the entries with sequences below watermark, in write batches of bounded size.
+     * Sequences keep increasing from where they were.
+     * @param watermark the lowest sequence to keep, at most {@link #lastSequence()} + 1
+     * @param sync whether the deletions will be forced to disk
+     * @return the number of entries discarded
+     * @throws LevelDBException
+     */
+    public synchronized long truncate(long watermark, boolean sync) throws LevelDBException {
+        checkArgument(watermark <= sequence + 1, "Watermark " + watermark + " is past the last sequence " + sequence);
+
+        if (watermark <= this.watermark) {
+            return 0;
+        }
+
+        final byte[] limit = encodeSequence(watermark);
+        final Iterator iterator = log.iterator(false, null);
+
+        long deleted = 0;
+
+        try {
+            SimpleWriteBatch batch = new SimpleWriteBatch();
+            int batched = 0;
+
+            for (iterator.seek(encodeSequence(this.watermark)); iterator.isValid(); iterator.next()) {
+                final byte[] key = iterator.key();
+
+                if (compareSequences(key, limit) >= 0) {
+                    break;
+                }
+
+                batch.del(log.encodeKey(key));
+
+                if (++batched == TRUNCATE_BATCH_SIZE) {
+                    levelDB.write(batch, sync);
+                    deleted += batched;
+
+                    batch = new SimpleWriteBatch();
+                    batched = 0;
+                }
+            }
+
+            // The watermark goes with the last deletions, it's what keeps sequences from being
+            // reused once the log is empty.
+            batch.put(log.encodeKey(WATERMARK_KEY), limit);
+            levelDB.write(batch, sync);
+            deleted += batched;
+
+            this.watermark = watermark;
+        } finally {
+            iterator.close();
+        }
+
+        return deleted;
+    }
+
+    public long truncate(long watermark) throws LevelDBException {
+        return truncate(watermark, false);
+    }
+
+    static byte[] encodeSequence(long sequence) {
+        final byte[] encoded = new byte[KeyCodec.LONG_LENGTH];
+
+        KeyCodec.putUnsignedLong(encoded, 0, sequence);
+
+        return encoded;
+    }
+
+    static long decodeSequence(byte[] encoded) throws LevelDBCorruptionException {
+        if (encoded.length != KeyCodec.LONG_LENGTH) {
+            throw new LevelDBCorruptionException("Malformed change log sequence.");
+        }
+
+        return KeyCodec.getUnsignedLong(encoded, 0);
+    }
+
+    private static int compareSequences(byte[] a, byte[] b) {
+        for (int i = 0; i < KeyCodec.LONG_LENGTH; i++) {
+            final int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return a.length - b.length;
+    }
+
+    /**
+     * An entry is each operation as a tag byte, the key and, for puts, the value, both prefixed
+     * with their varint lengths.
+     */
+    static byte[] encodeBatch(Collection<WriteBatch.Operation> operations) {
+        final Output output = new Output(256);
+
+        for (WriteBatch.Operation operation : operations) {
+            final byte[] key = operation.key();
+
+            output.writeByte(operation.isPut() ? PUT : DELETE);
+            output.writeVarint(key.length);
+            output.writeBytes(key);
+
+            if (operation.isPut()) {
+                final byte[] value = operation.value();
+
+                output.writeVarint(value.length);
+                output.writeBytes(value);
+            }
+        }
+
+        return output.toBytes();
+    }
+}
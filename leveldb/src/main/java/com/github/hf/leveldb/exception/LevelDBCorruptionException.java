@@ -40,4 +40,8 @@ public class LevelDBCorruptionException extends LevelDBException {
     public LevelDBCorruptionException(String detailMessage) {
         super(detailMessage);
     }
+
+    public LevelDBCorruptionException(String detailMessage, Throwable cause) {
+        super(detailMessage, cause);
+    }
 }
@@ -40,4 +40,8 @@ public class LevelDBException extends Exception {
     public LevelDBException(String detailMessage) {
         super(detailMessage);
     }
+
+    public LevelDBException(String detailMessage, Throwable cause) {
+        super(detailMessage, cause);
+    }
 }
@@ -41,4 +41,8 @@ public class LevelDBIOException extends LevelDBException {
     public LevelDBIOException(String detailMessage) {
         super(detailMessage);
     }
+
+    public LevelDBIOException(String detailMessage, Throwable cause) {
+        super(detailMessage, cause);
+    }
 }
@@ -0,0 +1,229 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBIteratorNotValidException;
+import com.github.hf.leveldb.util.MergingIterator;
+
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Iterates over a copy of the overlay of a {@link BufferedLevelDB} merged over an iterator of its
+ * database. Overlay entries hide the database's entries with the same key, and deleted keys in
+ * the overlay are passed over.
+ */
+final class BufferedIterator extends Iterator {
+    private final MergingIterator merged;
+
+    BufferedIterator(NavigableMap<byte[], byte[]> overlay, Iterator iterator) {
+        this.merged = new MergingIterator(MergingIterator.Duplicates.FIRST, new OverlayIterator(overlay), iterator);
+    }
+
+    @Override
+    public boolean isValid() throws LevelDBClosedException {
+        return merged.isValid();
+    }
+
+    @Override
+    public void seekToFirst() throws LevelDBClosedException {
+        merged.seekToFirst();
+        skipDeleted(true);
+    }
+
+    @Override
+    public void seekToLast() throws LevelDBClosedException {
+        merged.seekToLast();
+        skipDeleted(false);
+    }
+
+    @Override
+    public void seek(byte[] key) throws LevelDBClosedException {
+        merged.seek(key);
+        skipDeleted(true);
+    }
+
+    @Override
+    public void next() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        merged.next();
+        skipDeleted(true);
+    }
+
+    @Override
+    public void previous() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        merged.previous();
+        skipDeleted(false);
+    }
+
+    @Override
+    public byte[] key() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        // The overlay shares its arrays with the live one, so they are only handed out as copies.
+        return merged.source() == 0 ? merged.key().clone() : merged.key();
+    }
+
+    @Override
+    public byte[] value() throws LevelDBClosedException {
+        return merged.source() == 0 ? merged.value().clone() : merged.value();
+    }
+
+    @Override
+    public int readKey(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        return merged.readKey(dst, off);
+    }
+
+    @Override
+    public int readValue(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        return merged.readValue(dst, off);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return merged.isClosed();
+    }
+
+    @Override
+    public void close() {
+        merged.close();
+    }
+
+    private void skipDeleted(boolean forward) throws LevelDBClosedException {
+        while (merged.isValid() && merged.source() == 0 && merged.value() == BufferedLevelDB.DELETED) {
+            if (forward) {
+                merged.next();
+            } else {
+                merged.previous();
+            }
+        }
+    }
+
+    /**
+     * Iterates over a sorted map of the overlay, deleted keys included.
+     */
+    private static final class OverlayIterator extends Iterator {
+        private final NavigableMap<byte[], byte[]> overlay;
+
+        private Map.Entry<byte[], byte[]> entry;
+        private boolean closed;
+
+        OverlayIterator(NavigableMap<byte[], byte[]> overlay) {
+            this.overlay = overlay;
+        }
+
+        @Override
+        public boolean isValid() throws LevelDBClosedException {
+            checkIfClosed();
+
+            return entry != null;
+        }
+
+        @Override
+        public void seekToFirst() throws LevelDBClosedException {
+            checkIfClosed();
+
+            entry = overlay.firstEntry();
+        }
+
+        @Override
+        public void seekToLast() throws LevelDBClosedException {
+            checkIfClosed();
+
+            entry = overlay.lastEntry();
+        }
+
+        @Override
+        public void seek(byte[] key) throws LevelDBClosedException {
+            checkIfClosed();
+
+            entry = overlay.ceilingEntry(key);
+        }
+
+        @Override
+        public void next() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+            checkIfValid();
+
+            entry = overlay.higherEntry(entry.getKey());
+        }
+
+        @Override
+        public void previous() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+            checkIfValid();
+
+            entry = overlay.lowerEntry(entry.getKey());
+        }
+
+        @Override
+        public byte[] key() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+            checkIfValid();
+
+            return entry.getKey();
+        }
+
+        /**
+         * The value, {@link BufferedLevelDB#DELETED} itself for deleted keys.
+         */
+        @Override
+        public byte[] value() throws LevelDBClosedException {
+            checkIfValid();
+
+            return entry.getValue();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        private void checkIfValid() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+            checkIfClosed();
+
+            if (entry == null) {
+                throw new LevelDBIteratorNotValidException();
+            }
+        }
+
+        private void checkIfClosed() throws LevelDBClosedException {
+            if (closed) {
+                throw new LevelDBClosedException("Iterator has been closed.");
+            }
+        }
+    }
+}
@@ -0,0 +1,666 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import android.util.Log;
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.MergeOperator;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.WriteValidator;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBSnapshotOwnershipException;
+import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A {@link LevelDB} that buffers writes in memory in front of another, for data that is
+ * overwritten many times a second, such as UI state.
+ * <p>
+ * Writes go into a sorted in-memory overlay, where a key written again replaces its previous
+ * value instead of adding another write to the log. The overlay is written to the database as one
+ * batch once it holds a number of bytes, once its oldest write is a given time old, on
+ * {@link #flush()}, and on close. Reads and iterators see the overlay merged over the database.
+ * <p>
+ * Buffered writes are lost if the process dies before they are flushed. A write with
+ * <tt>sync</tt> flushes the overlay with it, and flushes can be made synchronous too, to choose
+ * how much durability to trade for fewer writes.
+ * <p>
+ * Snapshots are taken of the database right after a flush, so reads with a snapshot go to the
+ * database directly.
+ * <pre>
+ * LevelDB state = new BufferedLevelDB(LevelDB.open(path), 256 * 1024, 2, TimeUnit.SECONDS, false);
+ * </pre>
+ */
+public class BufferedLevelDB extends LevelDB {
+    private static final String TAG = "org.leveldb";
+
+    /**
+     * The default size of the overlay at which it is flushed.
+     */
+    public static final long DEFAULT_MAX_BYTES = 1 << 20;
+
+    /**
+     * The default longest time a write stays in the overlay.
+     */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+    // The value of deleted keys in the overlay, compared by identity.
+    static final byte[] DELETED = new byte[0];
+
+    private final LevelDB levelDB;
+    private final long maxBytes;
+    private final long maxDelayMillis;
+    private final boolean syncFlushes;
+
+    // Writes are exclusive, reads are shared, so that a batch is seen entirely or not at all.
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Serializes flushes, which keep the overlay they write visible until it is in the database.
+    private final Object flushLock = new Object();
+
+    private final ScheduledExecutorService flusher;
+
+    private ConcurrentSkipListMap<byte[], byte[]> overlay = newOverlay();
+    private ConcurrentSkipListMap<byte[], byte[]> flushing;
+    private long bytes;
+    private boolean scheduled;
+
+    private volatile boolean closed;
+    private volatile String path;
+
+    /**
+     * Buffers up to {@value #DEFAULT_MAX_BYTES} bytes for up to
+     * {@value #DEFAULT_MAX_DELAY_MILLIS} milliseconds, flushing asynchronously.
+     */
+    public BufferedLevelDB(@Nonnull LevelDB levelDB) {
+        this(levelDB, DEFAULT_MAX_BYTES, DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS, false);
+    }
+
+    /**
+     * Buffers writes to a database, which this takes ownership of and closes when closed.
+     * @param levelDB non-null, must not be written to except through this
+     * @param maxBytes the size of keys and values in the overlay at which it is flushed
+     * @param maxDelay the longest time a write stays in the overlay, 0 to only flush on size
+     * @param unit the unit of maxDelay
+     * @param syncFlushes whether flushes are forced to disk
+     */
+    public BufferedLevelDB(@Nonnull LevelDB levelDB, long maxBytes, long maxDelay, @Nonnull TimeUnit unit, boolean syncFlushes) {
+        checkArgument(levelDB != null, "LevelDB can't be null");
+        checkArgument(maxBytes > 0, "Max bytes must be positive");
+        checkArgument(maxDelay >= 0, "Max delay can't be negative");
+        checkArgument(unit != null, "Unit can't be null");
+
+        this.levelDB = levelDB;
+        this.maxBytes = maxBytes;
+        this.maxDelayMillis = unit.toMillis(maxDelay);
+        this.syncFlushes = syncFlushes;
+        this.path = levelDB.getPath();
+
+        if (maxDelayMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "LevelDB-Flusher");
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * The underlying database.
+     */
+    public LevelDB levelDB() {
+        return levelDB;
+    }
+
+    /**
+     * The size of the keys and values waiting in the overlay.
+     */
+    public long bufferedBytes() {
+        final Lock lock = this.lock.readLock();
+
+        lock.lock();
+
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the overlay to the database as one batch, synchronously if flushes are.
+     * @throws LevelDBException if the write failed, in which case the overlay is kept
+     */
+    public void flush() throws LevelDBException {
+        flush(syncFlushes);
+    }
+
+    private void flush(boolean sync) throws LevelDBException {
+        synchronized (flushLock) {
+            final ConcurrentSkipListMap<byte[], byte[]> batch;
+            final Lock lock = this.lock.writeLock();
+
+            lock.lock();
+
+            try {
+                scheduled = false;
+
+                if (overlay.isEmpty()) {
+                    batch = null;
+                } else {
+                    batch = overlay;
+                    flushing = batch;
+                    overlay = newOverlay();
+                    bytes = 0;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (batch == null) {
+                // An unsynced flush may have taken the writes that asked for sync, a synced
+                // write forces them to disk.
+                if (sync) {
+                    levelDB.write(new SimpleWriteBatch(), true);
+                }
+
+                return;
+            }
+
+            boolean flushed = false;
+
+            try {
+                levelDB.write(toWriteBatch(batch), sync);
+                flushed = true;
+            } finally {
+                lock.lock();
+
+                try {
+                    if (!flushed) {
+                        // Writes made since take precedence.
+                        for (Map.Entry<byte[], byte[]> entry : batch.entrySet()) {
+                            if (overlay.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                                bytes += entry.getKey().length + entry.getValue().length;
+                            }
+                        }
+                    }
+
+                    flushing = null;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the overlay and closes the underlying database.
+     */
+    @Override
+    public void close() {
+        final Lock lock = this.lock.writeLock();
+
+        lock.lock();
+
+        try {
+            if (closed) {
+                return;
+            }
+
+            // No more writes, so that the last flush writes everything.
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+
+        try {
+            flush();
+        } catch (LevelDBException e) {
+            Log.e(TAG, "Failed to flush buffered writes on close.", e);
+        }
+
+        levelDB.close();
+        closeWriteListeners();
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        if (value == null) {
+            del(key, sync);
+
+            return;
+        }
+
+        put(key, 0, key.length, value, 0, value.length, sync);
+    }
+
+    @Override
+    public void put(@Nonnull byte[] key, int keyOffset, int keyLength, @Nonnull byte[] value, int valueOffset, int valueLength, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(value != null, "Value can't be null");
+        checkPositionIndexes(keyOffset, keyOffset + keyLength, key.length);
+        checkPositionIndexes(valueOffset, valueOffset + valueLength, value.length);
+
+        final byte[] keyCopy = Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength);
+        final byte[] valueCopy = Arrays.copyOfRange(value, valueOffset, valueOffset + valueLength);
+
+        try (WriteSlot slot = reserveWrite()) {
+            final Lock lock = this.lock.writeLock();
+
+            lock.lock();
+
+            try {
+                checkIfClosed();
+
+                buffer(keyCopy, valueCopy);
+                slot.publish(keyCopy, 0, keyCopy.length, valueCopy, 0, valueCopy.length);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        flushIfNeeded(sync);
+    }
+
+    @Override
+    public void write(@Nonnull WriteBatch writeBatch, boolean sync) throws LevelDBException {
+        checkArgument(writeBatch != null, "Write batch can't be null");
+
+        writeIf(writeBatch, sync, null);
+    }
+
+    /**
+     * Validates and buffers the batch under the lock of every other write.
+     */
+    @Override
+    protected void write(@Nonnull WriteBatch writeBatch, boolean sync, @Nonnull WriteValidator validator) throws LevelDBException {
+        checkArgument(writeBatch != null, "Write batch can't be null");
+        checkArgument(validator != null, "Validator can't be null");
+
+        writeIf(writeBatch, sync, validator);
+    }
+
+    private void writeIf(WriteBatch writeBatch, boolean sync, WriteValidator validator) throws LevelDBException {
+        final SimpleWriteBatch copy = new SimpleWriteBatch();
+
+        for (WriteBatch.Operation operation : writeBatch.getAllOperations()) {
+            if (operation.isPut()) {
+                copy.put(operation.key().clone(), operation.value().clone());
+            } else {
+                copy.del(operation.key().clone());
+            }
+        }
+
+        try (WriteSlot slot = reserveWrite()) {
+            final Lock lock = this.lock.writeLock();
+
+            lock.lock();
+
+            try {
+                checkIfClosed();
+
+                if (validator != null) {
+                    validator.validate();
+                }
+
+                for (WriteBatch.Operation operation : copy.getAllOperations()) {
+                    buffer(operation.key(), operation.isPut() ? operation.value() : DELETED);
+                }
+
+                slot.publish(copy);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        flushIfNeeded(sync);
+    }
+
+    @Override
+    public byte[] get(@Nonnull byte[] key, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        if (snapshot != null) {
+            checkIfClosed();
+
+            return levelDB.get(key, snapshot);
+        }
+
+        final Lock lock = this.lock.readLock();
+
+        lock.lock();
+
+        try {
+            checkIfClosed();
+
+            byte[] value = overlay.get(key);
+
+            if (value == null && flushing != null) {
+                value = flushing.get(key);
+            }
+
+            if (value == null) {
+                return levelDB.get(key, null);
+            }
+
+            return value == DELETED ? null : value.clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void del(@Nonnull byte[] key, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        final byte[] keyCopy = key.clone();
+
+        try (WriteSlot slot = reserveWrite()) {
+            final Lock lock = this.lock.writeLock();
+
+            lock.lock();
+
+            try {
+                checkIfClosed();
+
+                buffer(keyCopy, DELETED);
+                slot.publish(keyCopy, 0, keyCopy.length, null, 0, 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        flushIfNeeded(sync);
+    }
+
+    /**
+     * Merges into the overlay, under the lock of every other write.
+     */
+    @Override
+    public byte[] merge(@Nonnull byte[] key, @Nonnull MergeOperator operator, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(operator != null, "Merge operator can't be null");
+
+        final byte[] keyCopy = key.clone();
+        final byte[] value;
+
+        try (WriteSlot slot = reserveWrite()) {
+            final Lock lock = this.lock.writeLock();
+
+            lock.lock();
+
+            try {
+                checkIfClosed();
+
+                byte[] existing = overlay.get(keyCopy);
+
+                if (existing == null && flushing != null) {
+                    existing = flushing.get(keyCopy);
+                }
+
+                if (existing == null) {
+                    existing = levelDB.get(keyCopy, null);
+                } else {
+                    existing = existing == DELETED ? null : existing.clone();
+                }
+
+                value = operator.merge(keyCopy, existing);
+
+                if (value == null) {
+                    buffer(keyCopy, DELETED);
+                    slot.publish(keyCopy, 0, keyCopy.length, null, 0, 0);
+                } else {
+                    final byte[] valueCopy = value.clone();
+
+                    buffer(keyCopy, valueCopy);
+                    slot.publish(keyCopy, 0, keyCopy.length, valueCopy, 0, valueCopy.length);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        flushIfNeeded(sync);
+
+        return value;
+    }
+
+    @Override
+    public byte[] getPropertyBytes(byte[] key) throws LevelDBClosedException {
+        checkIfClosed();
+
+        return levelDB.getPropertyBytes(key);
+    }
+
+    /**
+     * The approximate size in the database, not counting buffered writes.
+     */
+    @Override
+    public long getApproximateSize(@Nonnull byte[] from, @Nonnull byte[] to) throws LevelDBClosedException {
+        checkIfClosed();
+
+        return levelDB.getApproximateSize(from, to);
+    }
+
+    /**
+     * Iterates over the overlay as it is now merged over the database, or over the database alone
+     * with a snapshot.
+     */
+    @Override
+    public Iterator iterator(boolean fillCache, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBClosedException {
+        if (snapshot != null) {
+            checkIfClosed();
+
+            return levelDB.iterator(fillCache, snapshot);
+        }
+
+        final NavigableMap<byte[], byte[]> copy = new TreeMap<byte[], byte[]>(Bytes.COMPARATOR);
+        final Lock lock = this.lock.readLock();
+
+        lock.lock();
+
+        try {
+            checkIfClosed();
+
+            if (flushing != null) {
+                copy.putAll(flushing);
+            }
+
+            copy.putAll(overlay);
+
+            return new BufferedIterator(copy, levelDB.iterator(fillCache, null));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes, then checkpoints the database.
+     * @see LevelDB#checkpoint(File)
+     */
+    @Override
+    public long checkpoint(@Nonnull File destination) throws LevelDBException {
+        flush();
+
+        return levelDB.checkpoint(destination);
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    protected void setPath(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Flushes and obtains a snapshot of the database before any other write.
+     */
+    @Override
+    public Snapshot obtainSnapshot() throws LevelDBClosedException {
+        synchronized (flushLock) {
+            final Lock lock = this.lock.writeLock();
+
+            lock.lock();
+
+            try {
+                checkIfClosed();
+
+                if (!overlay.isEmpty()) {
+                    levelDB.write(toWriteBatch(overlay), syncFlushes);
+                    overlay = newOverlay();
+                    bytes = 0;
+                }
+
+                return levelDB.obtainSnapshot();
+            } catch (LevelDBClosedException e) {
+                throw e;
+            } catch (LevelDBException e) {
+                throw new IllegalStateException("Failed to flush buffered writes for a snapshot.", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void releaseSnapshot(Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBClosedException {
+        checkIfClosed();
+
+        levelDB.releaseSnapshot(snapshot);
+    }
+
+    /**
+     * Adds a write to the overlay, the write lock held.
+     */
+    private void buffer(byte[] key, byte[] value) {
+        final byte[] previous = overlay.put(key, value);
+
+        bytes += key.length + value.length;
+
+        if (previous != null) {
+            bytes -= key.length + previous.length;
+        }
+
+        if (flusher != null && !scheduled) {
+            scheduled = true;
+
+            flusher.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (LevelDBClosedException e) {
+                        // Closing flushed what it could.
+                    } catch (Throwable e) {
+                        Log.e(TAG, "Failed to flush buffered writes.", e);
+                    }
+                }
+            }, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushIfNeeded(boolean sync) throws LevelDBException {
+        if (sync || bufferedBytes() >= maxBytes) {
+            flush(sync || syncFlushes);
+        }
+    }
+
+    private void checkIfClosed() throws LevelDBClosedException {
+        if (closed) {
+            throw new LevelDBClosedException("Buffered LevelDB has been closed.");
+        }
+    }
+
+    private static ConcurrentSkipListMap<byte[], byte[]> newOverlay() {
+        return new ConcurrentSkipListMap<byte[], byte[]>(Bytes.COMPARATOR);
+    }
+
+    private static WriteBatch toWriteBatch(Map<byte[], byte[]> overlay) {
+        final SimpleWriteBatch batch = new SimpleWriteBatch();
+
+        for (Map.Entry<byte[], byte[]> entry : overlay.entrySet()) {
+            if (entry.getValue() == DELETED) {
+                batch.del(entry.getKey());
+            } else {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return batch;
+    }
+}
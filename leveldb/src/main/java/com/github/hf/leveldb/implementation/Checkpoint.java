@@ -0,0 +1,279 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.exception.LevelDBIOException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Assembles a copy of a database directory in another directory, for
+ * {@link com.github.hf.leveldb.LevelDB#checkpoint(File)}.
+ * <p>
+ * Immutable files, the sorted tables, are copied straight to their final names and skipped when
+ * the destination already has them with the same length, which is what makes repeated
+ * checkpoints into the same directory incremental. Files that are still being appended to are
+ * copied up to a given length into temporary files, which {@link #commit()} renames into place
+ * in the order they were staged, then removes every other database file from the destination.
+ * Files of any other name are left alone. Until then, a previous checkpoint in the destination
+ * stays intact.
+ */
+public final class Checkpoint {
+    private static final String TEMPORARY_SUFFIX = ".checkpoint";
+
+    /**
+     * The names of the files a database or a checkpoint consists of, only these are ever deleted
+     * from the destination.
+     */
+    private static final Pattern DATABASE_FILE =
+            Pattern.compile("(\\d+\\.(ldb|sst|log|seg)|MANIFEST(-\\d+)?|CURRENT)(" + Pattern.quote(TEMPORARY_SUFFIX) + ")?");
+
+    private final File source;
+    private final File destination;
+
+    private final Set<String> names = new HashSet<String>();
+    private final List<String> staged = new ArrayList<String>();
+
+    private long copied;
+
+    /**
+     * @param source the database directory
+     * @param destination the checkpoint directory, created if missing
+     * @throws LevelDBIOException if destination can't be created
+     */
+    public Checkpoint(File source, File destination) throws LevelDBIOException {
+        if (destination.equals(source)) {
+            throw new IllegalArgumentException("Can't checkpoint " + source + " into itself.");
+        }
+
+        if (!destination.isDirectory() && !destination.mkdirs()) {
+            throw new LevelDBIOException("Unable to create " + destination + ".");
+        }
+
+        this.source = source;
+        this.destination = destination;
+    }
+
+    /**
+     * Copies an immutable file, unless the destination already has it.
+     * @return false if the file no longer exists in the source
+     * @throws LevelDBIOException
+     */
+    public boolean link(String name) throws LevelDBIOException {
+        final File from = new File(source, name);
+        final File to = new File(destination, name);
+
+        names.add(name);
+
+        if (to.length() > 0 && to.length() == from.length()) {
+            return true;
+        }
+
+        final File temporary = new File(destination, name + TEMPORARY_SUFFIX);
+
+        try {
+            copy(from, temporary, Long.MAX_VALUE);
+        } catch (FileNotFoundException e) {
+            temporary.delete();
+
+            return false;
+        }
+
+        if (!rename(temporary, to)) {
+            throw new LevelDBIOException("Unable to rename " + temporary + " to " + to + ".");
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the first length bytes of a file that may still be growing, to be put in place on
+     * {@link #commit()}.
+     * @return false if the file no longer exists in the source
+     * @throws LevelDBIOException
+     */
+    public boolean stage(String name, long length) throws LevelDBIOException {
+        final File temporary = new File(destination, name + TEMPORARY_SUFFIX);
+
+        try {
+            copy(new File(source, name), temporary, length);
+        } catch (FileNotFoundException e) {
+            temporary.delete();
+
+            return false;
+        }
+
+        names.add(name);
+        staged.add(name);
+
+        return true;
+    }
+
+    /**
+     * Stages a file with the given contents.
+     * @throws LevelDBIOException
+     */
+    public void stage(String name, byte[] contents) throws LevelDBIOException {
+        final File temporary = new File(destination, name + TEMPORARY_SUFFIX);
+
+        try {
+            final FileOutputStream out = new FileOutputStream(temporary);
+
+            try {
+                out.write(contents);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to write " + temporary + ".", e);
+        }
+
+        copied += contents.length;
+        names.add(name);
+        staged.add(name);
+    }
+
+    /**
+     * Puts the staged files in place and removes the database files the checkpoint doesn't
+     * consist of.
+     * @return the number of bytes copied, not counting files the destination already had
+     * @throws LevelDBIOException
+     */
+    public long commit() throws LevelDBIOException {
+        for (String name : staged) {
+            final File temporary = new File(destination, name + TEMPORARY_SUFFIX);
+            final File file = new File(destination, name);
+
+            if (!rename(temporary, file)) {
+                throw new LevelDBIOException("Unable to rename " + temporary + " to " + file + ".");
+            }
+        }
+
+        staged.clear();
+
+        final File[] files = destination.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+
+                if (file.isFile() && !names.contains(name) && DATABASE_FILE.matcher(name).matches()) {
+                    file.delete();
+                }
+            }
+        }
+
+        return copied;
+    }
+
+    /**
+     * Discards the staged files, keeping the destination as it was, apart from the immutable
+     * files that were copied, which a later checkpoint can reuse.
+     */
+    public void abort() {
+        for (String name : staged) {
+            new File(destination, name + TEMPORARY_SUFFIX).delete();
+        }
+
+        staged.clear();
+    }
+
+    private void copy(File from, File to, long length) throws FileNotFoundException, LevelDBIOException {
+        // Not found is reported before anything is created, the caller decides whether it's fatal.
+        final FileInputStream in = new FileInputStream(from);
+
+        try {
+            final FileOutputStream out = new FileOutputStream(to);
+
+            try {
+                final FileChannel input = in.getChannel();
+                final FileChannel output = out.getChannel();
+
+                final long size = Math.min(length, input.size());
+                long position = 0;
+
+                while (position < size) {
+                    final long count = input.transferTo(position, size - position, output);
+
+                    if (count <= 0) {
+                        break;
+                    }
+
+                    position += count;
+                }
+
+                if (position < size) {
+                    throw new IOException(from + " was truncated while being copied.");
+                }
+
+                out.getFD().sync();
+                copied += position;
+            } finally {
+                closeQuietly(out);
+            }
+        } catch (IOException e) {
+            to.delete();
+
+            throw new LevelDBIOException("Unable to copy " + from + " to " + to + ".", e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static boolean rename(File from, File to) {
+        // Some platforms won't rename over an existing file.
+        return from.renameTo(to) || (to.delete() && from.renameTo(to));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing to do about it.
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bloom filter over the keys in a {@link NativeLevelDB}, used to answer lookups of keys that
+ * definitely don't exist without crossing into native code.
+ * <p>
+ * Keys are added before they're written and never removed, so the filter only ever errs on the
+ * side of a native lookup. Deleted keys keep their bits until the filter is rebuilt with a scan
+ * the next time the database is opened.
+ * <p>
+ * Bits are set with compare-and-swap, lookups and insertions never block each other.
+ */
+final class KeyFilter {
+    private static final int HASHES = 6;
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+
+    private final AtomicLong keys = new AtomicLong();
+    private final AtomicLong negatives = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    /**
+     * @param size the size of the filter in bytes, rounded up to a multiple of 8
+     */
+    KeyFilter(int size) {
+        bits = new AtomicLongArray((size + 7) / 8);
+        bitCount = bits.length() * 64L;
+    }
+
+    void add(byte[] key, int offset, int length) {
+        long hash = hash(key, offset, length);
+        long delta = (hash >>> 32) | (hash << 32);
+
+        for (int i = 0; i < HASHES; i++) {
+            long bit = (hash & Long.MAX_VALUE) % bitCount;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+
+            long word;
+
+            do {
+                word = bits.get(index);
+            } while ((word & mask) == 0 && !bits.compareAndSet(index, word, word | mask));
+
+            hash += delta;
+        }
+
+        keys.incrementAndGet();
+    }
+
+    /**
+     * Returns false if the key is definitely not in the database.
+     */
+    boolean mightContain(byte[] key, int offset, int length) {
+        long hash = hash(key, offset, length);
+        long delta = (hash >>> 32) | (hash << 32);
+
+        for (int i = 0; i < HASHES; i++) {
+            long bit = (hash & Long.MAX_VALUE) % bitCount;
+
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                negatives.incrementAndGet();
+
+                return false;
+            }
+
+            hash += delta;
+        }
+
+        return true;
+    }
+
+    /**
+     * Records that a lookup the filter let through found nothing.
+     */
+    void falsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    long size() {
+        return bits.length() * 8L;
+    }
+
+    long keys() {
+        return keys.get();
+    }
+
+    long negatives() {
+        return negatives.get();
+    }
+
+    long falsePositives() {
+        return falsePositives.get();
+    }
+
+    /**
+     * FNV-1a over the key, finished with the MurmurHash3 64-bit mix.
+     */
+    private static long hash(byte[] key, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= key[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+}
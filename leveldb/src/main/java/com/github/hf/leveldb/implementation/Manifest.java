@@ -0,0 +1,214 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.exception.LevelDBCorruptionException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads the version edits of a LevelDB <tt>MANIFEST</tt> file to find the table files and logs
+ * that the database consists of, for {@link NativeLevelDB#checkpoint(java.io.File)}.
+ * <p>
+ * The manifest is a LevelDB log: 32 KiB blocks of records, each with a 7 byte header of a
+ * checksum, a little-endian length and a type saying whether it is a whole record or a fragment.
+ * Checksums are not verified, the file is read from the database that wrote it. An incomplete
+ * last record is ignored, like LevelDB does.
+ */
+final class Manifest {
+    private static final int BLOCK_SIZE = 32768;
+    private static final int HEADER_SIZE = 7;
+
+    private static final int FULL = 1;
+    private static final int FIRST = 2;
+    private static final int MIDDLE = 3;
+    private static final int LAST = 4;
+
+    private static final int COMPARATOR = 1;
+    private static final int LOG_NUMBER = 2;
+    private static final int NEXT_FILE_NUMBER = 3;
+    private static final int LAST_SEQUENCE = 4;
+    private static final int COMPACT_POINTER = 5;
+    private static final int DELETED_FILE = 6;
+    private static final int NEW_FILE = 7;
+    private static final int PREV_LOG_NUMBER = 9;
+
+    final Set<Long> tables = new HashSet<Long>();
+
+    long logNumber;
+    long prevLogNumber;
+
+    private int position;
+
+    /**
+     * Parses the first length bytes of a manifest.
+     */
+    Manifest(byte[] manifest, int length) throws LevelDBCorruptionException {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        boolean fragmented = false;
+
+        int offset = 0;
+
+        while (offset + HEADER_SIZE <= length) {
+            final int remaining = BLOCK_SIZE - offset % BLOCK_SIZE;
+
+            if (remaining < HEADER_SIZE) {
+                // Block trailer.
+                offset += remaining;
+                continue;
+            }
+
+            final int size = (manifest[offset + 4] & 0xFF) | (manifest[offset + 5] & 0xFF) << 8;
+            final int type = manifest[offset + 6];
+
+            if (offset + HEADER_SIZE + size > length) {
+                break;
+            }
+
+            final int start = offset + HEADER_SIZE;
+
+            offset = start + size;
+
+            switch (type) {
+                case FULL:
+                    apply(manifest, start, start + size);
+                    break;
+
+                case FIRST:
+                    record.reset();
+                    record.write(manifest, start, size);
+                    fragmented = true;
+                    break;
+
+                case MIDDLE:
+                    if (fragmented) {
+                        record.write(manifest, start, size);
+                    }
+                    break;
+
+                case LAST:
+                    if (fragmented) {
+                        record.write(manifest, start, size);
+
+                        final byte[] edit = record.toByteArray();
+                        apply(edit, 0, edit.length);
+                    }
+
+                    fragmented = false;
+                    break;
+
+                default:
+                    // Zero type padding from preallocation.
+                    break;
+            }
+        }
+    }
+
+    private void apply(byte[] edit, int offset, int limit) throws LevelDBCorruptionException {
+        position = offset;
+
+        while (position < limit) {
+            final int tag = (int) readVarint(edit, limit);
+
+            switch (tag) {
+                case COMPARATOR:
+                    skipSlice(edit, limit);
+                    break;
+
+                case LOG_NUMBER:
+                    logNumber = readVarint(edit, limit);
+                    break;
+
+                case PREV_LOG_NUMBER:
+                    prevLogNumber = readVarint(edit, limit);
+                    break;
+
+                case NEXT_FILE_NUMBER:
+                case LAST_SEQUENCE:
+                    readVarint(edit, limit);
+                    break;
+
+                case COMPACT_POINTER:
+                    readVarint(edit, limit);
+                    skipSlice(edit, limit);
+                    break;
+
+                case DELETED_FILE:
+                    readVarint(edit, limit);
+                    tables.remove(readVarint(edit, limit));
+                    break;
+
+                case NEW_FILE:
+                    readVarint(edit, limit);
+                    tables.add(readVarint(edit, limit));
+                    readVarint(edit, limit);
+                    skipSlice(edit, limit);
+                    skipSlice(edit, limit);
+                    break;
+
+                default:
+                    throw new LevelDBCorruptionException("Unknown tag " + tag + " in manifest.");
+            }
+        }
+    }
+
+    private long readVarint(byte[] src, int limit) throws LevelDBCorruptionException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64 && position < limit; shift += 7) {
+            final int b = src[position++];
+
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new LevelDBCorruptionException("Malformed varint in manifest.");
+    }
+
+    private void skipSlice(byte[] src, int limit) throws LevelDBCorruptionException {
+        final long length = readVarint(src, limit);
+
+        if (length > limit - position) {
+            throw new LevelDBCorruptionException("Malformed manifest.");
+        }
+
+        position += (int) length;
+    }
+}
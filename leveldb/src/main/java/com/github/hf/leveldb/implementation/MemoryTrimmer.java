@@ -0,0 +1,328 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Shrinks the caches of {@link NativeLevelDB}s and {@link NativeCache}s when Android asks the
+ * process to trim its memory, and grows them back once the pressure has passed.
+ * <p>
+ * The deeper the trim level, the smaller the caches: to half of their configured sizes when the
+ * app is hidden or memory is getting low, to a quarter when it is low, and to nothing when the
+ * process is about to be killed. Since Android does not say when pressure ends, the caches are
+ * restored once no trim has been requested for a while, or on {@link #restore()}.
+ * <p>
+ * Optionally, iterators that have not been used since the previous trim are released too, see
+ * {@link NativeLevelDB#releaseIdleIterators()}.
+ * <pre>
+ * MemoryTrimmer trimmer = new MemoryTrimmer(context);
+ *
+ * trimmer.add(db);
+ * </pre>
+ */
+public final class MemoryTrimmer implements ComponentCallbacks2, Closeable {
+    /**
+     * The default time without trims after which the caches are restored.
+     */
+    public static final long DEFAULT_RESTORE_DELAY_MILLIS = 60000;
+
+    private final Context context;
+    private final long restoreDelayMillis;
+    private final boolean releaseIdleIterators;
+
+    private final List<NativeLevelDB> databases = new ArrayList<NativeLevelDB>();
+
+    // The capacity each cache was added with, which trims are relative to.
+    private final Map<NativeCache, Long> caches = new IdentityHashMap<NativeCache, Long>();
+
+    private final ScheduledExecutorService restorer;
+
+    private float scale = 1;
+    private ScheduledFuture<?> restore;
+    private boolean closed;
+
+    /**
+     * Registers with the application context, restoring the caches after
+     * {@value #DEFAULT_RESTORE_DELAY_MILLIS} milliseconds without trims and leaving iterators alone.
+     */
+    public MemoryTrimmer(@Nonnull Context context) {
+        this(context, DEFAULT_RESTORE_DELAY_MILLIS, TimeUnit.MILLISECONDS, false);
+    }
+
+    /**
+     * Registers with the application context.
+     * @param context non-null
+     * @param restoreDelay the time without trims after which the caches are restored
+     * @param unit the unit of restoreDelay
+     * @param releaseIdleIterators whether to release iterators not used since the previous trim
+     */
+    public MemoryTrimmer(@Nonnull Context context, long restoreDelay, @Nonnull TimeUnit unit, boolean releaseIdleIterators) {
+        checkArgument(context != null, "Context can't be null");
+        checkArgument(restoreDelay > 0, "Restore delay must be positive");
+        checkArgument(unit != null, "Unit can't be null");
+
+        this.context = context.getApplicationContext();
+        this.restoreDelayMillis = unit.toMillis(restoreDelay);
+        this.releaseIdleIterators = releaseIdleIterators;
+
+        restorer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LevelDB-Trimmer");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        this.context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Starts trimming the caches of a database, which are scaled to the current trim level right
+     * away. Closed databases are dropped.
+     */
+    public synchronized void add(@Nonnull NativeLevelDB levelDB) {
+        checkArgument(levelDB != null, "LevelDB can't be null");
+
+        databases.add(levelDB);
+        apply(levelDB, scale);
+    }
+
+    /**
+     * Starts trimming a shared cache, relative to its current capacity. Closed caches are dropped.
+     */
+    public synchronized void add(@Nonnull NativeCache cache) {
+        checkArgument(cache != null, "Cache can't be null");
+
+        if (!caches.containsKey(cache)) {
+            caches.put(cache, cache.capacity());
+            apply(cache, cache.capacity(), scale);
+        }
+    }
+
+    /**
+     * Stops trimming a database, restoring its caches.
+     */
+    public synchronized void remove(@Nonnull NativeLevelDB levelDB) {
+        if (databases.remove(levelDB)) {
+            apply(levelDB, 1);
+        }
+    }
+
+    /**
+     * Stops trimming a cache, restoring its capacity.
+     */
+    public synchronized void remove(@Nonnull NativeCache cache) {
+        final Long capacity = caches.remove(cache);
+
+        if (capacity != null) {
+            apply(cache, capacity, 1);
+        }
+    }
+
+    /**
+     * The fraction of their configured sizes the caches are currently scaled to.
+     */
+    public synchronized float scale() {
+        return scale;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trim(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration configuration) {
+        // Not about memory.
+    }
+
+    /**
+     * Trims as for a level of {@link #onTrimMemory(int)}, and schedules the restore.
+     */
+    public synchronized void trim(int level) {
+        if (closed) {
+            return;
+        }
+
+        final float scale = scaleFor(level);
+
+        if (scale < this.scale) {
+            scale(scale);
+        }
+
+        if (releaseIdleIterators && scale < 1) {
+            for (NativeLevelDB levelDB : new ArrayList<NativeLevelDB>(databases)) {
+                try {
+                    levelDB.releaseIdleIterators();
+                } catch (LevelDBClosedException e) {
+                    databases.remove(levelDB);
+                }
+            }
+        }
+
+        if (scale < 1) {
+            if (restore != null) {
+                restore.cancel(false);
+            }
+
+            restore = restorer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    restore();
+                }
+            }, restoreDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Grows the caches back to their configured sizes.
+     */
+    public synchronized void restore() {
+        if (restore != null) {
+            restore.cancel(false);
+            restore = null;
+        }
+
+        if (scale < 1) {
+            scale(1);
+        }
+    }
+
+    /**
+     * Unregisters from the context and restores the caches.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        context.unregisterComponentCallbacks(this);
+
+        restore();
+        restorer.shutdown();
+
+        databases.clear();
+        caches.clear();
+    }
+
+    /**
+     * The fraction of their configured sizes caches keep at a trim level.
+     */
+    static float scaleFor(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) {
+            return 0;
+        }
+
+        if (level >= TRIM_MEMORY_MODERATE) {
+            return 0.25f;
+        }
+
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            return 0.5f;
+        }
+
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            return 0;
+        }
+
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            return 0.25f;
+        }
+
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return 0.5f;
+        }
+
+        return 1;
+    }
+
+    private void scale(float scale) {
+        this.scale = scale;
+
+        for (NativeLevelDB levelDB : new ArrayList<NativeLevelDB>(databases)) {
+            apply(levelDB, scale);
+        }
+
+        for (Map.Entry<NativeCache, Long> entry : new ArrayList<Map.Entry<NativeCache, Long>>(caches.entrySet())) {
+            apply(entry.getKey(), entry.getValue(), scale);
+        }
+    }
+
+    private void apply(NativeLevelDB levelDB, float scale) {
+        try {
+            levelDB.scaleCaches(scale);
+        } catch (LevelDBClosedException e) {
+            databases.remove(levelDB);
+        }
+    }
+
+    private void apply(NativeCache cache, long capacity, float scale) {
+        try {
+            cache.setCapacity((long) (capacity * scale));
+        } catch (IllegalStateException e) {
+            // Closed, its databases keep using it at its last capacity.
+            caches.remove(cache);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+
+import java.io.Closeable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A native LRU block cache that several {@link NativeLevelDB}s can share, set with
+ * {@link LevelDB.Configuration#sharedCache(NativeCache)}. The memory budget then holds for all
+ * of them together, and the hottest blocks of any of them stay cached.
+ * <p>
+ * The cache is reference counted natively: closing it only releases it once every database
+ * opened with it has been closed too.
+ */
+public final class NativeCache implements Closeable {
+    static {
+        LevelDB.loadNative();
+    }
+
+    private volatile long capacity;
+
+    // Native cache, 0 once closed.
+    private volatile long ncache;
+
+    /**
+     * @param capacity the size of the cache in bytes
+     */
+    public NativeCache(long capacity) {
+        checkArgument(capacity > 0, "Capacity must be positive");
+
+        this.capacity = capacity;
+        this.ncache = ncreate(capacity);
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the size of the cache. Shrinking it evicts the least recently used blocks right
+     * away, except blocks being read, which are evicted once the reads are done.
+     * @param capacity the new size in bytes, 0 to stop caching
+     * @see MemoryTrimmer
+     */
+    public synchronized void setCapacity(long capacity) {
+        checkArgument(capacity >= 0, "Capacity can't be negative");
+        checkOpen();
+
+        nsetCapacity(ncache, capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * The bytes currently held by the cache.
+     */
+    public synchronized long usage() {
+        checkOpen();
+
+        return nusage(ncache);
+    }
+
+    /**
+     * Returns the native pointer, for opening databases with this cache.
+     */
+    synchronized long nativePointer() {
+        checkOpen();
+
+        return ncache;
+    }
+
+    public boolean isClosed() {
+        return ncache == 0;
+    }
+
+    /**
+     * Releases this reference to the cache. You may call this multiple times.
+     */
+    @Override
+    public synchronized void close() {
+        if (ncache != 0) {
+            nclose(ncache);
+            ncache = 0;
+        }
+    }
+
+    private void checkOpen() {
+        if (ncache == 0) {
+            throw new IllegalStateException("Cache is closed.");
+        }
+    }
+
+    private static native long ncreate(long capacity);
+
+    private static native long nusage(long ncache);
+
+    private static native void nsetCapacity(long ncache, long capacity);
+
+    private static native void nclose(long ncache);
+}
@@ -37,6 +37,8 @@ import com.github.hf.leveldb.Iterator;
 import com.github.hf.leveldb.exception.LevelDBClosedException;
 import com.github.hf.leveldb.exception.LevelDBIteratorNotValidException;
 
+import java.nio.ByteBuffer;
+
 /**
  * An iterator is used to iterator over the entries in the database according to the total sort order imposed by the
  * comparator.
@@ -46,16 +48,28 @@ public class NativeIterator extends Iterator {
     // Don't touch this or all hell breaks loose.
     private long nit;
 
+    private final NativeResources.Resource resource;
+
     /**
      * Protected constructor used in {@link NativeLevelDB#iterator(boolean)}.
      * @param nit the nat pointer
+     * @param resources the tracker of the database that created the iterator
      */
-    protected NativeIterator(long nit) {
+    protected NativeIterator(long nit, NativeResources resources) {
         if (nit == 0) {
             throw new IllegalArgumentException("Native iterator pointer must not be NULL!");
         }
 
         this.nit = nit;
+        this.resource = resources.track(this, NativeResources.ITERATOR, nit);
+    }
+
+    /**
+     * Natively deletes an iterator and drops its reference on the database. Used by {@link NativeResources}.
+     * @param nit the nat pointer
+     */
+    static void free(long nit) {
+        nclose(nit);
     }
 
     private static native void nclose(long nit);
@@ -76,6 +90,32 @@ public class NativeIterator extends Iterator {
 
     private static native byte[] nvalue(long nit);
 
+    /**
+     * Natively copies the key into <tt>dst</tt> at <tt>off</tt> if it fits in <tt>len</tt> bytes. Pointer is unchecked.
+     * @return the length of the key
+     */
+    private static native int nreadKey(long nit, byte[] dst, int off, int len);
+
+    /**
+     * Natively copies the value into <tt>dst</tt> at <tt>off</tt> if it fits in <tt>len</tt> bytes. Pointer is unchecked.
+     * @return the length of the value
+     */
+    private static native int nreadValue(long nit, byte[] dst, int off, int len);
+
+    /**
+     * Natively copies the key into the direct buffer <tt>dst</tt> at <tt>off</tt> if it fits in <tt>len</tt> bytes.
+     * Pointer is unchecked.
+     * @return the length of the key
+     */
+    private static native int nreadKeyDirect(long nit, ByteBuffer dst, int off, int len);
+
+    /**
+     * Natively copies the value into the direct buffer <tt>dst</tt> at <tt>off</tt> if it fits in <tt>len</tt> bytes.
+     * Pointer is unchecked.
+     * @return the length of the value
+     */
+    private static native int nreadValueDirect(long nit, ByteBuffer dst, int off, int len);
+
     /**
      * Whether this pointer is valid. An iterator is valid iff it is positioned over a key-value pair.
      * @return whether the iterator is valid
@@ -83,9 +123,13 @@ public class NativeIterator extends Iterator {
      */
     @Override
     public boolean isValid() throws LevelDBClosedException {
-        checkIfClosed();
+        final long nit = enter();
 
-        return nvalid(this.nit);
+        try {
+            return nvalid(nit);
+        } finally {
+            resource.exit();
+        }
     }
 
     /**
@@ -94,9 +138,13 @@ public class NativeIterator extends Iterator {
      */
     @Override
     public void seekToFirst() throws LevelDBClosedException {
-        checkIfClosed();
+        final long nit = enter();
 
-        nseekToFirst(this.nit);
+        try {
+            nseekToFirst(nit);
+        } finally {
+            resource.exit();
+        }
     }
 
     /**
@@ -107,9 +155,13 @@ public class NativeIterator extends Iterator {
      */
     @Override
     public void seekToLast() throws LevelDBClosedException {
-        checkIfClosed();
+        final long nit = enter();
 
-        nseekToLast(this.nit);
+        try {
+            nseekToLast(nit);
+        } finally {
+            resource.exit();
+        }
     }
 
     /**
@@ -119,13 +171,17 @@ public class NativeIterator extends Iterator {
      */
     @Override
     public void seek(byte[] key) throws LevelDBClosedException {
-        checkIfClosed();
-
         if (key == null) {
             throw new IllegalArgumentException("Seek key must never be null!");
         }
 
-        nseek(nit, key);
+        final long nit = enter();
+
+        try {
+            nseek(nit, key);
+        } finally {
+            resource.exit();
+        }
     }
 
     /**
@@ -136,13 +192,13 @@ public class NativeIterator extends Iterator {
      */
     @Override
     public void next() throws LevelDBIteratorNotValidException, LevelDBClosedException {
-        checkIfClosed();
+        final long nit = enterValid();
 
-        if (!isValid()) {
-            throw new LevelDBIteratorNotValidException();
+        try {
+            nnext(nit);
+        } finally {
+            resource.exit();
         }
-
-        nnext(nit);
     }
 
     /**
@@ -153,13 +209,13 @@ public class NativeIterator extends Iterator {
      */
     @Override
     public void previous() throws LevelDBIteratorNotValidException, LevelDBClosedException {
-        checkIfClosed();
+        final long nit = enterValid();
 
-        if (!isValid()) {
-            throw new LevelDBIteratorNotValidException();
+        try {
+            nprev(nit);
+        } finally {
+            resource.exit();
         }
-
-        nprev(nit);
     }
 
     /**
@@ -171,13 +227,13 @@ public class NativeIterator extends Iterator {
      */
     @Override
     public byte[] key() throws LevelDBIteratorNotValidException, LevelDBClosedException {
-        checkIfClosed();
+        final long nit = enterValid();
 
-        if (!isValid()) {
-            throw new LevelDBIteratorNotValidException();
+        try {
+            return nkey(nit);
+        } finally {
+            resource.exit();
         }
-
-        return nkey(nit);
     }
 
     /**
@@ -189,13 +245,85 @@ public class NativeIterator extends Iterator {
      */
     @Override
     public byte[] value() throws LevelDBIteratorNotValidException, LevelDBClosedException {
-        checkIfClosed();
+        final long nit = enterValid();
 
-        if (!isValid()) {
-            throw new LevelDBIteratorNotValidException();
+        try {
+            return nvalue(nit);
+        } finally {
+            resource.exit();
+        }
+    }
+
+    /**
+     * Copies the key under the iterator into <tt>dst</tt> without allocating.
+     * <p>
+     * Requires: {@link #isValid()}
+     * @param dst the array to copy into
+     * @param off the offset in <tt>dst</tt>
+     * @return the length of the key, nothing is copied if it exceeds the room in <tt>dst</tt>
+     * @throws com.github.hf.leveldb.exception.LevelDBClosedException
+     */
+    @Override
+    public int readKey(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkBounds(dst, off);
+
+        final long nit = enterValid();
+
+        try {
+            return nreadKey(nit, dst, off, dst.length - off);
+        } finally {
+            resource.exit();
+        }
+    }
+
+    /**
+     * Copies the value under the iterator into <tt>dst</tt> without allocating.
+     * <p>
+     * Requires: {@link #isValid()}
+     * @param dst the array to copy into
+     * @param off the offset in <tt>dst</tt>
+     * @return the length of the value, nothing is copied if it exceeds the room in <tt>dst</tt>
+     * @throws com.github.hf.leveldb.exception.LevelDBClosedException
+     */
+    @Override
+    public int readValue(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkBounds(dst, off);
+
+        final long nit = enterValid();
+
+        try {
+            return nreadValue(nit, dst, off, dst.length - off);
+        } finally {
+            resource.exit();
         }
+    }
 
-        return nvalue(nit);
+    /**
+     * Copies the key under the iterator into <tt>dst</tt> without allocating. Direct buffers are
+     * written to natively.
+     * <p>
+     * Requires: {@link #isValid()}
+     * @param dst the buffer to copy into
+     * @return the length of the key, nothing is copied if it exceeds <tt>dst.remaining()</tt>
+     * @throws com.github.hf.leveldb.exception.LevelDBClosedException
+     */
+    @Override
+    public int key(ByteBuffer dst) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        return read(dst, true);
+    }
+
+    /**
+     * Copies the value under the iterator into <tt>dst</tt> without allocating. Direct buffers are
+     * written to natively.
+     * <p>
+     * Requires: {@link #isValid()}
+     * @param dst the buffer to copy into
+     * @return the length of the value, nothing is copied if it exceeds <tt>dst.remaining()</tt>
+     * @throws com.github.hf.leveldb.exception.LevelDBClosedException
+     */
+    @Override
+    public int value(ByteBuffer dst) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        return read(dst, false);
     }
 
     /**
@@ -204,30 +332,106 @@ public class NativeIterator extends Iterator {
      */
     @Override
     public boolean isClosed() {
-        return nit == 0;
+        return nit == 0 || resource.isReleased();
     }
 
     /**
      * Closes this iterator. It will be almost unusable after.
      * <p>
-     * Always close the iterator before closing the database.
+     * Iterators still open when the database is closed are closed with it, and iterators that
+     * are garbage collected without being closed are closed in the background. Closing them
+     * explicitly releases their resources sooner.
      */
     @Override
     public void close() {
-        if (!isClosed()) {
-            nclose(nit);
-        }
+        resource.release();
 
         nit = 0;
     }
 
+    private int read(ByteBuffer dst, boolean key) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        if (dst == null) {
+            throw new IllegalArgumentException("Destination buffer must not be null.");
+        }
+
+        // The copy refuses read-only buffers, native code would write to them all the same.
+        if (dst.isReadOnly() || (!dst.isDirect() && !dst.hasArray())) {
+            return key ? super.key(dst) : super.value(dst);
+        }
+
+        final long nit = enterValid();
+        final int position = dst.position();
+        final int remaining = dst.remaining();
+        final int length;
+
+        try {
+            if (dst.isDirect()) {
+                length = key ? nreadKeyDirect(nit, dst, position, remaining) : nreadValueDirect(nit, dst, position, remaining);
+            } else {
+                final int off = dst.arrayOffset() + position;
+
+                length = key ? nreadKey(nit, dst.array(), off, remaining) : nreadValue(nit, dst.array(), off, remaining);
+            }
+        } finally {
+            resource.exit();
+        }
+
+        if (length <= remaining) {
+            dst.position(position + length);
+        }
+
+        return length;
+    }
+
+    private static void checkBounds(byte[] dst, int off) {
+        if (dst == null) {
+            throw new IllegalArgumentException("Destination array must not be null.");
+        }
+
+        if (off < 0 || off > dst.length) {
+            throw new IndexOutOfBoundsException("Offset " + off + " is out of bounds for length " + dst.length + ".");
+        }
+    }
+
     /**
-     * Checks if this iterator has been closed.
+     * Marks this iterator as in use for one native call, during which it can't be released as
+     * idle. Must be followed by {@link NativeResources.Resource#exit()}.
+     * @return the native pointer
      * @throws com.github.hf.leveldb.exception.LevelDBClosedException
      */
-    private void checkIfClosed() throws LevelDBClosedException {
-        if (isClosed()) {
+    private long enter() throws LevelDBClosedException {
+        if (nit == 0) {
             throw new LevelDBClosedException("Iterator has been closed.");
         }
+
+        if (!resource.enter()) {
+            close();
+
+            throw new LevelDBClosedException("Iterator has been released while idle.");
+        }
+
+        if (resource.isReleased()) {
+            resource.exit();
+            close();
+
+            throw new LevelDBClosedException("Iterator has been closed with its database.");
+        }
+
+        return nit;
+    }
+
+    /**
+     * {@link #enter()} for calls that require {@link #isValid()}.
+     */
+    private long enterValid() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        final long nit = enter();
+
+        if (!nvalid(nit)) {
+            resource.exit();
+
+            throw new LevelDBIteratorNotValidException();
+        }
+
+        return nit;
     }
 }
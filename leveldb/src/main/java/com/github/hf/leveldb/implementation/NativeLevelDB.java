@@ -35,15 +35,27 @@ package com.github.hf.leveldb.implementation;
 
 import com.github.hf.leveldb.Iterator;
 import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.MergeOperator;
 import com.github.hf.leveldb.Snapshot;
 import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.WriteValidator;
 import com.github.hf.leveldb.exception.LevelDBClosedException;
 import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBIOException;
 import com.github.hf.leveldb.exception.LevelDBSnapshotOwnershipException;
+import com.github.hf.leveldb.util.KeyCodec;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
 
 import javax.annotation.Nonnull;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 
 /**
  * Object for interacting with the native LevelDB implementation.
@@ -53,10 +65,54 @@ public class NativeLevelDB extends LevelDB {
         loadNative();
     }
 
+    public static final String PROPERTY_OPEN_ITERATORS = "java.open-iterators";
+    public static final String PROPERTY_OPEN_SNAPSHOTS = "java.open-snapshots";
+    public static final String PROPERTY_OLDEST_ITERATOR_AGE = "java.oldest-iterator-age";
+    public static final String PROPERTY_OLDEST_SNAPSHOT_AGE = "java.oldest-snapshot-age";
+    public static final String PROPERTY_OPEN_RESOURCES = "java.open-resources";
+    public static final String PROPERTY_ROW_CACHE_HITS = "java.row-cache-hits";
+    public static final String PROPERTY_ROW_CACHE_MISSES = "java.row-cache-misses";
+    public static final String PROPERTY_ROW_CACHE_EVICTIONS = "java.row-cache-evictions";
+    public static final String PROPERTY_ROW_CACHE_USAGE = "java.row-cache-usage";
+    public static final String PROPERTY_KEY_FILTER_USAGE = "java.key-filter-usage";
+    public static final String PROPERTY_KEY_FILTER_KEYS = "java.key-filter-keys";
+    public static final String PROPERTY_KEY_FILTER_NEGATIVES = "java.key-filter-negatives";
+    public static final String PROPERTY_KEY_FILTER_FALSE_POSITIVES = "java.key-filter-false-positives";
+
+    /**
+     * How many times {@link #checkpoint(File)} starts over when a table it needs is compacted away.
+     */
+    public static final int CHECKPOINT_ATTEMPTS = 3;
+
+    /**
+     * The size of the block cache when {@link Configuration#cacheSize()} is not set, the same as
+     * LevelDB's own default.
+     */
+    static final long DEFAULT_CACHE_SIZE = 8 << 20;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String CURRENT = "CURRENT";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String TABLE_SUFFIX = ".ldb";
+    private static final String LEGACY_TABLE_SUFFIX = ".sst";
+
     // This is the underlying pointer. If you touch this, all hell breaks loose and everyone dies.
     private volatile long ndb;
     private volatile String path;
 
+    private final NativeResources resources;
+
+    // Null when the row cache is disabled.
+    private final RowCache rowCache;
+
+    // The configured capacities, which scaleCaches is relative to. 0 for a shared block cache.
+    private final long blockCacheCapacity;
+    private final long rowCacheCapacity;
+
+    // Null when the key filter is disabled.
+    private final KeyFilter keyFilter;
+
     /**
      * Opens a new LevelDB database.
      * @param path the path to the database
@@ -69,13 +125,53 @@ public class NativeLevelDB extends LevelDB {
             configuration = configure();
         }
 
+        resources = new NativeResources(this, configuration.recordAllocationSites());
+        rowCache = configuration.rowCacheSize() > 0 ? new RowCache(configuration.rowCacheSize()) : null;
+        rowCacheCapacity = configuration.rowCacheSize();
+
+        if (configuration.sharedCache() != null) {
+            blockCacheCapacity = 0;
+        } else {
+            blockCacheCapacity = configuration.cacheSize() > 0 ? configuration.cacheSize() : DEFAULT_CACHE_SIZE;
+        }
+
         ndb = nopen(configuration.createIfMissing(),
                 configuration.cacheSize(),
                 configuration.blockSize(),
                 configuration.writeBufferSize(),
+                configuration.sharedCache() == null ? 0 : configuration.sharedCache().nativePointer(),
                 path);
 
         setPath(path);
+
+        if (configuration.keyFilterSize() > 0) {
+            keyFilter = new KeyFilter(configuration.keyFilterSize());
+
+            try {
+                fillKeyFilter();
+            } catch (LevelDBException e) {
+                close();
+
+                throw e;
+            }
+        } else {
+            keyFilter = null;
+        }
+    }
+
+    private void fillKeyFilter() throws LevelDBException {
+        // A full scan, which must not evict the blocks the cache holds.
+        Iterator iterator = iterator(false, null);
+
+        try {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                byte[] key = iterator.key();
+
+                keyFilter.add(key, 0, key.length);
+            }
+        } finally {
+            iterator.close();
+        }
     }
 
     /**
@@ -109,7 +205,7 @@ public class NativeLevelDB extends LevelDB {
      * @return the nat structure pointer
      * @throws LevelDBException
      */
-    private static native long nopen(boolean createIfMissing, int cacheSize, int blockSize, int writeBufferSize, String path) throws LevelDBException;
+    private static native long nopen(boolean createIfMissing, int cacheSize, int blockSize, int writeBufferSize, long ncache, String path) throws LevelDBException;
 
     /**
      * Natively closes pointers and memory. Pointer is unchecked.
@@ -122,30 +218,61 @@ public class NativeLevelDB extends LevelDB {
      * @param ndb
      * @param sync
      * @param key
+     * @param keyOffset
+     * @param keyLength
      * @param value
+     * @param valueOffset
+     * @param valueLength
      * @throws LevelDBException
      */
-    private static native void nput(long ndb, boolean sync, byte[] key, byte[] value) throws LevelDBException;
+    private static native void nput(long ndb, boolean sync, byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) throws LevelDBException;
 
     /**
      * Natively deletes key-value pair from the database. Pointer is unchecked.
      * @param ndb
      * @param sync
      * @param key
+     * @param keyOffset
+     * @param keyLength
      * @throws LevelDBException
      */
-    private static native void ndelete(long ndb, boolean sync, byte[] key) throws LevelDBException;
+    private static native void ndelete(long ndb, boolean sync, byte[] key, int keyOffset, int keyLength) throws LevelDBException;
 
     private static native void nwrite(long ndb, boolean sync, long nwb) throws LevelDBException;
 
+    /**
+     * Natively adds delta to the counter held by key and writes it back. Pointer is unchecked.
+     * @param ndb
+     * @param sync
+     * @param key
+     * @param keyOffset
+     * @param keyLength
+     * @param delta
+     * @return the new value of the counter
+     * @throws LevelDBException
+     */
+    private static native long nincrement(long ndb, boolean sync, byte[] key, int keyOffset, int keyLength, long delta) throws LevelDBException;
+
     /**
      * Natively retrieves key-value pair from the database. Pointer is unchecked.
      * @param ndb
      * @param key
+     * @param keyOffset
+     * @param keyLength
      * @return
      * @throws LevelDBException
      */
-    private static native byte[] nget(long ndb, byte[] key, long nsnapshot) throws LevelDBException;
+    private static native byte[] nget(long ndb, byte[] key, int keyOffset, int keyLength, long nsnapshot) throws LevelDBException;
+
+    /**
+     * Natively retrieves several key-value pairs from the database. Pointer is unchecked.
+     * @param ndb
+     * @param keys
+     * @param values receives the values, null for missing keys
+     * @param nsnapshot
+     * @throws LevelDBException
+     */
+    private static native void nmultiGet(long ndb, byte[][] keys, byte[][] values, long nsnapshot) throws LevelDBException;
 
     /**
      * Natively gets LevelDB property. Pointer is unchecked.
@@ -177,22 +304,51 @@ public class NativeLevelDB extends LevelDB {
      */
     private static native long niterate(long ndb, boolean fillCache, long nsnapshot);
 
+    /**
+     * Natively approximates the file system space used by a key range. Corresponds to
+     * <tt>leveldb::DB->GetApproximateSizes()</tt>. Pointer is unchecked.
+     * @param ndb
+     * @param from
+     * @param to
+     * @return
+     */
+    private static native long napproximateSize(long ndb, byte[] from, byte[] to);
+
     private static native long nsnapshot(long ndb);
 
     private static native void nreleaseSnapshot(long ndb, long nsnapshot);
 
+    /**
+     * Natively resizes the block cache of the database. Pointer is unchecked.
+     * @param ndb
+     * @param capacity
+     */
+    private static native void nsetCacheCapacity(long ndb, long capacity);
+
     /**
      * Closes this database, i.e. releases nat resources. You may call this multiple times. You cannot use any other
      * method on this object after closing it.
+     * <p>
+     * Snapshots that are still open are released. Iterators that are still open are closed as well, but the native
+     * database stays alive until each of them has been closed or garbage collected, so it is safe to close the
+     * database while another thread is using an iterator.
      */
     @Override
     public void close() {
         synchronized (this) {
             if (ndb != 0) {
+                resources.closeAll();
+
                 nclose(ndb);
                 ndb = 0;
+
+                if (rowCache != null) {
+                    rowCache.clear();
+                }
             }
         }
+
+        closeWriteListeners();
     }
 
     /**
@@ -219,10 +375,51 @@ public class NativeLevelDB extends LevelDB {
             throw new IllegalArgumentException("Key must not be null!");
         }
 
-        synchronized (this) {
-            checkIfClosed();
+        try (WriteSlot slot = reserveWrite()) {
+            synchronized (this) {
+                checkIfClosed();
+
+                if (keyFilter != null) {
+                    keyFilter.add(key, 0, key.length);
+                }
+
+                nput(ndb, sync, key, 0, key.length, value, 0, value.length);
+
+                if (rowCache != null) {
+                    rowCache.invalidate(key, 0, key.length);
+                }
 
-            nput(ndb, sync, key, value);
+                slot.publish(key, 0, key.length, value, 0, value.length);
+            }
+        }
+    }
+
+    /**
+     * Writes the key-value pair from ranges of arrays. Only the ranges are copied into native memory.
+     */
+    @Override
+    public void put(@Nonnull byte[] key, int keyOffset, int keyLength, @Nonnull byte[] value, int valueOffset, int valueLength, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(value != null, "Value can't be null");
+        checkPositionIndexes(keyOffset, keyOffset + keyLength, key.length);
+        checkPositionIndexes(valueOffset, valueOffset + valueLength, value.length);
+
+        try (WriteSlot slot = reserveWrite()) {
+            synchronized (this) {
+                checkIfClosed();
+
+                if (keyFilter != null) {
+                    keyFilter.add(key, keyOffset, keyLength);
+                }
+
+                nput(ndb, sync, key, keyOffset, keyLength, value, valueOffset, valueLength);
+
+                if (rowCache != null) {
+                    rowCache.invalidate(key, keyOffset, keyLength);
+                }
+
+                slot.publish(key, keyOffset, keyLength, value, valueOffset, valueLength);
+            }
         }
     }
 
@@ -236,16 +433,54 @@ public class NativeLevelDB extends LevelDB {
     public void write(@Nonnull WriteBatch writeBatch, boolean sync) throws LevelDBException {
         checkArgument(writeBatch != null, "WriteBatch can't be null");
 
-        synchronized (this) {
-            checkIfClosed();
+        writeIf(writeBatch, sync, null);
+    }
 
-            NativeWriteBatch nativeWriteBatch = new NativeWriteBatch(writeBatch);
+    /**
+     * Validates and writes the batch under the lock of every other write.
+     */
+    @Override
+    protected void write(@Nonnull WriteBatch writeBatch, boolean sync, @Nonnull WriteValidator validator) throws LevelDBException {
+        checkArgument(writeBatch != null, "WriteBatch can't be null");
+        checkArgument(validator != null, "Validator can't be null");
 
-            try {
-                nwrite(ndb, sync, nativeWriteBatch.nativePointer());
-            } finally {
-                nativeWriteBatch.close();
-                nativeWriteBatch = null;
+        writeIf(writeBatch, sync, validator);
+    }
+
+    private void writeIf(WriteBatch writeBatch, boolean sync, WriteValidator validator) throws LevelDBException {
+        try (WriteSlot slot = reserveWrite()) {
+            synchronized (this) {
+                checkIfClosed();
+
+                if (validator != null) {
+                    validator.validate();
+                }
+
+                if (keyFilter != null) {
+                    for (WriteBatch.Operation operation : writeBatch) {
+                        if (operation.isPut()) {
+                            keyFilter.add(operation.key(), 0, operation.key().length);
+                        }
+                    }
+                }
+
+                NativeWriteBatch nativeWriteBatch = new NativeWriteBatch(writeBatch);
+
+                try {
+                    nwrite(ndb, sync, nativeWriteBatch.nativePointer());
+
+                    slot.publish(writeBatch);
+                } finally {
+                    nativeWriteBatch.close();
+                    nativeWriteBatch = null;
+
+                    // Also on failure, part of the batch may have been applied.
+                    if (rowCache != null) {
+                        for (WriteBatch.Operation operation : writeBatch) {
+                            rowCache.invalidate(operation.key(), 0, operation.key().length);
+                        }
+                    }
+                }
             }
         }
     }
@@ -261,6 +496,22 @@ public class NativeLevelDB extends LevelDB {
     public byte[] get(@Nonnull byte[] key, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
         checkArgument(key != null, "Key can't be null");
 
+        return get(key, 0, key.length, snapshot);
+    }
+
+    /**
+     * Gets the value associated with the key in a range of an array, or <tt>null</tt>. Only the range is copied
+     * into native memory.
+     * <p>
+     * Keys ruled out by the key filter are answered without a native lookup, see
+     * {@link Configuration#keyFilterSize(int)}. Reads without a snapshot are served from the row cache if one is
+     * configured, see {@link Configuration#rowCacheSize(int)}.
+     */
+    @Override
+    public byte[] get(@Nonnull byte[] key, int offset, int length, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkPositionIndexes(offset, offset + length, key.length);
+
         if (snapshot != null) {
             if (!(snapshot instanceof NativeSnapshot)) {
                 throw new LevelDBSnapshotOwnershipException();
@@ -271,11 +522,96 @@ public class NativeLevelDB extends LevelDB {
             }
         }
 
+        if (keyFilter != null && !keyFilter.mightContain(key, offset, length)) {
+            checkIfClosed();
+
+            return null;
+        }
+
+        byte[] value;
+
+        if (snapshot == null && rowCache != null) {
+            value = getCached(new RowCache.Key(key, offset, length), key, offset, length);
+        } else {
+            synchronized (this) {
+                checkIfClosed();
+
+                value = nget(ndb, key, offset, length, snapshot == null ? 0 : ((NativeSnapshot) snapshot).id());
+            }
+        }
+
+        if (value == null && keyFilter != null) {
+            keyFilter.falsePositive();
+        }
+
+        return value;
+    }
+
+    private byte[] getCached(RowCache.Key cacheKey, byte[] key, int offset, int length) throws LevelDBException {
+        checkIfClosed();
+
+        byte[] value = rowCache.get(cacheKey);
+
+        if (value != null) {
+            return value;
+        }
+
+        long generation = rowCache.generation(cacheKey);
+
         synchronized (this) {
             checkIfClosed();
 
-            return nget(ndb, key, snapshot == null ? 0 : ((NativeSnapshot) snapshot).id());
+            value = nget(ndb, key, offset, length, 0);
+        }
+
+        if (value != null) {
+            rowCache.put(cacheKey, value, generation);
         }
+
+        return value;
+    }
+
+    /**
+     * Retrieves several keys in a single native call. Keys ruled out by the key filter are skipped.
+     */
+    @Override
+    public byte[][] multiGet(@Nonnull byte[][] keys, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        checkArgument(keys != null, "Keys can't be null");
+
+        for (byte[] key : keys) {
+            checkArgument(key != null, "Key can't be null");
+        }
+
+        if (snapshot != null) {
+            if (!(snapshot instanceof NativeSnapshot)) {
+                throw new LevelDBSnapshotOwnershipException();
+            }
+
+            if (!((NativeSnapshot) snapshot).checkOwner(this)) {
+                throw new LevelDBSnapshotOwnershipException();
+            }
+        }
+
+        byte[][] lookups = keys;
+
+        if (keyFilter != null) {
+            lookups = new byte[keys.length][];
+
+            for (int i = 0; i < keys.length; i++) {
+                // A null key is skipped natively.
+                lookups[i] = keyFilter.mightContain(keys[i], 0, keys[i].length) ? keys[i] : null;
+            }
+        }
+
+        final byte[][] values = new byte[keys.length][];
+
+        synchronized (this) {
+            checkIfClosed();
+
+            nmultiGet(ndb, lookups, values, snapshot == null ? 0 : ((NativeSnapshot) snapshot).id());
+        }
+
+        return values;
     }
 
     /**
@@ -288,10 +624,107 @@ public class NativeLevelDB extends LevelDB {
     public void del(@Nonnull byte[] key, boolean sync) throws LevelDBException {
         checkArgument(key != null, "Key can't be null");
 
-        synchronized (this) {
-            checkIfClosed();
+        del(key, 0, key.length, sync);
+    }
+
+    /**
+     * Deletes the entry with the key in a range of an array. Only the range is copied into native memory.
+     */
+    @Override
+    public void del(@Nonnull byte[] key, int offset, int length, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkPositionIndexes(offset, offset + length, key.length);
+
+        try (WriteSlot slot = reserveWrite()) {
+            synchronized (this) {
+                checkIfClosed();
+
+                ndelete(ndb, sync, key, offset, length);
+
+                if (rowCache != null) {
+                    rowCache.invalidate(key, offset, length);
+                }
+
+                slot.publish(key, offset, length, null, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Reads, merges and writes the value under the lock of every other write.
+     */
+    @Override
+    public byte[] merge(@Nonnull byte[] key, @Nonnull MergeOperator operator, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(operator != null, "Merge operator can't be null");
+
+        final Lock lock = mergeLock(key, 0, key.length);
+
+        lock.lock();
 
-            ndelete(ndb, sync, key);
+        try (WriteSlot slot = reserveWrite()) {
+            synchronized (this) {
+                checkIfClosed();
+
+                final byte[] value = operator.merge(key, get(key, null));
+
+                if (value == null) {
+                    ndelete(ndb, sync, key, 0, key.length);
+                } else {
+                    if (keyFilter != null) {
+                        keyFilter.add(key, 0, key.length);
+                    }
+
+                    nput(ndb, sync, key, 0, key.length, value, 0, value.length);
+                }
+
+                if (rowCache != null) {
+                    rowCache.invalidate(key, 0, key.length);
+                }
+
+                slot.publish(key, 0, key.length, value, 0, value == null ? 0 : value.length);
+
+                return value;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds delta to the counter in a single native call, which reads, updates and writes it back.
+     */
+    @Override
+    public long increment(@Nonnull byte[] key, long delta, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        final Lock lock = mergeLock(key, 0, key.length);
+
+        lock.lock();
+
+        try (WriteSlot slot = reserveWrite()) {
+            synchronized (this) {
+                checkIfClosed();
+
+                if (keyFilter != null) {
+                    keyFilter.add(key, 0, key.length);
+                }
+
+                final long counter = nincrement(ndb, sync, key, 0, key.length, delta);
+
+                if (rowCache != null) {
+                    rowCache.invalidate(key, 0, key.length);
+                }
+
+                final byte[] value = new byte[KeyCodec.LONG_LENGTH];
+                KeyCodec.putLong(value, 0, counter);
+
+                slot.publish(key, 0, key.length, value, 0, value.length);
+
+                return counter;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -309,6 +742,24 @@ public class NativeLevelDB extends LevelDB {
      * <li>"leveldb.sstables" - returns a multi-line string that describes all of the sstables that make up the db
      * contents.</li>
      *
+     * <li>{@value #PROPERTY_OPEN_ITERATORS}, {@value #PROPERTY_OPEN_SNAPSHOTS} - the number of iterators or snapshots
+     * that have not been closed or released.</li>
+     *
+     * <li>{@value #PROPERTY_OLDEST_ITERATOR_AGE}, {@value #PROPERTY_OLDEST_SNAPSHOT_AGE} - the age in milliseconds
+     * of the oldest open iterator or snapshot, 0 if there is none.</li>
+     *
+     * <li>{@value #PROPERTY_OPEN_RESOURCES} - a multi-line string that describes every open iterator and snapshot,
+     * including where it was opened when {@link Configuration#recordAllocationSites(boolean)} is set.</li>
+     *
+     * <li>{@value #PROPERTY_ROW_CACHE_HITS}, {@value #PROPERTY_ROW_CACHE_MISSES}, {@value #PROPERTY_ROW_CACHE_EVICTIONS}
+     * - counters of the row cache, and {@value #PROPERTY_ROW_CACHE_USAGE} - the bytes it currently holds. All are 0
+     * when it's disabled.</li>
+     *
+     * <li>{@value #PROPERTY_KEY_FILTER_USAGE} - the bytes used by the key filter, {@value #PROPERTY_KEY_FILTER_KEYS}
+     * - the keys added to it, {@value #PROPERTY_KEY_FILTER_NEGATIVES} - lookups it answered and
+     * {@value #PROPERTY_KEY_FILTER_FALSE_POSITIVES} - lookups it let through that found nothing. All are 0 when it's
+     * disabled.</li>
+     *
      * </ul>
      * @param key the key
      * @return property data, or <tt>null</tt>
@@ -323,15 +774,217 @@ public class NativeLevelDB extends LevelDB {
         synchronized (this) {
             checkIfClosed();
 
+            String name = new String(key);
+
+            if (PROPERTY_OPEN_ITERATORS.equals(name)) {
+                return String.valueOf(resources.count(NativeResources.ITERATOR)).getBytes();
+            } else if (PROPERTY_OPEN_SNAPSHOTS.equals(name)) {
+                return String.valueOf(resources.count(NativeResources.SNAPSHOT)).getBytes();
+            } else if (PROPERTY_OLDEST_ITERATOR_AGE.equals(name)) {
+                return String.valueOf(resources.oldestAge(NativeResources.ITERATOR)).getBytes();
+            } else if (PROPERTY_OLDEST_SNAPSHOT_AGE.equals(name)) {
+                return String.valueOf(resources.oldestAge(NativeResources.SNAPSHOT)).getBytes();
+            } else if (PROPERTY_OPEN_RESOURCES.equals(name)) {
+                return resources.describe().getBytes();
+            } else if (PROPERTY_ROW_CACHE_HITS.equals(name)) {
+                return String.valueOf(rowCache == null ? 0 : rowCache.hits()).getBytes();
+            } else if (PROPERTY_ROW_CACHE_MISSES.equals(name)) {
+                return String.valueOf(rowCache == null ? 0 : rowCache.misses()).getBytes();
+            } else if (PROPERTY_ROW_CACHE_EVICTIONS.equals(name)) {
+                return String.valueOf(rowCache == null ? 0 : rowCache.evictions()).getBytes();
+            } else if (PROPERTY_ROW_CACHE_USAGE.equals(name)) {
+                return String.valueOf(rowCache == null ? 0 : rowCache.size()).getBytes();
+            } else if (PROPERTY_KEY_FILTER_USAGE.equals(name)) {
+                return String.valueOf(keyFilter == null ? 0 : keyFilter.size()).getBytes();
+            } else if (PROPERTY_KEY_FILTER_KEYS.equals(name)) {
+                return String.valueOf(keyFilter == null ? 0 : keyFilter.keys()).getBytes();
+            } else if (PROPERTY_KEY_FILTER_NEGATIVES.equals(name)) {
+                return String.valueOf(keyFilter == null ? 0 : keyFilter.negatives()).getBytes();
+            } else if (PROPERTY_KEY_FILTER_FALSE_POSITIVES.equals(name)) {
+                return String.valueOf(keyFilter == null ? 0 : keyFilter.falsePositives()).getBytes();
+            }
+
             return ngetProperty(ndb, key);
         }
     }
 
+    /**
+     * Approximates the file system space used by the keys in <tt>[from, to)</tt>.
+     * <p>
+     * Data still in the memtable is not accounted for, so recently written keys may report
+     * a size of 0.
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the approximate size in bytes
+     * @throws LevelDBClosedException
+     */
+    @Override
+    public long getApproximateSize(@Nonnull byte[] from, @Nonnull byte[] to) throws LevelDBClosedException {
+        checkArgument(from != null, "From key can't be null");
+        checkArgument(to != null, "To key can't be null");
+
+        synchronized (this) {
+            checkIfClosed();
+
+            return napproximateSize(ndb, from, to);
+        }
+    }
+
+    /**
+     * Resizes the caches of this database to a fraction of the sizes it was configured with, for
+     * example to give memory back when the system runs low. A shared block cache is left alone,
+     * resize it with {@link NativeCache#setCapacity(long)} instead.
+     * @param scale from 0, which empties the caches and stops caching, to 1, the configured sizes
+     * @throws LevelDBClosedException
+     * @see MemoryTrimmer
+     */
+    public void scaleCaches(float scale) throws LevelDBClosedException {
+        checkArgument(scale >= 0 && scale <= 1, "Scale must be between 0 and 1");
+
+        synchronized (this) {
+            checkIfClosed();
+
+            if (blockCacheCapacity > 0) {
+                nsetCacheCapacity(ndb, (long) (blockCacheCapacity * scale));
+            }
+
+            if (rowCache != null) {
+                rowCache.setCapacity((long) (rowCacheCapacity * scale));
+            }
+        }
+    }
+
+    /**
+     * Closes the iterators that have not been used since the previous call, releasing the memory
+     * tables and table files they hold on to. Using a released iterator throws
+     * {@link LevelDBClosedException}, so only call this if iterators are not kept around for
+     * later use. Iterators in the middle of a call are never released.
+     * @return the number of iterators released
+     * @throws LevelDBClosedException
+     * @see MemoryTrimmer
+     */
+    public int releaseIdleIterators() throws LevelDBClosedException {
+        synchronized (this) {
+            checkIfClosed();
+
+            return resources.releaseIdle();
+        }
+    }
+
+    /**
+     * Copies the database files into destination.
+     * <p>
+     * An iterator is held open throughout, which keeps compactions from deleting the table files of
+     * the version it sees. Writes are blocked only while the logs and the manifest are copied: logs
+     * first, so that any log the manifest still needs is in the copy. The manifest is parsed for
+     * the table files it lists, and those are copied afterwards. A table compacted away in the
+     * meantime means starting over, which is given up after {@link #CHECKPOINT_ATTEMPTS} tries.
+     * @see LevelDB#checkpoint(File)
+     */
+    @Override
+    public long checkpoint(@Nonnull File destination) throws LevelDBException {
+        checkArgument(destination != null, "Destination can't be null");
+
+        final File directory = new File(path);
+
+        for (int attempt = 0; attempt < CHECKPOINT_ATTEMPTS; attempt++) {
+            final Iterator pin = iterator(false, null);
+            final Checkpoint checkpoint = new Checkpoint(directory, destination);
+
+            boolean committed = false;
+
+            try {
+                final String current;
+                final byte[] manifest;
+
+                synchronized (this) {
+                    checkIfClosed();
+
+                    final File[] files = directory.listFiles();
+
+                    if (files == null) {
+                        throw new LevelDBIOException("Unable to list " + path + ".");
+                    }
+
+                    for (File file : files) {
+                        // A log missing by now has been made obsolete by a flush.
+                        if (file.getName().endsWith(LOG_SUFFIX)) {
+                            checkpoint.stage(file.getName(), file.length());
+                        }
+                    }
+
+                    current = new String(readFile(new File(directory, CURRENT)), UTF8).trim();
+                    manifest = readFile(new File(directory, current));
+                }
+
+                boolean complete = true;
+
+                for (long number : new Manifest(manifest, manifest.length).tables) {
+                    final String name = String.format("%06d", number);
+
+                    // Older databases name their tables .sst.
+                    if (!checkpoint.link(name + TABLE_SUFFIX) && !checkpoint.link(name + LEGACY_TABLE_SUFFIX)) {
+                        complete = false;
+                        break;
+                    }
+                }
+
+                if (!complete) {
+                    continue;
+                }
+
+                checkpoint.stage(current, manifest);
+                checkpoint.stage(CURRENT, (current + "\n").getBytes(UTF8));
+
+                final long copied = checkpoint.commit();
+                committed = true;
+
+                return copied;
+            } finally {
+                if (!committed) {
+                    checkpoint.abort();
+                }
+
+                pin.close();
+            }
+        }
+
+        throw new LevelDBIOException("Unable to checkpoint " + path + ", its tables kept being compacted away.");
+    }
+
+    private static byte[] readFile(File file) throws LevelDBIOException {
+        try {
+            final FileInputStream in = new FileInputStream(file);
+
+            try {
+                final byte[] contents = new byte[(int) in.getChannel().size()];
+                int read = 0;
+
+                while (read < contents.length) {
+                    final int count = in.read(contents, read, contents.length - read);
+
+                    if (count < 0) {
+                        break;
+                    }
+
+                    read += count;
+                }
+
+                return read == contents.length ? contents : Arrays.copyOf(contents, read);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to read " + file + ".", e);
+        }
+    }
+
     /**
      * Creates a new {@link com.github.hf.leveldb.Iterator} that iterates over this database.
      * <p>
-     * The returned iterator is not thread safe and must be closed with {@link com.github.hf.leveldb.Iterator#close()} before closing this
-     * database.
+     * The returned iterator is not thread safe, but it may be used concurrently with any operation on this database,
+     * including {@link #close()}. Close it with {@link com.github.hf.leveldb.Iterator#close()} when no longer needed.
+     * Iterators left open are closed together with this database.
      * @param fillCache whether iterating fills the internal cache
      * @return a new iterator
      * @throws LevelDBClosedException
@@ -343,7 +996,7 @@ public class NativeLevelDB extends LevelDB {
                 throw new LevelDBSnapshotOwnershipException();
             }
 
-            if (((NativeSnapshot) snapshot).checkOwner(this)) {
+            if (!((NativeSnapshot) snapshot).checkOwner(this)) {
                 throw new LevelDBSnapshotOwnershipException();
             }
         }
@@ -351,7 +1004,7 @@ public class NativeLevelDB extends LevelDB {
         synchronized (this) {
             checkIfClosed();
 
-            return new NativeIterator(niterate(ndb, fillCache, snapshot == null ? 0 : ((NativeSnapshot) snapshot).id()));
+            return new NativeIterator(niterate(ndb, fillCache, snapshot == null ? 0 : ((NativeSnapshot) snapshot).id()), resources);
         }
     }
 
@@ -384,7 +1037,11 @@ public class NativeLevelDB extends LevelDB {
 
     @Override
     public Snapshot obtainSnapshot() throws LevelDBClosedException {
-        return new NativeSnapshot(this, nsnapshot(ndb));
+        synchronized (this) {
+            checkIfClosed();
+
+            return new NativeSnapshot(this, nsnapshot(ndb), resources);
+        }
     }
 
     @Override
@@ -404,7 +1061,17 @@ public class NativeLevelDB extends LevelDB {
         synchronized (this) {
             checkIfClosed();
 
-            nreleaseSnapshot(ndb, ((NativeSnapshot) snapshot).release());
+            ((NativeSnapshot) snapshot).release();
+        }
+    }
+
+    /**
+     * Natively releases a snapshot. Used by {@link NativeResources} with this object's lock held.
+     * @param nsnapshot the snapshot pointer
+     */
+    void freeSnapshot(long nsnapshot) {
+        if (ndb != 0) {
+            nreleaseSnapshot(ndb, nsnapshot);
         }
     }
 
@@ -0,0 +1,326 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import android.util.Log;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the native iterators and snapshots opened on a {@link NativeLevelDB}.
+ * <p>
+ * Tracked objects are closed together with the database, or released by a background cleaner
+ * thread once they have been garbage collected without being closed. A forgotten snapshot would
+ * otherwise keep old versions of the data alive and stop compactions from dropping them.
+ * <p>
+ * Every native iterator holds a reference on the native database, which is only deleted once
+ * the last one is gone. Closing the database therefore only detaches iterators: a call that is
+ * already running on another thread completes safely, and the next one closes the iterator.
+ * Iterators that sit idle can be released under memory pressure, see {@link #releaseIdle()}.
+ */
+final class NativeResources {
+    static final int ITERATOR = 0;
+    static final int SNAPSHOT = 1;
+
+    private static final String TAG = "org.leveldb";
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+
+    static {
+        Thread cleaner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        ((Resource) QUEUE.remove()).clean();
+                    } catch (InterruptedException e) {
+                        // Keep cleaning, this thread lives as long as the process.
+                    } catch (Throwable e) {
+                        Log.e(TAG, "Failed to clean up a native resource.", e);
+                    }
+                }
+            }
+        }, "LevelDB-Cleaner");
+
+        cleaner.setDaemon(true);
+        cleaner.start();
+    }
+
+    private final NativeLevelDB owner;
+    private final boolean recordAllocationSites;
+
+    // Guarded by owner.
+    private final Set<Resource> open = new HashSet<Resource>();
+
+    NativeResources(NativeLevelDB owner, boolean recordAllocationSites) {
+        this.owner = owner;
+        this.recordAllocationSites = recordAllocationSites;
+    }
+
+    /**
+     * Starts tracking the native object behind <tt>referent</tt>.
+     * @param referent the Java object owning the pointer
+     * @param kind {@link #ITERATOR} or {@link #SNAPSHOT}
+     * @param pointer the native pointer, released exactly once
+     * @return the handle used to release the pointer
+     */
+    Resource track(Object referent, int kind, long pointer) {
+        Resource resource = new Resource(referent, kind, pointer,
+                recordAllocationSites ? new Throwable("Allocation site") : null);
+
+        synchronized (owner) {
+            open.add(resource);
+        }
+
+        return resource;
+    }
+
+    /**
+     * Releases every tracked snapshot and detaches every tracked iterator. Call with the owner's
+     * lock held, before closing the database.
+     */
+    void closeAll() {
+        for (Resource resource : new ArrayList<Resource>(open)) {
+            if (resource.kind == SNAPSHOT) {
+                resource.free();
+            } else {
+                resource.detached = true;
+            }
+        }
+    }
+
+    /**
+     * Releases the iterators that have not been used since the previous call, which closes them.
+     * Iterators in the middle of a call are never released. Call with the owner's lock held.
+     * @return the number of iterators released
+     */
+    int releaseIdle() {
+        int released = 0;
+
+        for (Resource resource : new ArrayList<Resource>(open)) {
+            if (resource.kind == ITERATOR && resource.retireIfIdle()) {
+                resource.free();
+                released++;
+            }
+        }
+
+        return released;
+    }
+
+    /**
+     * Number of open objects of the given kind.
+     */
+    int count(int kind) {
+        synchronized (owner) {
+            int count = 0;
+
+            for (Resource resource : open) {
+                if (resource.kind == kind) {
+                    count++;
+                }
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Age in milliseconds of the oldest open object of the given kind, or 0.
+     */
+    long oldestAge(int kind) {
+        synchronized (owner) {
+            final long now = System.currentTimeMillis();
+
+            long age = 0;
+
+            for (Resource resource : open) {
+                if (resource.kind == kind) {
+                    age = Math.max(age, now - resource.openedAt);
+                }
+            }
+
+            return age;
+        }
+    }
+
+    /**
+     * Describes every open object, with its age and allocation site if recorded.
+     */
+    String describe() {
+        synchronized (owner) {
+            final long now = System.currentTimeMillis();
+            final StringBuilder builder = new StringBuilder();
+
+            for (Resource resource : open) {
+                builder.append(resource.kind == ITERATOR ? "iterator" : "snapshot")
+                        .append(" age=").append(now - resource.openedAt).append("ms\n");
+
+                if (resource.site != null) {
+                    for (StackTraceElement element : resource.site.getStackTrace()) {
+                        builder.append("    at ").append(element).append('\n');
+                    }
+                }
+            }
+
+            return builder.toString();
+        }
+    }
+
+    /**
+     * A tracked native pointer. Phantom reachability of the owning Java object enqueues it for
+     * cleaning, so it must never reference that object.
+     */
+    final class Resource extends PhantomReference<Object> {
+        private static final int IDLE = 0;
+        private static final int BUSY = 1;
+        private static final int RETIRED = 2;
+
+        private final int kind;
+        private final long openedAt;
+        private final Throwable site;
+
+        private volatile long pointer;
+        private volatile boolean detached;
+
+        // Whether the iterator is in a call, or has been released while idle.
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+
+        // Whether the iterator was used since the last look for idle ones. Published by state.
+        private boolean used = true;
+
+        private Resource(Object referent, int kind, long pointer, Throwable site) {
+            super(referent, QUEUE);
+
+            this.kind = kind;
+            this.pointer = pointer;
+            this.site = site;
+            this.openedAt = System.currentTimeMillis();
+        }
+
+        long pointer() {
+            return pointer;
+        }
+
+        /**
+         * Whether the pointer has been released, or its database has been closed.
+         */
+        boolean isReleased() {
+            return pointer == 0 || detached;
+        }
+
+        /**
+         * Marks the iterator as in a call, unless it has been released while idle.
+         * @return false if it has been released
+         */
+        boolean enter() {
+            used = true;
+
+            return state.compareAndSet(IDLE, BUSY);
+        }
+
+        /**
+         * Ends a call started with {@link #enter()}.
+         */
+        void exit() {
+            state.set(IDLE);
+        }
+
+        private boolean retireIfIdle() {
+            // Reading state first makes the last call's write to used visible.
+            if (state.get() != IDLE) {
+                return false;
+            }
+
+            if (used) {
+                used = false;
+
+                return false;
+            }
+
+            return state.compareAndSet(IDLE, RETIRED);
+        }
+
+        /**
+         * Explicitly releases the pointer. It is not an error to call this multiple times.
+         */
+        void release() {
+            synchronized (owner) {
+                free();
+            }
+        }
+
+        private void clean() {
+            synchronized (owner) {
+                if (pointer == 0) {
+                    return;
+                }
+
+                if (site != null) {
+                    Log.w(TAG, "A LevelDB " + (kind == ITERATOR ? "iterator" : "snapshot") + " was never closed.", site);
+                } else {
+                    Log.w(TAG, "A LevelDB " + (kind == ITERATOR ? "iterator" : "snapshot") + " was never closed. "
+                            + "Enable Configuration.recordAllocationSites() to find out where it was opened.");
+                }
+
+                free();
+            }
+        }
+
+        // Requires the owner's lock.
+        private void free() {
+            final long pointer = this.pointer;
+
+            if (pointer == 0) {
+                return;
+            }
+
+            this.pointer = 0;
+
+            open.remove(this);
+            clear();
+
+            if (kind == ITERATOR) {
+                NativeIterator.free(pointer);
+            } else {
+                owner.freeSnapshot(pointer);
+            }
+        }
+    }
+}
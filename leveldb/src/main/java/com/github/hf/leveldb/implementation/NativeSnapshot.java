@@ -41,18 +41,18 @@ import java.lang.ref.WeakReference;
 public final class NativeSnapshot extends Snapshot {
     private WeakReference<LevelDB> owner;
 
-    private volatile long nsnapshot;
+    private final NativeResources.Resource resource;
 
-    protected NativeSnapshot(NativeLevelDB owner, long nsnapshot) {
+    protected NativeSnapshot(NativeLevelDB owner, long nsnapshot, NativeResources resources) {
         this.owner = new WeakReference<LevelDB>(owner);
-        this.nsnapshot = nsnapshot;
+        this.resource = resources.track(this, NativeResources.SNAPSHOT, nsnapshot);
     }
 
     @Override
     public boolean isReleased() {
         LevelDB owner = this.owner.get();
 
-        return nsnapshot == 0 || owner == null || owner.isClosed();
+        return resource.isReleased() || owner == null || owner.isClosed();
     }
 
     protected boolean checkOwner(LevelDB db) {
@@ -61,17 +61,11 @@ public final class NativeSnapshot extends Snapshot {
         return owner == db;
     }
 
-    protected long release() {
-        long snapshot = this.nsnapshot;
-
-        // nsnapshot may change concurrently here, but only to 0 which we're fine with
-
-        this.nsnapshot = 0;
-
-        return snapshot;
+    protected void release() {
+        resource.release();
     }
 
     protected long id() {
-        return nsnapshot;
+        return resource.pointer();
     }
 }
@@ -0,0 +1,349 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A byte-bounded cache of recently read values, consulted by {@link NativeLevelDB} before
+ * crossing into native code.
+ * <p>
+ * Entries are spread over independently locked shards, each a segmented LRU: new entries go to
+ * a probationary segment and are promoted to the protected segment on their second hit, so a
+ * single scan over many keys can't flush out the hot ones.
+ * <p>
+ * Every shard keeps a generation that is bumped on each invalidation. A reader takes the
+ * generation before reading from the database and only caches the value if it hasn't changed,
+ * so a value read concurrently with a write to the same shard is never cached.
+ */
+final class RowCache {
+    private static final int SHARDS = 16;
+
+    /**
+     * Approximate per-entry cost of the key wrapper, the entry and its map node.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Shard[] shards;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    RowCache(long capacity) {
+        shards = new Shard[SHARDS];
+
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(capacity / SHARDS);
+        }
+    }
+
+    /**
+     * Returns a copy of the cached value, or null on a miss.
+     */
+    byte[] get(Key key) {
+        byte[] value = shard(key).get(key);
+
+        if (value == null) {
+            misses.incrementAndGet();
+
+            return null;
+        }
+
+        hits.incrementAndGet();
+
+        return Arrays.copyOf(value, value.length);
+    }
+
+    /**
+     * Must be taken before reading the value that will be passed to {@link #put(Key, byte[], long)}.
+     */
+    long generation(Key key) {
+        return shard(key).generation();
+    }
+
+    /**
+     * Caches a copy of the key and value if nothing was invalidated in the key's shard since the generation was taken.
+     */
+    void put(Key key, byte[] value, long generation) {
+        shard(key).put(key.retain(), Arrays.copyOf(value, value.length), generation);
+    }
+
+    void invalidate(Key key) {
+        shard(key).invalidate(key);
+    }
+
+    void invalidate(byte[] key, int offset, int length) {
+        invalidate(new Key(key, offset, length));
+    }
+
+    void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Changes the capacity, evicting entries right away if it shrinks.
+     */
+    void setCapacity(long capacity) {
+        for (Shard shard : shards) {
+            shard.setCapacity(capacity / SHARDS);
+        }
+    }
+
+    long size() {
+        long size = 0;
+
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+
+        return size;
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    long evictions() {
+        return evictions.get();
+    }
+
+    private Shard shard(Key key) {
+        int hash = key.hash;
+
+        return shards[(hash ^ (hash >>> 16)) & (SHARDS - 1)];
+    }
+
+    /**
+     * A key with a precomputed hash.
+     * <p>
+     * A key covering a whole array shares it with the caller to keep lookups cheap, so it's only
+     * immutable once {@link #retain()} has copied it. Only retained keys may be stored in the cache.
+     */
+    static final class Key {
+        private final byte[] bytes;
+        private final int hash;
+        private final boolean shared;
+
+        Key(byte[] key, int offset, int length) {
+            shared = offset == 0 && length == key.length;
+            bytes = shared ? key : Arrays.copyOfRange(key, offset, offset + length);
+            hash = Arrays.hashCode(bytes);
+        }
+
+        private Key(byte[] bytes, int hash) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.shared = false;
+        }
+
+        /**
+         * Returns a key that owns its bytes, copying them if they're shared with the caller.
+         */
+        Key retain() {
+            return shared ? new Key(Arrays.copyOf(bytes, bytes.length), hash) : this;
+        }
+
+        int length() {
+            return bytes.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).hash == hash && Arrays.equals(((Key) o).bytes, bytes);
+        }
+    }
+
+    private static final class Entry {
+        final byte[] value;
+        final int charge;
+
+        Entry(Key key, byte[] value) {
+            this.value = value;
+            this.charge = key.length() + value.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final class Shard {
+        private long capacity;
+        private long protectedCapacity;
+
+        private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+        private final LinkedHashMap<Key, Entry> protect = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+        private long probationSize;
+        private long protectedSize;
+        private long generation;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity * 4 / 5;
+        }
+
+        synchronized void setCapacity(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = capacity * 4 / 5;
+
+            while (protectedSize > protectedCapacity) {
+                Map.Entry<Key, Entry> eldest = removeEldest(protect);
+                protectedSize -= eldest.getValue().charge;
+
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationSize += eldest.getValue().charge;
+            }
+
+            evict();
+        }
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized long size() {
+            return probationSize + protectedSize;
+        }
+
+        synchronized byte[] get(Key key) {
+            Entry entry = protect.get(key);
+
+            if (entry != null) {
+                return entry.value;
+            }
+
+            entry = probation.remove(key);
+
+            if (entry == null) {
+                return null;
+            }
+
+            probationSize -= entry.charge;
+
+            protect.put(key, entry);
+            protectedSize += entry.charge;
+
+            while (protectedSize > protectedCapacity) {
+                Map.Entry<Key, Entry> eldest = removeEldest(protect);
+                protectedSize -= eldest.getValue().charge;
+
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationSize += eldest.getValue().charge;
+            }
+
+            return entry.value;
+        }
+
+        synchronized void put(Key key, byte[] value, long generation) {
+            if (generation != this.generation) {
+                return;
+            }
+
+            Entry entry = new Entry(key, value);
+
+            if (entry.charge > capacity) {
+                return;
+            }
+
+            remove(key);
+
+            probation.put(key, entry);
+            probationSize += entry.charge;
+
+            evict();
+        }
+
+        synchronized void invalidate(Key key) {
+            generation++;
+            remove(key);
+        }
+
+        synchronized void clear() {
+            generation++;
+
+            probation.clear();
+            protect.clear();
+            probationSize = 0;
+            protectedSize = 0;
+        }
+
+        private void evict() {
+            while (probationSize + protectedSize > capacity) {
+                if (!probation.isEmpty()) {
+                    probationSize -= removeEldest(probation).getValue().charge;
+                } else {
+                    protectedSize -= removeEldest(protect).getValue().charge;
+                }
+
+                evictions.incrementAndGet();
+            }
+        }
+
+        private void remove(Key key) {
+            Entry entry = probation.remove(key);
+
+            if (entry != null) {
+                probationSize -= entry.charge;
+            }
+
+            entry = protect.remove(key);
+
+            if (entry != null) {
+                protectedSize -= entry.charge;
+            }
+        }
+
+        private Map.Entry<Key, Entry> removeEldest(LinkedHashMap<Key, Entry> segment) {
+            Iterator<Map.Entry<Key, Entry>> iterator = segment.entrySet().iterator();
+            Map.Entry<Key, Entry> eldest = iterator.next();
+            iterator.remove();
+
+            return eldest;
+        }
+    }
+}
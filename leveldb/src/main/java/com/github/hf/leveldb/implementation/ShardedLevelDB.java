@@ -0,0 +1,827 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.MergeOperator;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.WriteValidator;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBIOException;
+import com.github.hf.leveldb.exception.LevelDBSnapshotOwnershipException;
+import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.KeyCodec;
+import com.github.hf.leveldb.util.MergingIterator;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A {@link LevelDB} that partitions its keys over several databases, the shards, so that writes
+ * and compactions, which LevelDB does one at a time, proceed in parallel.
+ * <p>
+ * Each key lives in the shard its {@link Partitioner} picks, by hash by default. Batches are split
+ * by shard, {@link #multiGet(byte[][], Snapshot)} reads each shard's keys in one call, and
+ * iterators merge the shards' iterators, so they see the keys in global order as usual.
+ * <p>
+ * A batch that spans shards is written to each of them separately, but snapshots and iterators
+ * are only taken between writes, so they never see part of a batch. Shards opened with
+ * {@link #open(String, int, LevelDB.Configuration)} share one block cache.
+ */
+public class ShardedLevelDB extends LevelDB {
+    private static final String SHARD_PREFIX = "shard-";
+
+    /**
+     * Picks the shard of a key. The choice is persistent: a partitioner must keep picking the same
+     * shard for a key for as long as the shards exist.
+     */
+    public interface Partitioner {
+        /**
+         * @return the shard of the key in a range of an array, in <tt>[0, shards)</tt>
+         */
+        int shard(byte[] key, int offset, int length, int shards);
+    }
+
+    /**
+     * Partitions by the 32-bit FNV-1a hash of the key. Spreads any keys evenly, but a range scan
+     * visits every shard.
+     */
+    public static final Partitioner HASH = new Partitioner() {
+        @Override
+        public int shard(byte[] key, int offset, int length, int shards) {
+            int hash = 0x811C9DC5;
+
+            for (int i = offset; i < offset + length; i++) {
+                hash ^= key[i] & 0xFF;
+                hash *= 0x01000193;
+            }
+
+            return (int) ((hash & 0xFFFFFFFFL) % shards);
+        }
+    };
+
+    /**
+     * Partitions by key ranges: shard <tt>i</tt> holds the keys from boundary <tt>i - 1</tt>,
+     * inclusive, to boundary <tt>i</tt>, exclusive. Keeps ranges together, but only spreads
+     * writes if the boundaries split them evenly.
+     * @param boundaries strictly increasing, one fewer than there are shards
+     */
+    public static Partitioner range(@Nonnull final byte[]... boundaries) {
+        checkArgument(boundaries != null, "Boundaries can't be null");
+
+        for (int i = 1; i < boundaries.length; i++) {
+            checkArgument(Bytes.lexicographicCompare(boundaries[i - 1], boundaries[i]) < 0, "Boundaries must be strictly increasing");
+        }
+
+        final byte[][] copy = boundaries.clone();
+
+        return new Partitioner() {
+            @Override
+            public int shard(byte[] key, int offset, int length, int shards) {
+                checkArgument(shards == copy.length + 1, "Range partitioner has " + (copy.length + 1) + " shards, not " + shards);
+
+                int low = 0;
+                int high = copy.length;
+
+                // The number of boundaries at or before the key.
+                while (low < high) {
+                    final int mid = (low + high) >>> 1;
+
+                    if (Bytes.lexicographicCompare(copy[mid], 0, copy[mid].length, key, offset, length) <= 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+
+                return low;
+            }
+        };
+    }
+
+    private final LevelDB[] shards;
+    private final Partitioner partitioner;
+
+    // Writes to a shard are published in the order they are made under its lock here, not the
+    // shard's own monitor, which the shard's reads take and which must not be held while the
+    // shard waits for its listeners.
+    private final Object[] shardLocks;
+
+    // Writes share it, snapshots and iterators take it exclusively to fall between writes.
+    private final ReadWriteLock writeLock = new ReentrantReadWriteLock();
+
+    // The cache shared by shards opened with open, null otherwise.
+    private volatile NativeCache cache;
+
+    private volatile boolean closed;
+    private volatile String path;
+
+    /**
+     * Partitions over the given databases, which this takes ownership of and closes when closed.
+     * @param shards non-empty, with the same partitioner the same shards in the same order every time
+     * @param partitioner picks the shard of each key
+     */
+    public ShardedLevelDB(@Nonnull LevelDB[] shards, @Nonnull Partitioner partitioner) {
+        checkArgument(shards != null && shards.length > 0, "Shards can't be null or empty");
+        checkArgument(partitioner != null, "Partitioner can't be null");
+
+        this.shards = shards.clone();
+        this.partitioner = partitioner;
+        this.shardLocks = new Object[shards.length];
+
+        for (int i = 0; i < shardLocks.length; i++) {
+            shardLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Opens or creates a sharded database of {@link NativeLevelDB}s in the subdirectories of
+     * path, hash partitioned. Unless configuration has a shared cache, the shards share one of
+     * {@link LevelDB.Configuration#cacheSize()}, or of LevelDB's default 8MB if that is not set.
+     * @param path the directory of the shards
+     * @param shards the number of shards, which must not change once the database exists
+     * @param configuration applies to every shard, may be null
+     * @throws LevelDBException
+     */
+    public static ShardedLevelDB open(@Nonnull String path, int shards, @Nullable Configuration configuration) throws LevelDBException {
+        checkArgument(path != null, "Path can't be null");
+        checkArgument(shards > 0, "Shards must be positive");
+
+        final File directory = new File(path);
+        final String[] existing = directory.list();
+
+        if (existing != null) {
+            int count = 0;
+
+            for (String name : existing) {
+                if (name.startsWith(SHARD_PREFIX)) {
+                    count++;
+                }
+            }
+
+            if (count > 0 && count != shards) {
+                throw new LevelDBException(path + " has " + count + " shards, not " + shards + ".");
+            }
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new LevelDBIOException("Unable to create " + path + ".");
+        }
+
+        configuration = configuration == null ? configure() : configuration.copy();
+
+        NativeCache cache = null;
+
+        if (configuration.sharedCache() == null) {
+            cache = new NativeCache(configuration.cacheSize() > 0 ? configuration.cacheSize() : NativeLevelDB.DEFAULT_CACHE_SIZE);
+            configuration.sharedCache(cache);
+        }
+
+        final LevelDB[] opened = new LevelDB[shards];
+
+        try {
+            for (int i = 0; i < shards; i++) {
+                opened[i] = new NativeLevelDB(new File(directory, SHARD_PREFIX + i).getAbsolutePath(), configuration);
+            }
+        } catch (LevelDBException e) {
+            for (LevelDB shard : opened) {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+
+            if (cache != null) {
+                cache.close();
+            }
+
+            throw e;
+        }
+
+        final ShardedLevelDB sharded = new ShardedLevelDB(opened, HASH);
+        sharded.cache = cache;
+        sharded.setPath(path);
+
+        return sharded;
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * The shard with the given index, for adding write listeners to or reading properties of.
+     */
+    public LevelDB shard(int index) {
+        return shards[index];
+    }
+
+    /**
+     * The block cache that {@link #open(String, int, LevelDB.Configuration)} created for the
+     * shards to share, for resizing it. Null if it was given one, or the shards were opened
+     * otherwise.
+     */
+    public NativeCache sharedCache() {
+        return cache;
+    }
+
+    /**
+     * The index of the shard that holds key.
+     */
+    public int shardOf(@Nonnull byte[] key) {
+        checkArgument(key != null, "Key can't be null");
+
+        return partitioner.shard(key, 0, key.length, shards.length);
+    }
+
+    @Override
+    public void close() {
+        writeLock.writeLock().lock();
+
+        try {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+
+            for (LevelDB shard : shards) {
+                shard.close();
+            }
+
+            if (cache != null) {
+                cache.close();
+            }
+        } finally {
+            writeLock.writeLock().unlock();
+        }
+
+        closeWriteListeners();
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        if (value == null) {
+            del(key, sync);
+
+            return;
+        }
+
+        put(key, 0, key.length, value, 0, value.length, sync);
+    }
+
+    @Override
+    public void put(@Nonnull byte[] key, int keyOffset, int keyLength, @Nonnull byte[] value, int valueOffset, int valueLength, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(value != null, "Value can't be null");
+        checkPositionIndexes(keyOffset, keyOffset + keyLength, key.length);
+        checkPositionIndexes(valueOffset, valueOffset + valueLength, value.length);
+
+        final int index = partitioner.shard(key, keyOffset, keyLength, shards.length);
+        final LevelDB shard = shards[index];
+        final Lock lock = writeLock.readLock();
+
+        lock.lock();
+
+        try (WriteSlot slot = reserveWrite()) {
+            checkIfClosed();
+
+            synchronized (shardLocks[index]) {
+                shard.put(key, keyOffset, keyLength, value, valueOffset, valueLength, sync);
+                slot.publish(key, keyOffset, keyLength, value, valueOffset, valueLength);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(@Nonnull WriteBatch writeBatch, boolean sync) throws LevelDBException {
+        checkArgument(writeBatch != null, "Write batch can't be null");
+
+        final SimpleWriteBatch[] batches = split(writeBatch);
+        final Lock lock = writeLock.readLock();
+
+        lock.lock();
+
+        try (WriteSlot slot = reserveWrite()) {
+            checkIfClosed();
+
+            write(batches, 0, sync, slot, writeBatch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Validates and writes the batch while no other write is made to any shard, so that the
+     * validator sees all shards in the state the batch is written over.
+     */
+    @Override
+    protected void write(@Nonnull WriteBatch writeBatch, boolean sync, @Nonnull WriteValidator validator) throws LevelDBException {
+        checkArgument(writeBatch != null, "Write batch can't be null");
+        checkArgument(validator != null, "Validator can't be null");
+
+        final SimpleWriteBatch[] batches = split(writeBatch);
+
+        // Reserved before locking, so that waiting for listeners doesn't hold up every write.
+        try (WriteSlot slot = reserveWrite()) {
+            final Lock lock = writeLock.writeLock();
+
+            lock.lock();
+
+            try {
+                checkIfClosed();
+
+                validator.validate();
+                write(batches, 0, sync, slot, writeBatch);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private SimpleWriteBatch[] split(WriteBatch writeBatch) {
+        final SimpleWriteBatch[] batches = new SimpleWriteBatch[shards.length];
+
+        for (WriteBatch.Operation operation : writeBatch.getAllOperations()) {
+            final byte[] key = operation.key();
+            final int index = partitioner.shard(key, 0, key.length, shards.length);
+
+            if (batches[index] == null) {
+                batches[index] = new SimpleWriteBatch();
+            }
+
+            batches[index].insert(operation);
+        }
+
+        return batches;
+    }
+
+    /**
+     * Locks the shards with batches from index on, in order, so that concurrent batches can't
+     * deadlock, then writes the batches and publishes the whole batch.
+     */
+    private void write(SimpleWriteBatch[] batches, int index, boolean sync, WriteSlot slot, WriteBatch writeBatch) throws LevelDBException {
+        while (index < batches.length && batches[index] == null) {
+            index++;
+        }
+
+        if (index == batches.length) {
+            for (int i = 0; i < batches.length; i++) {
+                if (batches[i] != null) {
+                    shards[i].write(batches[i], sync);
+                }
+            }
+
+            slot.publish(writeBatch);
+
+            return;
+        }
+
+        synchronized (shardLocks[index]) {
+            write(batches, index + 1, sync, slot, writeBatch);
+        }
+    }
+
+    @Override
+    public byte[] get(@Nonnull byte[] key, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        return get(key, 0, key.length, snapshot);
+    }
+
+    @Override
+    public byte[] get(@Nonnull byte[] key, int offset, int length, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkPositionIndexes(offset, offset + length, key.length);
+        checkIfClosed();
+
+        final int index = partitioner.shard(key, offset, length, shards.length);
+
+        return shards[index].get(key, offset, length, shardSnapshot(snapshot, index));
+    }
+
+    /**
+     * Groups the keys by shard and reads each group with one {@link LevelDB#multiGet(byte[][], Snapshot)}.
+     */
+    @Override
+    public byte[][] multiGet(@Nonnull byte[][] keys, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        checkArgument(keys != null, "Keys can't be null");
+        checkIfClosed();
+
+        final int[] indexes = new int[keys.length];
+        final int[] counts = new int[shards.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            checkArgument(keys[i] != null, "Keys can't contain null");
+
+            indexes[i] = partitioner.shard(keys[i], 0, keys[i].length, shards.length);
+            counts[indexes[i]]++;
+        }
+
+        final byte[][] values = new byte[keys.length][];
+
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (counts[shard] == 0) {
+                continue;
+            }
+
+            final byte[][] group = new byte[counts[shard]][];
+
+            for (int i = 0, j = 0; i < keys.length; i++) {
+                if (indexes[i] == shard) {
+                    group[j++] = keys[i];
+                }
+            }
+
+            final byte[][] found = shards[shard].multiGet(group, shardSnapshot(snapshot, shard));
+
+            for (int i = 0, j = 0; i < keys.length; i++) {
+                if (indexes[i] == shard) {
+                    values[i] = found[j++];
+                }
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public void del(@Nonnull byte[] key, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        del(key, 0, key.length, sync);
+    }
+
+    @Override
+    public void del(@Nonnull byte[] key, int offset, int length, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkPositionIndexes(offset, offset + length, key.length);
+
+        final int index = partitioner.shard(key, offset, length, shards.length);
+        final LevelDB shard = shards[index];
+        final Lock lock = writeLock.readLock();
+
+        lock.lock();
+
+        try (WriteSlot slot = reserveWrite()) {
+            checkIfClosed();
+
+            synchronized (shardLocks[index]) {
+                shard.del(key, offset, length, sync);
+                slot.publish(key, offset, length, null, 0, 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Merges the value in its shard, atomically with the shard's other writes.
+     */
+    @Override
+    public byte[] merge(@Nonnull byte[] key, @Nonnull MergeOperator operator, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(operator != null, "Merge operator can't be null");
+
+        final int index = partitioner.shard(key, 0, key.length, shards.length);
+        final LevelDB shard = shards[index];
+        final Lock mergeLock = mergeLock(key, 0, key.length);
+        final Lock lock = writeLock.readLock();
+
+        mergeLock.lock();
+        lock.lock();
+
+        try (WriteSlot slot = reserveWrite()) {
+            checkIfClosed();
+
+            synchronized (shardLocks[index]) {
+                final byte[] value = shard.merge(key, operator, sync);
+
+                slot.publish(key, 0, key.length, value, 0, value == null ? 0 : value.length);
+
+                return value;
+            }
+        } finally {
+            lock.unlock();
+            mergeLock.unlock();
+        }
+    }
+
+    /**
+     * Increments the counter in its shard, natively where the shard can.
+     */
+    @Override
+    public long increment(@Nonnull byte[] key, long delta, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        final int index = partitioner.shard(key, 0, key.length, shards.length);
+        final LevelDB shard = shards[index];
+        final Lock mergeLock = mergeLock(key, 0, key.length);
+        final Lock lock = writeLock.readLock();
+
+        mergeLock.lock();
+        lock.lock();
+
+        try (WriteSlot slot = reserveWrite()) {
+            checkIfClosed();
+
+            synchronized (shardLocks[index]) {
+                final long counter = shard.increment(key, delta, sync);
+
+                final byte[] encoded = new byte[KeyCodec.LONG_LENGTH];
+
+                KeyCodec.putLong(encoded, 0, counter);
+                slot.publish(key, 0, key.length, encoded, 0, encoded.length);
+
+                return counter;
+            }
+        } finally {
+            lock.unlock();
+            mergeLock.unlock();
+        }
+    }
+
+    /**
+     * Sums numeric properties over the shards, and lists the others per shard.
+     */
+    @Override
+    public byte[] getPropertyBytes(byte[] key) throws LevelDBClosedException {
+        checkArgument(key != null, "Key can't be null");
+        checkIfClosed();
+
+        final String[] values = new String[shards.length];
+        boolean numeric = true;
+        long sum = 0;
+
+        for (int i = 0; i < shards.length; i++) {
+            values[i] = shards[i].getProperty(key);
+
+            if (values[i] == null) {
+                return null;
+            }
+
+            if (numeric) {
+                try {
+                    sum += Long.parseLong(values[i].trim());
+                } catch (NumberFormatException e) {
+                    numeric = false;
+                }
+            }
+        }
+
+        if (numeric) {
+            return String.valueOf(sum).getBytes();
+        }
+
+        final StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < shards.length; i++) {
+            builder.append(SHARD_PREFIX).append(i).append(":\n").append(values[i]).append('\n');
+        }
+
+        return builder.toString().getBytes();
+    }
+
+    @Override
+    public long getApproximateSize(@Nonnull byte[] from, @Nonnull byte[] to) throws LevelDBClosedException {
+        checkIfClosed();
+
+        long size = 0;
+
+        for (LevelDB shard : shards) {
+            size += shard.getApproximateSize(from, to);
+        }
+
+        return size;
+    }
+
+    /**
+     * Merges an iterator of each shard. Without a snapshot, the shards' iterators are created
+     * between writes, so they see the same writes.
+     */
+    @Override
+    public Iterator iterator(boolean fillCache, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBClosedException {
+        final Iterator[] iterators = new Iterator[shards.length];
+        final Lock lock = snapshot == null ? writeLock.writeLock() : writeLock.readLock();
+
+        lock.lock();
+
+        try {
+            checkIfClosed();
+
+            for (int i = 0; i < shards.length; i++) {
+                iterators[i] = shards[i].iterator(fillCache, shardSnapshot(snapshot, i));
+            }
+        } catch (LevelDBClosedException | RuntimeException e) {
+            closeAll(iterators);
+
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+
+        return new MergingIterator(iterators);
+    }
+
+    /**
+     * Checkpoints every shard into its own subdirectory of destination.
+     * @see LevelDB#checkpoint(File)
+     */
+    @Override
+    public long checkpoint(@Nonnull File destination) throws LevelDBException {
+        checkArgument(destination != null, "Destination can't be null");
+
+        long copied = 0;
+
+        for (int i = 0; i < shards.length; i++) {
+            copied += shards[i].checkpoint(new File(destination, SHARD_PREFIX + i));
+        }
+
+        return copied;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    protected void setPath(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Obtains a snapshot of every shard between writes, so that together they are consistent.
+     */
+    @Override
+    public Snapshot obtainSnapshot() throws LevelDBClosedException {
+        final Snapshot[] snapshots = new Snapshot[shards.length];
+        final Lock lock = writeLock.writeLock();
+
+        lock.lock();
+
+        try {
+            checkIfClosed();
+
+            for (int i = 0; i < shards.length; i++) {
+                snapshots[i] = shards[i].obtainSnapshot();
+            }
+        } catch (LevelDBClosedException | RuntimeException e) {
+            releaseAll(snapshots);
+
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+
+        return new ShardedSnapshot(this, snapshots);
+    }
+
+    @Override
+    public void releaseSnapshot(Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBClosedException {
+        checkArgument(snapshot != null, "Snapshot can't be null");
+
+        if (!(snapshot instanceof ShardedSnapshot) || ((ShardedSnapshot) snapshot).owner.get() != this) {
+            throw new LevelDBSnapshotOwnershipException();
+        }
+
+        checkIfClosed();
+
+        ((ShardedSnapshot) snapshot).release();
+    }
+
+    private Snapshot shardSnapshot(Snapshot snapshot, int index) throws LevelDBSnapshotOwnershipException {
+        if (snapshot == null) {
+            return null;
+        }
+
+        if (!(snapshot instanceof ShardedSnapshot) || ((ShardedSnapshot) snapshot).owner.get() != this) {
+            throw new LevelDBSnapshotOwnershipException();
+        }
+
+        return ((ShardedSnapshot) snapshot).snapshots[index];
+    }
+
+    private void checkIfClosed() throws LevelDBClosedException {
+        if (closed) {
+            throw new LevelDBClosedException("Sharded LevelDB has been closed.");
+        }
+    }
+
+    private static void closeAll(Iterator[] iterators) {
+        for (Iterator iterator : iterators) {
+            if (iterator != null) {
+                iterator.close();
+            }
+        }
+    }
+
+    private void releaseAll(Snapshot[] snapshots) {
+        for (int i = 0; i < snapshots.length; i++) {
+            if (snapshots[i] != null && !snapshots[i].isReleased()) {
+                try {
+                    shards[i].releaseSnapshot(snapshots[i]);
+                } catch (LevelDBException e) {
+                    // The shard is closed, which released it.
+                }
+            }
+        }
+    }
+
+    /**
+     * A snapshot of every shard.
+     */
+    static final class ShardedSnapshot extends Snapshot {
+        private final WeakReference<ShardedLevelDB> owner;
+        private final Snapshot[] snapshots;
+
+        private volatile boolean released;
+
+        ShardedSnapshot(ShardedLevelDB owner, Snapshot[] snapshots) {
+            this.owner = new WeakReference<ShardedLevelDB>(owner);
+            this.snapshots = snapshots;
+        }
+
+        @Override
+        public boolean isReleased() {
+            final LevelDB owner = this.owner.get();
+
+            return released || owner == null || owner.isClosed();
+        }
+
+        synchronized void release() throws LevelDBClosedException {
+            if (released) {
+                return;
+            }
+
+            released = true;
+
+            final ShardedLevelDB owner = this.owner.get();
+
+            if (owner == null) {
+                return;
+            }
+
+            for (int i = 0; i < snapshots.length; i++) {
+                try {
+                    owner.shards[i].releaseSnapshot(snapshots[i]);
+                } catch (LevelDBSnapshotOwnershipException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+}
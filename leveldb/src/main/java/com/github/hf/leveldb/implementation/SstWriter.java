@@ -0,0 +1,209 @@
+package com.github.hf.leveldb.implementation;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.exception.LevelDBException;
+
+import java.io.Closeable;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * Creates a new database from entries that are already sorted, such as a dataset downloaded
+ * from a server, by writing them straight into LevelDB table files with
+ * <tt>leveldb::TableBuilder</tt>. Nothing goes through the log or the memtable, and nothing needs
+ * compacting afterwards: the tables don't overlap, so {@link #finish()} writes a manifest that
+ * places them all on the last level.
+ * <pre>
+ * SstWriter writer = new SstWriter(path);
+ *
+ * try {
+ *     for (...) { writer.add(key, value); }
+ *     writer.finish();
+ * } finally {
+ *     writer.close();
+ * }
+ *
+ * LevelDB db = LevelDB.open(path);
+ * </pre>
+ * Keys must be added in strictly increasing bytewise order. A writer that is closed before it
+ * finishes deletes what it wrote. Once {@link #add(byte[], byte[])} or {@link #finish()} has
+ * thrown a {@link LevelDBException}, entries may be missing, so the writer can only be closed.
+ * Not thread safe.
+ */
+public final class SstWriter implements Closeable {
+    static {
+        LevelDB.loadNative();
+    }
+
+    /**
+     * The size at which a table file is finished and a new one started, the same as LevelDB's.
+     */
+    public static final int DEFAULT_TABLE_SIZE = 2 * 1024 * 1024;
+
+    // Native writer, 0 once closed.
+    private long nsw;
+
+    private boolean finished;
+    private boolean failed;
+
+    /**
+     * @param path the directory of the new database, which must not hold a database already
+     * @param tableSize the size at which table files are split
+     * @throws LevelDBException if path holds a database or can't be written to
+     */
+    public SstWriter(@Nonnull String path, int tableSize) throws LevelDBException {
+        checkArgument(path != null, "Path can't be null");
+        checkArgument(tableSize > 0, "Table size must be positive");
+
+        nsw = ncreate(path, tableSize);
+    }
+
+    public SstWriter(@Nonnull String path) throws LevelDBException {
+        this(path, DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * Adds an entry.
+     * @throws IllegalArgumentException if key is not after the previous key
+     * @throws LevelDBException
+     */
+    public void add(@Nonnull byte[] key, @Nonnull byte[] value) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(value != null, "Value can't be null");
+
+        add(key, 0, key.length, value, 0, value.length);
+    }
+
+    /**
+     * Adds an entry from ranges of arrays. Only the ranges are copied into native memory.
+     * @throws IllegalArgumentException if key is not after the previous key
+     * @throws IllegalStateException if the writer is closed, finished or failed before
+     * @throws LevelDBException
+     */
+    public void add(@Nonnull byte[] key, int keyOffset, int keyLength, @Nonnull byte[] value, int valueOffset, int valueLength) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+        checkArgument(value != null, "Value can't be null");
+        checkPositionIndexes(keyOffset, keyOffset + keyLength, key.length);
+        checkPositionIndexes(valueOffset, valueOffset + valueLength, value.length);
+        checkWritable();
+
+        try {
+            nadd(nsw, key, keyOffset, keyLength, value, valueOffset, valueLength);
+        } catch (LevelDBException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Finishes the last table and writes the manifest, after which the database can be opened.
+     * @return the number of entries written
+     * @throws IllegalStateException if the writer is closed, finished or failed before
+     * @throws LevelDBException
+     */
+    public long finish() throws LevelDBException {
+        checkWritable();
+
+        final long entries;
+
+        try {
+            entries = nfinish(nsw);
+        } catch (LevelDBException e) {
+            failed = true;
+            throw e;
+        }
+
+        finished = true;
+
+        return entries;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Releases the native writer, deleting the files written unless {@link #finish()} succeeded.
+     * You may call this multiple times.
+     */
+    @Override
+    public void close() {
+        if (nsw != 0) {
+            nclose(nsw);
+            nsw = 0;
+        }
+    }
+
+    private void checkWritable() {
+        if (nsw == 0) {
+            throw new IllegalStateException("Writer is closed.");
+        }
+
+        if (finished) {
+            throw new IllegalStateException("Writer is finished.");
+        }
+
+        if (failed) {
+            throw new IllegalStateException("Writer has failed, close it and start over.");
+        }
+    }
+
+    /**
+     * Natively creates the database directory and the writer.
+     * @return pointer to the native writer
+     */
+    private static native long ncreate(String path, int tableSize) throws LevelDBException;
+
+    /**
+     * Natively adds an entry. Pointer is unchecked.
+     */
+    private static native void nadd(long nsw, byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength) throws LevelDBException;
+
+    /**
+     * Natively finishes the tables and writes the manifest. Pointer is unchecked.
+     * @return the number of entries
+     */
+    private static native long nfinish(long nsw) throws LevelDBException;
+
+    /**
+     * Native close. Deletes the files unless finished, and releases all memory. Pointer is unchecked.
+     */
+    private static native void nclose(long nsw);
+}
@@ -0,0 +1,131 @@
+package com.github.hf.leveldb.implementation.mock;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A {@link Cursor} over the versions of a memtable visible at a sequence number. Each move is a
+ * lookup in the skip list.
+ */
+final class MemtableCursor implements Cursor {
+    private final ConcurrentSkipListMap<byte[], MockLevelDB.Version> memtable;
+    private final long sequence;
+
+    private byte[] key;
+    private byte[] value;
+
+    MemtableCursor(ConcurrentSkipListMap<byte[], MockLevelDB.Version> memtable, long sequence) {
+        this.memtable = memtable;
+        this.sequence = sequence;
+    }
+
+    @Override
+    public boolean isValid() {
+        return key != null;
+    }
+
+    @Override
+    public void seekToFirst() {
+        forward(memtable.firstEntry());
+    }
+
+    @Override
+    public void seekToLast() {
+        backward(memtable.lastEntry());
+    }
+
+    @Override
+    public void seek(byte[] key) {
+        forward(memtable.ceilingEntry(key));
+    }
+
+    @Override
+    public void next() {
+        forward(memtable.higherEntry(key));
+    }
+
+    @Override
+    public void previous() {
+        backward(memtable.lowerEntry(key));
+    }
+
+    @Override
+    public byte[] key() {
+        return key;
+    }
+
+    @Override
+    public byte[] value() {
+        return value;
+    }
+
+    private void forward(Map.Entry<byte[], MockLevelDB.Version> entry) {
+        while (entry != null && !position(entry)) {
+            entry = memtable.higherEntry(entry.getKey());
+        }
+
+        if (entry == null) {
+            key = null;
+            value = null;
+        }
+    }
+
+    private void backward(Map.Entry<byte[], MockLevelDB.Version> entry) {
+        while (entry != null && !position(entry)) {
+            entry = memtable.lowerEntry(entry.getKey());
+        }
+
+        if (entry == null) {
+            key = null;
+            value = null;
+        }
+    }
+
+    private boolean position(Map.Entry<byte[], MockLevelDB.Version> entry) {
+        MockLevelDB.Version version = MockLevelDB.visible(entry.getValue(), sequence);
+
+        if (version == null) {
+            // Written after the sequence number, so the key belongs to older layers if any.
+            return false;
+        }
+
+        key = entry.getKey();
+        value = version.value;
+
+        return true;
+    }
+}
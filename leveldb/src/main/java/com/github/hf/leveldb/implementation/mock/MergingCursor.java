@@ -0,0 +1,155 @@
+package com.github.hf.leveldb.implementation.mock;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.util.Bytes;
+
+/**
+ * Merges the cursors of several layers into one. Where layers share a key, the newest layer wins
+ * and the others are passed over, so deleted keys still hide the layers under them.
+ */
+final class MergingCursor implements Cursor {
+    private final Cursor[] cursors;
+    private boolean forward = true;
+
+    private Cursor current;
+    private byte[] key;
+
+    /**
+     * @param cursors the layers to merge, newest first
+     */
+    MergingCursor(Cursor... cursors) {
+        this.cursors = cursors;
+    }
+
+    @Override
+    public boolean isValid() {
+        return current != null;
+    }
+
+    @Override
+    public void seekToFirst() {
+        for (Cursor cursor : cursors) {
+            cursor.seekToFirst();
+        }
+
+        forward = true;
+        position(1);
+    }
+
+    @Override
+    public void seekToLast() {
+        for (Cursor cursor : cursors) {
+            cursor.seekToLast();
+        }
+
+        forward = false;
+        position(-1);
+    }
+
+    @Override
+    public void seek(byte[] key) {
+        for (Cursor cursor : cursors) {
+            cursor.seek(key);
+        }
+
+        forward = true;
+        position(1);
+    }
+
+    @Override
+    public void next() {
+        // Moves every cursor past the current key.
+        for (Cursor cursor : cursors) {
+            if (!forward) {
+                cursor.seek(key);
+            }
+
+            if (cursor.isValid() && Bytes.lexicographicCompare(cursor.key(), key) == 0) {
+                cursor.next();
+            }
+        }
+
+        forward = true;
+        position(1);
+    }
+
+    @Override
+    public void previous() {
+        // Moves every cursor before the current key.
+        for (Cursor cursor : cursors) {
+            if (forward) {
+                cursor.seek(key);
+
+                if (cursor.isValid()) {
+                    cursor.previous();
+                } else {
+                    cursor.seekToLast();
+                }
+            } else if (cursor.isValid() && Bytes.lexicographicCompare(cursor.key(), key) == 0) {
+                cursor.previous();
+            }
+        }
+
+        forward = false;
+        position(-1);
+    }
+
+    @Override
+    public byte[] key() {
+        return key;
+    }
+
+    @Override
+    public byte[] value() {
+        return current.value();
+    }
+
+    /**
+     * Positions at the smallest (direction 1) or largest (direction -1) key of all cursors,
+     * preferring the newest cursor on ties.
+     */
+    private void position(int direction) {
+        current = null;
+        key = null;
+
+        for (Cursor cursor : cursors) {
+            if (cursor.isValid() && (current == null || direction * Bytes.lexicographicCompare(cursor.key(), key) < 0)) {
+                current = cursor;
+                key = cursor.key();
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.hf.leveldb.implementation.mock;
 
+
 /*
  * Stojan Dimitrovski
  *
@@ -36,59 +37,65 @@ package com.github.hf.leveldb.implementation.mock;
 import com.github.hf.leveldb.Iterator;
 import com.github.hf.leveldb.exception.LevelDBClosedException;
 import com.github.hf.leveldb.exception.LevelDBIteratorNotValidException;
-import com.github.hf.leveldb.util.Bytes;
-
-import java.util.*;
 
 /**
- * Created by hermann on 8/16/14.
+ * Iterates over the entries of a {@link MockLevelDB} visible at a sequence number, merging the
+ * {@link Cursor}s of its layers and skipping deleted keys. Each move is a lookup in the underlying
+ * layers, so creating an iterator costs nothing up front.
  */
 public class MockIterator extends Iterator {
 
     protected boolean closed;
 
-    protected final SortedMap<byte[], byte[]> snapshot;
-    protected final ArrayList<byte[]> keys;
+    protected final MockLevelDB db;
+    protected final long sequence;
 
-    int position = 0;
+    private final Cursor cursor;
 
-    public MockIterator(SortedMap<byte[], byte[]> map) {
-        this.snapshot = Collections.unmodifiableSortedMap(new TreeMap<byte[], byte[]>(map));
-        this.keys = new ArrayList<byte[]>(map.keySet());
-
-        Collections.sort(this.keys, Bytes.COMPARATOR);
+    /**
+     * @param db the database to iterate over
+     * @param sequence the sequence number to read at, acquired for this iterator and released when it is closed
+     * @param cursors the layers to merge, newest first
+     */
+    MockIterator(MockLevelDB db, long sequence, Cursor... cursors) {
+        this.db = db;
+        this.sequence = sequence;
+        this.cursor = cursors.length == 1 ? cursors[0] : new MergingCursor(cursors);
     }
 
     @Override
     public boolean isValid() throws LevelDBClosedException {
         checkIfClosed();
 
-        return position > -1 && position < keys.size();
+        return cursor.isValid();
     }
 
     @Override
     public void seekToFirst() throws LevelDBClosedException {
         checkIfClosed();
 
-        position = 0;
+        cursor.seekToFirst();
+        skipForward();
     }
 
     @Override
     public void seekToLast() throws LevelDBClosedException {
         checkIfClosed();
 
-        position = keys.size() - 1;
+        cursor.seekToLast();
+        skipBackward();
     }
 
     @Override
     public void seek(byte[] key) throws LevelDBClosedException {
         checkIfClosed();
 
-        position = Collections.binarySearch(keys, key, Bytes.COMPARATOR);
-
-        if (position < 0) {
-            position = -position - 1;
+        if (key == null) {
+            throw new IllegalArgumentException("Seek key must never be null!");
         }
+
+        cursor.seek(key);
+        skipForward();
     }
 
     @Override
@@ -99,7 +106,8 @@ public class MockIterator extends Iterator {
             throw new LevelDBIteratorNotValidException();
         }
 
-        position++;
+        cursor.next();
+        skipForward();
     }
 
     @Override
@@ -110,7 +118,8 @@ public class MockIterator extends Iterator {
             throw new LevelDBIteratorNotValidException();
         }
 
-        position--;
+        cursor.previous();
+        skipBackward();
     }
 
     @Override
@@ -121,7 +130,7 @@ public class MockIterator extends Iterator {
             throw new LevelDBIteratorNotValidException();
         }
 
-        return keys.get(position);
+        return cursor.key();
     }
 
     @Override
@@ -132,7 +141,7 @@ public class MockIterator extends Iterator {
             throw new LevelDBIteratorNotValidException();
         }
 
-        return snapshot.get(keys.get(position));
+        return cursor.value();
     }
 
     @Override
@@ -142,6 +151,10 @@ public class MockIterator extends Iterator {
 
     @Override
     public void close() {
+        if (!closed) {
+            db.release(sequence);
+        }
+
         closed = true;
     }
 
@@ -150,4 +163,16 @@ public class MockIterator extends Iterator {
             throw new LevelDBClosedException("Iterator has been closed.");
         }
     }
+
+    private void skipForward() {
+        while (cursor.isValid() && cursor.value() == null) {
+            cursor.next();
+        }
+    }
+
+    private void skipBackward() {
+        while (cursor.isValid() && cursor.value() == null) {
+            cursor.previous();
+        }
+    }
 }
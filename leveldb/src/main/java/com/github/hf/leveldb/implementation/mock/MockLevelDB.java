@@ -1,5 +1,6 @@
 package com.github.hf.leveldb.implementation.mock;
 
+
 /*
  * Stojan Dimitrovski
  *
@@ -37,23 +38,141 @@ import android.util.Log;
 
 import com.github.hf.leveldb.Iterator;
 import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.MergeOperator;
 import com.github.hf.leveldb.Snapshot;
 import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.WriteValidator;
 import com.github.hf.leveldb.exception.LevelDBClosedException;
 import com.github.hf.leveldb.exception.LevelDBException;
 import com.github.hf.leveldb.exception.LevelDBSnapshotOwnershipException;
 import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
 
-import java.util.SortedMap;
+import java.util.Collection;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
 
 import javax.annotation.Nonnull;
 
+/**
+ * An in-memory {@link com.github.hf.leveldb.LevelDB} for tests.
+ * <p>
+ * Like LevelDB, every write is stamped with a sequence number and keys map to a chain of versions,
+ * newest first. Snapshots and iterators only remember the sequence number they read at, so they
+ * are created in constant time and never copy data. Reads do not take any locks; writes are
+ * serialized, and a {@link WriteBatch} becomes visible all at once.
+ * <p>
+ * Versions that no open snapshot or iterator can see anymore are dropped as keys are written.
+ * <p>
+ * Subclasses may keep older data below the memtable, see {@link Tables}, and get to see every
+ * write before it is applied through {@link #log(long, Collection, boolean)}.
+ */
 public class MockLevelDB extends LevelDB {
 
     protected volatile boolean closed;
 
-    protected final SortedMap<byte[], byte[]> map = new TreeMap<byte[], byte[]>(Bytes.COMPARATOR);
+    /**
+     * The layers new readers see. Written under this object's lock.
+     */
+    protected volatile Tables tables = new Tables(new ConcurrentSkipListMap<byte[], Version>(Bytes.COMPARATOR));
+
+    /**
+     * Approximately how many bytes the memtable holds. Guarded by this.
+     */
+    protected long memtableSize;
+
+    /**
+     * The sequence number of the last write visible to readers.
+     */
+    private volatile long sequence;
+
+    /**
+     * Sequence numbers of open snapshots and iterators, with their counts. Guarded by this.
+     */
+    private final TreeMap<Long, Integer> readers = new TreeMap<Long, Integer>();
+
+    /**
+     * Keys whose latest version is a deletion, to be removed once no reader can see them.
+     */
+    private final ConcurrentLinkedQueue<byte[]> deleted = new ConcurrentLinkedQueue<byte[]>();
+
+    /**
+     * Rough heap cost of a version and its skip list node, beyond the key and value.
+     */
+    private static final int VERSION_OVERHEAD = 64;
+
+    /**
+     * One version of the value of a key. A null value marks a deletion.
+     */
+    protected static final class Version {
+        final long sequence;
+        final byte[] value;
+
+        volatile Version older;
+
+        Version(long sequence, byte[] value, Version older) {
+            this.sequence = sequence;
+            this.value = value;
+            this.older = older;
+        }
+    }
+
+    /**
+     * The sorted layers of a database as seen by a reader: a memtable of versioned entries, and
+     * anything subclasses keep below it. The in-memory database only ever has its memtable.
+     * Instances are never modified other than by writing into the memtable; a subclass moving
+     * data out of the memtable publishes a new instance with {@link #publish(Tables)}.
+     */
+    protected static class Tables {
+        protected final ConcurrentSkipListMap<byte[], Version> memtable;
+
+        protected Tables(ConcurrentSkipListMap<byte[], Version> memtable) {
+            this.memtable = memtable;
+        }
+
+        /**
+         * Whether nothing lies below the memtable, so that deletions can be dropped from it
+         * once no reader can see the deleted values.
+         */
+        protected boolean isBottom() {
+            return true;
+        }
+
+        /**
+         * Looks up the value of key below the memtable.
+         * @return the value, or null if the key is absent or has been deleted
+         */
+        protected byte[] get(byte[] key) {
+            return null;
+        }
+
+        /**
+         * Creates cursors over all layers, newest first, for an iterator reading at sequence.
+         */
+        protected Cursor[] cursors(long sequence) {
+            return new Cursor[]{new MemtableCursor(memtable, sequence)};
+        }
+
+        /**
+         * Sums up the lengths of the keys and values visible at sequence in <tt>[from, to)</tt>.
+         */
+        protected long approximateSize(byte[] from, byte[] to, long sequence) {
+            long size = 0;
+
+            for (Map.Entry<byte[], Version> entry : memtable.subMap(from, to).entrySet()) {
+                Version version = visible(entry.getValue(), sequence);
+
+                if (version != null && version.value != null) {
+                    size += entry.getKey().length + version.value.length;
+                }
+            }
+
+            return size;
+        }
+    }
 
     @Override
     public void close() {
@@ -71,10 +190,12 @@ public class MockLevelDB extends LevelDB {
             Log.i(MockLevelDB.class.getName(), "Trying to close Mock LevelDB multiple times.");
             closed = true;
         }
+
+        closeWriteListeners();
     }
 
     @Override
-    public synchronized void put(byte[] key, byte[] value, boolean sync) throws LevelDBException {
+    public void put(byte[] key, byte[] value, boolean sync) throws LevelDBException {
         if (value == null) {
             del(key, sync);
 
@@ -85,28 +206,108 @@ public class MockLevelDB extends LevelDB {
             throw new IllegalArgumentException("Key must not be null.");
         }
 
-        checkIfClosed();
+        write(new SimpleWriteBatch().put(key, value), sync);
+    }
+
+    @Override
+    public void write(@Nonnull WriteBatch writeBatch, boolean sync) throws LevelDBException {
+        if (writeBatch == null) {
+            throw new IllegalArgumentException("Write batch must not be null.");
+        }
+
+        try (WriteSlot slot = reserveWrite()) {
+            synchronized (this) {
+                checkIfClosed();
 
-        map.put(key, value);
+                writeLocked(writeBatch, sync, slot);
+            }
+        }
     }
 
+    /**
+     * Validates and writes the batch under the lock of every other write.
+     */
     @Override
-    public synchronized void write(@Nonnull WriteBatch writeBatch, boolean sync) throws LevelDBException {
+    protected void write(@Nonnull WriteBatch writeBatch, boolean sync, @Nonnull WriteValidator validator) throws LevelDBException {
         if (writeBatch == null) {
             throw new IllegalArgumentException("Write batch must not be null.");
         }
 
-        checkIfClosed();
+        if (validator == null) {
+            throw new IllegalArgumentException("Validator must not be null.");
+        }
 
-        for (WriteBatch.Operation operation : writeBatch.getAllOperations()) {
-            if (operation.isDel()) {
-                map.remove(operation.key());
-            } else {
-                map.put(operation.key(), operation.value());
+        try (WriteSlot slot = reserveWrite()) {
+            synchronized (this) {
+                checkIfClosed();
+
+                validator.validate();
+                writeLocked(writeBatch, sync, slot);
+            }
+        }
+    }
+
+    /**
+     * Reads, merges and writes the value under the lock of every other write.
+     */
+    @Override
+    public byte[] merge(@Nonnull byte[] key, @Nonnull MergeOperator operator, boolean sync) throws LevelDBException {
+        if (key == null) {
+            throw new IllegalArgumentException("Key must not be null.");
+        }
+
+        if (operator == null) {
+            throw new IllegalArgumentException("Merge operator must not be null.");
+        }
+
+        final Lock lock = mergeLock(key, 0, key.length);
+
+        lock.lock();
+
+        try (WriteSlot slot = reserveWrite()) {
+            synchronized (this) {
+                checkIfClosed();
+
+                final byte[] value = operator.merge(key, get(key, null));
+
+                writeLocked(value == null
+                        ? new SimpleWriteBatch().del(key)
+                        : new SimpleWriteBatch().put(key, value), sync, slot);
+
+                return value;
             }
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Applies the batch as one write and publishes it. Requires this object's lock.
+     */
+    private void writeLocked(WriteBatch writeBatch, boolean sync, WriteSlot slot) throws LevelDBException {
+        final Collection<WriteBatch.Operation> operations = writeBatch.getAllOperations();
+        final long next = sequence + 1;
+
+        log(next, operations, sync);
+
+        final Tables tables = this.tables;
+        final ConcurrentSkipListMap<byte[], Version> memtable = tables.memtable;
+        final boolean bottom = tables.isBottom();
+        final long oldest = oldestVisible();
+
+        for (WriteBatch.Operation operation : operations) {
+            apply(memtable, operation.key(), operation.isDel() ? null : operation.value(), next, oldest, bottom);
+        }
+
+        sequence = next;
+
+        collect(memtable, oldest);
+
+        slot.publish(writeBatch);
+
+        written();
+    }
+
     @Override
     public byte[] get(@Nonnull byte[] key, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
         if (key == null) {
@@ -123,26 +324,38 @@ public class MockLevelDB extends LevelDB {
             }
         }
 
-        synchronized (this) {
-            checkIfClosed();
+        checkIfClosed();
+
+        if (snapshot != null) {
+            return read(key, ((MockSnapshot) snapshot).sequence(), ((MockSnapshot) snapshot).tables());
+        }
+
+        while (true) {
+            // Layers are published after the writes they hold, so the sequence read afterwards covers them.
+            final Tables tables = this.tables;
+            final long sequence = this.sequence;
+
+            Version version = visible(tables.memtable.get(key), sequence);
 
-            if (snapshot != null) {
-                return ((MockSnapshot) snapshot).getSnapshot().get(key);
+            if (version != null) {
+                return version.value;
             }
 
-            return map.get(key);
+            // Without a registered sequence, concurrent writes may drop the versions this read
+            // was looking at. Reading again at a later sequence is just as consistent.
+            if (sequence == this.sequence) {
+                return tables.get(key);
+            }
         }
     }
 
     @Override
-    public synchronized void del(@Nonnull byte[] key, boolean sync) throws LevelDBException {
+    public void del(@Nonnull byte[] key, boolean sync) throws LevelDBException {
         if (key == null) {
             throw new IllegalArgumentException("Key must not be null.");
         }
 
-        checkIfClosed();
-
-        map.remove(key);
+        write(new SimpleWriteBatch().del(key), sync);
     }
 
     @Override
@@ -150,6 +363,27 @@ public class MockLevelDB extends LevelDB {
         throw new UnsupportedOperationException("Mock LevelDB does not support properties.");
     }
 
+    /**
+     * Sums up the lengths of the keys and values in <tt>[from, to)</tt>.
+     * @see Tables#approximateSize(byte[], byte[], long)
+     */
+    @Override
+    public long getApproximateSize(@Nonnull byte[] from, @Nonnull byte[] to) throws LevelDBClosedException {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Range keys must not be null.");
+        }
+
+        checkIfClosed();
+
+        if (Bytes.lexicographicCompare(from, to) >= 0) {
+            return 0;
+        }
+
+        final Tables tables = this.tables;
+
+        return tables.approximateSize(from, to, sequence);
+    }
+
     @Override
     public Iterator iterator(boolean fillCache, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBClosedException {
         if (snapshot != null) {
@@ -160,19 +394,20 @@ public class MockLevelDB extends LevelDB {
             if (!((MockSnapshot) snapshot).checkOwnership(this)) {
                 throw new LevelDBSnapshotOwnershipException();
             }
-
-            return new MockIterator(((MockSnapshot) snapshot).getSnapshot());
         }
 
-
         synchronized (this) {
-            return new MockIterator(this.map);
-        }
-    }
+            checkIfClosed();
 
-    @Override
-    public synchronized Iterator iterator(boolean fillCache) throws LevelDBClosedException {
-        return new MockIterator(map);
+            // Like a native iterator, this keeps seeing the snapshot's data even if the snapshot is released.
+            if (snapshot != null && !snapshot.isReleased()) {
+                final MockSnapshot mockSnapshot = (MockSnapshot) snapshot;
+
+                return new MockIterator(this, acquire(mockSnapshot.sequence()), mockSnapshot.tables().cursors(mockSnapshot.sequence()));
+            }
+
+            return new MockIterator(this, acquire(sequence), tables.cursors(sequence));
+        }
     }
 
     @Override
@@ -192,7 +427,11 @@ public class MockLevelDB extends LevelDB {
 
     @Override
     public Snapshot obtainSnapshot() throws LevelDBClosedException {
-        return new MockSnapshot(this);
+        synchronized (this) {
+            checkIfClosed();
+
+            return new MockSnapshot(this);
+        }
     }
 
     @Override
@@ -221,4 +460,146 @@ public class MockLevelDB extends LevelDB {
             throw new LevelDBClosedException("Mock LevelDB has been closed.");
         }
     }
+
+    /**
+     * Hook called with every write before it is applied, under this object's lock. Throwing
+     * rejects the write.
+     * @param sequence the sequence number the write will have
+     * @param operations the operations of the write
+     * @param sync whether the write has to be durable once this returns
+     */
+    protected void log(long sequence, Collection<WriteBatch.Operation> operations, boolean sync) throws LevelDBException {
+        // No-op.
+    }
+
+    /**
+     * Hook called after every write has become visible, under this object's lock.
+     */
+    protected void written() throws LevelDBException {
+        // No-op.
+    }
+
+    /**
+     * Makes readers see new layers, and starts the accounting of the new memtable. Requires
+     * this object's lock.
+     */
+    protected void publish(Tables tables) {
+        this.tables = tables;
+
+        memtableSize = 0;
+        deleted.clear();
+    }
+
+    /**
+     * Reads the value of key as of the given sequence number.
+     */
+    byte[] read(byte[] key, long sequence, Tables tables) {
+        Version version = visible(tables.memtable.get(key), sequence);
+
+        if (version == null) {
+            return tables.get(key);
+        }
+
+        return version.value;
+    }
+
+    /**
+     * The sequence number of the last write visible to readers.
+     */
+    long currentSequence() {
+        return sequence;
+    }
+
+    /**
+     * Continues numbering writes after sequence, when recovering data written earlier. Requires
+     * this object's lock.
+     */
+    void resume(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Registers a reader at the given sequence number, keeping the versions it sees alive
+     * until {@link #release(long)}. The sequence number must not be older than that of any
+     * registered reader, or the current one.
+     */
+    synchronized long acquire(long sequence) {
+        Integer count = readers.get(sequence);
+
+        readers.put(sequence, count == null ? 1 : count + 1);
+
+        return sequence;
+    }
+
+    /**
+     * Unregisters a reader previously registered with {@link #acquire(long)}.
+     */
+    synchronized void release(long sequence) {
+        Integer count = readers.get(sequence);
+
+        if (count == null) {
+            return;
+        }
+
+        if (count == 1) {
+            readers.remove(sequence);
+        } else {
+            readers.put(sequence, count - 1);
+        }
+    }
+
+    /**
+     * Finds the newest version in the chain visible at sequence.
+     */
+    static Version visible(Version version, long sequence) {
+        while (version != null && version.sequence > sequence) {
+            version = version.older;
+        }
+
+        return version;
+    }
+
+    // Requires this object's lock.
+    private long oldestVisible() {
+        return readers.isEmpty() ? sequence : Math.min(readers.firstKey(), sequence);
+    }
+
+    // Requires this object's lock.
+    private void apply(ConcurrentSkipListMap<byte[], Version> memtable, byte[] key, byte[] value, long sequence, long oldest, boolean bottom) {
+        Version head = new Version(sequence, value, memtable.get(key));
+
+        memtable.put(key, head);
+
+        memtableSize += key.length + (value == null ? 0 : value.length) + VERSION_OVERHEAD;
+
+        // Versions older than the one visible to the oldest reader can never be read again.
+        Version keep = visible(head.older, oldest);
+
+        if (keep != null) {
+            keep.older = null;
+        }
+
+        if (value == null && bottom) {
+            deleted.add(key);
+        }
+    }
+
+    // Requires this object's lock.
+    private void collect(ConcurrentSkipListMap<byte[], Version> memtable, long oldest) {
+        for (int i = deleted.size(); i > 0; i--) {
+            byte[] key = deleted.peek();
+            Version head = memtable.get(key);
+
+            if (head != null && head.value == null && head.sequence > oldest) {
+                // Still visible to some reader, and so is everything queued after it.
+                return;
+            }
+
+            deleted.poll();
+
+            if (head != null && head.value == null) {
+                memtable.remove(key, head);
+            }
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.github.hf.leveldb.implementation.mock;
 
+
 /*
  * Stojan Dimitrovski
  *
@@ -37,26 +38,27 @@ import com.github.hf.leveldb.LevelDB;
 import com.github.hf.leveldb.Snapshot;
 
 import java.lang.ref.WeakReference;
-import java.util.Collections;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 public final class MockSnapshot extends Snapshot {
-    private WeakReference<LevelDB> owner;
+    private WeakReference<MockLevelDB> owner;
 
     private volatile boolean released;
-    private volatile SortedMap<byte[], byte[]> snapshot;
+    private final long sequence;
+    private final MockLevelDB.Tables tables;
 
     public MockSnapshot(MockLevelDB mockLevelDB) {
-        this.owner = new WeakReference<LevelDB>(mockLevelDB);
+        this.owner = new WeakReference<MockLevelDB>(mockLevelDB);
 
-        this.snapshot = Collections.unmodifiableSortedMap(new TreeMap<byte[], byte[]>(mockLevelDB.map));
+        synchronized (mockLevelDB) {
+            this.sequence = mockLevelDB.acquire(mockLevelDB.currentSequence());
+            this.tables = mockLevelDB.tables;
+        }
 
         this.released = false;
     }
 
     @Override
-    public synchronized boolean isReleased() {
+    public boolean isReleased() {
         LevelDB owner = this.owner.get();
 
         return released || owner == null || owner.isClosed();
@@ -67,11 +69,30 @@ public final class MockSnapshot extends Snapshot {
     }
 
     protected synchronized void release() {
+        if (released) {
+            return;
+        }
+
         released = true;
-        snapshot = null;
+
+        MockLevelDB owner = this.owner.get();
+
+        if (owner != null) {
+            owner.release(sequence);
+        }
+    }
+
+    /**
+     * The sequence number this snapshot reads at.
+     */
+    protected long sequence() {
+        return sequence;
     }
 
-    protected synchronized SortedMap<byte[], byte[]> getSnapshot() {
-        return snapshot;
+    /**
+     * The layers of the database when this snapshot was obtained.
+     */
+    MockLevelDB.Tables tables() {
+        return tables;
     }
 }
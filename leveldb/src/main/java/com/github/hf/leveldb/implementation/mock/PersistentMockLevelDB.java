@@ -0,0 +1,918 @@
+package com.github.hf.leveldb.implementation.mock;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import android.util.Log;
+
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.WriteBatch;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBCorruptionException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBIOException;
+import com.github.hf.leveldb.implementation.Checkpoint;
+import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A {@link MockLevelDB} that keeps its data in a directory, for tests running on a plain JVM
+ * where the native library can't be loaded.
+ * <p>
+ * It is laid out like LevelDB, at a smaller scale. Every write is appended to a log before it
+ * is applied to the memtable. Once the memtable outgrows the write buffer size of the
+ * {@link com.github.hf.leveldb.LevelDB.Configuration}, it is flushed to a sorted segment on
+ * level 0, and a new log is started. When level 0 has {@link #LEVEL0_COMPACTION_TRIGGER}
+ * segments, they are merged with the overlapping part of level 1, whose segments never overlap.
+ * Segments are read through memory-mapped files, so only the memtable is kept on the heap. A
+ * <tt>MANIFEST</tt> file lists the live segments and the current log.
+ * <p>
+ * Flushes and compactions run on the writing thread while it holds the write lock, which keeps
+ * them deterministic in tests. Reads are never blocked by them.
+ */
+public class PersistentMockLevelDB extends MockLevelDB {
+    private static final String TAG = "org.leveldb";
+
+    /**
+     * Level 0 is merged into level 1 when it has this many segments.
+     */
+    public static final int LEVEL0_COMPACTION_TRIGGER = 4;
+
+    private static final int DEFAULT_WRITE_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final long SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private static final String MANIFEST = "MANIFEST";
+    private static final String LOCK = "LOCK";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String PROPERTY_FILES_AT_LEVEL = "leveldb.num-files-at-level";
+    private static final String PROPERTY_MEMORY_USAGE = "leveldb.approximate-memory-usage";
+
+    private String path;
+    private final File directory;
+    private final int writeBufferSize;
+
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+
+    // Guarded by this.
+    private long nextNumber = 1;
+    private long logNumber;
+    private RandomAccessFile log;
+    private ByteBuffer record = ByteBuffer.allocate(4096);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens or creates the database in the directory at path.
+     * @param path the directory of the database
+     * @param configuration the configuration, only the write buffer size and whether to create
+     *                      a missing database apply; may be null
+     * @throws LevelDBException if the database can't be opened, is locked, or is corrupted
+     */
+    public PersistentMockLevelDB(@Nonnull String path, LevelDB.Configuration configuration) throws LevelDBException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path must not be null.");
+        }
+
+        if (configuration == null) {
+            configuration = LevelDB.configure();
+        }
+
+        this.path = path;
+        this.directory = new File(path);
+        this.writeBufferSize = configuration.writeBufferSize() > 0 ? configuration.writeBufferSize() : DEFAULT_WRITE_BUFFER_SIZE;
+
+        if (!directory.isDirectory()) {
+            if (!configuration.createIfMissing()) {
+                throw new LevelDBIOException(path + " does not exist (createIfMissing is false).");
+            }
+
+            if (!directory.mkdirs() && !directory.isDirectory()) {
+                throw new LevelDBIOException("Unable to create " + path + ".");
+            }
+        }
+
+        try {
+            lockFile = new RandomAccessFile(new File(directory, LOCK), "rw");
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to open the lock file of " + path + ".", e);
+        }
+
+        FileLock lock = null;
+
+        try {
+            lock = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Already open in this process.
+        } catch (IOException e) {
+            closeQuietly(lockFile);
+
+            throw new LevelDBIOException("Unable to lock " + path + ".", e);
+        }
+
+        if (lock == null) {
+            closeQuietly(lockFile);
+
+            throw new LevelDBIOException(path + " is already open.");
+        }
+
+        this.lock = lock;
+
+        try {
+            synchronized (this) {
+                recover();
+            }
+        } catch (LevelDBException e) {
+            close();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the database in the directory at path, which must not be open.
+     */
+    public static void destroy(@Nonnull String path) throws LevelDBException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path must not be null.");
+        }
+
+        final File directory = new File(path);
+        final File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            final String name = file.getName();
+
+            if (name.equals(MANIFEST) || name.equals(MANIFEST + ".tmp") || name.equals(LOCK)
+                    || name.endsWith(LOG_SUFFIX) || name.endsWith(SEGMENT_SUFFIX)) {
+                if (!file.delete()) {
+                    throw new LevelDBIOException("Unable to delete " + file + ".");
+                }
+            }
+        }
+
+        directory.delete();
+    }
+
+    @Override
+    public synchronized void close() {
+        super.close();
+
+        if (log != null) {
+            closeQuietly(log);
+            log = null;
+        }
+
+        if (lock != null && lock.isValid()) {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to unlock " + path + ".", e);
+            }
+        }
+
+        closeQuietly(lockFile);
+    }
+
+    @Override
+    public byte[] getPropertyBytes(byte[] key) throws LevelDBClosedException {
+        if (key == null) {
+            throw new IllegalArgumentException("Key must not be null.");
+        }
+
+        checkIfClosed();
+
+        final String property = new String(key);
+        final Layers layers = (Layers) tables;
+
+        if (property.startsWith(PROPERTY_FILES_AT_LEVEL)) {
+            final String level = property.substring(PROPERTY_FILES_AT_LEVEL.length());
+
+            if ("0".equals(level)) {
+                return String.valueOf(layers.level0.length).getBytes();
+            }
+
+            if ("1".equals(level)) {
+                return String.valueOf(layers.level1.length).getBytes();
+            }
+
+            return null;
+        }
+
+        if (PROPERTY_MEMORY_USAGE.equals(property)) {
+            synchronized (this) {
+                return String.valueOf(memtableSize).getBytes();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Copies the live segments, the current log and the manifest into destination. Flushes and
+     * compactions happen under the write lock, so holding it keeps the files consistent; writes
+     * wait for the copy to finish.
+     * @see LevelDB#checkpoint(File)
+     */
+    @Override
+    public synchronized long checkpoint(@Nonnull File destination) throws LevelDBException {
+        if (destination == null) {
+            throw new IllegalArgumentException("Destination must not be null.");
+        }
+
+        checkIfClosed();
+
+        final Layers layers = (Layers) tables;
+        final Checkpoint checkpoint = new Checkpoint(directory, destination);
+
+        boolean committed = false;
+
+        try {
+            for (Segment[] level : new Segment[][]{layers.level0, layers.level1}) {
+                for (Segment segment : level) {
+                    if (!checkpoint.link(segment.file().getName())) {
+                        throw new LevelDBIOException("Segment " + segment.file() + " is missing.");
+                    }
+                }
+            }
+
+            final long logLength;
+
+            try {
+                logLength = log.length();
+            } catch (IOException e) {
+                throw new LevelDBIOException("Unable to read the log of " + path + ".", e);
+            }
+
+            if (!checkpoint.stage(file(logNumber, LOG_SUFFIX).getName(), logLength)
+                    || !checkpoint.stage(MANIFEST, new File(directory, MANIFEST).length())) {
+                throw new LevelDBIOException("The log or manifest of " + path + " is missing.");
+            }
+
+            final long copied = checkpoint.commit();
+            committed = true;
+
+            return copied;
+        } finally {
+            if (!committed) {
+                checkpoint.abort();
+            }
+        }
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    protected void setPath(String path) {
+        this.path = path;
+    }
+
+    @Override
+    protected void log(long sequence, Collection<WriteBatch.Operation> operations, boolean sync) throws LevelDBException {
+        if (log == null) {
+            // Replaying the log.
+            return;
+        }
+
+        // A record is its length, the CRC of its payload, then the payload: the sequence number,
+        // the number of operations and each operation as its type, key and value.
+        int length = 8 + 4;
+
+        for (WriteBatch.Operation operation : operations) {
+            length += 1 + 4 + operation.key().length + (operation.isDel() ? 0 : 4 + operation.value().length);
+        }
+
+        if (record.capacity() < 8 + length) {
+            record = ByteBuffer.allocate(Math.max(8 + length, record.capacity() * 2));
+        }
+
+        record.clear();
+        record.position(8);
+        record.putLong(sequence);
+        record.putInt(operations.size());
+
+        for (WriteBatch.Operation operation : operations) {
+            record.put((byte) (operation.isDel() ? 0 : 1));
+            record.putInt(operation.key().length);
+            record.put(operation.key());
+
+            if (!operation.isDel()) {
+                record.putInt(operation.value().length);
+                record.put(operation.value());
+            }
+        }
+
+        crc.reset();
+        crc.update(record.array(), 8, length);
+
+        record.putInt(0, length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+
+        try {
+            final FileChannel channel = log.getChannel();
+
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to write to the log of " + path + ".", e);
+        }
+    }
+
+    @Override
+    protected void written() throws LevelDBException {
+        if (log != null && memtableSize >= writeBufferSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the memtable to a new segment on level 0 and starts a new log, then compacts
+     * level 0 if it has grown too large. Requires this object's lock.
+     */
+    private void flush() throws LevelDBException {
+        final Layers layers = (Layers) tables;
+
+        Segment[] level0 = layers.level0;
+        Segment[] level1 = layers.level1;
+
+        final List<Segment> obsolete = new ArrayList<Segment>();
+
+        if (!layers.memtable.isEmpty()) {
+            final long number = nextNumber++;
+            final Segment.Writer writer = new Segment.Writer(file(number, SEGMENT_SUFFIX));
+
+            try {
+                // Deletions are kept, they may hide values in older segments.
+                for (Map.Entry<byte[], Version> entry : layers.memtable.entrySet()) {
+                    writer.add(entry.getKey(), entry.getValue().value);
+                }
+            } catch (LevelDBException e) {
+                writer.abort();
+
+                throw e;
+            }
+
+            level0 = new Segment[level0.length + 1];
+            level0[0] = writer.finish(number, currentSequence());
+            System.arraycopy(layers.level0, 0, level0, 1, layers.level0.length);
+        }
+
+        if (level0.length >= LEVEL0_COMPACTION_TRIGGER) {
+            final Segment[][] compacted = compact(level0, level1);
+
+            obsolete.addAll(Arrays.asList(level0));
+            obsolete.addAll(Arrays.asList(compacted[1]));
+
+            level0 = new Segment[0];
+            level1 = compacted[0];
+        }
+
+        final long obsoleteLog = logNumber;
+
+        startLog(level0, level1);
+
+        publish(new Layers(new ConcurrentSkipListMap<byte[], Version>(Bytes.COMPARATOR), level0, level1));
+
+        // Readers may still use these, which is fine as long as they stay mapped. Where the
+        // platform refuses to delete mapped files, they are cleaned up when the database is opened.
+        file(obsoleteLog, LOG_SUFFIX).delete();
+
+        for (Segment segment : obsolete) {
+            segment.file().delete();
+        }
+    }
+
+    /**
+     * Merges all segments of level 0 with the overlapping segments of level 1, dropping
+     * overwritten values and deletions, since nothing lies below level 1.
+     * @return the new level 1, and the segments of level 1 that were merged
+     */
+    private Segment[][] compact(Segment[] level0, Segment[] level1) throws LevelDBException {
+        byte[] smallest = level0[0].smallest();
+        byte[] largest = level0[0].largest();
+
+        for (Segment segment : level0) {
+            if (Bytes.lexicographicCompare(segment.smallest(), smallest) < 0) {
+                smallest = segment.smallest();
+            }
+
+            if (Bytes.lexicographicCompare(segment.largest(), largest) > 0) {
+                largest = segment.largest();
+            }
+        }
+
+        final int from = locate(level1, smallest);
+        int to = from;
+
+        while (to < level1.length && Bytes.lexicographicCompare(level1[to].smallest(), largest) <= 0) {
+            to++;
+        }
+
+        final Cursor[] cursors = new Cursor[level0.length + 1];
+
+        for (int i = 0; i < level0.length; i++) {
+            cursors[i] = new SegmentCursor(level0[i]);
+        }
+
+        cursors[level0.length] = new SegmentCursor(Arrays.copyOfRange(level1, from, to));
+
+        final MergingCursor cursor = new MergingCursor(cursors);
+        final List<Segment> outputs = new ArrayList<Segment>();
+        final long sequence = level0[0].sequence();
+
+        Segment.Writer writer = null;
+
+        try {
+            for (cursor.seekToFirst(); cursor.isValid(); cursor.next()) {
+                final byte[] value = cursor.value();
+
+                if (value == null) {
+                    continue;
+                }
+
+                if (writer == null) {
+                    writer = new Segment.Writer(file(nextNumber, SEGMENT_SUFFIX));
+                }
+
+                writer.add(cursor.key(), value);
+
+                if (writer.length() >= SEGMENT_SIZE) {
+                    outputs.add(writer.finish(nextNumber++, sequence));
+                    writer = null;
+                }
+            }
+
+            if (writer != null) {
+                outputs.add(writer.finish(nextNumber++, sequence));
+                writer = null;
+            }
+        } catch (LevelDBException e) {
+            if (writer != null) {
+                writer.abort();
+            }
+
+            for (Segment output : outputs) {
+                output.file().delete();
+            }
+
+            throw e;
+        }
+
+        final Segment[] compacted = new Segment[from + outputs.size() + level1.length - to];
+
+        System.arraycopy(level1, 0, compacted, 0, from);
+        System.arraycopy(outputs.toArray(new Segment[outputs.size()]), 0, compacted, from, outputs.size());
+        System.arraycopy(level1, to, compacted, from + outputs.size(), level1.length - to);
+
+        return new Segment[][]{compacted, Arrays.copyOfRange(level1, from, to)};
+    }
+
+    /**
+     * Reads the manifest, maps the live segments, replays the logs written since the last flush,
+     * and removes files left over by an interrupted flush. Requires this object's lock.
+     */
+    private void recover() throws LevelDBException {
+        final List<Segment> level0 = new ArrayList<Segment>();
+        final List<Segment> level1 = new ArrayList<Segment>();
+
+        File manifest = new File(directory, MANIFEST);
+
+        if (!manifest.exists()) {
+            // Interrupted while replacing the manifest.
+            manifest = new File(directory, MANIFEST + ".tmp");
+        }
+
+        long sequence = 0;
+
+        if (manifest.exists()) {
+            try {
+                BufferedReader reader = new BufferedReader(new FileReader(manifest));
+
+                try {
+                    String line;
+
+                    while ((line = reader.readLine()) != null) {
+                        final String[] fields = line.split(" ");
+
+                        if (fields.length != 2) {
+                            throw new LevelDBCorruptionException("Manifest of " + path + " has a malformed line: " + line);
+                        }
+
+                        final long number = Long.parseLong(fields[1]);
+
+                        if ("next".equals(fields[0])) {
+                            nextNumber = number;
+                        } else if ("log".equals(fields[0])) {
+                            logNumber = number;
+                        } else if ("0".equals(fields[0]) || "1".equals(fields[0])) {
+                            final Segment segment = Segment.open(number, file(number, SEGMENT_SUFFIX));
+
+                            sequence = Math.max(sequence, segment.sequence());
+
+                            ("0".equals(fields[0]) ? level0 : level1).add(segment);
+                        } else {
+                            throw new LevelDBCorruptionException("Manifest of " + path + " has a malformed line: " + line);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (NumberFormatException e) {
+                throw new LevelDBCorruptionException("Manifest of " + path + " is corrupted.", e);
+            } catch (IOException e) {
+                throw new LevelDBIOException("Unable to read the manifest of " + path + ".", e);
+            }
+        }
+
+        final Segment[] segments0 = level0.toArray(new Segment[level0.size()]);
+        final Segment[] segments1 = level1.toArray(new Segment[level1.size()]);
+
+        publish(new Layers(tables.memtable, segments0, segments1));
+        resume(sequence);
+
+        final List<Long> logs = new ArrayList<Long>();
+        final File[] files = directory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                final long number = number(file.getName());
+
+                if (number < 0) {
+                    continue;
+                }
+
+                if (file.getName().endsWith(LOG_SUFFIX) && number >= logNumber) {
+                    logs.add(number);
+                } else if (!isLive(number, segments0, segments1)) {
+                    file.delete();
+                }
+
+                nextNumber = Math.max(nextNumber, number + 1);
+            }
+        }
+
+        Collections.sort(logs);
+
+        for (long number : logs) {
+            replay(file(number, LOG_SUFFIX));
+        }
+
+        flush();
+
+        for (long number : logs) {
+            file(number, LOG_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Applies the intact records of a log to the memtable.
+     */
+    private void replay(File file) throws LevelDBException {
+        DataInputStream in;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to open log " + file + ".", e);
+        }
+
+        try {
+            while (true) {
+                final int length;
+
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                final int checksum = in.readInt();
+
+                if (length < 12) {
+                    Log.w(TAG, "Dropping the corrupted tail of log " + file + ".");
+                    return;
+                }
+
+                final byte[] payload = new byte[length];
+
+                in.readFully(payload);
+
+                crc.reset();
+                crc.update(payload, 0, length);
+
+                if ((int) crc.getValue() != checksum) {
+                    Log.w(TAG, "Dropping the corrupted tail of log " + file + ".");
+                    return;
+                }
+
+                final ByteBuffer buffer = ByteBuffer.wrap(payload);
+                final long sequence = buffer.getLong();
+                final WriteBatch batch = new SimpleWriteBatch();
+
+                for (int count = buffer.getInt(); count > 0; count--) {
+                    final boolean put = buffer.get() == 1;
+                    final byte[] key = new byte[buffer.getInt()];
+
+                    buffer.get(key);
+
+                    if (put) {
+                        final byte[] value = new byte[buffer.getInt()];
+
+                        buffer.get(value);
+                        batch.put(key, value);
+                    } else {
+                        batch.del(key);
+                    }
+                }
+
+                resume(sequence - 1);
+                write(batch, false);
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "Dropping the incomplete last record of log " + file + ".");
+        } catch (RuntimeException e) {
+            // Malformed payload behind a matching checksum.
+            throw new LevelDBCorruptionException("Log " + file + " is corrupted.", e);
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to read log " + file + ".", e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Creates a new log and records it in the manifest along with the live segments, so that
+     * the previous log is no longer needed. Requires this object's lock.
+     */
+    private void startLog(Segment[] level0, Segment[] level1) throws LevelDBException {
+        final long number = nextNumber++;
+        final RandomAccessFile next;
+
+        try {
+            next = new RandomAccessFile(file(number, LOG_SUFFIX), "rw");
+            next.setLength(0);
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to create a log for " + path + ".", e);
+        }
+
+        final StringBuilder builder = new StringBuilder();
+
+        builder.append("next ").append(nextNumber).append('\n');
+        builder.append("log ").append(number).append('\n');
+
+        for (Segment segment : level0) {
+            builder.append("0 ").append(segment.number()).append('\n');
+        }
+
+        for (Segment segment : level1) {
+            builder.append("1 ").append(segment.number()).append('\n');
+        }
+
+        final File manifest = new File(directory, MANIFEST);
+        final File temporary = new File(directory, MANIFEST + ".tmp");
+
+        try {
+            FileOutputStream out = new FileOutputStream(temporary);
+
+            try {
+                out.write(builder.toString().getBytes("UTF-8"));
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            // Some platforms won't rename over an existing file. The temporary manifest is
+            // picked up on recovery if this is interrupted in between.
+            if (!temporary.renameTo(manifest) && !(manifest.delete() && temporary.renameTo(manifest))) {
+                throw new IOException("Unable to replace " + manifest + ".");
+            }
+        } catch (IOException e) {
+            closeQuietly(next);
+            file(number, LOG_SUFFIX).delete();
+
+            throw new LevelDBIOException("Unable to write the manifest of " + path + ".", e);
+        }
+
+        if (log != null) {
+            closeQuietly(log);
+        }
+
+        log = next;
+        logNumber = number;
+    }
+
+    private File file(long number, String suffix) {
+        return new File(directory, String.format("%06d%s", number, suffix));
+    }
+
+    /**
+     * @return the number of a log or segment file, or -1 if name is something else
+     */
+    private static long number(String name) {
+        if (!name.endsWith(LOG_SUFFIX) && !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(0, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isLive(long number, Segment[] level0, Segment[] level1) {
+        for (Segment segment : level0) {
+            if (segment.number() == number) {
+                return true;
+            }
+        }
+
+        for (Segment segment : level1) {
+            if (segment.number() == number) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds the first segment of a sorted run whose largest key is at or after key.
+     * @return its index, or the length of the run if there is none
+     */
+    static int locate(Segment[] run, byte[] key) {
+        int low = 0;
+        int high = run.length;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+
+            if (Bytes.lexicographicCompare(run[mid].largest(), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing to do about it.
+        }
+    }
+
+    /**
+     * The memtable over the segments of level 0, newest first, over those of level 1.
+     */
+    private static final class Layers extends Tables {
+        final Segment[] level0;
+        final Segment[] level1;
+
+        Layers(ConcurrentSkipListMap<byte[], Version> memtable, Segment[] level0, Segment[] level1) {
+            super(memtable);
+
+            this.level0 = level0;
+            this.level1 = level1;
+        }
+
+        @Override
+        protected boolean isBottom() {
+            return level0.length == 0 && level1.length == 0;
+        }
+
+        @Override
+        protected byte[] get(byte[] key) {
+            for (Segment segment : level0) {
+                if (Bytes.lexicographicCompare(key, segment.smallest()) < 0 || Bytes.lexicographicCompare(key, segment.largest()) > 0) {
+                    continue;
+                }
+
+                final int i = segment.find(key);
+
+                if (i >= 0) {
+                    return segment.value(i);
+                }
+            }
+
+            final int run = locate(level1, key);
+
+            if (run < level1.length) {
+                final int i = level1[run].find(key);
+
+                if (i >= 0) {
+                    return level1[run].value(i);
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        protected Cursor[] cursors(long sequence) {
+            final Cursor[] cursors = new Cursor[level0.length + 2];
+
+            cursors[0] = new MemtableCursor(memtable, sequence);
+
+            for (int i = 0; i < level0.length; i++) {
+                cursors[i + 1] = new SegmentCursor(level0[i]);
+            }
+
+            cursors[level0.length + 1] = new SegmentCursor(level1);
+
+            return cursors;
+        }
+
+        /**
+         * Adds the bytes the segments take up in <tt>[from, to)</tt> to the size of the memtable.
+         */
+        @Override
+        protected long approximateSize(byte[] from, byte[] to, long sequence) {
+            long size = super.approximateSize(from, to, sequence);
+
+            for (Segment segment : level0) {
+                size += segment.offset(segment.ceiling(to)) - segment.offset(segment.ceiling(from));
+            }
+
+            for (Segment segment : level1) {
+                size += segment.offset(segment.ceiling(to)) - segment.offset(segment.ceiling(from));
+            }
+
+            return size;
+        }
+    }
+}
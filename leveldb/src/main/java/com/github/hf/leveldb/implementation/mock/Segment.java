@@ -0,0 +1,342 @@
+package com.github.hf.leveldb.implementation.mock;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.exception.LevelDBCorruptionException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBIOException;
+import com.github.hf.leveldb.util.Bytes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An immutable, sorted file of entries in a {@link PersistentMockLevelDB}, read through a
+ * memory-mapped {@link FileChannel}, so its data lives in the page cache instead of the heap.
+ * <p>
+ * The file holds the entries, each as its key length, value length (-1 for a deletion), key and
+ * value; then the offset of every entry; then a footer with the highest sequence number in the
+ * segment, the number of entries, the offset of the index and a magic number.
+ */
+final class Segment {
+    private static final int MAGIC = 0x4c44424d;
+    private static final int FOOTER_LENGTH = 8 + 4 + 4 + 4;
+
+    private final long number;
+    private final File file;
+    private final ByteBuffer buffer;
+
+    private final long sequence;
+    private final int count;
+    private final int index;
+
+    private final byte[] smallest;
+    private final byte[] largest;
+
+    private Segment(long number, File file, ByteBuffer buffer) throws LevelDBCorruptionException {
+        this.number = number;
+        this.file = file;
+        this.buffer = buffer;
+
+        final int length = buffer.capacity();
+
+        if (length < FOOTER_LENGTH || buffer.getInt(length - 4) != MAGIC) {
+            throw new LevelDBCorruptionException("Segment " + file + " is not a valid segment.");
+        }
+
+        sequence = buffer.getLong(length - FOOTER_LENGTH);
+        count = buffer.getInt(length - FOOTER_LENGTH + 8);
+        index = buffer.getInt(length - FOOTER_LENGTH + 12);
+
+        if (count <= 0 || index < 0 || (long) index + 4L * count != length - FOOTER_LENGTH) {
+            throw new LevelDBCorruptionException("Segment " + file + " has a corrupted footer.");
+        }
+
+        smallest = key(0);
+        largest = key(count - 1);
+    }
+
+    /**
+     * Maps an existing segment file.
+     */
+    static Segment open(long number, File file) throws LevelDBException {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+            try {
+                // The mapping stays valid after the channel is closed.
+                return new Segment(number, file, raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to map segment " + file + ".", e);
+        }
+    }
+
+    long number() {
+        return number;
+    }
+
+    File file() {
+        return file;
+    }
+
+    /**
+     * The highest sequence number of the writes in this segment.
+     */
+    long sequence() {
+        return sequence;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long length() {
+        return buffer.capacity();
+    }
+
+    byte[] smallest() {
+        return smallest;
+    }
+
+    byte[] largest() {
+        return largest;
+    }
+
+    /**
+     * Finds the entry with exactly this key.
+     * @return its index, or -1 if there is none
+     */
+    int find(byte[] key) {
+        final int i = ceiling(key);
+
+        if (i < count && compare(i, ByteBuffer.wrap(key)) == 0) {
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the first entry at or after key.
+     * @return its index, or {@link #count()} if all keys are before key
+     */
+    int ceiling(byte[] key) {
+        final ByteBuffer target = ByteBuffer.wrap(key);
+
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+
+            if (compare(mid, target) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * The offset of the entry at i in the file, or of the index if i is {@link #count()}.
+     */
+    int offset(int i) {
+        if (i >= count) {
+            return index;
+        }
+
+        return buffer.getInt(index + 4 * i);
+    }
+
+    byte[] key(int i) {
+        final int offset = offset(i);
+
+        return copy(offset + 8, buffer.getInt(offset));
+    }
+
+    /**
+     * @return the value at i, or null if the entry is a deletion
+     */
+    byte[] value(int i) {
+        final int offset = offset(i);
+        final int length = buffer.getInt(offset + 4);
+
+        if (length < 0) {
+            return null;
+        }
+
+        return copy(offset + 8 + buffer.getInt(offset), length);
+    }
+
+    private byte[] copy(int offset, int length) {
+        final byte[] bytes = new byte[length];
+
+        // Absolute reads don't touch the shared buffer's position, a duplicate keeps this thread-safe.
+        final ByteBuffer view = buffer.duplicate();
+
+        view.position(offset);
+        view.get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Compares the key at i with key, 8 bytes at a time.
+     */
+    private int compare(int i, ByteBuffer key) {
+        final int offset = offset(i);
+
+        return Bytes.lexicographicCompare(buffer, offset + 8, buffer.getInt(offset), key, 0, key.capacity());
+    }
+
+    @Override
+    public String toString() {
+        return file.getName();
+    }
+
+    /**
+     * Writes a new segment. Entries must be added in key order.
+     */
+    static final class Writer {
+        private final File file;
+        private final FileOutputStream fileStream;
+        private final DataOutputStream out;
+
+        private int[] offsets = new int[1024];
+        private int count;
+        private int length;
+
+        Writer(File file) throws LevelDBIOException {
+            this.file = file;
+
+            try {
+                this.fileStream = new FileOutputStream(file);
+            } catch (IOException e) {
+                throw new LevelDBIOException("Unable to create segment " + file + ".", e);
+            }
+
+            this.out = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+        }
+
+        /**
+         * @param value the value, or null for a deletion
+         */
+        void add(byte[] key, byte[] value) throws LevelDBIOException {
+            if (count == offsets.length) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(offsets, 0, grown, 0, count);
+                offsets = grown;
+            }
+
+            offsets[count++] = length;
+
+            try {
+                out.writeInt(key.length);
+                out.writeInt(value == null ? -1 : value.length);
+                out.write(key);
+
+                if (value != null) {
+                    out.write(value);
+                }
+            } catch (IOException e) {
+                throw new LevelDBIOException("Unable to write segment " + file + ".", e);
+            }
+
+            length += 8 + key.length + (value == null ? 0 : value.length);
+        }
+
+        int count() {
+            return count;
+        }
+
+        /**
+         * The number of bytes written so far.
+         */
+        long length() {
+            return length;
+        }
+
+        /**
+         * Writes the index and footer, syncs the file and maps it.
+         * @param sequence the highest sequence number of the added entries
+         */
+        Segment finish(long number, long sequence) throws LevelDBException {
+            try {
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(offsets[i]);
+                }
+
+                out.writeLong(sequence);
+                out.writeInt(count);
+                out.writeInt(length);
+                out.writeInt(MAGIC);
+                out.flush();
+
+                fileStream.getFD().sync();
+                out.close();
+            } catch (IOException e) {
+                abort();
+
+                throw new LevelDBIOException("Unable to write segment " + file + ".", e);
+            }
+
+            return open(number, file);
+        }
+
+        /**
+         * Closes and deletes the unfinished file.
+         */
+        void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Deleting it anyway.
+            }
+
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.hf.leveldb.implementation.mock;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * A {@link Cursor} over a run of sorted segments whose key ranges don't overlap, such as a single
+ * flushed segment or the compacted level of a {@link PersistentMockLevelDB}.
+ */
+final class SegmentCursor implements Cursor {
+    private final Segment[] run;
+
+    private int segment = -1;
+    private int entry;
+
+    private byte[] key;
+    private byte[] value;
+    private boolean valueRead;
+
+    SegmentCursor(Segment... run) {
+        this.run = run;
+    }
+
+    @Override
+    public boolean isValid() {
+        return segment >= 0 && segment < run.length;
+    }
+
+    @Override
+    public void seekToFirst() {
+        position(0, 0);
+    }
+
+    @Override
+    public void seekToLast() {
+        position(run.length - 1, run.length == 0 ? 0 : run[run.length - 1].count() - 1);
+    }
+
+    @Override
+    public void seek(byte[] key) {
+        final int segment = PersistentMockLevelDB.locate(run, key);
+
+        if (segment == run.length) {
+            position(segment, 0);
+            return;
+        }
+
+        final int entry = run[segment].ceiling(key);
+
+        if (entry == run[segment].count()) {
+            position(segment + 1, 0);
+        } else {
+            position(segment, entry);
+        }
+    }
+
+    @Override
+    public void next() {
+        if (entry + 1 < run[segment].count()) {
+            position(segment, entry + 1);
+        } else {
+            position(segment + 1, 0);
+        }
+    }
+
+    @Override
+    public void previous() {
+        if (entry > 0) {
+            position(segment, entry - 1);
+        } else if (segment > 0) {
+            position(segment - 1, run[segment - 1].count() - 1);
+        } else {
+            position(-1, 0);
+        }
+    }
+
+    @Override
+    public byte[] key() {
+        return key;
+    }
+
+    @Override
+    public byte[] value() {
+        if (!valueRead) {
+            value = run[segment].value(entry);
+            valueRead = true;
+        }
+
+        return value;
+    }
+
+    private void position(int segment, int entry) {
+        this.segment = segment;
+        this.entry = entry;
+
+        key = isValid() ? run[segment].key(entry) : null;
+        value = null;
+        valueRead = false;
+    }
+}
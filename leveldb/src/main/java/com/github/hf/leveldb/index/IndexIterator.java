@@ -0,0 +1,197 @@
+package com.github.hf.leveldb.index;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBIteratorNotValidException;
+import com.github.hf.leveldb.namespace.Namespace;
+import com.github.hf.leveldb.util.Bytes;
+import com.github.hf.leveldb.util.KeyCodec;
+
+import java.io.Closeable;
+import java.util.Arrays;
+
+/**
+ * Iterates forward over the entries matched by an {@link IndexedLevelDB} query, reading from a
+ * snapshot taken when the query was made.
+ * <p>
+ * Index entries are read ahead in batches. The primary values of a batch are only fetched once
+ * {@link #value()} is first called on one of its entries, and then all at once with
+ * {@link com.github.hf.leveldb.LevelDB#multiGet(byte[][], Snapshot)}, so walking only the keys
+ * never touches the table.
+ */
+public class IndexIterator implements Closeable {
+    private static final int BATCH_SIZE = 64;
+
+    private final Namespace primary;
+    private final Iterator index;
+    private final Snapshot snapshot;
+
+    private final byte[] to;
+    private final boolean prefix;
+
+    private final byte[][] keys = new byte[BATCH_SIZE][];
+    private final byte[][] indexValues = new byte[BATCH_SIZE][];
+    private byte[][] values;
+
+    private int position;
+    private int count;
+    private boolean exhausted;
+
+    IndexIterator(Namespace primary, Iterator index, Snapshot snapshot, byte[] from, byte[] to, boolean prefix) throws LevelDBClosedException {
+        this.primary = primary;
+        this.index = index;
+        this.snapshot = snapshot;
+        this.to = to;
+        this.prefix = prefix;
+
+        index.seek(from);
+        fill();
+    }
+
+    public boolean isValid() {
+        return position < count;
+    }
+
+    public void next() throws LevelDBClosedException {
+        checkValid();
+
+        if (++position == count) {
+            fill();
+        }
+    }
+
+    /**
+     * The primary key of the entry.
+     */
+    public byte[] key() {
+        checkValid();
+
+        return keys[position];
+    }
+
+    /**
+     * The index value of the entry.
+     */
+    public byte[] indexValue() {
+        checkValid();
+
+        return indexValues[position];
+    }
+
+    /**
+     * The primary value of the entry.
+     */
+    public byte[] value() throws LevelDBException {
+        checkValid();
+
+        if (values == null) {
+            final byte[][] encoded = new byte[count][];
+
+            for (int i = 0; i < count; i++) {
+                encoded[i] = primary.encodeKey(keys[i]);
+            }
+
+            values = primary.levelDB().multiGet(encoded, snapshot);
+        }
+
+        return values[position];
+    }
+
+    @Override
+    public void close() {
+        index.close();
+
+        try {
+            primary.levelDB().releaseSnapshot(snapshot);
+        } catch (LevelDBClosedException e) {
+            // Closing the database released it.
+        }
+    }
+
+    private void fill() throws LevelDBClosedException {
+        position = 0;
+        count = 0;
+        values = null;
+
+        while (!exhausted && count < BATCH_SIZE) {
+            if (!index.isValid()) {
+                exhausted = true;
+                break;
+            }
+
+            final byte[] entry = index.key();
+
+            if (to != null && (prefix ? !startsWith(entry, to) : Bytes.lexicographicCompare(entry, to) >= 0)) {
+                exhausted = true;
+                break;
+            }
+
+            final int end = KeyCodec.skipBytes(entry, 0, entry.length);
+            final byte[] indexValue = new byte[KeyCodec.unescapedLength(entry, 0, entry.length)];
+
+            KeyCodec.getBytes(entry, 0, entry.length, indexValue, 0);
+
+            indexValues[count] = indexValue;
+            keys[count] = Arrays.copyOfRange(entry, end, entry.length);
+            count++;
+
+            index.next();
+        }
+    }
+
+    private void checkValid() {
+        if (!isValid()) {
+            throw new LevelDBIteratorNotValidException();
+        }
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
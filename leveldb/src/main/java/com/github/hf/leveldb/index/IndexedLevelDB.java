@@ -0,0 +1,389 @@
+package com.github.hf.leveldb.index;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.namespace.Namespace;
+import com.github.hf.leveldb.util.KeyCodec;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+import com.google.common.util.concurrent.Striped;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A table of entries with secondary indexes that are kept up to date on every write.
+ * <p>
+ * The entries live in the {@link Namespace} called name, and every index in its own namespace
+ * called <tt>name/index</tt>. An index entry's key is the index value, escaped and terminated with
+ * {@link KeyCodec#putBytes(byte[], int, byte[], int, int)}, followed by the primary key, so index
+ * entries sort by index value and then by primary key.
+ * <p>
+ * A write reads the previous value of its key and puts the entry, the index entries it removes
+ * and those it adds into one {@link com.github.hf.leveldb.WriteBatch}, so the indexes are never
+ * out of sync. Writes of the same key are serialized with striped locks; all writes must go
+ * through this class.
+ * <pre>
+ * IndexedLevelDB users = new IndexedLevelDB(db, "users");
+ *
+ * users.addIndex("email", new IndexExtractor() { ... });
+ * IndexIterator byEmail = users.query("email", email);
+ * </pre>
+ */
+public class IndexedLevelDB implements Closeable {
+    private static final int LOCK_STRIPES = 64;
+
+    private static final int REBUILD_BATCH_SIZE = 1024;
+
+    private final LevelDB levelDB;
+    private final String name;
+    private final Namespace primary;
+
+    private final Map<String, Index> indexes = new ConcurrentHashMap<String, Index>();
+    private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+
+    /**
+     * @param levelDB the database to store the table in
+     * @param name the name of the table, which namespaces it
+     * @throws LevelDBException
+     */
+    public IndexedLevelDB(@Nonnull LevelDB levelDB, @Nonnull String name) throws LevelDBException {
+        checkArgument(levelDB != null, "LevelDB can't be null");
+
+        this.levelDB = levelDB;
+        this.name = name;
+        this.primary = levelDB.namespace(name);
+    }
+
+    /**
+     * The underlying database.
+     */
+    public LevelDB levelDB() {
+        return levelDB;
+    }
+
+    /**
+     * Registers an index. Writes from now on maintain it, entries written before must be indexed
+     * with {@link #rebuildIndex(String)}, unless the index was registered with the same extractor
+     * when they were written.
+     * @param index the name of the index
+     * @param extractor computes the index value of an entry
+     * @throws LevelDBException
+     */
+    public void addIndex(@Nonnull String index, @Nonnull IndexExtractor extractor) throws LevelDBException {
+        checkArgument(index != null && !index.isEmpty(), "Index name can't be null or empty");
+        checkArgument(extractor != null, "Extractor can't be null");
+
+        synchronized (indexes) {
+            checkArgument(!indexes.containsKey(index), "Index " + index + " already exists");
+
+            indexes.put(index, new Index(levelDB.namespace(name + "/" + index), extractor));
+        }
+    }
+
+    /**
+     * Writes the key-value pair and updates every index.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param value if null same as {@link #del(byte[], boolean)}
+     * @param sync whether this write will be forced to disk
+     * @throws LevelDBException
+     */
+    public void put(@Nonnull byte[] key, byte[] value, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        final Lock lock = locks.get(new KeyHash(key));
+
+        lock.lock();
+
+        try {
+            final byte[] old = primary.get(key);
+            final SimpleWriteBatch batch = new SimpleWriteBatch();
+
+            for (Index index : indexes.values()) {
+                final byte[] oldIndexValue = old == null ? null : index.extractor.extract(key, old);
+                final byte[] newIndexValue = value == null ? null : index.extractor.extract(key, value);
+
+                if (Arrays.equals(oldIndexValue, newIndexValue)) {
+                    continue;
+                }
+
+                if (oldIndexValue != null) {
+                    batch.del(index.entryKey(oldIndexValue, key));
+                }
+
+                if (newIndexValue != null) {
+                    batch.put(index.entryKey(newIndexValue, key), new byte[0]);
+                }
+            }
+
+            batch.put(primary.encodeKey(key), value);
+
+            levelDB.write(batch, sync);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Asynchronous {@link #put(byte[], byte[], boolean)}.
+     */
+    public void put(@Nonnull byte[] key, byte[] value) throws LevelDBException {
+        put(key, value, false);
+    }
+
+    /**
+     * Deletes key and its index entries, if it exists.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param sync whether this write will be forced to disk
+     * @throws LevelDBException
+     */
+    public void del(@Nonnull byte[] key, boolean sync) throws LevelDBException {
+        put(key, null, sync);
+    }
+
+    /**
+     * Asynchronous {@link #del(byte[], boolean)}.
+     */
+    public void del(@Nonnull byte[] key) throws LevelDBException {
+        del(key, false);
+    }
+
+    @Nullable
+    public byte[] get(@Nonnull byte[] key, Snapshot snapshot) throws LevelDBException {
+        return primary.get(key, snapshot);
+    }
+
+    @Nullable
+    public byte[] get(@Nonnull byte[] key) throws LevelDBException {
+        return primary.get(key);
+    }
+
+    /**
+     * Iterates over the entries of the table, without the indexes.
+     */
+    public Iterator iterator(boolean fillCache, Snapshot snapshot) throws LevelDBClosedException {
+        return primary.iterator(fillCache, snapshot);
+    }
+
+    /**
+     * Finds the entries whose index value equals value, in primary key order.
+     * @param index the name of the index
+     * @param value the index value
+     * @return an iterator over the matching entries, which has to be closed
+     * @throws LevelDBException
+     */
+    public IndexIterator query(@Nonnull String index, @Nonnull byte[] value) throws LevelDBException {
+        checkArgument(value != null, "Value can't be null");
+
+        final byte[] prefix = encode(value);
+
+        return query(index, prefix, prefix, true);
+    }
+
+    /**
+     * Finds the entries whose index value is in <tt>[from, to)</tt>, ordered by index value and
+     * then by primary key.
+     * @param index the name of the index
+     * @param from the lower bound, inclusive, or null for the first entry
+     * @param to the upper bound, exclusive, or null for the last entry
+     * @return an iterator over the matching entries, which has to be closed
+     * @throws LevelDBException
+     */
+    public IndexIterator query(@Nonnull String index, @Nullable byte[] from, @Nullable byte[] to) throws LevelDBException {
+        return query(index, from == null ? new byte[0] : encode(from), to == null ? null : encode(to), false);
+    }
+
+    private IndexIterator query(String index, byte[] from, byte[] to, boolean prefix) throws LevelDBException {
+        final Index found = index(index);
+        final Snapshot snapshot = levelDB.obtainSnapshot();
+
+        try {
+            return new IndexIterator(primary, found.namespace.iterator(true, snapshot), snapshot, from, to, prefix);
+        } catch (LevelDBException e) {
+            levelDB.releaseSnapshot(snapshot);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Recreates an index from all entries in the table, in write batches of bounded size. Each
+     * batch holds the locks of its keys and reads their values again, so writes and deletes made
+     * while rebuilding never leave stale index entries behind.
+     * @param index the name of the index
+     * @throws LevelDBException
+     */
+    public void rebuildIndex(@Nonnull String index) throws LevelDBException {
+        final Index found = index(index);
+
+        found.namespace.clear(false);
+
+        final Iterator iterator = primary.iterator(false, null);
+
+        try {
+            final List<byte[]> keys = new ArrayList<byte[]>(REBUILD_BATCH_SIZE);
+
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                keys.add(iterator.key());
+
+                if (keys.size() == REBUILD_BATCH_SIZE) {
+                    reindex(found, keys);
+                    keys.clear();
+                }
+            }
+
+            if (!keys.isEmpty()) {
+                reindex(found, keys);
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Writes the index entries of keys as they are now, under their locks. The iterator that found
+     * them may have seen values that were overwritten or deleted since.
+     */
+    private void reindex(Index index, List<byte[]> keys) throws LevelDBException {
+        final List<KeyHash> hashes = new ArrayList<KeyHash>(keys.size());
+
+        for (byte[] key : keys) {
+            hashes.add(new KeyHash(key));
+        }
+
+        // Stripes come in a fixed order, so this can't deadlock with other batches.
+        final List<Lock> held = new ArrayList<Lock>();
+
+        try {
+            for (Lock lock : locks.bulkGet(hashes)) {
+                lock.lock();
+                held.add(lock);
+            }
+
+            final SimpleWriteBatch batch = new SimpleWriteBatch();
+
+            for (byte[] key : keys) {
+                final byte[] value = primary.get(key);
+                final byte[] indexValue = value == null ? null : index.extractor.extract(key, value);
+
+                if (indexValue != null) {
+                    batch.put(index.entryKey(indexValue, key), new byte[0]);
+                }
+            }
+
+            if (!batch.getAllOperations().isEmpty()) {
+                levelDB.write(batch);
+            }
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes the underlying database.
+     */
+    @Override
+    public void close() {
+        levelDB.close();
+    }
+
+    private Index index(String index) {
+        final Index found = indexes.get(index);
+
+        checkArgument(found != null, "No index named " + index);
+
+        return found;
+    }
+
+    private static byte[] encode(byte[] value) {
+        final byte[] encoded = new byte[KeyCodec.bytesLength(value, 0, value.length)];
+
+        KeyCodec.putBytes(encoded, 0, value, 0, value.length);
+
+        return encoded;
+    }
+
+    private static final class Index {
+        final Namespace namespace;
+        final IndexExtractor extractor;
+
+        Index(Namespace namespace, IndexExtractor extractor) {
+            this.namespace = namespace;
+            this.extractor = extractor;
+        }
+
+        byte[] entryKey(byte[] indexValue, byte[] key) {
+            final int length = KeyCodec.bytesLength(indexValue, 0, indexValue.length);
+            final byte[] entry = new byte[length + key.length];
+
+            KeyCodec.putBytes(entry, 0, indexValue, 0, indexValue.length);
+            System.arraycopy(key, 0, entry, length, key.length);
+
+            return namespace.encodeKey(entry);
+        }
+    }
+
+    /**
+     * Hashes a key by content, for picking its lock stripe.
+     */
+    private static final class KeyHash {
+        private final int hash;
+
+        KeyHash(byte[] key) {
+            hash = Arrays.hashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
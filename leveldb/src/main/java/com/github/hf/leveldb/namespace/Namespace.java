@@ -0,0 +1,326 @@
+package com.github.hf.leveldb.namespace;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBCorruptionException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBSnapshotOwnershipException;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A named, isolated key space inside a {@link LevelDB}, obtained with {@link LevelDB#namespace(String)}.
+ * <p>
+ * Keys are transparently prefixed with the namespace's ID, a varint assigned when the namespace
+ * is first used and recorded in the database under the reserved ID 0. Varints are prefix-free, so
+ * the keys of different namespaces never overlap and each namespace is one contiguous range.
+ * <p>
+ * All keys in a database that uses namespaces should be written through them, raw keys could
+ * collide with the prefixes. Namespaces are cheap, but obtaining one reads the registry, so keep
+ * the instance around.
+ */
+public final class Namespace {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte[] REGISTRY = new byte[]{0};
+
+    private static final int CLEAR_BATCH_SIZE = 1024;
+
+    private final LevelDB levelDB;
+    private final String name;
+    private final int id;
+
+    private final byte[] prefix;
+    private final byte[] limit;
+
+    private Namespace(LevelDB levelDB, String name, int id) {
+        this.levelDB = levelDB;
+        this.name = name;
+        this.id = id;
+
+        prefix = new byte[varintSize(id)];
+        writeVarint(prefix, 0, id);
+
+        // The last byte of a varint has its high bit clear, so this can't overflow.
+        limit = Arrays.copyOf(prefix, prefix.length);
+        limit[limit.length - 1]++;
+    }
+
+    /**
+     * Looks up the namespace called name in levelDB, assigning it the next free ID if it doesn't exist.
+     * @see LevelDB#namespace(String)
+     */
+    public static Namespace open(@Nonnull LevelDB levelDB, @Nonnull String name) throws LevelDBException {
+        checkArgument(levelDB != null, "LevelDB can't be null");
+        checkArgument(name != null && !name.isEmpty(), "Name can't be null or empty");
+
+        final byte[] nameBytes = name.getBytes(UTF8);
+        final byte[] registryKey = new byte[REGISTRY.length + nameBytes.length];
+
+        System.arraycopy(REGISTRY, 0, registryKey, 0, REGISTRY.length);
+        System.arraycopy(nameBytes, 0, registryKey, REGISTRY.length, nameBytes.length);
+
+        synchronized (levelDB) {
+            byte[] value = levelDB.get(registryKey);
+
+            if (value != null) {
+                return new Namespace(levelDB, name, readVarint(value));
+            }
+
+            // The registry key itself holds the last assigned ID.
+            final byte[] last = levelDB.get(REGISTRY);
+            final int id = last == null ? 1 : readVarint(last) + 1;
+
+            value = new byte[varintSize(id)];
+            writeVarint(value, 0, id);
+
+            levelDB.write(new SimpleWriteBatch()
+                    .put(REGISTRY, value)
+                    .put(registryKey, value), true);
+
+            return new Namespace(levelDB, name, id);
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * The ID that prefixes every key in this namespace.
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * The underlying database.
+     */
+    public LevelDB levelDB() {
+        return levelDB;
+    }
+
+    /**
+     * Returns key with this namespace's prefix, as stored in the underlying database. Useful for
+     * building {@link com.github.hf.leveldb.WriteBatch}es that span namespaces.
+     */
+    public byte[] encodeKey(@Nonnull byte[] key) {
+        checkArgument(key != null, "Key can't be null");
+
+        final byte[] encoded = new byte[prefix.length + key.length];
+
+        System.arraycopy(prefix, 0, encoded, 0, prefix.length);
+        System.arraycopy(key, 0, encoded, prefix.length, key.length);
+
+        return encoded;
+    }
+
+    /**
+     * @see LevelDB#put(byte[], byte[], boolean)
+     */
+    public void put(@Nonnull byte[] key, byte[] value, boolean sync) throws LevelDBException {
+        if (value == null) {
+            del(key, sync);
+
+            return;
+        }
+
+        levelDB.put(encodeKey(key), value, sync);
+    }
+
+    public void put(@Nonnull byte[] key, byte[] value) throws LevelDBException {
+        put(key, value, false);
+    }
+
+    /**
+     * @see LevelDB#get(byte[], Snapshot)
+     */
+    @Nullable
+    public byte[] get(@Nonnull byte[] key, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        return levelDB.get(encodeKey(key), snapshot);
+    }
+
+    @Nullable
+    public byte[] get(@Nonnull byte[] key) throws LevelDBException {
+        return get(key, null);
+    }
+
+    /**
+     * @see LevelDB#del(byte[], boolean)
+     */
+    public void del(@Nonnull byte[] key, boolean sync) throws LevelDBException {
+        levelDB.del(encodeKey(key), sync);
+    }
+
+    public void del(@Nonnull byte[] key) throws LevelDBException {
+        del(key, false);
+    }
+
+    /**
+     * Iterates over the entries of this namespace only, with the prefix stripped from the keys.
+     * @see LevelDB#iterator(boolean, Snapshot)
+     */
+    public Iterator iterator(boolean fillCache, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBClosedException {
+        return new NamespaceIterator(levelDB.iterator(fillCache, snapshot), prefix, limit);
+    }
+
+    public Iterator iterator() throws LevelDBClosedException {
+        return iterator(true, null);
+    }
+
+    /**
+     * Deletes every entry in this namespace, in write batches of bounded size without filling the
+     * cache. Entries written while clearing may survive. The namespace stays registered.
+     * <p>
+     * LevelDB has no native range deletion, so this costs work proportional to the size of the
+     * namespace, but none for the rest of the database.
+     * @param sync whether the deletions will be forced to disk
+     * @return the number of entries deleted
+     * @throws LevelDBException
+     */
+    public long clear(boolean sync) throws LevelDBException {
+        final Iterator iterator = levelDB.iterator(false, null);
+
+        long deleted = 0;
+
+        try {
+            SimpleWriteBatch batch = new SimpleWriteBatch();
+            int batched = 0;
+
+            for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+                final byte[] key = iterator.key();
+
+                if (!startsWith(key, prefix)) {
+                    break;
+                }
+
+                batch.del(key);
+
+                if (++batched == CLEAR_BATCH_SIZE) {
+                    levelDB.write(batch, sync);
+                    deleted += batched;
+
+                    batch = new SimpleWriteBatch();
+                    batched = 0;
+                }
+            }
+
+            if (batched > 0) {
+                levelDB.write(batch, sync);
+                deleted += batched;
+            }
+        } finally {
+            iterator.close();
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Approximates the storage used by this namespace.
+     * @see LevelDB#getApproximateSize(byte[], byte[])
+     */
+    public long getApproximateSize() throws LevelDBClosedException {
+        return levelDB.getApproximateSize(prefix, limit);
+    }
+
+    @Override
+    public String toString() {
+        return "Namespace(" + name + ", " + id + ")";
+    }
+
+    static boolean startsWith(byte[] key, byte[] prefix) {
+        return startsWith(key, key.length, prefix);
+    }
+
+    static boolean startsWith(byte[] key, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    private static void writeVarint(byte[] dst, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        dst[offset] = (byte) value;
+    }
+
+    private static int readVarint(byte[] src) throws LevelDBCorruptionException {
+        int value = 0;
+
+        for (int i = 0; i < src.length && i < 5; i++) {
+            value |= (src[i] & 0x7F) << (7 * i);
+
+            if ((src[i] & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new LevelDBCorruptionException("Malformed namespace ID.");
+    }
+}
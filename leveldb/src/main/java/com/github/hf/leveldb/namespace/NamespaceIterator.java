@@ -0,0 +1,198 @@
+package com.github.hf.leveldb.namespace;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBIteratorNotValidException;
+
+import java.util.Arrays;
+
+/**
+ * An {@link Iterator} bounded to the keys of a {@link Namespace}, which strips the prefix from them.
+ * <p>
+ * The key under the underlying iterator is read into a reused buffer after every move to check
+ * that it's still within the namespace, so stepping doesn't allocate.
+ */
+final class NamespaceIterator extends Iterator {
+    private final Iterator iterator;
+    private final byte[] prefix;
+    private final byte[] limit;
+
+    private byte[] key = new byte[64];
+    private int keyLength;
+    private boolean valid;
+
+    NamespaceIterator(Iterator iterator, byte[] prefix, byte[] limit) {
+        this.iterator = iterator;
+        this.prefix = prefix;
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean isValid() throws LevelDBClosedException {
+        if (iterator.isClosed()) {
+            throw new LevelDBClosedException("Iterator has been closed.");
+        }
+
+        return valid;
+    }
+
+    @Override
+    public void seekToFirst() throws LevelDBClosedException {
+        iterator.seek(prefix);
+        moved();
+    }
+
+    @Override
+    public void seekToLast() throws LevelDBClosedException {
+        iterator.seek(limit);
+
+        if (iterator.isValid()) {
+            iterator.previous();
+        } else {
+            iterator.seekToLast();
+        }
+
+        moved();
+    }
+
+    @Override
+    public void seek(byte[] key) throws LevelDBClosedException {
+        if (key == null) {
+            throw new IllegalArgumentException("Seek key must never be null!");
+        }
+
+        final byte[] target = new byte[prefix.length + key.length];
+
+        System.arraycopy(prefix, 0, target, 0, prefix.length);
+        System.arraycopy(key, 0, target, prefix.length, key.length);
+
+        iterator.seek(target);
+        moved();
+    }
+
+    @Override
+    public void next() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkValid();
+
+        iterator.next();
+        moved();
+    }
+
+    @Override
+    public void previous() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkValid();
+
+        iterator.previous();
+        moved();
+    }
+
+    @Override
+    public byte[] key() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkValid();
+
+        return Arrays.copyOfRange(key, prefix.length, keyLength);
+    }
+
+    @Override
+    public int readKey(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        if (dst == null) {
+            throw new IllegalArgumentException("Destination array must not be null.");
+        }
+
+        if (off < 0 || off > dst.length) {
+            throw new IndexOutOfBoundsException("Offset " + off + " is out of bounds for length " + dst.length + ".");
+        }
+
+        checkValid();
+
+        final int length = keyLength - prefix.length;
+
+        if (length <= dst.length - off) {
+            System.arraycopy(key, prefix.length, dst, off, length);
+        }
+
+        return length;
+    }
+
+    @Override
+    public byte[] value() throws LevelDBClosedException {
+        checkValid();
+
+        return iterator.value();
+    }
+
+    @Override
+    public int readValue(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkValid();
+
+        return iterator.readValue(dst, off);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return iterator.isClosed();
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+    }
+
+    private void moved() throws LevelDBClosedException {
+        valid = false;
+
+        if (!iterator.isValid()) {
+            return;
+        }
+
+        int length = iterator.readKey(key, 0);
+
+        if (length > key.length) {
+            key = new byte[Math.max(length, key.length * 2)];
+            length = iterator.readKey(key, 0);
+        }
+
+        keyLength = length;
+        valid = Namespace.startsWith(key, length, prefix);
+    }
+
+    private void checkValid() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        if (!isValid()) {
+            throw new LevelDBIteratorNotValidException();
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.github.hf.leveldb.ttl;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import android.util.Log;
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.namespace.Namespace;
+import com.github.hf.leveldb.util.KeyCodec;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A table of entries that can expire, kept in a {@link LevelDB}.
+ * <p>
+ * Every value is stored behind an 8 byte header with its expiry time in milliseconds, 0 for
+ * entries that never expire. Entries that expire are also recorded in a secondary index ordered
+ * by expiry time, so {@link #expire(int)} only visits what has actually expired instead of
+ * scanning the whole database. Expired entries are hidden from {@link #get(byte[])} until they
+ * are deleted.
+ * <p>
+ * The entries live in the {@link Namespace} called name and the index in its own namespace called
+ * <tt>name/expiry</tt>, so the rest of the database stays free for other uses. Both must not be
+ * written to except through this class.
+ * <pre>
+ * TtlLevelDB sessions = new TtlLevelDB(db, "sessions");
+ *
+ * sessions.startExpirer(1, TimeUnit.MINUTES);
+ * sessions.put(token, session, TimeUnit.HOURS.toMillis(12));
+ * </pre>
+ */
+public class TtlLevelDB implements Closeable {
+    private static final String TAG = "org.leveldb";
+
+    private static final int HEADER_LENGTH = KeyCodec.LONG_LENGTH;
+
+    /**
+     * The default number of expired entries deleted per write batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * A source of the current time, replaceable in tests.
+     */
+    public interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long now() {
+                return System.currentTimeMillis();
+            }
+        };
+
+        /**
+         * @return the current time in milliseconds since the epoch
+         */
+        long now();
+    }
+
+    private final LevelDB levelDB;
+    private final Namespace data;
+    private final Namespace index;
+    private final Clock clock;
+
+    // Orders writes with the expirer, which must not delete an entry that was just rewritten.
+    private final Object writeLock = new Object();
+
+    private ScheduledExecutorService expirer;
+
+    /**
+     * @param levelDB the database to store the table in
+     * @param name the name of the table, which namespaces it
+     * @throws LevelDBException
+     */
+    public TtlLevelDB(@Nonnull LevelDB levelDB, @Nonnull String name) throws LevelDBException {
+        this(levelDB, name, Clock.SYSTEM);
+    }
+
+    /**
+     * @param levelDB the database to store the table in
+     * @param name the name of the table, which namespaces it
+     * @param clock the source of the current time
+     * @throws LevelDBException
+     */
+    public TtlLevelDB(@Nonnull LevelDB levelDB, @Nonnull String name, @Nonnull Clock clock) throws LevelDBException {
+        checkArgument(levelDB != null, "LevelDB can't be null");
+        checkArgument(clock != null, "Clock can't be null");
+
+        this.levelDB = levelDB;
+        this.data = levelDB.namespace(name);
+        this.index = levelDB.namespace(name + "/expiry");
+        this.clock = clock;
+    }
+
+    /**
+     * The underlying database.
+     */
+    public LevelDB levelDB() {
+        return levelDB;
+    }
+
+    /**
+     * Writes an entry that never expires.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param value if null same as {@link #del(byte[], boolean)}
+     * @param sync whether this write will be forced to disk
+     * @throws LevelDBException
+     */
+    public void put(@Nonnull byte[] key, byte[] value, boolean sync) throws LevelDBException {
+        put(key, value, 0, 0, sync);
+    }
+
+    /**
+     * Asynchronous {@link #put(byte[], byte[], boolean)}.
+     */
+    public void put(@Nonnull byte[] key, byte[] value) throws LevelDBException {
+        put(key, value, false);
+    }
+
+    /**
+     * Writes an entry that expires after ttl milliseconds.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param value if null same as {@link #del(byte[], boolean)}
+     * @param ttl the time to live in milliseconds, must be positive
+     * @param sync whether this write will be forced to disk
+     * @throws LevelDBException
+     */
+    public void put(@Nonnull byte[] key, byte[] value, long ttl, boolean sync) throws LevelDBException {
+        checkArgument(ttl > 0, "TTL must be positive");
+
+        final long now = clock.now();
+
+        put(key, value, ttl > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttl, now, sync);
+    }
+
+    /**
+     * Asynchronous {@link #put(byte[], byte[], long, boolean)}.
+     */
+    public void put(@Nonnull byte[] key, byte[] value, long ttl) throws LevelDBException {
+        put(key, value, ttl, false);
+    }
+
+    private void put(byte[] key, byte[] value, long expiry, long now, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        if (value == null) {
+            del(key, sync);
+
+            return;
+        }
+
+        final byte[] stored = new byte[HEADER_LENGTH + value.length];
+
+        KeyCodec.putUnsignedLong(stored, 0, expiry);
+        System.arraycopy(value, 0, stored, HEADER_LENGTH, value.length);
+
+        synchronized (writeLock) {
+            if (expiry == 0) {
+                data.put(key, stored, sync);
+            } else {
+                levelDB.write(new SimpleWriteBatch()
+                        .put(data.encodeKey(key), stored)
+                        .put(index.encodeKey(indexKey(expiry, key)), new byte[0]), sync);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the value of key, or null if there is none or it has expired.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @throws LevelDBException
+     */
+    @Nullable
+    public byte[] get(@Nonnull byte[] key) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        final byte[] stored = data.get(key);
+
+        if (stored == null || isExpired(stored, clock.now())) {
+            return null;
+        }
+
+        return Arrays.copyOfRange(stored, HEADER_LENGTH, stored.length);
+    }
+
+    /**
+     * Returns when the entry with key expires in milliseconds since the epoch, 0 if it never
+     * expires, or -1 if there is no such entry or it has expired.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @throws LevelDBException
+     */
+    public long getExpiry(@Nonnull byte[] key) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        final byte[] stored = data.get(key);
+
+        if (stored == null || isExpired(stored, clock.now())) {
+            return -1;
+        }
+
+        return KeyCodec.getUnsignedLong(stored, 0);
+    }
+
+    /**
+     * Deletes key, if it exists. Its index entry is left for the expirer to remove.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param sync whether this write will be forced to disk
+     * @throws LevelDBException
+     */
+    public void del(@Nonnull byte[] key, boolean sync) throws LevelDBException {
+        checkArgument(key != null, "Key can't be null");
+
+        synchronized (writeLock) {
+            data.del(key, sync);
+        }
+    }
+
+    /**
+     * Asynchronous {@link #del(byte[], boolean)}.
+     */
+    public void del(@Nonnull byte[] key) throws LevelDBException {
+        del(key, false);
+    }
+
+    /**
+     * Deletes entries that have expired, in write batches of at most batchSize entries.
+     * <p>
+     * Index entries left behind by overwrites and deletions are removed along the way. The lock
+     * that orders this with writes is only held while a batch is checked and written.
+     * @param batchSize the maximum number of index entries handled per batch
+     * @return the number of entries deleted
+     * @throws LevelDBException
+     */
+    public int expire(int batchSize) throws LevelDBException {
+        checkArgument(batchSize > 0, "Batch size must be positive");
+
+        final long now = clock.now();
+        final List<byte[]> expired = new ArrayList<byte[]>(Math.min(batchSize, DEFAULT_BATCH_SIZE));
+
+        int deleted = 0;
+
+        while (true) {
+            expired.clear();
+
+            final Iterator iterator = index.iterator(false, null);
+
+            try {
+                for (iterator.seekToFirst(); iterator.isValid() && expired.size() < batchSize; iterator.next()) {
+                    final byte[] indexKey = iterator.key();
+
+                    if (KeyCodec.getUnsignedLong(indexKey, 0) > now) {
+                        break;
+                    }
+
+                    expired.add(indexKey);
+                }
+            } finally {
+                iterator.close();
+            }
+
+            if (expired.isEmpty()) {
+                return deleted;
+            }
+
+            synchronized (writeLock) {
+                final SimpleWriteBatch batch = new SimpleWriteBatch();
+
+                for (byte[] indexKey : expired) {
+                    final byte[] key = Arrays.copyOfRange(indexKey, HEADER_LENGTH, indexKey.length);
+                    final byte[] stored = data.get(key);
+
+                    // A rewritten entry has a different expiry and its own index entry.
+                    if (stored != null && KeyCodec.getUnsignedLong(stored, 0) == KeyCodec.getUnsignedLong(indexKey, 0)) {
+                        batch.del(data.encodeKey(key));
+                        deleted++;
+                    }
+
+                    batch.del(index.encodeKey(indexKey));
+                }
+
+                levelDB.write(batch);
+            }
+
+            if (expired.size() < batchSize) {
+                return deleted;
+            }
+        }
+    }
+
+    /**
+     * Deletes expired entries on a background thread every period, in batches of
+     * {@value #DEFAULT_BATCH_SIZE}. Stopped by {@link #close()}.
+     * @throws IllegalStateException if the expirer was already started
+     */
+    public synchronized void startExpirer(long period, @Nonnull TimeUnit unit) {
+        checkArgument(period > 0, "Period must be positive");
+        checkArgument(unit != null, "Unit can't be null");
+
+        if (expirer != null) {
+            throw new IllegalStateException("Expirer already started.");
+        }
+
+        expirer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LevelDB-Expirer");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        expirer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    expire(DEFAULT_BATCH_SIZE);
+                } catch (LevelDBClosedException e) {
+                    stopExpirer();
+                } catch (Throwable e) {
+                    Log.e(TAG, "Failed to delete expired entries.", e);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops the background expirer, if it was started. A run in progress completes its current batch.
+     */
+    public synchronized void stopExpirer() {
+        if (expirer != null) {
+            expirer.shutdown();
+            expirer = null;
+        }
+    }
+
+    /**
+     * Stops the expirer and closes the underlying database.
+     */
+    @Override
+    public void close() {
+        stopExpirer();
+
+        levelDB.close();
+    }
+
+    private static boolean isExpired(byte[] stored, long now) {
+        final long expiry = KeyCodec.getUnsignedLong(stored, 0);
+
+        return expiry != 0 && expiry <= now;
+    }
+
+    private static byte[] indexKey(long expiry, byte[] key) {
+        final byte[] indexKey = new byte[HEADER_LENGTH + key.length];
+
+        KeyCodec.putUnsignedLong(indexKey, 0, expiry);
+        System.arraycopy(key, 0, indexKey, HEADER_LENGTH, key.length);
+
+        return indexKey;
+    }
+}
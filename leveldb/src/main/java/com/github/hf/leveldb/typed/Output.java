@@ -0,0 +1,253 @@
+package com.github.hf.leveldb.typed;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A growable buffer that {@link Serializer}s write into. {@link TypedLevelDB} keeps one per thread
+ * for keys and one for values, and passes their contents to the database as array ranges, so
+ * encoding a key or value does not allocate once the buffers have grown to fit.
+ */
+public final class Output {
+    private byte[] buffer;
+    private int length;
+
+    public Output() {
+        this(64);
+    }
+
+    public Output(int capacity) {
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Discards the contents, keeping the buffer.
+     * @return this output
+     */
+    public Output reset() {
+        length = 0;
+
+        return this;
+    }
+
+    /**
+     * The buffer holding the contents in its first {@link #length()} bytes. Replaced when it grows.
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Copies the contents into a new array.
+     */
+    public byte[] toBytes() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Makes room for extra more bytes, for serializers that fill {@link #array()} themselves.
+     * @return the offset to write at
+     * @see #advance(int)
+     */
+    public int ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+
+        return length;
+    }
+
+    /**
+     * Marks bytes written directly into {@link #array()} as part of the contents.
+     * @return this output
+     */
+    public Output advance(int count) {
+        if (count < 0 || length + count > buffer.length) {
+            throw new IllegalArgumentException("Can't advance by " + count + " bytes.");
+        }
+
+        length += count;
+
+        return this;
+    }
+
+    public Output writeByte(int value) {
+        ensure(1);
+        buffer[length++] = (byte) value;
+
+        return this;
+    }
+
+    /**
+     * Writes a big-endian int.
+     */
+    public Output writeInt(int value) {
+        ensure(4);
+
+        buffer[length++] = (byte) (value >>> 24);
+        buffer[length++] = (byte) (value >>> 16);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+
+        return this;
+    }
+
+    /**
+     * Writes a big-endian long.
+     */
+    public Output writeLong(long value) {
+        writeInt((int) (value >>> 32));
+
+        return writeInt((int) value);
+    }
+
+    /**
+     * Writes an unsigned varint, the way Protocol Buffers do: 7 bits per byte, least significant first.
+     */
+    public Output writeVarint(int value) {
+        ensure(5);
+
+        while ((value & ~0x7F) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        buffer[length++] = (byte) value;
+
+        return this;
+    }
+
+    /**
+     * Inserts an unsigned varint at offset, moving everything after it. Used to prefix data with
+     * its length once it has been written.
+     */
+    public Output insertVarint(int offset, int value) {
+        if (offset < 0 || offset > length) {
+            throw new IllegalArgumentException("Offset " + offset + " is out of bounds.");
+        }
+
+        final int size = varintSize(value);
+
+        ensure(size);
+        System.arraycopy(buffer, offset, buffer, offset + size, length - offset);
+
+        for (int i = offset; i < offset + size - 1; i++) {
+            buffer[i] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        buffer[offset + size - 1] = (byte) value;
+        length += size;
+
+        return this;
+    }
+
+    public Output writeBytes(byte[] bytes) {
+        return writeBytes(bytes, 0, bytes.length);
+    }
+
+    public Output writeBytes(byte[] bytes, int offset, int count) {
+        ensure(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+
+        return this;
+    }
+
+    /**
+     * Writes a string as UTF-8, without encoding it into a temporary array first. Unpaired
+     * surrogates are written as '?', like {@link String#getBytes(String)} does.
+     */
+    public Output writeUtf8(String value) {
+        final int count = value.length();
+
+        // Three bytes per char is enough, surrogate pairs take four bytes for two chars.
+        ensure(count * 3);
+
+        for (int i = 0; i < count; i++) {
+            final char c = value.charAt(i);
+
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+
+                buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xE0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Replaces the buffer with a small one if it has grown beyond max bytes, so that one large
+     * value does not stay referenced by a thread forever.
+     */
+    void trim(int max) {
+        if (buffer.length > max) {
+            buffer = new byte[64];
+        }
+
+        length = 0;
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+}
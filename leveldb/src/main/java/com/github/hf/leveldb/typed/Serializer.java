@@ -0,0 +1,61 @@
+package com.github.hf.leveldb.typed;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Converts keys or values of a {@link TypedLevelDB} to and from bytes. Serializers of keys
+ * decide the order of the keys in the database; see {@link com.github.hf.leveldb.util.KeyCodec}
+ * for encodings that sort like the values they encode.
+ * <p>
+ * Implementations must be thread-safe; the built-in ones are in {@link Serializers}.
+ * @param <T> the type of the keys or values
+ */
+public interface Serializer<T> {
+    /**
+     * Appends the encoding of value to out.
+     * @param value never null
+     */
+    void write(T value, Output out);
+
+    /**
+     * Decodes a value.
+     * @param data the array holding the encoding; it may be kept without copying only if the
+     *             encoding spans all of it, as it does for values read from the database
+     * @param offset where the encoding starts in data
+     * @param length the length of the encoding
+     * @throws IllegalArgumentException if the data can't be decoded
+     */
+    T read(byte[] data, int offset, int length);
+}
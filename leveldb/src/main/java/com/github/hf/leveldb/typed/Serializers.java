@@ -0,0 +1,213 @@
+package com.github.hf.leveldb.typed;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.util.KeyCodec;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Built-in {@link Serializer}s. Numbers are written with {@link KeyCodec}, so they sort by value
+ * when used as keys.
+ */
+public final class Serializers {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Serializers() {
+        // No instances.
+    }
+
+    /**
+     * Strings as UTF-8, written without an intermediate array. As keys they sort by code point.
+     */
+    public static final Serializer<String> STRING = new Serializer<String>() {
+        @Override
+        public void write(String value, Output out) {
+            out.writeUtf8(value);
+        }
+
+        @Override
+        public String read(byte[] data, int offset, int length) {
+            return new String(data, offset, length, UTF_8);
+        }
+    };
+
+    /**
+     * Byte arrays as they are. Reading a whole array returns it without copying.
+     */
+    public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
+        @Override
+        public void write(byte[] value, Output out) {
+            out.writeBytes(value);
+        }
+
+        @Override
+        public byte[] read(byte[] data, int offset, int length) {
+            if (offset == 0 && length == data.length) {
+                return data;
+            }
+
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+    };
+
+    public static final Serializer<Integer> INTEGER = new Serializer<Integer>() {
+        @Override
+        public void write(Integer value, Output out) {
+            KeyCodec.putInt(out.array(), out.ensure(KeyCodec.INT_LENGTH), value);
+            out.advance(KeyCodec.INT_LENGTH);
+        }
+
+        @Override
+        public Integer read(byte[] data, int offset, int length) {
+            checkLength(length, KeyCodec.INT_LENGTH);
+
+            return KeyCodec.getInt(data, offset);
+        }
+    };
+
+    public static final Serializer<Long> LONG = new Serializer<Long>() {
+        @Override
+        public void write(Long value, Output out) {
+            KeyCodec.putLong(out.array(), out.ensure(KeyCodec.LONG_LENGTH), value);
+            out.advance(KeyCodec.LONG_LENGTH);
+        }
+
+        @Override
+        public Long read(byte[] data, int offset, int length) {
+            checkLength(length, KeyCodec.LONG_LENGTH);
+
+            return KeyCodec.getLong(data, offset);
+        }
+    };
+
+    public static final Serializer<Float> FLOAT = new Serializer<Float>() {
+        @Override
+        public void write(Float value, Output out) {
+            KeyCodec.putFloat(out.array(), out.ensure(KeyCodec.INT_LENGTH), value);
+            out.advance(KeyCodec.INT_LENGTH);
+        }
+
+        @Override
+        public Float read(byte[] data, int offset, int length) {
+            checkLength(length, KeyCodec.INT_LENGTH);
+
+            return KeyCodec.getFloat(data, offset);
+        }
+    };
+
+    public static final Serializer<Double> DOUBLE = new Serializer<Double>() {
+        @Override
+        public void write(Double value, Output out) {
+            KeyCodec.putDouble(out.array(), out.ensure(KeyCodec.LONG_LENGTH), value);
+            out.advance(KeyCodec.LONG_LENGTH);
+        }
+
+        @Override
+        public Double read(byte[] data, int offset, int length) {
+            checkLength(length, KeyCodec.LONG_LENGTH);
+
+            return KeyCodec.getDouble(data, offset);
+        }
+    };
+
+    /**
+     * Lists written as consecutive length-prefixed elements, like repeated fields in Protocol
+     * Buffers: each element is preceded by its length as a varint. Useful for storing several
+     * blobs under one key.
+     * @param element the serializer of the elements
+     */
+    public static <T> Serializer<List<T>> list(final Serializer<T> element) {
+        if (element == null) {
+            throw new IllegalArgumentException("Element serializer must not be null.");
+        }
+
+        return new Serializer<List<T>>() {
+            @Override
+            public void write(List<T> value, Output out) {
+                for (int i = 0; i < value.size(); i++) {
+                    final int start = out.length();
+
+                    element.write(value.get(i), out);
+                    out.insertVarint(start, out.length() - start);
+                }
+            }
+
+            @Override
+            public List<T> read(byte[] data, int offset, int length) {
+                final List<T> list = new ArrayList<T>();
+                final int end = offset + length;
+
+                while (offset < end) {
+                    int size = 0;
+                    int shift = 0;
+
+                    while (true) {
+                        if (offset >= end || shift > 28) {
+                            throw new IllegalArgumentException("Malformed length prefix.");
+                        }
+
+                        final byte b = data[offset++];
+
+                        size |= (b & 0x7F) << shift;
+                        shift += 7;
+
+                        if (b >= 0) {
+                            break;
+                        }
+                    }
+
+                    if (size < 0 || size > end - offset) {
+                        throw new IllegalArgumentException("Element of " + size + " bytes overruns the list.");
+                    }
+
+                    list.add(element.read(data, offset, size));
+                    offset += size;
+                }
+
+                return list;
+            }
+        };
+    }
+
+    private static void checkLength(int length, int expected) {
+        if (length != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " bytes, got " + length + ".");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.hf.leveldb.typed;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBIteratorNotValidException;
+
+import java.io.Closeable;
+
+/**
+ * An {@link Iterator} over a {@link TypedLevelDB}, decoding keys and values as they are read.
+ * Like the iterator it wraps, it has to be closed.
+ */
+public class TypedIterator<K, V> implements Closeable {
+    private final TypedLevelDB<K, V> db;
+    private final Iterator iterator;
+
+    TypedIterator(TypedLevelDB<K, V> db, Iterator iterator) {
+        this.db = db;
+        this.iterator = iterator;
+    }
+
+    /**
+     * The raw iterator, for reading encoded keys and values.
+     */
+    public Iterator raw() {
+        return iterator;
+    }
+
+    public boolean isValid() throws LevelDBClosedException {
+        return iterator.isValid();
+    }
+
+    public void seekToFirst() throws LevelDBClosedException {
+        iterator.seekToFirst();
+    }
+
+    public void seekToLast() throws LevelDBClosedException {
+        iterator.seekToLast();
+    }
+
+    /**
+     * Moves to the first entry at or after key, in the order of the encoded keys.
+     */
+    public void seek(K key) throws LevelDBClosedException {
+        if (key == null) {
+            throw new IllegalArgumentException("Seek key must never be null!");
+        }
+
+        iterator.seek(db.encodeKey(key));
+    }
+
+    public void next() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        iterator.next();
+    }
+
+    public void previous() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        iterator.previous();
+    }
+
+    public K key() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        final byte[] key = iterator.key();
+
+        return db.keySerializer().read(key, 0, key.length);
+    }
+
+    public V value() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        final byte[] value = iterator.value();
+
+        return db.valueSerializer().read(value, 0, value.length);
+    }
+
+    public boolean isClosed() {
+        return iterator.isClosed();
+    }
+
+    @Override
+    public void close() {
+        iterator.close();
+    }
+}
@@ -0,0 +1,304 @@
+package com.github.hf.leveldb.typed;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBSnapshotOwnershipException;
+import com.github.hf.leveldb.util.SimpleWriteBatch;
+
+import java.io.Closeable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A {@link LevelDB} with typed keys and values, converted with {@link Serializer}s.
+ * <p>
+ * Keys and values are encoded into per-thread {@link Output} buffers that are reused across
+ * calls and handed to the database as array ranges, see
+ * {@link LevelDB#put(byte[], int, int, byte[], int, int, boolean)}. Typed writes and lookups
+ * therefore allocate no more than their raw <tt>byte[]</tt> counterparts, apart from boxing.
+ * <pre>
+ * TypedLevelDB&lt;Long, String&gt; names = new TypedLevelDB&lt;Long, String&gt;(db, Serializers.LONG, Serializers.STRING);
+ *
+ * names.put(42L, "Douglas");
+ * </pre>
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class TypedLevelDB<K, V> implements Closeable {
+    /**
+     * Buffers that grew larger than this are dropped after use.
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<Output> KEYS = new ThreadLocal<Output>() {
+        @Override
+        protected Output initialValue() {
+            return new Output();
+        }
+    };
+
+    private static final ThreadLocal<Output> VALUES = new ThreadLocal<Output>() {
+        @Override
+        protected Output initialValue() {
+            return new Output(256);
+        }
+    };
+
+    private final LevelDB levelDB;
+    private final Serializer<K> keys;
+    private final Serializer<V> values;
+
+    /**
+     * @param levelDB the database to store the entries in
+     * @param keys the serializer of the keys, which decides their order
+     * @param values the serializer of the values
+     */
+    public TypedLevelDB(@Nonnull LevelDB levelDB, @Nonnull Serializer<K> keys, @Nonnull Serializer<V> values) {
+        checkArgument(levelDB != null, "LevelDB can't be null");
+        checkArgument(keys != null, "Key serializer can't be null");
+        checkArgument(values != null, "Value serializer can't be null");
+
+        this.levelDB = levelDB;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * The underlying database.
+     */
+    public LevelDB levelDB() {
+        return levelDB;
+    }
+
+    public Serializer<K> keySerializer() {
+        return keys;
+    }
+
+    public Serializer<V> valueSerializer() {
+        return values;
+    }
+
+    /**
+     * Writes the key-value pair.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param value if null same as {@link #del(Object, boolean)}
+     * @param sync whether this write will be forced to disk
+     * @throws LevelDBException
+     */
+    public void put(@Nonnull K key, V value, boolean sync) throws LevelDBException {
+        if (value == null) {
+            del(key, sync);
+
+            return;
+        }
+
+        final Output keyBuffer = keyOutput(key);
+        final Output valueBuffer = VALUES.get().reset();
+
+        try {
+            values.write(value, valueBuffer);
+
+            levelDB.put(keyBuffer.array(), 0, keyBuffer.length(), valueBuffer.array(), 0, valueBuffer.length(), sync);
+        } finally {
+            keyBuffer.trim(MAX_RETAINED_BUFFER);
+            valueBuffer.trim(MAX_RETAINED_BUFFER);
+        }
+    }
+
+    /**
+     * Asynchronous {@link #put(Object, Object, boolean)}.
+     */
+    public void put(@Nonnull K key, V value) throws LevelDBException {
+        put(key, value, false);
+    }
+
+    /**
+     * Retrieves the value of key, possibly from a snapshot state.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param snapshot the snapshot from which to read the entry, may be null
+     * @return the value, or null
+     * @throws LevelDBException
+     */
+    @Nullable
+    public V get(@Nonnull K key, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBException {
+        final Output keyBuffer = keyOutput(key);
+        final byte[] value;
+
+        try {
+            value = levelDB.get(keyBuffer.array(), 0, keyBuffer.length(), snapshot);
+        } finally {
+            keyBuffer.trim(MAX_RETAINED_BUFFER);
+        }
+
+        if (value == null) {
+            return null;
+        }
+
+        return values.read(value, 0, value.length);
+    }
+
+    /**
+     * Retrieves the value of key with an implicit snapshot.
+     * @see #get(Object, Snapshot)
+     */
+    @Nullable
+    public V get(@Nonnull K key) throws LevelDBException {
+        return get(key, null);
+    }
+
+    /**
+     * Deletes key, if it exists.
+     * @param key non-null, if null throws {@link java.lang.IllegalArgumentException}
+     * @param sync whether this write will be forced to disk
+     * @throws LevelDBException
+     */
+    public void del(@Nonnull K key, boolean sync) throws LevelDBException {
+        final Output keyBuffer = keyOutput(key);
+
+        try {
+            levelDB.del(keyBuffer.array(), 0, keyBuffer.length(), sync);
+        } finally {
+            keyBuffer.trim(MAX_RETAINED_BUFFER);
+        }
+    }
+
+    /**
+     * Asynchronous {@link #del(Object, boolean)}.
+     */
+    public void del(@Nonnull K key) throws LevelDBException {
+        del(key, false);
+    }
+
+    /**
+     * Creates a new batch of typed writes, to be applied atomically with {@link Batch#write(boolean)}.
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * Iterates over the entries with an implicit snapshot, filling the cache.
+     * @see LevelDB#iterator()
+     */
+    public TypedIterator<K, V> iterator() throws LevelDBClosedException {
+        return iterator(true, null);
+    }
+
+    /**
+     * Iterates over the entries, possibly from a snapshot state.
+     * @see LevelDB#iterator(boolean, Snapshot)
+     */
+    public TypedIterator<K, V> iterator(boolean fillCache, Snapshot snapshot) throws LevelDBSnapshotOwnershipException, LevelDBClosedException {
+        return new TypedIterator<K, V>(this, levelDB.iterator(fillCache, snapshot));
+    }
+
+    /**
+     * Encodes key into an exactly sized new array, for APIs that keep it.
+     */
+    public byte[] encodeKey(@Nonnull K key) {
+        final Output output = keyOutput(key);
+
+        try {
+            return output.toBytes();
+        } finally {
+            output.trim(MAX_RETAINED_BUFFER);
+        }
+    }
+
+    /**
+     * Closes the underlying database.
+     */
+    @Override
+    public void close() {
+        levelDB.close();
+    }
+
+    private Output keyOutput(K key) {
+        checkArgument(key != null, "Key can't be null");
+
+        final Output output = KEYS.get().reset();
+
+        keys.write(key, output);
+
+        return output;
+    }
+
+    /**
+     * A batch of typed writes. Unlike single writes, entries are copied into exactly sized
+     * arrays, since the batch keeps them until it is written. Not thread-safe.
+     */
+    public final class Batch {
+        private final SimpleWriteBatch batch = new SimpleWriteBatch();
+        private final Output output = new Output();
+
+        private Batch() {
+        }
+
+        public Batch put(@Nonnull K key, V value) {
+            if (value == null) {
+                return del(key);
+            }
+
+            final byte[] encodedKey = encodeKey(key);
+
+            values.write(value, output.reset());
+            batch.put(encodedKey, output.toBytes());
+
+            return this;
+        }
+
+        public Batch del(@Nonnull K key) {
+            batch.del(encodeKey(key));
+
+            return this;
+        }
+
+        public void write(boolean sync) throws LevelDBException {
+            levelDB.write(batch, sync);
+        }
+
+        public void write() throws LevelDBException {
+            write(false);
+        }
+    }
+}
@@ -33,12 +33,18 @@ package com.github.hf.leveldb.util;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+import com.google.common.primitives.UnsignedBytes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Comparator;
 
 /**
  * Utility functions for working with byte arrays.
  */
 public final class Bytes {
+    private static final Comparator<byte[]> BYTEWISE = UnsignedBytes.lexicographicalComparator();
+
     private Bytes() {
         // No instances.
     }
@@ -56,8 +62,11 @@ public final class Bytes {
     };
 
     /**
-     * Lexicographically compares two byte arrays, the way the default comparator in a
-     * {@link com.github.hf.leveldb.implementation.NativeLevelDB} instance works.
+     * Lexicographically compares two byte arrays as unsigned bytes, the way the default comparator
+     * in a {@link com.github.hf.leveldb.implementation.NativeLevelDB} instance works. An array
+     * sorts before every longer array it is a prefix of, so <tt>{1}</tt> is less than <tt>{1, 0}</tt>.
+     * <p>
+     * Compares 8 bytes at a time where the platform allows it.
      *
      * @param a nullable byte array
      * @param b nullable byte array
@@ -76,34 +85,72 @@ public final class Bytes {
             return 1;
         }
 
-        final int maxlength = Math.min(a.length, b.length);
+        return BYTEWISE.compare(a, b);
+    }
 
-        for (int i = 0; i < maxlength; i++) {
-            if ((a[i] & 0xFF) == (b[i] & 0xFF)) {
-                continue;
-            }
+    /**
+     * Lexicographically compares ranges of two byte arrays, like {@link #lexicographicCompare(byte[], byte[])}.
+     * Ranges of 8 bytes or more are compared 8 bytes at a time, through big-endian buffers
+     * wrapping the arrays.
+     *
+     * @return greater than 0 if a > b, less than 0 if a < b, or 0 if a = b
+     */
+    public static int lexicographicCompare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        final int length = Math.min(aLength, bLength);
 
-            if ((a[i] & 0xFF) > (b[i] & 0xFF)) {
-                return (i + 1);
-            }
+        if (length >= 8) {
+            return lexicographicCompare(ByteBuffer.wrap(a), aOffset, aLength, ByteBuffer.wrap(b), bOffset, bLength);
+        }
+
+        for (int i = 0; i < length; i++) {
+            final int diff = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
 
-            return -(i + 1);
+            if (diff != 0) {
+                return diff;
+            }
         }
 
-        if (a.length > maxlength) {
-            for (int i = b.length; i < a.length; i++) {
-                if (a[i] != 0) {
-                    return i + 1;
+        return aLength - bLength;
+    }
+
+    /**
+     * Lexicographically compares ranges of two buffers, like {@link #lexicographicCompare(byte[], byte[])},
+     * without moving their positions. Big-endian buffers are compared 8 bytes at a time, which
+     * makes this the fastest way to compare keys held in direct or memory-mapped buffers.
+     *
+     * @param a the first buffer
+     * @param aOffset absolute offset of the range in a
+     * @param aLength the length of the range in a
+     * @param b the second buffer
+     * @param bOffset absolute offset of the range in b
+     * @param bLength the length of the range in b
+     * @return greater than 0 if a > b, less than 0 if a < b, or 0 if a = b
+     */
+    public static int lexicographicCompare(ByteBuffer a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+        final int length = Math.min(aLength, bLength);
+
+        int i = 0;
+
+        if (a.order() == ByteOrder.BIG_ENDIAN && b.order() == ByteOrder.BIG_ENDIAN) {
+            for (; i + 8 <= length; i += 8) {
+                final long x = a.getLong(aOffset + i);
+                final long y = b.getLong(bOffset + i);
+
+                if (x != y) {
+                    // Big-endian, so this is the unsigned order of the first differing byte.
+                    return (x + Long.MIN_VALUE) < (y + Long.MIN_VALUE) ? -1 : 1;
                 }
             }
         }
 
-        for (int i = a.length; i < b.length; i++) {
-            if (b[i] != 0) {
-                return -(i + 1);
+        for (; i < length; i++) {
+            final int diff = (a.get(aOffset + i) & 0xFF) - (b.get(bOffset + i) & 0xFF);
+
+            if (diff != 0) {
+                return diff;
             }
         }
 
-        return 0;
+        return aLength - bLength;
     }
 }
@@ -0,0 +1,440 @@
+package com.github.hf.leveldb.util;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.exception.LevelDBCorruptionException;
+import com.github.hf.leveldb.exception.LevelDBException;
+import com.github.hf.leveldb.exception.LevelDBIOException;
+import com.github.hf.leveldb.typed.Output;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Writes the entries of a {@link LevelDB} to a stream and reads them back, for seeding and
+ * migrating databases much faster than with individual puts.
+ * <p>
+ * A dump starts with the magic bytes <tt>LDBD</tt>, a version byte and a flags byte, whose lowest
+ * bit says whether the rest is compressed with deflate. Then come frames of about
+ * {@link #FRAME_SIZE} bytes: the number of entries as a varint, the length of the payload as a
+ * varint, the big-endian CRC-32 of the payload, and the payload, each entry's key and value
+ * prefixed with their varint lengths. A frame of zero entries ends the dump, so a truncated dump
+ * is detected rather than silently imported in part.
+ *
+ * @see LevelDB#exportTo(OutputStream, byte[], byte[], boolean, Progress)
+ * @see LevelDB#importFrom(InputStream, boolean, Progress)
+ */
+public final class Dump {
+    private static final byte[] MAGIC = new byte[]{'L', 'D', 'B', 'D'};
+    private static final int VERSION = 1;
+    private static final int FLAG_COMPRESSED = 1;
+
+    /**
+     * The payload size after which a frame is closed.
+     */
+    public static final int FRAME_SIZE = 64 * 1024;
+
+    /**
+     * The key and value bytes an import puts in one write batch.
+     */
+    public static final int IMPORT_BATCH_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Receives the progress of an export or import, after every frame.
+     */
+    public interface Progress {
+        /**
+         * @param entries the entries transferred so far
+         * @param bytes the key and value bytes transferred so far
+         * @param elapsedNanos the time since the transfer started
+         */
+        void onProgress(long entries, long bytes, long elapsedNanos);
+    }
+
+    private Dump() {
+        // No instances.
+    }
+
+    /**
+     * Writes the entries in <tt>[from, to)</tt> to out, which is flushed but not closed. The
+     * entries are read by one iterator, so they are a consistent snapshot, without filling the cache.
+     * @param levelDB the database
+     * @param out the stream to write to
+     * @param from the first key to export, inclusive, null for the first key
+     * @param to the key to stop at, exclusive, null for no limit
+     * @param compress whether to deflate the frames
+     * @param progress receives the progress, may be null
+     * @return the number of entries written
+     * @throws LevelDBException
+     */
+    public static long exportTo(LevelDB levelDB, OutputStream out, byte[] from, byte[] to, boolean compress, Progress progress) throws LevelDBException {
+        if (out == null) {
+            throw new IllegalArgumentException("Output stream must not be null.");
+        }
+
+        final long started = System.nanoTime();
+        final Iterator iterator = levelDB.iterator(false, null);
+        final Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+
+        long entries = 0;
+        long bytes = 0;
+
+        try {
+            out.write(MAGIC);
+            out.write(VERSION);
+            out.write(compress ? FLAG_COMPRESSED : 0);
+
+            final DeflaterOutputStream deflated = compress ? new DeflaterOutputStream(out, deflater, FRAME_SIZE) : null;
+            final OutputStream frames = compress ? deflated : out;
+
+            final Output payload = new Output(FRAME_SIZE + 1024);
+            final Output header = new Output(16);
+            final CRC32 crc = new CRC32();
+
+            int count = 0;
+
+            if (from == null) {
+                iterator.seekToFirst();
+            } else {
+                iterator.seek(from);
+            }
+
+            for (; iterator.isValid(); iterator.next()) {
+                final Iterator.Entry entry = iterator.entry();
+
+                if (to != null && Bytes.lexicographicCompare(entry.keyArray(), 0, entry.keyLength(), to, 0, to.length) >= 0) {
+                    break;
+                }
+
+                payload.writeVarint(entry.keyLength());
+                payload.writeBytes(entry.keyArray(), 0, entry.keyLength());
+                payload.writeVarint(entry.valueLength());
+                payload.writeBytes(entry.valueArray(), 0, entry.valueLength());
+
+                count++;
+                bytes += entry.keyLength() + entry.valueLength();
+
+                if (payload.length() >= FRAME_SIZE) {
+                    writeFrame(frames, header, payload, crc, count);
+
+                    entries += count;
+                    count = 0;
+
+                    if (progress != null) {
+                        progress.onProgress(entries, bytes, System.nanoTime() - started);
+                    }
+                }
+            }
+
+            if (count > 0) {
+                writeFrame(frames, header, payload, crc, count);
+                entries += count;
+            }
+
+            // The end frame.
+            frames.write(0);
+
+            if (deflated != null) {
+                deflated.finish();
+            }
+
+            out.flush();
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to write the dump.", e);
+        } finally {
+            iterator.close();
+
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        if (progress != null) {
+            progress.onProgress(entries, bytes, System.nanoTime() - started);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Reads a dump from in, which is not closed, and writes its entries in batches of about
+     * {@link #IMPORT_BATCH_SIZE} bytes. Only one batch is held in memory at a time, and a frame's
+     * buffer only grows as its bytes arrive, so a corrupted frame length can't allocate more than
+     * the dump holds. Entries already in the database are overwritten.
+     * <p>
+     * An uncompressed dump is read up to its end frame and no further, so the stream can go on
+     * with other data. A compressed dump is inflated from chunks of the stream, which may read up
+     * to {@link #FRAME_SIZE} bytes past its end.
+     * <p>
+     * Batches are written without syncing; if sync is true, the last one is, which forces all
+     * of them to disk at once. A dump that turns out to be corrupted or truncated fails the
+     * import, with the batches before the bad frame already written.
+     * @param levelDB the database
+     * @param in the stream to read from
+     * @param sync whether the import is forced to disk when it's done
+     * @param progress receives the progress, may be null
+     * @return the number of entries imported
+     * @throws LevelDBCorruptionException if the dump is malformed
+     * @throws LevelDBException
+     */
+    public static long importFrom(LevelDB levelDB, InputStream in, boolean sync, Progress progress) throws LevelDBException {
+        if (in == null) {
+            throw new IllegalArgumentException("Input stream must not be null.");
+        }
+
+        final long started = System.nanoTime();
+        final Inflater inflater = new Inflater();
+
+        long entries = 0;
+        long bytes = 0;
+
+        try {
+            final byte[] header = new byte[MAGIC.length + 2];
+
+            readFully(in, header, 0, header.length);
+
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (header[i] != MAGIC[i]) {
+                    throw new LevelDBCorruptionException("Not a dump.");
+                }
+            }
+
+            if (header[MAGIC.length] != VERSION) {
+                throw new LevelDBCorruptionException("Unsupported dump version " + header[MAGIC.length] + ".");
+            }
+
+            final boolean compressed = (header[MAGIC.length + 1] & FLAG_COMPRESSED) != 0;
+            // Only inflated data is buffered, which ends with the dump. Uncompressed frames are
+            // read in bulk, leaving only their few header bytes to be read one by one.
+            final InputStream frames = compressed
+                    ? new BufferedInputStream(new InflaterInputStream(in, inflater, FRAME_SIZE), FRAME_SIZE)
+                    : in;
+
+            final CRC32 crc = new CRC32();
+
+            byte[] payload = new byte[FRAME_SIZE + 1024];
+
+            SimpleWriteBatch batch = new SimpleWriteBatch();
+            long batched = 0;
+
+            while (true) {
+                final int count = readVarint(frames);
+
+                if (count == 0) {
+                    break;
+                }
+
+                final int length = readVarint(frames);
+                final int checksum = readInt(frames);
+
+                payload = readPayload(frames, payload, length);
+
+                crc.reset();
+                crc.update(payload, 0, length);
+
+                if ((int) crc.getValue() != checksum) {
+                    throw new LevelDBCorruptionException("Dump frame checksum mismatch.");
+                }
+
+                final int[] position = new int[1];
+
+                for (int i = 0; i < count; i++) {
+                    final byte[] key = readBytes(payload, length, position);
+                    final byte[] value = readBytes(payload, length, position);
+
+                    batch.put(key, value);
+                    batched += key.length + value.length;
+                }
+
+                if (position[0] != length) {
+                    throw new LevelDBCorruptionException("Dump frame has trailing bytes.");
+                }
+
+                entries += count;
+
+                if (batched >= IMPORT_BATCH_SIZE) {
+                    levelDB.write(batch, false);
+                    bytes += batched;
+
+                    batch = new SimpleWriteBatch();
+                    batched = 0;
+                }
+
+                if (progress != null) {
+                    progress.onProgress(entries, bytes + batched, System.nanoTime() - started);
+                }
+            }
+
+            // Also when empty, a synced write forces the unsynced batches to disk.
+            if (batched > 0 || sync) {
+                levelDB.write(batch, sync);
+                bytes += batched;
+            }
+        } catch (EOFException e) {
+            throw new LevelDBCorruptionException("Dump is truncated.", e);
+        } catch (IOException e) {
+            throw new LevelDBIOException("Unable to read the dump.", e);
+        } finally {
+            inflater.end();
+        }
+
+        if (progress != null) {
+            progress.onProgress(entries, bytes, System.nanoTime() - started);
+        }
+
+        return entries;
+    }
+
+    private static void writeFrame(OutputStream out, Output header, Output payload, CRC32 crc, int count) throws IOException {
+        crc.reset();
+        crc.update(payload.array(), 0, payload.length());
+
+        header.reset()
+                .writeVarint(count)
+                .writeVarint(payload.length())
+                .writeInt((int) crc.getValue());
+
+        out.write(header.array(), 0, header.length());
+        out.write(payload.array(), 0, payload.length());
+
+        payload.reset();
+    }
+
+    private static int readVarint(InputStream in) throws IOException, LevelDBCorruptionException {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            final int b = in.read();
+
+            if (b < 0) {
+                throw new EOFException();
+            }
+
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+
+                return value;
+            }
+        }
+
+        throw new LevelDBCorruptionException("Malformed varint in dump.");
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        final byte[] bytes = new byte[4];
+
+        readFully(in, bytes, 0, 4);
+
+        return KeyCodec.getUnsignedInt(bytes, 0);
+    }
+
+    private static void readFully(InputStream in, byte[] dst, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int count = in.read(dst, offset, length);
+
+            if (count < 0) {
+                throw new EOFException();
+            }
+
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Reads length bytes into buffer, growing it as they are read rather than trusting length.
+     * @return buffer, or the larger buffer the bytes were read into
+     */
+    private static byte[] readPayload(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+
+        while (read < length) {
+            if (read == buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) Math.min(length, 2L * buffer.length));
+            }
+
+            final int chunk = Math.min(length, buffer.length) - read;
+
+            readFully(in, buffer, read, chunk);
+            read += chunk;
+        }
+
+        return buffer;
+    }
+
+    private static byte[] readBytes(byte[] src, int limit, int[] position) throws LevelDBCorruptionException {
+        int offset = position[0];
+        int length = 0;
+
+        for (int shift = 0; ; shift += 7) {
+            if (offset >= limit || shift > 28) {
+                throw new LevelDBCorruptionException("Malformed dump frame.");
+            }
+
+            final int b = src[offset++];
+            length |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+
+        if (length < 0 || length > limit - offset) {
+            throw new LevelDBCorruptionException("Malformed dump frame.");
+        }
+
+        final byte[] bytes = new byte[length];
+        System.arraycopy(src, offset, bytes, 0, length);
+
+        position[0] = offset + length;
+
+        return bytes;
+    }
+}
@@ -0,0 +1,386 @@
+package com.github.hf.leveldb.util;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.UUID;
+
+/**
+ * Order-preserving encodings of values into keys: the encoded bytes compare with
+ * {@link Bytes#lexicographicCompare(byte[], byte[])}, the order LevelDB sorts keys in, the same
+ * way the values compare. Keys built from them support range and prefix scans on typed fields.
+ * <p>
+ * All methods write into, or read from, a caller-supplied array at an offset, and never allocate.
+ * See {@link Tuple} for a convenient way to build and read keys of several fields.
+ * <ul>
+ *     <li>Signed numbers are written big-endian with the sign bit flipped, unsigned numbers
+ *     big-endian as they are. Ints take 4 bytes, longs 8.</li>
+ *     <li>Floats and doubles take 4 and 8 bytes, ordered by value with negative zero before zero
+ *     and NaN after positive infinity.</li>
+ *     <li>UUIDs take 16 bytes, ordered as unsigned 128-bit numbers, like their string form.</li>
+ *     <li>Byte strings are written with every 0x00 escaped as 0x00 0xFF and end with 0x00 0x01,
+ *     so a string sorts before any longer string it is a prefix of. Strings are encoded to UTF-8
+ *     first, which orders them by code point.</li>
+ * </ul>
+ */
+public final class KeyCodec {
+    public static final int INT_LENGTH = 4;
+    public static final int LONG_LENGTH = 8;
+    public static final int UUID_LENGTH = 16;
+
+    private static final byte ESCAPE = 0x00;
+    private static final byte ESCAPED_ZERO = (byte) 0xFF;
+    private static final byte TERMINATOR = 0x01;
+
+    private KeyCodec() {
+        // No instances.
+    }
+
+    /**
+     * @return the offset after the written value
+     */
+    public static int putInt(byte[] dst, int offset, int value) {
+        return putUnsignedInt(dst, offset, value ^ Integer.MIN_VALUE);
+    }
+
+    /**
+     * @return the offset after the written value
+     */
+    public static int putUnsignedInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >>> 24);
+        dst[offset + 1] = (byte) (value >>> 16);
+        dst[offset + 2] = (byte) (value >>> 8);
+        dst[offset + 3] = (byte) value;
+
+        return offset + INT_LENGTH;
+    }
+
+    /**
+     * @return the offset after the written value
+     */
+    public static int putLong(byte[] dst, int offset, long value) {
+        return putUnsignedLong(dst, offset, value ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * @return the offset after the written value
+     */
+    public static int putUnsignedLong(byte[] dst, int offset, long value) {
+        putUnsignedInt(dst, offset, (int) (value >>> 32));
+        putUnsignedInt(dst, offset + INT_LENGTH, (int) value);
+
+        return offset + LONG_LENGTH;
+    }
+
+    /**
+     * @return the offset after the written value
+     */
+    public static int putFloat(byte[] dst, int offset, float value) {
+        final int bits = Float.floatToIntBits(value);
+
+        // Negative numbers get all bits flipped, so that larger magnitudes sort first.
+        return putUnsignedInt(dst, offset, bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE);
+    }
+
+    /**
+     * @return the offset after the written value
+     */
+    public static int putDouble(byte[] dst, int offset, double value) {
+        final long bits = Double.doubleToLongBits(value);
+
+        return putUnsignedLong(dst, offset, bits < 0 ? ~bits : bits ^ Long.MIN_VALUE);
+    }
+
+    /**
+     * @return the offset after the written value
+     */
+    public static int putUUID(byte[] dst, int offset, UUID value) {
+        putUnsignedLong(dst, offset, value.getMostSignificantBits());
+        putUnsignedLong(dst, offset + LONG_LENGTH, value.getLeastSignificantBits());
+
+        return offset + UUID_LENGTH;
+    }
+
+    public static int getInt(byte[] src, int offset) {
+        return getUnsignedInt(src, offset) ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return the unsigned value, in the bits of an int
+     */
+    public static int getUnsignedInt(byte[] src, int offset) {
+        return ((src[offset] & 0xFF) << 24)
+                | ((src[offset + 1] & 0xFF) << 16)
+                | ((src[offset + 2] & 0xFF) << 8)
+                | (src[offset + 3] & 0xFF);
+    }
+
+    public static long getLong(byte[] src, int offset) {
+        return getUnsignedLong(src, offset) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the unsigned value, in the bits of a long
+     */
+    public static long getUnsignedLong(byte[] src, int offset) {
+        return ((long) getUnsignedInt(src, offset) << 32) | (getUnsignedInt(src, offset + INT_LENGTH) & 0xFFFFFFFFL);
+    }
+
+    public static float getFloat(byte[] src, int offset) {
+        final int bits = getUnsignedInt(src, offset);
+
+        return Float.intBitsToFloat(bits < 0 ? bits ^ Integer.MIN_VALUE : ~bits);
+    }
+
+    public static double getDouble(byte[] src, int offset) {
+        final long bits = getUnsignedLong(src, offset);
+
+        return Double.longBitsToDouble(bits < 0 ? bits ^ Long.MIN_VALUE : ~bits);
+    }
+
+    /**
+     * Decodes a UUID. The only method here that allocates, for the {@link UUID}.
+     */
+    public static UUID getUUID(byte[] src, int offset) {
+        return new UUID(getUnsignedLong(src, offset), getUnsignedLong(src, offset + LONG_LENGTH));
+    }
+
+    /**
+     * @return the number of bytes {@link #putBytes(byte[], int, byte[], int, int)} writes for these bytes
+     */
+    public static int bytesLength(byte[] value, int offset, int length) {
+        int encoded = length + 2;
+
+        for (int i = offset; i < offset + length; i++) {
+            if (value[i] == 0) {
+                encoded++;
+            }
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Writes an escaped and terminated byte string. The destination must have room for
+     * {@link #bytesLength(byte[], int, int)} bytes.
+     * @return the offset after the written value
+     */
+    public static int putBytes(byte[] dst, int offset, byte[] value, int valueOffset, int valueLength) {
+        for (int i = valueOffset; i < valueOffset + valueLength; i++) {
+            dst[offset++] = value[i];
+
+            if (value[i] == ESCAPE) {
+                dst[offset++] = ESCAPED_ZERO;
+            }
+        }
+
+        dst[offset] = ESCAPE;
+        dst[offset + 1] = TERMINATOR;
+
+        return offset + 2;
+    }
+
+    /**
+     * @return the number of bytes {@link #putString(byte[], int, String)} writes for this string
+     */
+    public static int stringLength(String value) {
+        int encoded = 2;
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == 0) {
+                encoded += 2;
+            } else if (c < 0x80) {
+                encoded += 1;
+            } else if (c < 0x800) {
+                encoded += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                encoded += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                encoded += 1;
+            } else {
+                encoded += 3;
+            }
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Writes a string as an escaped and terminated UTF-8 byte string, without encoding it into a
+     * temporary array first. Unpaired surrogates are written as '?', like {@link String#getBytes(String)}
+     * does. The destination must have room for {@link #stringLength(String)} bytes.
+     * @return the offset after the written value
+     */
+    public static int putString(byte[] dst, int offset, String value) {
+        final int length = value.length();
+
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+
+            if (c == 0) {
+                dst[offset++] = ESCAPE;
+                dst[offset++] = ESCAPED_ZERO;
+            } else if (c < 0x80) {
+                dst[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[offset++] = (byte) (0xC0 | (c >> 6));
+                dst[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+
+                dst[offset++] = (byte) (0xF0 | (codePoint >> 18));
+                dst[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                dst[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                dst[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dst[offset++] = '?';
+            } else {
+                dst[offset++] = (byte) (0xE0 | (c >> 12));
+                dst[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[offset++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        dst[offset] = ESCAPE;
+        dst[offset + 1] = TERMINATOR;
+
+        return offset + 2;
+    }
+
+    /**
+     * Finds the end of the byte string or string starting at offset.
+     * @return the offset after its terminator
+     * @throws IllegalArgumentException if it is not terminated before limit
+     */
+    public static int skipBytes(byte[] src, int offset, int limit) {
+        while (offset + 1 < limit) {
+            if (src[offset] != ESCAPE) {
+                offset++;
+            } else if (src[offset + 1] == TERMINATOR) {
+                return offset + 2;
+            } else if (src[offset + 1] == ESCAPED_ZERO) {
+                offset += 2;
+            } else {
+                throw new IllegalArgumentException("Malformed byte string at " + offset + ".");
+            }
+        }
+
+        throw new IllegalArgumentException("Unterminated byte string.");
+    }
+
+    /**
+     * Counts the bytes of the byte string starting at offset, once unescaped.
+     * @throws IllegalArgumentException if it is not terminated before limit
+     */
+    public static int unescapedLength(byte[] src, int offset, int limit) {
+        final int end = skipBytes(src, offset, limit);
+
+        int length = 0;
+
+        for (int i = offset; i < end - 2; i++) {
+            if (src[i] == ESCAPE) {
+                i++;
+            }
+
+            length++;
+        }
+
+        return length;
+    }
+
+    /**
+     * Unescapes the byte string starting at offset into dst, which must have room for
+     * {@link #unescapedLength(byte[], int, int)} bytes.
+     * @return the offset after the byte string's terminator
+     * @throws IllegalArgumentException if it is not terminated before limit
+     */
+    public static int getBytes(byte[] src, int offset, int limit, byte[] dst, int dstOffset) {
+        final int end = skipBytes(src, offset, limit);
+
+        for (int i = offset; i < end - 2; i++) {
+            dst[dstOffset++] = src[i];
+
+            if (src[i] == ESCAPE) {
+                i++;
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Decodes the UTF-8 string starting at offset into chars, which must have room for as many
+     * chars as the string has bytes.
+     * @return the number of chars decoded
+     * @throws IllegalArgumentException if the string is malformed or not terminated before limit
+     */
+    public static int getChars(byte[] src, int offset, int limit, char[] chars) {
+        final int end = skipBytes(src, offset, limit) - 2;
+
+        int count = 0;
+
+        for (int i = offset; i < end; ) {
+            final int b = src[i] & 0xFF;
+
+            if (b == 0) {
+                chars[count++] = 0;
+                i += 2;
+            } else if (b < 0x80) {
+                chars[count++] = (char) b;
+                i += 1;
+            } else if (b < 0xC0) {
+                throw new IllegalArgumentException("Malformed UTF-8 string at " + i + ".");
+            } else if (b < 0xE0 && i + 1 < end) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (src[i + 1] & 0x3F));
+                i += 2;
+            } else if (b < 0xF0 && i + 2 < end) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((src[i + 1] & 0x3F) << 6) | (src[i + 2] & 0x3F));
+                i += 3;
+            } else if (i + 3 < end) {
+                final int codePoint = ((b & 0x07) << 18) | ((src[i + 1] & 0x3F) << 12) | ((src[i + 2] & 0x3F) << 6) | (src[i + 3] & 0x3F);
+
+                chars[count++] = Character.highSurrogate(codePoint);
+                chars[count++] = Character.lowSurrogate(codePoint);
+                i += 4;
+            } else {
+                throw new IllegalArgumentException("Malformed UTF-8 string at " + i + ".");
+            }
+        }
+
+        return count;
+    }
+}
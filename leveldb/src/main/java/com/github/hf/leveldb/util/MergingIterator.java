@@ -0,0 +1,386 @@
+package com.github.hf.leveldb.util;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.exception.LevelDBClosedException;
+import com.github.hf.leveldb.exception.LevelDBIteratorNotValidException;
+
+import javax.annotation.Nonnull;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Merges any number of {@link Iterator}s, over different databases, snapshots or namespaces, into
+ * one over all their keys in {@link Bytes#lexicographicCompare(byte[], byte[])} order, without
+ * reading them into memory.
+ * <p>
+ * The sources are kept in a binary heap by their current key, so each step costs
+ * <tt>O(log n)</tt> key comparisons. Where sources share a key, {@link Duplicates} decides which
+ * of them are seen. {@link #source()} tells which source the current entry comes from, which is
+ * how overlays recognize their own entries, such as deletion markers.
+ * <p>
+ * The merging iterator takes ownership of its sources, and closes them when it is closed. Like
+ * other iterators, it is not thread-safe.
+ */
+public final class MergingIterator extends Iterator {
+    /**
+     * What to do with a key that several sources have.
+     */
+    public enum Duplicates {
+        /**
+         * See only the entry of the first source with the key, in the order they were given,
+         * like an overlay that is given first.
+         */
+        FIRST,
+
+        /**
+         * See only the entry of the last source with the key.
+         */
+        LAST,
+
+        /**
+         * See every entry, ordered by the order of their sources where keys are equal.
+         */
+        ALL
+    }
+
+    private final Iterator[] sources;
+    private final Duplicates duplicates;
+
+    // The key under each source, or null where it is not valid.
+    private final byte[][] keys;
+
+    // Indexes of the valid sources, the one under this iterator first.
+    private final int[] heap;
+    private int size;
+
+    private boolean forward = true;
+    private boolean closed;
+
+    /**
+     * Merges sources, seeing only the first of their entries with the same key.
+     * @param sources non-null
+     */
+    public MergingIterator(@Nonnull Iterator... sources) {
+        this(Duplicates.FIRST, sources);
+    }
+
+    /**
+     * @param duplicates which entries of a key that several sources have are seen
+     * @param sources non-null, in the order that decides between duplicates
+     */
+    public MergingIterator(@Nonnull Duplicates duplicates, @Nonnull Iterator... sources) {
+        checkArgument(duplicates != null, "Duplicates can't be null");
+        checkArgument(sources != null, "Sources can't be null");
+
+        for (Iterator source : sources) {
+            checkArgument(source != null, "Sources can't contain null");
+        }
+
+        this.sources = sources.clone();
+        this.duplicates = duplicates;
+        this.keys = new byte[sources.length][];
+        this.heap = new int[sources.length];
+    }
+
+    @Override
+    public boolean isValid() throws LevelDBClosedException {
+        checkIfClosed();
+
+        return size > 0;
+    }
+
+    @Override
+    public void seekToFirst() throws LevelDBClosedException {
+        checkIfClosed();
+
+        for (int i = 0; i < sources.length; i++) {
+            sources[i].seekToFirst();
+            update(i);
+        }
+
+        forward = true;
+        rebuild();
+    }
+
+    @Override
+    public void seekToLast() throws LevelDBClosedException {
+        checkIfClosed();
+
+        for (int i = 0; i < sources.length; i++) {
+            sources[i].seekToLast();
+            update(i);
+        }
+
+        forward = false;
+        rebuild();
+    }
+
+    @Override
+    public void seek(byte[] key) throws LevelDBClosedException {
+        checkIfClosed();
+
+        for (int i = 0; i < sources.length; i++) {
+            sources[i].seek(key);
+            update(i);
+        }
+
+        forward = true;
+        rebuild();
+    }
+
+    @Override
+    public void next() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkIfValid();
+
+        final int current = heap[0];
+        final byte[] key = keys[current];
+
+        if (!forward) {
+            // The sources are before the current entry, move them to the first entries after it.
+            for (int i = 0; i < sources.length; i++) {
+                sources[i].seek(key);
+
+                if (sources[i].isValid() && Bytes.lexicographicCompare(sources[i].key(), key) == 0
+                        && (duplicates != Duplicates.ALL || i <= current)) {
+                    sources[i].next();
+                }
+
+                update(i);
+            }
+
+            forward = true;
+            rebuild();
+
+            return;
+        }
+
+        advance(key);
+    }
+
+    @Override
+    public void previous() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkIfValid();
+
+        final int current = heap[0];
+        final byte[] key = keys[current];
+
+        if (forward) {
+            // The sources are after the current entry, move them to the last entries before it.
+            for (int i = 0; i < sources.length; i++) {
+                sources[i].seek(key);
+
+                if (!sources[i].isValid()) {
+                    sources[i].seekToLast();
+                } else if (duplicates != Duplicates.ALL || i >= current || Bytes.lexicographicCompare(sources[i].key(), key) != 0) {
+                    sources[i].previous();
+                }
+
+                update(i);
+            }
+
+            forward = false;
+            rebuild();
+
+            return;
+        }
+
+        advance(key);
+    }
+
+    /**
+     * Moves past the entry under this iterator in the current direction, and past its
+     * duplicates unless all are seen.
+     */
+    private void advance(byte[] key) throws LevelDBClosedException {
+        do {
+            final int top = heap[0];
+
+            if (forward) {
+                sources[top].next();
+            } else {
+                sources[top].previous();
+            }
+
+            update(top);
+
+            if (keys[top] == null) {
+                heap[0] = heap[--size];
+            }
+
+            siftDown(0);
+        } while (duplicates != Duplicates.ALL && size > 0 && Bytes.lexicographicCompare(keys[heap[0]], key) == 0);
+    }
+
+    /**
+     * The index of the source of the entry under this iterator, in the order they were given.
+     * @throws LevelDBIteratorNotValidException if not {@link #isValid()}
+     * @throws LevelDBClosedException
+     */
+    public int source() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkIfValid();
+
+        return heap[0];
+    }
+
+    @Override
+    public byte[] key() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkIfValid();
+
+        return keys[heap[0]];
+    }
+
+    @Override
+    public byte[] value() throws LevelDBClosedException {
+        checkIfValid();
+
+        return sources[heap[0]].value();
+    }
+
+    @Override
+    public int readKey(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkIfValid();
+
+        return sources[heap[0]].readKey(dst, off);
+    }
+
+    @Override
+    public int readValue(byte[] dst, int off) throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkIfValid();
+
+        return sources[heap[0]].readValue(dst, off);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes this iterator and its sources.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        for (Iterator source : sources) {
+            source.close();
+        }
+    }
+
+    private void update(int index) throws LevelDBClosedException {
+        keys[index] = sources[index].isValid() ? sources[index].key() : null;
+    }
+
+    private void rebuild() {
+        size = 0;
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                heap[size++] = i;
+            }
+        }
+
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private void siftDown(int position) {
+        final int index = heap[position];
+
+        while (true) {
+            int child = 2 * position + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && precedes(heap[child + 1], heap[child])) {
+                child++;
+            }
+
+            if (!precedes(heap[child], index)) {
+                break;
+            }
+
+            heap[position] = heap[child];
+            position = child;
+        }
+
+        heap[position] = index;
+    }
+
+    /**
+     * Whether source a is seen before source b in the current direction.
+     */
+    private boolean precedes(int a, int b) {
+        final int comparison = Bytes.lexicographicCompare(keys[a], keys[b]);
+
+        if (comparison != 0) {
+            return forward ? comparison < 0 : comparison > 0;
+        }
+
+        switch (duplicates) {
+            case FIRST:
+                return a < b;
+
+            case LAST:
+                return a > b;
+
+            default:
+                return forward ? a < b : a > b;
+        }
+    }
+
+    private void checkIfValid() throws LevelDBIteratorNotValidException, LevelDBClosedException {
+        checkIfClosed();
+
+        if (size == 0) {
+            throw new LevelDBIteratorNotValidException();
+        }
+    }
+
+    private void checkIfClosed() throws LevelDBClosedException {
+        if (closed) {
+            throw new LevelDBClosedException("Iterator has been closed.");
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.github.hf.leveldb.util;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import com.github.hf.leveldb.EntryConsumer;
+import com.github.hf.leveldb.Iterator;
+import com.github.hf.leveldb.LevelDB;
+import com.github.hf.leveldb.Snapshot;
+import com.github.hf.leveldb.exception.LevelDBException;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Splits the key space of a {@link com.github.hf.leveldb.LevelDB} into partitions and scans them
+ * concurrently over one consistent {@link com.github.hf.leveldb.Snapshot}.
+ *
+ * @see com.github.hf.leveldb.LevelDB#parallelScan(Snapshot, int, Executor, EntryConsumer)
+ */
+public final class ParallelScan {
+    /**
+     * Number of bytes after the common prefix of the first and last key used to place boundaries.
+     */
+    private static final int SPLIT_WIDTH = 8;
+
+    /**
+     * Number of bisection steps spent looking for a boundary by approximate size.
+     */
+    private static final int BISECTION_STEPS = 24;
+
+    private ParallelScan() {
+        // No instances.
+    }
+
+    /**
+     * Picks up to <tt>partitions - 1</tt> boundary keys that split the data seen by
+     * <tt>snapshot</tt> into roughly equally sized ranges.
+     * <p>
+     * Boundaries are placed by bisecting {@link LevelDB#getApproximateSize(byte[], byte[])}. When
+     * the database cannot tell sizes (for example when everything is still in the memtable), they
+     * are spread evenly over the key space between the first and the last key.
+     *
+     * @param levelDB the database
+     * @param snapshot the snapshot to look at, may be null
+     * @param partitions the wanted number of partitions
+     * @return strictly increasing boundary keys, may be fewer than asked for
+     * @throws LevelDBException
+     */
+    public static byte[][] boundaries(LevelDB levelDB, Snapshot snapshot, int partitions) throws LevelDBException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Partitions must be positive.");
+        }
+
+        byte[] first;
+        byte[] last;
+
+        Iterator iterator = levelDB.iterator(false, snapshot);
+
+        try {
+            iterator.seekToFirst();
+
+            if (!iterator.isValid()) {
+                return new byte[0][];
+            }
+
+            first = iterator.key();
+
+            iterator.seekToLast();
+
+            last = iterator.key();
+        } finally {
+            iterator.close();
+        }
+
+        if (partitions == 1 || Bytes.lexicographicCompare(first, last) >= 0) {
+            return new byte[0][];
+        }
+
+        final int prefix = commonPrefix(first, last);
+        final BigInteger low = number(first, prefix);
+        final BigInteger high = number(last, prefix);
+
+        if (low.compareTo(high) >= 0) {
+            return new byte[0][];
+        }
+
+        final long total = levelDB.getApproximateSize(first, Arrays.copyOf(last, last.length + 1));
+        final List<byte[]> boundaries = new ArrayList<byte[]>(partitions - 1);
+
+        byte[] previous = first;
+
+        for (int i = 1; i < partitions; i++) {
+            BigInteger split;
+
+            if (total > 0) {
+                long target = (long) ((double) total * i / partitions);
+
+                BigInteger lo = low;
+                BigInteger hi = high;
+
+                for (int step = 0; step < BISECTION_STEPS && lo.compareTo(hi) < 0; step++) {
+                    BigInteger mid = lo.add(hi).shiftRight(1);
+
+                    if (levelDB.getApproximateSize(first, key(first, prefix, mid)) < target) {
+                        lo = mid.add(BigInteger.ONE);
+                    } else {
+                        hi = mid;
+                    }
+                }
+
+                split = lo;
+            } else {
+                split = low.add(high.subtract(low).multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(partitions)));
+            }
+
+            byte[] boundary = key(first, prefix, split);
+
+            if (Bytes.lexicographicCompare(boundary, previous) > 0 && Bytes.lexicographicCompare(boundary, last) <= 0) {
+                boundaries.add(boundary);
+                previous = boundary;
+            }
+        }
+
+        return boundaries.toArray(new byte[boundaries.size()][]);
+    }
+
+    /**
+     * Scans every entry seen by <tt>snapshot</tt> with one iterator per partition, running the
+     * partitions on <tt>executor</tt>. Blocks until all partitions are done.
+     * <p>
+     * If a partition fails, the others stop at their next entry and the first failure is thrown.
+     *
+     * @param levelDB the database
+     * @param snapshot the snapshot to scan, if null a snapshot is obtained and released for the scan
+     * @param partitions the wanted number of partitions
+     * @param executor runs the partitions
+     * @param consumer receives the entries
+     * @return the number of entries scanned
+     * @throws LevelDBException
+     */
+    public static long scan(LevelDB levelDB, Snapshot snapshot, int partitions, Executor executor, EntryConsumer consumer) throws LevelDBException {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer must not be null.");
+        }
+
+        final boolean ownSnapshot = snapshot == null;
+
+        if (ownSnapshot) {
+            snapshot = levelDB.obtainSnapshot();
+        }
+
+        try {
+            final byte[][] boundaries = boundaries(levelDB, snapshot, partitions);
+            final int count = boundaries.length + 1;
+
+            final CountDownLatch done = new CountDownLatch(count);
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final AtomicLong scanned = new AtomicLong();
+
+            for (int i = 0; i < count; i++) {
+                Partition partition = new Partition(levelDB, snapshot, i,
+                        i == 0 ? null : boundaries[i - 1],
+                        i == count - 1 ? null : boundaries[i],
+                        consumer, done, failure, scanned);
+
+                try {
+                    executor.execute(partition);
+                } catch (RejectedExecutionException e) {
+                    failure.compareAndSet(null, e);
+
+                    for (int j = i; j < count; j++) {
+                        done.countDown();
+                    }
+
+                    break;
+                }
+            }
+
+            boolean interrupted = false;
+
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    failure.compareAndSet(null, e);
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            Throwable error = failure.get();
+
+            if (error instanceof LevelDBException) {
+                throw (LevelDBException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else if (error != null) {
+                throw new LevelDBException("Parallel scan failed.", error);
+            }
+
+            return scanned.get();
+        } finally {
+            if (ownSnapshot) {
+                levelDB.releaseSnapshot(snapshot);
+            }
+        }
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b) {
+        final int length = Math.min(a.length, b.length);
+
+        int i = 0;
+
+        while (i < length && a[i] == b[i]) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static BigInteger number(byte[] key, int prefix) {
+        byte[] digits = new byte[SPLIT_WIDTH + 1];
+
+        for (int i = 0; i < SPLIT_WIDTH && prefix + i < key.length; i++) {
+            digits[i + 1] = key[prefix + i];
+        }
+
+        return new BigInteger(digits);
+    }
+
+    private static byte[] key(byte[] first, int prefix, BigInteger number) {
+        byte[] key = Arrays.copyOf(first, prefix + SPLIT_WIDTH);
+        byte[] digits = number.toByteArray();
+
+        final int length = Math.min(digits.length, SPLIT_WIDTH);
+
+        System.arraycopy(digits, digits.length - length, key, key.length - length, length);
+
+        for (int i = prefix; i < key.length - length; i++) {
+            key[i] = 0;
+        }
+
+        return key;
+    }
+
+    private static final class Partition implements Runnable {
+        private final LevelDB levelDB;
+        private final Snapshot snapshot;
+        private final int index;
+        private final byte[] from;
+        private final byte[] to;
+        private final EntryConsumer consumer;
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure;
+        private final AtomicLong scanned;
+
+        Partition(LevelDB levelDB, Snapshot snapshot, int index, byte[] from, byte[] to, EntryConsumer consumer,
+                  CountDownLatch done, AtomicReference<Throwable> failure, AtomicLong scanned) {
+            this.levelDB = levelDB;
+            this.snapshot = snapshot;
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.consumer = consumer;
+            this.done = done;
+            this.failure = failure;
+            this.scanned = scanned;
+        }
+
+        @Override
+        public void run() {
+            long count = 0;
+
+            try {
+                Iterator iterator = levelDB.iterator(false, snapshot);
+
+                try {
+                    if (from == null) {
+                        iterator.seekToFirst();
+                    } else {
+                        iterator.seek(from);
+                    }
+
+                    while (iterator.isValid() && failure.get() == null) {
+                        Iterator.Entry entry = iterator.entry();
+
+                        if (to != null && Bytes.lexicographicCompare(entry.keyArray(), 0, entry.keyLength(), to, 0, to.length) >= 0) {
+                            break;
+                        }
+
+                        consumer.accept(index, entry);
+                        count++;
+
+                        iterator.next();
+                    }
+                } finally {
+                    iterator.close();
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                scanned.addAndGet(count);
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.github.hf.leveldb.util;
+
+
+/*
+ * Stojan Dimitrovski
+ *
+ * Copyright (c) 2014, Stojan Dimitrovski <sdimitrovski@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OFz SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A reusable builder of composite keys, made of fields encoded with {@link KeyCodec}, so that keys
+ * sort by their first field, then their second, and so on. Since a tuple's encoding is a prefix of
+ * the encoding of any longer tuple starting with the same fields, all keys under a prefix can be
+ * scanned by seeking to the prefix and stopping at the first key it is not a prefix of.
+ * <p>
+ * A tuple grows its buffer as needed and reuses it after {@link #reset()}, so building keys in a
+ * loop does not allocate. Tuples are not thread-safe.
+ * <pre>
+ * Tuple key = new Tuple();
+ *
+ * db.put(key.reset().add(userId).add(timestamp).toBytes(), value);
+ *
+ * Tuple.Reader reader = new Tuple.Reader();
+ * Tuple prefix = new Tuple().add(userId);
+ *
+ * for (iterator.seek(prefix.toBytes()); iterator.isValid(); iterator.next()) {
+ *     Iterator.Entry entry = iterator.entry();
+ *
+ *     if (!prefix.isPrefixOf(entry.keyArray(), entry.keyLength())) {
+ *         break;
+ *     }
+ *
+ *     long timestamp = reader.reset(entry.keyArray(), 0, entry.keyLength()).skip(KeyCodec.LONG_LENGTH).readLong();
+ * }
+ * </pre>
+ * Field types are not recorded in the key, so a key has to be read with the types it was built with.
+ */
+public final class Tuple {
+    private byte[] buffer;
+    private int length;
+
+    public Tuple() {
+        this(32);
+    }
+
+    /**
+     * @param capacity the initial size of the buffer
+     */
+    public Tuple(int capacity) {
+        this.buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Removes all fields, keeping the buffer.
+     * @return this tuple
+     */
+    public Tuple reset() {
+        length = 0;
+
+        return this;
+    }
+
+    public Tuple add(int value) {
+        ensure(KeyCodec.INT_LENGTH);
+        length = KeyCodec.putInt(buffer, length, value);
+
+        return this;
+    }
+
+    public Tuple addUnsigned(int value) {
+        ensure(KeyCodec.INT_LENGTH);
+        length = KeyCodec.putUnsignedInt(buffer, length, value);
+
+        return this;
+    }
+
+    public Tuple add(long value) {
+        ensure(KeyCodec.LONG_LENGTH);
+        length = KeyCodec.putLong(buffer, length, value);
+
+        return this;
+    }
+
+    public Tuple addUnsigned(long value) {
+        ensure(KeyCodec.LONG_LENGTH);
+        length = KeyCodec.putUnsignedLong(buffer, length, value);
+
+        return this;
+    }
+
+    public Tuple add(float value) {
+        ensure(KeyCodec.INT_LENGTH);
+        length = KeyCodec.putFloat(buffer, length, value);
+
+        return this;
+    }
+
+    public Tuple add(double value) {
+        ensure(KeyCodec.LONG_LENGTH);
+        length = KeyCodec.putDouble(buffer, length, value);
+
+        return this;
+    }
+
+    public Tuple add(UUID value) {
+        if (value == null) {
+            throw new IllegalArgumentException("UUID must not be null.");
+        }
+
+        ensure(KeyCodec.UUID_LENGTH);
+        length = KeyCodec.putUUID(buffer, length, value);
+
+        return this;
+    }
+
+    /**
+     * Adds a string, encoded as UTF-8.
+     */
+    public Tuple add(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("String must not be null.");
+        }
+
+        ensure(KeyCodec.stringLength(value));
+        length = KeyCodec.putString(buffer, length, value);
+
+        return this;
+    }
+
+    /**
+     * Adds a byte string.
+     */
+    public Tuple add(byte[] value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Bytes must not be null.");
+        }
+
+        return add(value, 0, value.length);
+    }
+
+    /**
+     * Adds a byte string from part of an array.
+     */
+    public Tuple add(byte[] value, int offset, int length) {
+        if (value == null) {
+            throw new IllegalArgumentException("Bytes must not be null.");
+        }
+
+        ensure(KeyCodec.bytesLength(value, offset, length));
+        this.length = KeyCodec.putBytes(buffer, this.length, value, offset, length);
+
+        return this;
+    }
+
+    /**
+     * The buffer holding the encoded fields in its first {@link #length()} bytes. It is reused
+     * by this tuple, and replaced when it grows.
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Copies the encoded fields into a new array, to be used as a key.
+     */
+    public byte[] toBytes() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Whether the fields of this tuple are the first fields of a key.
+     */
+    public boolean isPrefixOf(byte[] key) {
+        return key != null && isPrefixOf(key, key.length);
+    }
+
+    /**
+     * Whether the fields of this tuple are the first fields of the key in the first keyLength
+     * bytes of key, such as {@link com.github.hf.leveldb.Iterator.Entry#keyArray()}.
+     */
+    public boolean isPrefixOf(byte[] key, int keyLength) {
+        return keyLength >= length && Bytes.lexicographicCompare(buffer, 0, length, key, 0, length) == 0;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    /**
+     * Reads the fields of a key in place, in the order and with the types they were added with.
+     * Numbers are decoded without allocating; strings and byte strings allocate only their result,
+     * or can be skipped or unescaped into a caller's buffer. Readers are reusable and not thread-safe.
+     */
+    public static final class Reader {
+        private byte[] key;
+        private int position;
+        private int limit;
+
+        private char[] chars = new char[32];
+
+        public Reader() {
+            // Use reset to start reading.
+        }
+
+        public Reader(byte[] key) {
+            reset(key, 0, key.length);
+        }
+
+        /**
+         * Starts reading length bytes of key at offset.
+         * @return this reader
+         */
+        public Reader reset(byte[] key, int offset, int length) {
+            if (key == null) {
+                throw new IllegalArgumentException("Key must not be null.");
+            }
+
+            this.key = key;
+            this.position = offset;
+            this.limit = offset + length;
+
+            return this;
+        }
+
+        public boolean hasRemaining() {
+            return position < limit;
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public int readInt() {
+            return KeyCodec.getInt(key, take(KeyCodec.INT_LENGTH));
+        }
+
+        public int readUnsignedInt() {
+            return KeyCodec.getUnsignedInt(key, take(KeyCodec.INT_LENGTH));
+        }
+
+        public long readLong() {
+            return KeyCodec.getLong(key, take(KeyCodec.LONG_LENGTH));
+        }
+
+        public long readUnsignedLong() {
+            return KeyCodec.getUnsignedLong(key, take(KeyCodec.LONG_LENGTH));
+        }
+
+        public float readFloat() {
+            return KeyCodec.getFloat(key, take(KeyCodec.INT_LENGTH));
+        }
+
+        public double readDouble() {
+            return KeyCodec.getDouble(key, take(KeyCodec.LONG_LENGTH));
+        }
+
+        public UUID readUUID() {
+            return KeyCodec.getUUID(key, take(KeyCodec.UUID_LENGTH));
+        }
+
+        public String readString() {
+            final int end = KeyCodec.skipBytes(key, position, limit);
+
+            if (chars.length < end - position) {
+                chars = new char[Math.max(chars.length * 2, end - position)];
+            }
+
+            final int count = KeyCodec.getChars(key, position, limit, chars);
+
+            position = end;
+
+            return new String(chars, 0, count);
+        }
+
+        public byte[] readBytes() {
+            final byte[] bytes = new byte[KeyCodec.unescapedLength(key, position, limit)];
+
+            position = KeyCodec.getBytes(key, position, limit, bytes, 0);
+
+            return bytes;
+        }
+
+        /**
+         * Unescapes a byte string into dst without allocating.
+         * @return the number of bytes written to dst
+         * @throws IllegalArgumentException if dst does not have room for them, see {@link #bytesLength()}
+         */
+        public int readBytes(byte[] dst, int offset) {
+            final int length = bytesLength();
+
+            if (offset + length > dst.length) {
+                throw new IllegalArgumentException("Destination is too small for " + length + " bytes.");
+            }
+
+            position = KeyCodec.getBytes(key, position, limit, dst, offset);
+
+            return length;
+        }
+
+        /**
+         * The unescaped length of the byte string or string at the current position.
+         */
+        public int bytesLength() {
+            return KeyCodec.unescapedLength(key, position, limit);
+        }
+
+        /**
+         * Skips a byte string or string.
+         * @return this reader
+         */
+        public Reader skipBytes() {
+            position = KeyCodec.skipBytes(key, position, limit);
+
+            return this;
+        }
+
+        /**
+         * Skips fixed-length fields of length bytes, such as {@link KeyCodec#LONG_LENGTH}.
+         * @return this reader
+         */
+        public Reader skip(int length) {
+            take(length);
+
+            return this;
+        }
+
+        private int take(int length) {
+            if (position + length > limit) {
+                throw new IllegalArgumentException("Key has no " + length + " more bytes at " + position + ".");
+            }
+
+            final int offset = position;
+
+            position += length;
+
+            return offset;
+        }
+    }
+}